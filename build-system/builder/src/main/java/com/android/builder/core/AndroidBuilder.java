@@ -46,6 +46,7 @@ import com.android.builder.model.SigningConfig;
 import com.android.builder.packaging.PackagerException;
 import com.android.builder.sdk.SdkInfo;
 import com.android.builder.sdk.TargetInfo;
+import com.android.builder.symbols.LibrarySymbolTableIndex;
 import com.android.ide.common.blame.MessageReceiver;
 import com.android.ide.common.internal.WaitableExecutor;
 import com.android.ide.common.process.JavaProcessExecutor;
@@ -861,8 +862,7 @@ public class AndroidBuilder {
 
             // For each dependency, load its symbol file.
             Set<SymbolTable> depSymbolTables =
-                    SymbolUtils.loadDependenciesSymbolTables(
-                            aaptConfig.getLibrarySymbolTableFiles());
+                    LibrarySymbolTableIndex.load(aaptConfig.getLibrarySymbolTableFiles());
 
             boolean finalIds = true;
             if (aaptConfig.getVariantType().isAar()) {
@@ -50,13 +50,22 @@ import static com.android.builder.core.DefaultManifestParser.Attribute.VERSION_N
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.annotations.concurrency.GuardedBy;
 import com.android.builder.errors.EvalIssueReporter;
 import com.android.manifmerger.PlaceholderHandler;
+import com.android.utils.JvmWideVariable;
 import com.android.utils.XmlUtils;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.base.Verify;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import java.io.File;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -68,6 +77,16 @@ import org.xml.sax.helpers.DefaultHandler;
  * Implementation of the {@link ManifestAttributeSupplier}.
  *
  * <p>This is meant to be a quick parser to create the building model, and is thread-safe.
+ *
+ * <p>The attributes of parsed manifests are shared by all the parsers, so a manifest read by the
+ * parsers of several variants or tasks is only parsed once. They are keyed by the path, size and
+ * last modification time of the manifest, so a manifest is parsed again when it changes. {@link
+ * #clearCache()} should be called at the end of every build, as a manifest rewritten within the
+ * timestamp granularity of the file system with the same size would not be detected.
+ *
+ * <p>This class may be loaded by several class loaders, e.g. by the class loaders of Gradle
+ * workers, each with its own cache. {@link #clearCache()} advances a JVM-wide generation, and the
+ * cache of every class loader is cleared the next time it is used in a later generation.
  */
 public class DefaultManifestParser implements ManifestAttributeSupplier {
 
@@ -79,6 +98,31 @@ public class DefaultManifestParser implements ManifestAttributeSupplier {
 
     private static final Object lock = new Object();
 
+    /** Maximum number of manifests whose attributes are cached. */
+    private static final int MAX_CACHED_MANIFESTS = 1000;
+
+    @GuardedBy("lock")
+    @NonNull
+    private static final Cache<ManifestKey, Map<Attribute, String>> parsedManifests =
+            CacheBuilder.newBuilder().maximumSize(MAX_CACHED_MANIFESTS).build();
+
+    /** Generation of the caches of all the class loaders, advanced when they are cleared. */
+    @NonNull
+    private static final AtomicLong cacheGeneration =
+            Verify.verifyNotNull(
+                    // IMPORTANT: This variable's group, name, and type must not be changed across
+                    // plugin versions.
+                    new JvmWideVariable<>(
+                                    DefaultManifestParser.class,
+                                    "cacheGeneration",
+                                    AtomicLong.class,
+                                    new AtomicLong())
+                            .get());
+
+    /** Generation the cache of this class loader was filled in. */
+    @GuardedBy("lock")
+    private static long parsedManifestsGeneration = cacheGeneration.get();
+
     @NonNull private final File manifestFile;
 
     @NonNull
@@ -283,7 +327,37 @@ public class DefaultManifestParser implements ManifestAttributeSupplier {
         ;
     }
 
-    /** Parse the file and store the result in a map. */
+    /**
+     * Removes the attributes of all the parsed manifests from the cache, in all the class loaders
+     * that loaded this class.
+     */
+    public static void clearCache() {
+        synchronized (lock) {
+            cacheGeneration.incrementAndGet();
+            checkCacheGeneration();
+        }
+    }
+
+    @VisibleForTesting
+    static long getCachedManifestCount() {
+        synchronized (lock) {
+            checkCacheGeneration();
+            parsedManifests.cleanUp();
+            return parsedManifests.size();
+        }
+    }
+
+    /** Clears the cache of this class loader if the caches were cleared since it was filled. */
+    @GuardedBy("lock")
+    private static void checkCacheGeneration() {
+        long generation = cacheGeneration.get();
+        if (generation != parsedManifestsGeneration) {
+            parsedManifests.invalidateAll();
+            parsedManifestsGeneration = generation;
+        }
+    }
+
+    /** Parse the file, or get the result of parsing it before, and store the result in a map. */
     private void init() {
         synchronized (lock) {
             if (!canParseManifest.getAsBoolean() && issueReporter != null) {
@@ -299,83 +373,134 @@ public class DefaultManifestParser implements ManifestAttributeSupplier {
                                 + stackTrace);
             }
             if (!initialized && manifestFile.isFile()) {
-                DefaultHandler handler =
-                        new DefaultHandler() {
-                            @Override
-                            public void startElement(
-                                    String uri,
-                                    String localName,
-                                    String qName,
-                                    Attributes attributes)
-                                    throws SAXException {
-                                if (uri == null || uri.isEmpty()) {
-                                    if (TAG_MANIFEST.equals(localName)) {
-                                        putValue(SPLIT, attributes.getValue("", ATTR_SPLIT));
-                                        putValue(PACKAGE, attributes.getValue("", ATTR_PACKAGE));
-                                        putValue(
-                                                VERSION_CODE,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_VERSION_CODE));
-                                        putValue(
-                                                VERSION_NAME,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_VERSION_NAME));
-                                    } else if (TAG_INSTRUMENTATION.equals(localName)) {
-                                        putValue(
-                                                INST_LABEL,
-                                                attributes.getValue(NS_RESOURCES, ATTR_LABEL));
-                                        putValue(
-                                                INST_FUNCTIONAL_TEST,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_FUNCTIONAL_TEST));
-                                        putValue(
-                                                INST_NAME,
-                                                attributes.getValue(NS_RESOURCES, ATTR_NAME));
-                                        putValue(
-                                                INST_HANDLE_PROF,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_HANDLE_PROFILING));
-                                        putValue(
-                                                INST_TARGET_PKG,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_TARGET_PACKAGE));
-                                    } else if (TAG_USES_SDK.equals(localName)) {
-                                        putValue(
-                                                MIN_SDK_VERSION,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_MIN_SDK_VERSION));
-                                        putValue(
-                                                TARGET_SDK_VERSION,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_TARGET_SDK_VERSION));
-                                    } else if (TAG_APPLICATION.equals(localName)) {
-                                        putValue(
-                                                APP_EXTRACT_NATIVE_LIBS,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_EXTRACT_NATIVE_LIBS));
-                                        putValue(
-                                                APP_USE_EMBEDDED_DEX,
-                                                attributes.getValue(
-                                                        NS_RESOURCES, ATTR_USE_EMBEDDED_DEX));
-                                    }
-                                }
-                            }
-                        };
-
-                try {
-                    SAXParser saxParser = XmlUtils.createSaxParser(PARSER_FACTORY);
-                    saxParser.parse(manifestFile, handler);
-                    initialized = true;
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
+                checkCacheGeneration();
+                ManifestKey key = new ManifestKey(manifestFile);
+                Map<Attribute, String> values = parsedManifests.getIfPresent(key);
+                if (values == null) {
+                    values = parse(manifestFile);
+                    parsedManifests.put(key, values);
                 }
+                attributeValues.putAll(values);
+                initialized = true;
             }
         }
     }
 
-    private void putValue(@NonNull Attribute attribute, @Nullable String value) {
+    /** Parses the attributes of a manifest. */
+    @NonNull
+    private static Map<Attribute, String> parse(@NonNull File manifestFile) {
+        Map<Attribute, String> values = Maps.newEnumMap(Attribute.class);
+        DefaultHandler handler =
+                new DefaultHandler() {
+                    @Override
+                    public void startElement(
+                            String uri, String localName, String qName, Attributes attributes)
+                            throws SAXException {
+                        if (uri == null || uri.isEmpty()) {
+                            if (TAG_MANIFEST.equals(localName)) {
+                                putValue(values, SPLIT, attributes.getValue("", ATTR_SPLIT));
+                                putValue(values, PACKAGE, attributes.getValue("", ATTR_PACKAGE));
+                                putValue(
+                                        values,
+                                        VERSION_CODE,
+                                        attributes.getValue(NS_RESOURCES, ATTR_VERSION_CODE));
+                                putValue(
+                                        values,
+                                        VERSION_NAME,
+                                        attributes.getValue(NS_RESOURCES, ATTR_VERSION_NAME));
+                            } else if (TAG_INSTRUMENTATION.equals(localName)) {
+                                putValue(
+                                        values,
+                                        INST_LABEL,
+                                        attributes.getValue(NS_RESOURCES, ATTR_LABEL));
+                                putValue(
+                                        values,
+                                        INST_FUNCTIONAL_TEST,
+                                        attributes.getValue(NS_RESOURCES, ATTR_FUNCTIONAL_TEST));
+                                putValue(
+                                        values,
+                                        INST_NAME,
+                                        attributes.getValue(NS_RESOURCES, ATTR_NAME));
+                                putValue(
+                                        values,
+                                        INST_HANDLE_PROF,
+                                        attributes.getValue(NS_RESOURCES, ATTR_HANDLE_PROFILING));
+                                putValue(
+                                        values,
+                                        INST_TARGET_PKG,
+                                        attributes.getValue(NS_RESOURCES, ATTR_TARGET_PACKAGE));
+                            } else if (TAG_USES_SDK.equals(localName)) {
+                                putValue(
+                                        values,
+                                        MIN_SDK_VERSION,
+                                        attributes.getValue(NS_RESOURCES, ATTR_MIN_SDK_VERSION));
+                                putValue(
+                                        values,
+                                        TARGET_SDK_VERSION,
+                                        attributes.getValue(
+                                                NS_RESOURCES, ATTR_TARGET_SDK_VERSION));
+                            } else if (TAG_APPLICATION.equals(localName)) {
+                                putValue(
+                                        values,
+                                        APP_EXTRACT_NATIVE_LIBS,
+                                        attributes.getValue(
+                                                NS_RESOURCES, ATTR_EXTRACT_NATIVE_LIBS));
+                                putValue(
+                                        values,
+                                        APP_USE_EMBEDDED_DEX,
+                                        attributes.getValue(NS_RESOURCES, ATTR_USE_EMBEDDED_DEX));
+                            }
+                        }
+                    }
+                };
+
+        try {
+            SAXParser saxParser = XmlUtils.createSaxParser(PARSER_FACTORY);
+            saxParser.parse(manifestFile, handler);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return ImmutableMap.copyOf(values);
+    }
+
+    private static void putValue(
+            @NonNull Map<Attribute, String> values,
+            @NonNull Attribute attribute,
+            @Nullable String value) {
         if (value != null && !PlaceholderHandler.isPlaceHolder(value)) {
-            attributeValues.put(attribute, value);
+            values.put(attribute, value);
+        }
+    }
+
+    /** Identifies a version of a manifest file. */
+    private static final class ManifestKey {
+        @NonNull private final String path;
+        private final long length;
+        private final long lastModified;
+
+        ManifestKey(@NonNull File manifestFile) {
+            this.path = manifestFile.getAbsolutePath();
+            this.length = manifestFile.length();
+            this.lastModified = manifestFile.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ManifestKey that = (ManifestKey) o;
+            return length == that.length
+                    && lastModified == that.lastModified
+                    && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, length, lastModified);
         }
     }
 }
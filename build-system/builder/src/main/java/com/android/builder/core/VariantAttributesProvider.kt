@@ -26,12 +26,18 @@ import java.io.Serializable
 import java.io.File
 import java.util.function.IntSupplier
 import java.util.function.Supplier
+import javax.annotation.concurrent.GuardedBy
 
 /**
  * Provides attributes for the variant.
  *
  * The attributes are from data merged from the manifest and product flavor.
  *
+ * The application id override, package name, version name and version code are memoized, as they
+ * are read many times while configuring the build. They are resolved again when the values of the
+ * merged flavor or build type they depend on change, or when the merged flavor is replaced. Call
+ * [invalidate] if the manifest changes.
+ *
  * @param mergedFlavor the merged product flavor
  * @param buildType the type used for the build
  * @param isTestVariant whether the current variant is for a test component.
@@ -39,13 +45,51 @@ import java.util.function.Supplier
  * @param manifestFile the file for the manifest.
  */
 class VariantAttributesProvider(
-        var mergedFlavor: ProductFlavor,
+        mergedFlavor: ProductFlavor,
         private val buildType: BuildType,
         private val isTestVariant: Boolean,
         private val manifestSupplier: ManifestAttributeSupplier,
         private val manifestFile: File,
         var fullName: String) {
 
+    var mergedFlavor: ProductFlavor = mergedFlavor
+        set(value) {
+            field = value
+            invalidate()
+        }
+
+    /** The values of the flavor chain the memoized attributes were resolved from. */
+    @GuardedBy("this")
+    private var memoizedKey: FlavorChainKey? = null
+
+    /** The memoized attributes, by name. Null values are stored too. */
+    @GuardedBy("this")
+    private val memoizedValues = HashMap<String, Any?>()
+
+    /** Forgets the memoized attributes, so they are resolved again when next read. */
+    @Synchronized
+    fun invalidate() {
+        memoizedKey = null
+        memoizedValues.clear()
+    }
+
+    @Synchronized
+    private fun <T> memoize(name: String, resolve: () -> T): T {
+        val key = FlavorChainKey(mergedFlavor, buildType)
+        if (key != memoizedKey) {
+            memoizedValues.clear()
+            memoizedKey = key
+        }
+        if (memoizedValues.containsKey(name)) {
+            @Suppress("UNCHECKED_CAST")
+            return memoizedValues[name] as T
+        }
+        // Attributes that fail to resolve are not memoized, so they fail again when read again.
+        val value = resolve()
+        memoizedValues[name] = value
+        return value
+    }
+
     /**
      * Returns the application id override value coming from the Product Flavor and/or the Build
      * Type. If the package/id is not overridden then this returns null.
@@ -53,7 +97,7 @@ class VariantAttributesProvider(
      * @return the id override or null
      */
     val idOverride: String?
-        get() {
+        get() = memoize("idOverride") {
             var idName = mergedFlavor.applicationId
 
             val idSuffix = DefaultProductFlavor.mergeApplicationIdSuffix(
@@ -65,7 +109,7 @@ class VariantAttributesProvider(
                 idName = if (idSuffix[0] == '.') idName + idSuffix else idName + '.' + idSuffix
             }
 
-            return idName
+            idName
         }
 
     /**
@@ -76,8 +120,10 @@ class VariantAttributesProvider(
     val packageName: String
         get() {
             checkState(!isTestVariant)
-            return manifestSupplier.`package` ?: throw RuntimeException(
-                    "Cannot read packageName from ${manifestFile.absolutePath}")
+            return memoize("packageName") {
+                manifestSupplier.`package` ?: throw RuntimeException(
+                        "Cannot read packageName from ${manifestFile.absolutePath}")
+            }
         }
 
     /**
@@ -95,7 +141,7 @@ class VariantAttributesProvider(
      * @return the version name
      */
     val versionName: String?
-        get() {
+        get() = memoize("versionName") {
             var versionName = mergedFlavor.versionName
             var versionSuffix = mergedFlavor.versionNameSuffix
 
@@ -110,7 +156,7 @@ class VariantAttributesProvider(
                 versionName = Strings.nullToEmpty(versionName) + versionSuffix
             }
 
-            return versionName
+            versionName
         }
 
     /**
@@ -120,14 +166,14 @@ class VariantAttributesProvider(
      * @return the version code or -1 if there was non defined.
      */
     val versionCode: Int
-        get() {
+        get() = memoize("versionCode") {
             var versionCode = mergedFlavor.versionCode ?: -1
 
             if (versionCode == -1 && !isTestVariant) {
                 versionCode = manifestSupplier.versionCode
             }
 
-            return versionCode
+            versionCode
         }
 
     /**
@@ -296,4 +342,25 @@ class VariantAttributesProvider(
         }
     }
 
+    /**
+     * The values of the merged flavor and build type the memoized attributes depend on. The
+     * manifest is not part of it, as the manifest supplier only reads the manifest once.
+     */
+    private data class FlavorChainKey(
+            val applicationId: String?,
+            val applicationIdSuffix: String?,
+            val versionName: String?,
+            val versionNameSuffix: String?,
+            val versionCode: Int?,
+            val buildTypeApplicationIdSuffix: String?,
+            val buildTypeVersionNameSuffix: String?) {
+        constructor(mergedFlavor: ProductFlavor, buildType: BuildType) : this(
+                mergedFlavor.applicationId,
+                mergedFlavor.applicationIdSuffix,
+                mergedFlavor.versionName,
+                mergedFlavor.versionNameSuffix,
+                mergedFlavor.versionCode,
+                buildType.applicationIdSuffix,
+                buildType.versionNameSuffix)
+    }
 }
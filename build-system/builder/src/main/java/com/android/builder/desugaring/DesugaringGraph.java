@@ -17,12 +17,27 @@
 package com.android.builder.desugaring;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -43,6 +58,11 @@ import java.util.stream.Collectors;
  *   <li>Once the set of dependent types is known, paths that define them are found, and that is the
  *       resulting set of paths.
  * </ul>
+ *
+ * <p>Dependents of the types of several paths can be computed in parallel, see {@link
+ * #getDependentPaths(Collection)}. The graph can also be written to a file with {@link
+ * #write(Path)}, so it does not need to be recomputed from all inputs when a new Gradle daemon
+ * runs an incremental build.
  */
 public class DesugaringGraph {
     @NonNull
@@ -58,8 +78,19 @@ public class DesugaringGraph {
                 public Set<Path> getDependentPaths(@NonNull Path path) {
                     return ImmutableSet.of();
                 }
+
+                @NonNull
+                @Override
+                public Set<Path> getDependentPaths(@NonNull Collection<Path> paths) {
+                    return ImmutableSet.of();
+                }
             };
 
+    /** Magic number and version of the files written by {@link #write(Path)}. */
+    private static final int MAGIC = 0x44455347;
+
+    private static final int VERSION = 1;
+
     @NonNull private final TypeDependencies typeDependencies;
     @NonNull private final TypePaths typePaths;
 
@@ -103,21 +134,174 @@ public class DesugaringGraph {
      */
     @NonNull
     public Set<Path> getDependentPaths(@NonNull Path path) {
-        Set<String> types = typePaths.getTypes(path);
+        return getDependentPaths(ImmutableList.of(path));
+    }
 
-        Set<String> impactedTypes = Sets.newHashSet();
-        for (String type : types) {
-            impactedTypes.addAll(typeDependencies.getAllDependents(type));
-        }
+    /**
+     * Returns a set of paths that should be additionally processed, based on the changed input
+     * paths. Returned set does not contain any of the changed paths.
+     *
+     * <p>Dependent types of all types defined in the changed paths are computed in parallel.
+     */
+    @NonNull
+    public Set<Path> getDependentPaths(@NonNull Collection<Path> paths) {
+        int[] changedTypes =
+                paths.stream()
+                        .flatMap(path -> typePaths.getTypes(path).stream())
+                        .mapToInt(typeDependencies::getId)
+                        .filter(id -> id >= 0)
+                        .distinct()
+                        .toArray();
 
-        Set<Path> impactedPaths = Sets.newHashSetWithExpectedSize(impactedTypes.size());
-        for (String impactedType : impactedTypes) {
-            impactedPaths.addAll(typePaths.getPaths(impactedType));
+        BitSet impactedTypes =
+                Arrays.stream(changedTypes)
+                        .parallel()
+                        .mapToObj(typeDependencies::getAllDependents)
+                        .collect(BitSet::new, BitSet::or, BitSet::or);
+
+        Set<Path> impactedPaths = Sets.newHashSetWithExpectedSize(impactedTypes.cardinality());
+        for (int id = impactedTypes.nextSetBit(0); id >= 0; id = impactedTypes.nextSetBit(id + 1)) {
+            impactedPaths.addAll(typePaths.getPaths(typeDependencies.getType(id)));
         }
-        impactedPaths.remove(path);
+        impactedPaths.removeAll(paths);
         return impactedPaths;
     }
 
+    /**
+     * Writes this graph to the specified file, replacing it if it exists. Graph can be read using
+     * {@link #read(Path)}.
+     */
+    public void write(@NonNull Path file) throws IOException {
+        // Only types that are still in the graph are written, and they get new consecutive ids.
+        int[] newIds = new int[typeDependencies.getNumberOfIds()];
+        Arrays.fill(newIds, -1);
+        List<String> types = new ArrayList<>();
+        List<Path> paths = new ArrayList<>(typePaths.getPaths());
+        for (Path path : paths) {
+            for (String type : typePaths.getTypes(path)) {
+                int id = typeDependencies.getId(type);
+                if (id >= 0) {
+                    assignNewId(id, newIds, types);
+                }
+            }
+        }
+        int typesWithDependencies = 0;
+        for (int id = 0; id < newIds.length; id++) {
+            int[] dependencies = typeDependencies.getDependencyIds(id);
+            if (dependencies.length > 0) {
+                typesWithDependencies++;
+                assignNewId(id, newIds, types);
+                for (int dependency : dependencies) {
+                    assignNewId(dependency, newIds, types);
+                }
+            }
+        }
+
+        Files.createDirectories(file.getParent());
+        Path tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), null);
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                out.writeInt(types.size());
+                for (String type : types) {
+                    out.writeUTF(type);
+                }
+
+                out.writeInt(paths.size());
+                for (Path path : paths) {
+                    Set<String> typesInPath = typePaths.getTypes(path);
+                    out.writeUTF(path.toString());
+                    out.writeInt(typesInPath.size());
+                    for (String type : typesInPath) {
+                        out.writeInt(newIds[typeDependencies.getId(type)]);
+                    }
+                }
+
+                out.writeInt(typesWithDependencies);
+                for (int id = 0; id < newIds.length; id++) {
+                    int[] dependencies = typeDependencies.getDependencyIds(id);
+                    if (dependencies.length > 0) {
+                        out.writeInt(newIds[id]);
+                        out.writeInt(dependencies.length);
+                        for (int dependency : dependencies) {
+                            out.writeInt(newIds[dependency]);
+                        }
+                    }
+                }
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Reads a graph written by {@link #write(Path)}. Returns {@code null} if the file does not
+     * exist or it cannot be read.
+     */
+    @Nullable
+    static DesugaringGraph read(@NonNull Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            String[] types = new String[in.readInt()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = in.readUTF();
+            }
+
+            DesugaringGraph graph = new DesugaringGraph(Collections.emptyList());
+            int numberOfPaths = in.readInt();
+            for (int i = 0; i < numberOfPaths; i++) {
+                Path path = Paths.get(in.readUTF());
+                int typesInPath = in.readInt();
+                for (int j = 0; j < typesInPath; j++) {
+                    graph.typePaths.add(path, readType(in, types));
+                }
+            }
+
+            int typesWithDependencies = in.readInt();
+            for (int i = 0; i < typesWithDependencies; i++) {
+                String type = readType(in, types);
+                int numberOfDependencies = in.readInt();
+                Set<String> dependencies = Sets.newHashSetWithExpectedSize(numberOfDependencies);
+                for (int j = 0; j < numberOfDependencies; j++) {
+                    dependencies.add(readType(in, types));
+                }
+                graph.typeDependencies.add(type, dependencies);
+            }
+            return graph;
+        } catch (IOException | InvalidPathException e) {
+            return null;
+        }
+    }
+
+    private void assignNewId(int id, @NonNull int[] newIds, @NonNull List<String> types) {
+        if (newIds[id] < 0) {
+            newIds[id] = types.size();
+            types.add(typeDependencies.getType(id));
+        }
+    }
+
+    @NonNull
+    private static String readType(@NonNull DataInputStream in, @NonNull String[] types)
+            throws IOException {
+        int id = in.readInt();
+        if (id < 0 || id >= types.length) {
+            throw new IOException("Invalid type id " + id);
+        }
+        return types[id];
+    }
+
     @VisibleForTesting
     @NonNull
     Set<String> getDependents(@NonNull String type) {
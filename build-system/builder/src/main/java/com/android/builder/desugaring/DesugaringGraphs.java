@@ -17,8 +17,10 @@
 package com.android.builder.desugaring;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.function.Supplier;
 
@@ -43,7 +45,28 @@ public final class DesugaringGraphs {
             @NonNull String projectVariant,
             @NonNull Supplier<Collection<DesugaringData>> ifFull,
             @NonNull Supplier<Collection<DesugaringData>> ifIncremental) {
+        return forVariant(projectVariant, null, ifFull, ifIncremental);
+    }
+
+    /**
+     * Get a {@link com.android.builder.desugaring.DesugaringGraph} associated with this key. Key
+     * should be unique for the project and variant e.g. :app:debug. If the graph does not exist, it
+     * is read from the persisted graph file and updated incrementally. If that is not possible, it
+     * is created from the supplied data.
+     */
+    @NonNull
+    public static DesugaringGraph forVariant(
+            @NonNull String projectVariant,
+            @Nullable Path persistedGraph,
+            @NonNull Supplier<Collection<DesugaringData>> ifFull,
+            @NonNull Supplier<Collection<DesugaringData>> ifIncremental) {
         DesugaringGraph graph = graphs.getIfPresent(projectVariant);
+        if (graph == null && persistedGraph != null) {
+            graph = DesugaringGraph.read(persistedGraph);
+            if (graph != null) {
+                graphs.put(projectVariant, graph);
+            }
+        }
         if (graph != null) {
             graph.update(ifIncremental.get());
         } else {
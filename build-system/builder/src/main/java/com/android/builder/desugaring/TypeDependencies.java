@@ -19,12 +19,13 @@ package com.android.builder.desugaring;
 import com.android.annotations.NonNull;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
 
 /**
  * Keeps track of the type desugaring dependencies. This is required in order to determine a set of
@@ -33,104 +34,235 @@ import java.util.function.Function;
  * <p>For every type T, this class can calculate set of types whose desugaring depends on T, by
  * following transitive dependencies between types.
  *
+ * <p>Types are identified by int ids, and dependencies are stored as sorted arrays of ids. Types
+ * that depend on a type are found using a reverse index in compressed sparse row format, which is
+ * rebuilt on the first query after a modification. Once built, queries do not modify this instance,
+ * so they can run concurrently.
+ *
  * <p>For details when a dependency between two types exists, see {@link DesugaringData}.
  */
 final class TypeDependencies {
-    /** Map from type to types it depends on in the desugaring process. */
-    @NonNull private final Map<String, Set<String>> typeToDependencies = Maps.newHashMap();
+
+    private static final int[] NO_TYPES = new int[0];
+
+    /** Map from type to its id. Ids are never reused, even if the type is removed. */
+    @NonNull private final Map<String, Integer> typeIds = Maps.newHashMap();
+    /** Map from type id to type. */
+    @NonNull private final List<String> types = new ArrayList<>();
+    /** Map from type id to sorted ids of types it depends on in the desugaring process. */
+    @NonNull private final List<int[]> typeToDependencies = new ArrayList<>();
+
     /**
-     * Map from type to types that depend on it in the desugaring process. This field should be
-     * accessed only using {@link #reverseMapping()}.
+     * Reverse index: ids of the types that depend on type {@code i} are the elements of {@link
+     * #dependents} from {@code dependentsOffsets[i]} (inclusive) to {@code dependentsOffsets[i+1]}
+     * (exclusive). These fields should be accessed only after calling {@link #reverseMapping()}.
      */
-    @NonNull private final Map<String, Set<String>> typeToDependents = Maps.newHashMap();
+    @NonNull private int[] dependentsOffsets = new int[1];
 
-    boolean isReverseMappingValid = false;
+    @NonNull private int[] dependents = NO_TYPES;
+
+    private volatile boolean isReverseMappingValid = false;
 
     void add(@NonNull String dependent, @NonNull Set<String> dependencies) {
-        Set<String> myDependencies = typeToDependencies.getOrDefault(dependent, new HashSet<>());
-        myDependencies.addAll(dependencies);
-        typeToDependencies.put(dependent, myDependencies);
+        int id = getOrCreateId(dependent);
+        int[] newDependencies = new int[dependencies.size()];
+        int i = 0;
+        for (String dependency : dependencies) {
+            newDependencies[i++] = getOrCreateId(dependency);
+        }
+        typeToDependencies.set(id, union(typeToDependencies.get(id), newDependencies));
         invalidateReverseMapping();
     }
 
+    void remove(@NonNull String removedType) {
+        Integer id = typeIds.get(removedType);
+        if (id != null) {
+            typeToDependencies.set(id, NO_TYPES);
+            invalidateReverseMapping();
+        }
+    }
+
     @NonNull
     Set<String> getDependencies(@NonNull String type) {
-        return typeToDependencies.getOrDefault(type, ImmutableSet.of());
+        Integer id = typeIds.get(type);
+        return id != null ? toTypes(typeToDependencies.get(id)) : ImmutableSet.of();
     }
 
     @NonNull
     Set<String> getDependents(@NonNull String type) {
-        return reverseMapping().getOrDefault(type, ImmutableSet.of());
+        Integer id = typeIds.get(type);
+        if (id == null) {
+            return ImmutableSet.of();
+        }
+        reverseMapping();
+        return toTypes(
+                Arrays.copyOfRange(dependents, dependentsOffsets[id], dependentsOffsets[id + 1]));
     }
 
     @NonNull
     Set<String> getAllDependents(@NonNull String type) {
-        return collectNeighbours(type, this::getDependents);
+        Integer id = typeIds.get(type);
+        return id != null ? toTypes(getAllDependents(id)) : ImmutableSet.of();
     }
 
     @NonNull
     Set<String> getAllDependencies(@NonNull String type) {
-        return collectNeighbours(type, this::getDependencies);
+        Integer id = typeIds.get(type);
+        return id != null ? toTypes(collectNeighbours(id, false)) : ImmutableSet.of();
+    }
+
+    /** Returns the id of the type, or -1 if the type is unknown. */
+    int getId(@NonNull String type) {
+        return typeIds.getOrDefault(type, -1);
+    }
+
+    @NonNull
+    String getType(int id) {
+        return types.get(id);
+    }
+
+    /** Returns the ids of all types that transitively depend on the specified type. */
+    @NonNull
+    BitSet getAllDependents(int id) {
+        reverseMapping();
+        return collectNeighbours(id, true);
+    }
+
+    /** Returns the sorted ids of the types that the specified type depends on. */
+    @NonNull
+    int[] getDependencyIds(int id) {
+        return typeToDependencies.get(id);
+    }
+
+    /** Returns the number of ids assigned so far, which is larger than any assigned id. */
+    int getNumberOfIds() {
+        return types.size();
     }
 
     /**
      * Transitively collect neighbours of {@code start} node in a graph.
      *
      * @param start Start node.
-     * @param getNeighbours A function giving the neighbours of a node.
+     * @param reverse whether to follow dependents, instead of dependencies.
      * @return all nodes having a direct or indirect neighbour relation from {@code start} node.
      *     This does not include {@code start} node.
      */
-    private static Set<String> collectNeighbours(
-            @NonNull String start, @NonNull Function<String, Set<String>> getNeighbours) {
+    @NonNull
+    private BitSet collectNeighbours(int start, boolean reverse) {
         // BFS traversal: we start from start, traverse all of its neighbours, then neighbours of
         // its neighbours, and so on.
-        Set<String> children = Sets.newHashSet();
+        BitSet children = new BitSet();
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
 
-        ArrayDeque<String> dequeue = new ArrayDeque<>();
-        dequeue.add(start);
+        while (head < tail) {
+            int current = queue[head++];
 
-        while (!dequeue.isEmpty()) {
-            String current = dequeue.removeFirst();
-
-            Set<String> neighbours = getNeighbours.apply(current);
-            for (String neighbour : neighbours) {
-                if ((!neighbour.equals(start)) && children.add(neighbour)) {
-                    dequeue.addLast(neighbour);
+            int[] neighbours;
+            int from;
+            int to;
+            if (reverse) {
+                neighbours = dependents;
+                from = dependentsOffsets[current];
+                to = dependentsOffsets[current + 1];
+            } else {
+                neighbours = typeToDependencies.get(current);
+                from = 0;
+                to = neighbours.length;
+            }
+            for (int i = from; i < to; i++) {
+                int neighbour = neighbours[i];
+                if (neighbour != start && !children.get(neighbour)) {
+                    children.set(neighbour);
+                    if (tail == queue.length) {
+                        queue = Arrays.copyOf(queue, queue.length * 2);
+                    }
+                    queue[tail++] = neighbour;
                 }
             }
         }
 
         return children;
+    }
 
+    private int getOrCreateId(@NonNull String type) {
+        Integer id = typeIds.get(type);
+        if (id == null) {
+            id = types.size();
+            typeIds.put(type, id);
+            types.add(type);
+            typeToDependencies.add(NO_TYPES);
+        }
+        return id;
     }
 
-    private void invalidateReverseMapping() {
-        isReverseMappingValid = false;
+    @NonNull
+    private Set<String> toTypes(@NonNull int[] ids) {
+        Set<String> result = new HashSet<>(ids.length);
+        for (int id : ids) {
+            result.add(types.get(id));
+        }
+        return result;
     }
 
     @NonNull
-    private Map<String, Set<String>> reverseMapping() {
-        if (isReverseMappingValid) {
-            return typeToDependents;
+    private Set<String> toTypes(@NonNull BitSet ids) {
+        Set<String> result = new HashSet<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            result.add(types.get(id));
         }
+        return result;
+    }
 
-        typeToDependents.clear();
-        for (Map.Entry<String, Set<String>> typeToDeps : typeToDependencies.entrySet()) {
-            for (String dependency : typeToDeps.getValue()) {
-                Set<String> myDependents =
-                        typeToDependents.getOrDefault(dependency, Sets.newHashSet());
-                myDependents.add(typeToDeps.getKey());
-                this.typeToDependents.put(dependency, myDependents);
+    /** Returns the sorted union of a sorted array and an unsorted one, without duplicates. */
+    @NonNull
+    private static int[] union(@NonNull int[] sorted, @NonNull int[] unsorted) {
+        int[] all = Arrays.copyOf(sorted, sorted.length + unsorted.length);
+        System.arraycopy(unsorted, 0, all, sorted.length, unsorted.length);
+        Arrays.sort(all);
+        int size = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (size == 0 || all[size - 1] != all[i]) {
+                all[size++] = all[i];
             }
         }
+        return size == all.length ? all : Arrays.copyOf(all, size);
+    }
 
-        isReverseMappingValid = true;
-        return typeToDependents;
+    private void invalidateReverseMapping() {
+        isReverseMappingValid = false;
     }
 
-    void remove(@NonNull String removedType) {
-        typeToDependencies.remove(removedType);
-        invalidateReverseMapping();
+    private void reverseMapping() {
+        if (isReverseMappingValid) {
+            return;
+        }
+        synchronized (this) {
+            if (isReverseMappingValid) {
+                return;
+            }
+            int numberOfIds = types.size();
+            int[] offsets = new int[numberOfIds + 1];
+            for (int[] typeDependencies : typeToDependencies) {
+                for (int dependency : typeDependencies) {
+                    offsets[dependency + 1]++;
+                }
+            }
+            for (int i = 0; i < numberOfIds; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] reverse = new int[offsets[numberOfIds]];
+            int[] next = Arrays.copyOf(offsets, numberOfIds);
+            for (int id = 0; id < numberOfIds; id++) {
+                for (int dependency : typeToDependencies.get(id)) {
+                    reverse[next[dependency]++] = id;
+                }
+            }
+            dependentsOffsets = offsets;
+            dependents = reverse;
+            isReverseMappingValid = true;
+        }
     }
 }
@@ -45,11 +45,11 @@ final class TypePaths {
     /**
      * Map from type to paths defining that type. Each type should be defined only in one file, but
      * there is no mechanism to enforce that. This field should be accessed only using {@link
-     * #reverseMapping()}.
+     * #reverseMapping()}, which can be invoked concurrently once it has been computed.
      */
-    @NonNull private final Map<String, Set<Path>> typeToPaths = Maps.newHashMap();
+    @NonNull private Map<String, Set<Path>> typeToPaths = Maps.newHashMap();
 
-    boolean isReverseMappingValid = false;
+    private volatile boolean isReverseMappingValid = false;
 
     void add(@NonNull Path path, @NonNull String internalName) {
         Set<String> types = pathToTypes.getOrDefault(path, getNewSetForPath(path));
@@ -89,6 +89,12 @@ final class TypePaths {
         return toRemove;
     }
 
+    /** Returns all paths that define at least one type. */
+    @NonNull
+    Set<Path> getPaths() {
+        return pathToTypes.keySet();
+    }
+
     @NonNull
     Set<Path> getPaths(@NonNull String internalName) {
         return reverseMapping().getOrDefault(internalName, ImmutableSet.of());
@@ -103,8 +109,18 @@ final class TypePaths {
         if (isReverseMappingValid) {
             return typeToPaths;
         }
+        synchronized (this) {
+            if (!isReverseMappingValid) {
+                typeToPaths = computeReverseMapping();
+                isReverseMappingValid = true;
+            }
+            return typeToPaths;
+        }
+    }
 
-        typeToPaths.clear();
+    @NonNull
+    private Map<String, Set<Path>> computeReverseMapping() {
+        Map<String, Set<Path>> typeToPaths = Maps.newHashMap();
         for (Map.Entry<Path, Set<String>> pathToType : pathToTypes.entrySet()) {
             for (String type : pathToType.getValue()) {
                 Set<Path> paths =
@@ -114,7 +130,6 @@ final class TypePaths {
                 typeToPaths.put(type, paths);
             }
         }
-        isReverseMappingValid = true;
         return typeToPaths;
     }
 
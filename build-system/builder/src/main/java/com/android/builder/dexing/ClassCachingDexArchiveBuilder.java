@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import com.android.annotations.NonNull;
+import com.android.utils.FileUtils;
+import com.android.utils.PathUtils;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link DexArchiveBuilder} that looks up the dex file of each class in a {@link DexClassCache}
+ * first, and only converts the classes that are not in the cache using the delegate builder.
+ *
+ * <p>The classes are processed in batches, in the order of their paths, so that only the dex
+ * files of one batch are held in memory. The delegate converts the missing classes of a batch to
+ * a temporary directory, with one dex file per class, so that the dex file of each class can be
+ * stored in the cache. The output archive always contains one dex file per class.
+ *
+ * <p>This must only be used if the dex output of a class depends only on the class itself and on
+ * the configuration used to compute the cache keys (e.g. it must not be used when desugaring needs
+ * other classes, such as default interface methods desugaring).
+ */
+final class ClassCachingDexArchiveBuilder extends DexArchiveBuilder {
+
+    /** Number of classes looked up in the cache and converted together. */
+    private static final int BATCH_SIZE = 1024;
+
+    @NonNull private final DexArchiveBuilder delegate;
+    @NonNull private final DexClassCache cache;
+    @NonNull private final String configuration;
+
+    ClassCachingDexArchiveBuilder(
+            @NonNull DexArchiveBuilder delegate,
+            @NonNull DexClassCache cache,
+            @NonNull String configuration) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.configuration = configuration;
+    }
+
+    @Override
+    public void convert(
+            @NonNull Stream<ClassFileEntry> input, @NonNull Path output, boolean isIncremental)
+            throws DexArchiveBuilderException {
+        try {
+            doConvert(input.collect(Collectors.toList()), output);
+        } catch (IOException e) {
+            throw new DexArchiveBuilderException(e);
+        }
+    }
+
+    private void doConvert(@NonNull List<ClassFileEntry> entries, @NonNull Path output)
+            throws IOException {
+        if (entries.isEmpty()) {
+            // nothing to do here, just return
+            return;
+        }
+
+        // Sorted so that the output archive is deterministic
+        entries.sort(Comparator.comparing(ClassFileEntry::getRelativePath));
+        byte[] buffer = new byte[0];
+        try (DexArchive dexArchive = DexArchives.fromInput(output)) {
+            for (List<ClassFileEntry> batch : Lists.partition(entries, BATCH_SIZE)) {
+                // Only the keys are kept, the classes are read again by the delegate if needed
+                List<HashCode> keys = new ArrayList<>(batch.size());
+                for (ClassFileEntry entry : batch) {
+                    int size = Math.toIntExact(entry.getSize());
+                    if (buffer.length < size) {
+                        buffer = new byte[size];
+                    }
+                    int length = entry.readAllBytes(buffer);
+                    keys.add(DexClassCache.getKey(configuration, buffer, length));
+                }
+                for (Map.Entry<String, byte[]> dexFile : convertBatch(batch, keys).entrySet()) {
+                    byte[] dex = dexFile.getValue();
+                    dexArchive.addFile(dexFile.getKey(), dex, 0, dex.length);
+                }
+            }
+        }
+    }
+
+    /** Returns the dex files of the given classes, sorted by path. */
+    @NonNull
+    private SortedMap<String, byte[]> convertBatch(
+            @NonNull List<ClassFileEntry> batch, @NonNull List<HashCode> keys)
+            throws IOException {
+        Map<HashCode, byte[]> cachedDexFiles = cache.getAll(keys);
+
+        SortedMap<String, byte[]> dexFiles = new TreeMap<>();
+        Map<ClassFileEntry, HashCode> toConvert = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            ClassFileEntry entry = batch.get(i);
+            byte[] dex = cachedDexFiles.get(keys.get(i));
+            if (dex != null) {
+                dexFiles.put(ClassFileEntry.withDexExtension(entry.getRelativePath()), dex);
+            } else {
+                toConvert.put(entry, keys.get(i));
+            }
+        }
+        if (toConvert.isEmpty()) {
+            return dexFiles;
+        }
+
+        Path convertedDir = Files.createTempDirectory("dex-class-cache");
+        try {
+            delegate.convert(toConvert.keySet().stream(), convertedDir, true);
+
+            try (Stream<Path> convertedFiles = Files.walk(convertedDir)) {
+                for (Path convertedFile :
+                        convertedFiles
+                                .filter(DexArchives.DEX_ENTRY_FILTER)
+                                .collect(Collectors.toList())) {
+                    dexFiles.put(
+                            PathUtils.toSystemIndependentPath(
+                                    convertedDir.relativize(convertedFile)),
+                            Files.readAllBytes(convertedFile));
+                }
+            }
+            // Only cache the dex files that we can map back to the class they come from. If the
+            // path of a class does not match its name, its dex file is not cached.
+            Map<HashCode, byte[]> newDexFiles = new HashMap<>();
+            for (Map.Entry<ClassFileEntry, HashCode> entry : toConvert.entrySet()) {
+                byte[] dex =
+                        dexFiles.get(
+                                ClassFileEntry.withDexExtension(entry.getKey().getRelativePath()));
+                if (dex != null) {
+                    newDexFiles.put(entry.getValue(), dex);
+                }
+            }
+            cache.putAll(newDexFiles);
+        } finally {
+            FileUtils.deletePath(convertedDir.toFile());
+        }
+        return dexFiles;
+    }
+}
@@ -18,6 +18,7 @@ package com.android.builder.dexing;
 
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
@@ -48,10 +49,38 @@ public class ClassFileInputs {
      */
     @NonNull
     public static ClassFileInput fromPath(@NonNull Path rootPath) {
+        return fromPath(rootPath, false, null);
+    }
+
+    /**
+     * Creates a {@link com.android.builder.dexing.ClassFileInput} by analyzing the specified root
+     * path, same as {@link #fromPath(Path)}.
+     *
+     * <p>If {@code useMemoryMappedJars} is set, jar files are memory-mapped and their entries are
+     * read directly from the mapping: stored entries are copied with a single allocation of the
+     * exact class size, and deflated entries are inflated using per-thread pooled buffers. Jars
+     * that cannot be mapped (e.g. Zip64 archives) are read through {@link java.util.zip.ZipFile}.
+     * Note that on some platforms (e.g. Windows) the mapped jar cannot be deleted or overwritten
+     * until the mapping is garbage collected.
+     *
+     * @param rootPath root path to analyze, jar or a directory
+     * @param useMemoryMappedJars whether to read jar files through a memory mapping
+     * @param statistics if not {@code null}, records the class files read from the input
+     * @return input {@link ClassFileInput} that provides a list of .class files to process
+     */
+    @NonNull
+    public static ClassFileInput fromPath(
+            @NonNull Path rootPath,
+            boolean useMemoryMappedJars,
+            @Nullable ClassFileReadStatistics statistics) {
         if (jarMatcher.matches(rootPath)) {
-            return new JarClassFileInput(rootPath);
+            if (useMemoryMappedJars) {
+                return new MappedJarClassFileInput(rootPath, statistics);
+            } else {
+                return new JarClassFileInput(rootPath, statistics);
+            }
         } else {
-            return new DirectoryBasedClassFileInput(rootPath);
+            return new DirectoryBasedClassFileInput(rootPath, statistics);
         }
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import com.google.common.base.MoreObjects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters of the .class files read from {@link ClassFileInput}s, used to report how
+ * much memory is allocated for class file contents while dexing.
+ */
+public final class ClassFileReadStatistics {
+
+    private final AtomicLong classesRead = new AtomicLong();
+    private final AtomicLong bytesAllocated = new AtomicLong();
+    private final AtomicLong mappedClassesRead = new AtomicLong();
+    private final AtomicLong inflatedClassesRead = new AtomicLong();
+
+    /** Records a class file read from a directory or through {@link java.util.zip.ZipFile}. */
+    void recordRead(long sizeInBytes) {
+        classesRead.incrementAndGet();
+        bytesAllocated.addAndGet(sizeInBytes);
+    }
+
+    /** Records a stored (uncompressed) jar entry copied directly from a memory-mapped jar. */
+    void recordMappedRead(long sizeInBytes) {
+        recordRead(sizeInBytes);
+        mappedClassesRead.incrementAndGet();
+    }
+
+    /** Records a deflated jar entry inflated from a memory-mapped jar using pooled buffers. */
+    void recordInflatedRead(long sizeInBytes) {
+        recordRead(sizeInBytes);
+        inflatedClassesRead.incrementAndGet();
+    }
+
+    /** Returns the total number of class files read. */
+    public long getClassesRead() {
+        return classesRead.get();
+    }
+
+    /** Returns the total number of bytes allocated for the contents of the class files read. */
+    public long getBytesAllocated() {
+        return bytesAllocated.get();
+    }
+
+    /** Returns the number of class files copied directly from a memory-mapped jar. */
+    public long getMappedClassesRead() {
+        return mappedClassesRead.get();
+    }
+
+    /** Returns the number of class files inflated from a memory-mapped jar. */
+    public long getInflatedClassesRead() {
+        return inflatedClassesRead.get();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("classesRead", getClassesRead())
+                .add("bytesAllocated", getBytesAllocated())
+                .add("mappedClassesRead", getMappedClassesRead())
+                .add("inflatedClassesRead", getInflatedClassesRead())
+                .toString();
+    }
+}
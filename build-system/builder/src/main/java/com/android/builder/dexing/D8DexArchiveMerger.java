@@ -104,6 +104,36 @@ final class D8DexArchiveMerger implements DexArchiveMerger {
                 throw getExceptionToRethrow(e, d8DiagnosticsHandler);
             }
         }
+        runD8(builder, d8DiagnosticsHandler, outputDir, mainDexClasses);
+    }
+
+    /**
+     * Merges the specified dex files to final dex file(s) in the output directory, as {@link
+     * #mergeDexArchives(Iterator, Path, Path, DexingType)} does for all dex files of the dex
+     * archives. Only dex files that can be placed in any dex file can be merged this way, i.e. this
+     * must not be used for legacy multidex.
+     */
+    void mergeDexEntries(@NonNull List<DexArchiveEntry> entries, @NonNull Path outputDir)
+            throws DexArchiveMergerException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        D8DiagnosticsHandler d8DiagnosticsHandler = new InterceptingDiagnosticsHandler();
+        D8Command.Builder builder = D8Command.builder(d8DiagnosticsHandler);
+        for (DexArchiveEntry dexArchiveEntry : entries) {
+            builder.addDexProgramData(
+                    dexArchiveEntry.getDexFileContent(),
+                    D8DiagnosticsHandler.getOrigin(dexArchiveEntry));
+        }
+        runD8(builder, d8DiagnosticsHandler, outputDir, null);
+    }
+
+    private void runD8(
+            @NonNull D8Command.Builder builder,
+            @NonNull D8DiagnosticsHandler d8DiagnosticsHandler,
+            @NonNull Path outputDir,
+            @Nullable Path mainDexClasses)
+            throws DexArchiveMergerException {
         try {
             if (mainDexClasses != null) {
                 builder.addMainDexListFiles(mainDexClasses);
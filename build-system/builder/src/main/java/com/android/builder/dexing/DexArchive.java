@@ -67,4 +67,23 @@ public interface DexArchive extends Closeable {
      */
     @NonNull
     List<DexArchiveEntry> getFiles() throws IOException;
+
+    /**
+     * Returns the relative paths of all entries in this dex archive, in a deterministic order,
+     * without reading their content. Use {@link #getFile(String)} to read a single entry.
+     *
+     * @return relative paths of all entries of the archive
+     */
+    @NonNull
+    List<String> getRelativePaths() throws IOException;
+
+    /**
+     * Reads a single entry of this dex archive.
+     *
+     * @param relativePath path of the entry, as returned by {@link #getRelativePaths()}
+     * @return the entry with the specified relative path
+     * @throws IOException if the entry does not exist or cannot be read
+     */
+    @NonNull
+    DexArchiveEntry getFile(@NonNull String relativePath) throws IOException;
 }
@@ -55,6 +55,24 @@ public abstract class DexArchiveBuilder {
                 messageReceiver);
     }
 
+    /**
+     * Creates an instance that looks up the dex file of each class in the given cache first, and
+     * uses the given builder to convert only the classes that are not in the cache.
+     *
+     * <p>This must only be used if the dex output of a class depends only on the class itself and
+     * on the given configuration, see {@link ClassCachingDexArchiveBuilder}.
+     *
+     * @param configuration a description of all the inputs other than the class itself that
+     *     affect its dex output, used to compute the cache keys
+     */
+    @NonNull
+    public static DexArchiveBuilder createClassCachingDexBuilder(
+            @NonNull DexArchiveBuilder delegate,
+            @NonNull DexClassCache cache,
+            @NonNull String configuration) {
+        return new ClassCachingDexArchiveBuilder(delegate, cache, configuration);
+    }
+
     /**
      * Converts the specified input, and writes it to the output dex archive. If dex archive does
      * not exist, it will be created. If it exists, entries will be added or replaced.
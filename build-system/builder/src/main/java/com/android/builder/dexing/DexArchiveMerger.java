@@ -36,6 +36,28 @@ public interface DexArchiveMerger {
                 forkJoinPool);
     }
 
+    /**
+     * Creates an instance of dex archive merger that is using d8 to merge dex files, and that
+     * merges native multidex in parallel buckets without loading more than the specified number of
+     * bytes of dex files at the same time.
+     */
+    @NonNull
+    static DexArchiveMerger createStreamingD8DexMerger(
+            @NonNull MessageReceiver messageReceiver,
+            int minSdkVersion,
+            boolean isDebuggable,
+            @NonNull ForkJoinPool forkJoinPool,
+            long maxResidentInputBytes) {
+        return new StreamingD8DexArchiveMerger(
+                new D8DexArchiveMerger(
+                        messageReceiver,
+                        minSdkVersion,
+                        isDebuggable ? CompilationMode.DEBUG : CompilationMode.RELEASE,
+                        forkJoinPool),
+                forkJoinPool,
+                maxResidentInputBytes);
+    }
+
     /**
      * Merges the specified dex archive to final dex file(s). Full paths to the dex archives must be
      * specified, and the merged dex files are written to the specified directory. Dexing type
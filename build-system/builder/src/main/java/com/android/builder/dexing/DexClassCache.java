@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.utils.ExceptionFunction;
+import com.android.builder.utils.SynchronizedFile;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Cache of dex files of individual classes, stored in a single append-only pack file that can be
+ * shared by several variants, projects and processes.
+ *
+ * <p>Keys are SHA-256 hashes that must cover everything the dex output of a class depends on (see
+ * {@link #getKey(String, byte[])}). The pack file starts with a 16-byte header (magic, format
+ * version and a random generation number), followed by records made of the 32-byte key, the length
+ * and the CRC32 of the dex file, and the dex file itself. Records are only ever appended, so
+ * readers keep an index of the records scanned so far and only need to scan the records appended
+ * since. A record that was not completely written (e.g. because the writing process was killed) is
+ * ignored and overwritten by the next write.
+ *
+ * <p>When appending records would make the pack larger than the maximum size, the pack is cleared
+ * instead, and a new generation number is written so that other readers drop their index.
+ *
+ * <p>Access to the pack file is synchronized using {@link SynchronizedFile} with multi-process
+ * locking. This class is thread-safe.
+ */
+public final class DexClassCache {
+
+    private static final int MAGIC = 0x44455850; // "DEXP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int KEY_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = KEY_SIZE + 8;
+
+    /** Instances per (canonical) pack file, so that the index is shared within this JVM. */
+    @NonNull
+    private static final ConcurrentMap<File, DexClassCache> instances = new ConcurrentHashMap<>();
+
+    @NonNull private final File packFile;
+    @NonNull private final SynchronizedFile synchronizedPackFile;
+    private final long maxSizeInBytes;
+
+    /** Offsets of the records scanned so far, guarded by this object. */
+    @NonNull private final Map<HashCode, Long> index = new HashMap<>();
+    /** Generation of the pack file the index was built from, guarded by this object. */
+    private long indexedGeneration;
+    /** Length of the pack file that has been scanned into the index, guarded by this object. */
+    private long indexedLength;
+
+    @NonNull private final AtomicLong hits = new AtomicLong();
+    @NonNull private final AtomicLong misses = new AtomicLong();
+
+    @VisibleForTesting
+    DexClassCache(@NonNull File packFile, long maxSizeInBytes) {
+        this.packFile = packFile;
+        this.synchronizedPackFile = SynchronizedFile.getInstanceWithMultiProcessLocking(packFile);
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * Returns the {@code DexClassCache} stored in the given pack file. The parent directory of the
+     * pack file must exist.
+     *
+     * @param packFile the pack file, which may not yet exist
+     * @param maxSizeInBytes the size over which the pack file is cleared
+     */
+    @NonNull
+    public static DexClassCache getInstance(@NonNull File packFile, long maxSizeInBytes) {
+        Preconditions.checkArgument(
+                maxSizeInBytes > HEADER_SIZE, "Invalid max size %s", maxSizeInBytes);
+        File canonicalFile;
+        try {
+            canonicalFile = packFile.getCanonicalFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return instances.computeIfAbsent(
+                canonicalFile, file -> new DexClassCache(file, maxSizeInBytes));
+    }
+
+    /**
+     * Returns the cache key of a class.
+     *
+     * @param configuration a description of all the inputs other than the class itself that affect
+     *     its dex output, e.g. the dexer and its options
+     * @param classBytes the content of the .class file
+     */
+    @NonNull
+    public static HashCode getKey(@NonNull String configuration, @NonNull byte[] classBytes) {
+        return getKey(configuration, classBytes, classBytes.length);
+    }
+
+    /**
+     * Returns the cache key of a class whose content is the first {@code length} bytes of the
+     * given array, so that a buffer can be reused to read the classes.
+     */
+    @NonNull
+    public static HashCode getKey(
+            @NonNull String configuration, @NonNull byte[] classBytes, int length) {
+        return Hashing.sha256()
+                .newHasher()
+                .putUnencodedChars(configuration)
+                .putInt(length)
+                .putBytes(classBytes, 0, length)
+                .hash();
+    }
+
+    @NonNull
+    public File getPackFile() {
+        return packFile;
+    }
+
+    /**
+     * Returns the dex files of the given keys that are present in the cache. Keys that are not in
+     * the cache (or whose record is corrupted) are not present in the returned map.
+     */
+    @NonNull
+    public Map<HashCode, byte[]> getAll(@NonNull Collection<HashCode> keys)
+            throws IOException {
+        Map<HashCode, byte[]> found = new HashMap<>();
+        if (!keys.isEmpty()) {
+            doWithLock(
+                    false,
+                    file -> {
+                        if (!file.isFile()) {
+                            return null;
+                        }
+                        try (FileChannel channel =
+                                FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                            Map<HashCode, Long> offsets = new HashMap<>();
+                            synchronized (this) {
+                                refreshIndex(channel);
+                                for (HashCode key : keys) {
+                                    Long offset = index.get(key);
+                                    if (offset != null) {
+                                        offsets.put(key, offset);
+                                    }
+                                }
+                            }
+                            for (Map.Entry<HashCode, Long> offset : offsets.entrySet()) {
+                                byte[] dex =
+                                        readRecord(channel, offset.getValue(), offset.getKey());
+                                if (dex != null) {
+                                    found.put(offset.getKey(), dex);
+                                }
+                            }
+                        }
+                        return null;
+                    });
+        }
+        hits.addAndGet(found.size());
+        misses.addAndGet(keys.size() - found.size());
+        return found;
+    }
+
+    /** Appends the given dex files to the cache, skipping the keys that are already present. */
+    public void putAll(@NonNull Map<HashCode, byte[]> dexFiles) throws IOException {
+        if (dexFiles.isEmpty()) {
+            return;
+        }
+        doWithLock(
+                true,
+                file -> {
+                    try (FileChannel channel =
+                            FileChannel.open(
+                                    file.toPath(),
+                                    StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE)) {
+                        synchronized (this) {
+                            append(channel, dexFiles);
+                        }
+                    }
+                    return null;
+                });
+    }
+
+    /** Returns the number of keys found in the cache so far. */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /** Returns the number of keys not found in the cache so far. */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("packFile", packFile)
+                .add("maxSizeInBytes", maxSizeInBytes)
+                .add("hits", getHits())
+                .add("misses", getMisses())
+                .toString();
+    }
+
+    /** Must be called while holding the lock on this object and a lock on the pack file. */
+    private void append(@NonNull FileChannel channel, @NonNull Map<HashCode, byte[]> dexFiles)
+            throws IOException {
+        refreshIndex(channel);
+
+        long bytesToAppend = 0;
+        for (Map.Entry<HashCode, byte[]> dexFile : dexFiles.entrySet()) {
+            if (!index.containsKey(dexFile.getKey())) {
+                bytesToAppend += RECORD_HEADER_SIZE + dexFile.getValue().length;
+            }
+        }
+        if (bytesToAppend == 0) {
+            return;
+        }
+
+        if (indexedLength == 0 || indexedLength + bytesToAppend > maxSizeInBytes) {
+            // The pack is missing, invalid or full, start a new generation
+            channel.truncate(0);
+            indexedGeneration = ThreadLocalRandom.current().nextLong();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(indexedGeneration).flip();
+            writeFully(channel, header, 0);
+            index.clear();
+            indexedLength = HEADER_SIZE;
+        } else if (channel.size() > indexedLength) {
+            // Drop an incomplete record left by a writer that did not finish
+            channel.truncate(indexedLength);
+        }
+
+        long position = indexedLength;
+        for (Map.Entry<HashCode, byte[]> dexFile : dexFiles.entrySet()) {
+            HashCode key = dexFile.getKey();
+            byte[] dex = dexFile.getValue();
+            if (index.containsKey(key)) {
+                continue;
+            }
+            if (position + RECORD_HEADER_SIZE + dex.length > maxSizeInBytes) {
+                // A single batch larger than the pack, keep what fits
+                break;
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(dex);
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            recordHeader.put(key.asBytes()).putInt(dex.length).putInt((int) crc32.getValue());
+            recordHeader.flip();
+            writeFully(channel, recordHeader, position);
+            writeFully(channel, ByteBuffer.wrap(dex), position + RECORD_HEADER_SIZE);
+            index.put(key, position);
+            position += RECORD_HEADER_SIZE + dex.length;
+        }
+        indexedLength = position;
+    }
+
+    /**
+     * Scans the records appended since the last scan into the index. If the pack file has been
+     * cleared since, the index is rebuilt. Must be called while holding the lock on this object and
+     * a lock on the pack file.
+     */
+    private void refreshIndex(@NonNull FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (size < HEADER_SIZE
+                || !readFully(channel, header, 0)
+                || header.getInt(0) != MAGIC
+                || header.getInt(4) != VERSION) {
+            index.clear();
+            indexedLength = 0;
+            return;
+        }
+        long generation = header.getLong(8);
+        if (generation != indexedGeneration || indexedLength == 0 || size < indexedLength) {
+            index.clear();
+            indexedGeneration = generation;
+            indexedLength = HEADER_SIZE;
+        }
+
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        byte[] key = new byte[KEY_SIZE];
+        while (indexedLength + RECORD_HEADER_SIZE <= size) {
+            recordHeader.clear();
+            if (!readFully(channel, recordHeader, indexedLength)) {
+                break;
+            }
+            recordHeader.flip();
+            recordHeader.get(key);
+            int length = recordHeader.getInt();
+            if (length < 0 || indexedLength + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+            index.put(HashCode.fromBytes(key), indexedLength);
+            indexedLength += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Reads the dex file of the record at the given offset, or returns {@code null} if the record
+     * does not match the key or is corrupted.
+     */
+    @Nullable
+    private static byte[] readRecord(
+            @NonNull FileChannel channel, long offset, @NonNull HashCode expectedKey)
+            throws IOException {
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (!readFully(channel, recordHeader, offset)) {
+            return null;
+        }
+        recordHeader.flip();
+        byte[] key = new byte[KEY_SIZE];
+        recordHeader.get(key);
+        int length = recordHeader.getInt();
+        int crc = recordHeader.getInt();
+        if (!HashCode.fromBytes(key).equals(expectedKey)
+                || length < 0
+                || offset + RECORD_HEADER_SIZE + length > channel.size()) {
+            return null;
+        }
+
+        byte[] dex = new byte[length];
+        if (!readFully(channel, ByteBuffer.wrap(dex), offset + RECORD_HEADER_SIZE)) {
+            return null;
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(dex);
+        return (int) crc32.getValue() == crc ? dex : null;
+    }
+
+    private static boolean readFully(
+            @NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeFully(
+            @NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Executes an action on the pack file with a shared (for reading) or exclusive (for writing)
+     * lock.
+     */
+    private void doWithLock(boolean exclusive, @NonNull ExceptionFunction<File, Void> action)
+            throws IOException {
+        try {
+            if (exclusive) {
+                synchronizedPackFile.write(action);
+            } else {
+                synchronizedPackFile.read(action);
+            }
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -74,6 +75,23 @@ final class DirDexArchive implements DexArchive {
         return builder.build();
     }
 
+    @NonNull
+    @Override
+    public List<String> getRelativePaths() throws IOException {
+        try (Stream<Path> paths = Files.walk(getRootPath())) {
+            return paths.filter(DexArchives.DEX_ENTRY_FILTER)
+                    .map(path -> PathUtils.toSystemIndependentPath(getRootPath().relativize(path)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @NonNull
+    @Override
+    public DexArchiveEntry getFile(@NonNull String relativePath) throws IOException {
+        return createEntry(getRootPath().resolve(relativePath));
+    }
+
     @Override
     public void close() throws IOException {
         // do nothing
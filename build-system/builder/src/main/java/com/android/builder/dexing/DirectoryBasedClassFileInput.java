@@ -17,6 +17,7 @@
 package com.android.builder.dexing;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -26,9 +27,12 @@ import java.util.stream.Stream;
 final class DirectoryBasedClassFileInput implements ClassFileInput {
 
     @NonNull private final Path rootPath;
+    @Nullable private final ClassFileReadStatistics statistics;
 
-    public DirectoryBasedClassFileInput(@NonNull Path rootPath) {
+    public DirectoryBasedClassFileInput(
+            @NonNull Path rootPath, @Nullable ClassFileReadStatistics statistics) {
         this.rootPath = rootPath;
+        this.statistics = statistics;
     }
 
     @Override
@@ -52,6 +56,6 @@ final class DirectoryBasedClassFileInput implements ClassFileInput {
 
     @NonNull
     private ClassFileEntry createEntryFromPath(@NonNull Path path) {
-        return new FileBasedClassFileEntry(rootPath, path, this);
+        return new FileBasedClassFileEntry(rootPath, path, this, statistics);
     }
 }
@@ -17,6 +17,7 @@
 package com.android.builder.dexing;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.utils.PathUtils;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,14 +31,17 @@ final class FileBasedClassFileEntry implements ClassFileEntry {
     @NonNull private final String relativePath;
     @NonNull private final Path fullPath;
     @NonNull private final DirectoryBasedClassFileInput input;
+    @Nullable private final ClassFileReadStatistics statistics;
 
     public FileBasedClassFileEntry(
             @NonNull Path rootPath,
             @NonNull Path fullPath,
-            @NonNull DirectoryBasedClassFileInput input) {
+            @NonNull DirectoryBasedClassFileInput input,
+            @Nullable ClassFileReadStatistics statistics) {
         this.relativePath = PathUtils.toSystemIndependentPath(rootPath.relativize(fullPath));
         this.fullPath = fullPath;
         this.input = input;
+        this.statistics = statistics;
     }
 
     @Override
@@ -64,7 +68,11 @@ final class FileBasedClassFileEntry implements ClassFileEntry {
 
     @Override
     public byte[] readAllBytes() throws IOException {
-        return Files.readAllBytes(fullPath);
+        byte[] bytes = Files.readAllBytes(fullPath);
+        if (statistics != null) {
+            statistics.recordRead(bytes.length);
+        }
+        return bytes;
     }
 
     @Override
@@ -74,7 +82,11 @@ final class FileBasedClassFileEntry implements ClassFileEntry {
             long size = sbc.size();
             if (size > bytes.length) throw new OutOfMemoryError("Required array size too large");
 
-            return in.read(bytes, 0, (int) size);
+            int read = in.read(bytes, 0, (int) size);
+            if (statistics != null && read >= 0) {
+                statistics.recordRead(read);
+            }
+            return read;
         }
     }
 }
@@ -40,10 +40,13 @@ final class JarClassFileInput implements ClassFileInput {
     }
 
     @NonNull private final Path rootPath;
+    @Nullable private final ClassFileReadStatistics statistics;
     @Nullable private ZipFile jarFile;
 
-    public JarClassFileInput(@NonNull Path rootPath) {
+    public JarClassFileInput(
+            @NonNull Path rootPath, @Nullable ClassFileReadStatistics statistics) {
         this.rootPath = rootPath;
+        this.statistics = statistics;
     }
 
     @Override
@@ -86,6 +89,7 @@ final class JarClassFileInput implements ClassFileInput {
 
     @NonNull
     private ClassFileEntry createEntryFromEntry(@NonNull ZipEntry entry) {
-        return new NoCacheJarClassFileEntry(entry, Objects.requireNonNull(jarFile), this);
+        return new NoCacheJarClassFileEntry(
+                entry, Objects.requireNonNull(jarFile), this, statistics);
     }
 }
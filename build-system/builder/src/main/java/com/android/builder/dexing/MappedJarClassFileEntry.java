@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A .class file entry of a memory-mapped jar, see {@link MappedJarClassFileInput}.
+ *
+ * <p>Stored entries are copied from the mapping straight into an array of the exact class size.
+ * Deflated entries are copied into a per-thread buffer and inflated with a per-thread {@link
+ * Inflater}, so the only allocation per class is again the returned array.
+ */
+final class MappedJarClassFileEntry implements ClassFileEntry {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    /** Compressed buffers larger than this are not kept around for reuse. */
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<Inflater> INFLATER =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> COMPRESSED_BUFFER =
+            ThreadLocal.withInitial(() -> new byte[8 * 1024]);
+
+    @NonNull private final String name;
+    private final int method;
+    private final int compressedSize;
+    private final int size;
+    private final int localHeaderOffset;
+    @NonNull private final ByteBuffer jar;
+    @NonNull private final ClassFileInput input;
+    @Nullable private final ClassFileReadStatistics statistics;
+
+    public MappedJarClassFileEntry(
+            @NonNull String name,
+            int method,
+            int compressedSize,
+            int size,
+            int localHeaderOffset,
+            @NonNull ByteBuffer jar,
+            @NonNull ClassFileInput input,
+            @Nullable ClassFileReadStatistics statistics) {
+        this.name = name;
+        this.method = method;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+        this.jar = jar;
+        this.input = input;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public String name() {
+        return "Zip:" + name;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String getRelativePath() {
+        return name;
+    }
+
+    @NonNull
+    @Override
+    public ClassFileInput getInput() {
+        return input;
+    }
+
+    @Override
+    public byte[] readAllBytes() throws IOException {
+        byte[] bytes = new byte[size];
+        readAllBytes(bytes);
+        return bytes;
+    }
+
+    @Override
+    public int readAllBytes(byte[] bytes) throws IOException {
+        // Like the ZipFile-based entry, read at most as many bytes as fit in the given array.
+        int length = Math.min(size, bytes.length);
+        // duplicate() does not preserve the byte order, and keeps the position of the shared
+        // mapping untouched.
+        ByteBuffer buffer = jar.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(getDataOffset(buffer));
+        switch (method) {
+            case ZipEntry.STORED:
+                buffer.get(bytes, 0, length);
+                if (statistics != null) {
+                    statistics.recordMappedRead(length);
+                }
+                break;
+            case ZipEntry.DEFLATED:
+                inflate(buffer, bytes, length);
+                if (statistics != null) {
+                    statistics.recordInflatedRead(length);
+                }
+                break;
+            default:
+                throw new ZipException(
+                        "Unsupported compression method " + method + " for " + name);
+        }
+        return length;
+    }
+
+    private int getDataOffset(@NonNull ByteBuffer buffer) throws ZipException {
+        if (localHeaderOffset < 0
+                || localHeaderOffset + LOCAL_HEADER_SIZE > buffer.limit()
+                || buffer.getInt(localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + name);
+        }
+        int nameLength = Short.toUnsignedInt(buffer.getShort(localHeaderOffset + 26));
+        int extraLength = Short.toUnsignedInt(buffer.getShort(localHeaderOffset + 28));
+        int dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        if (dataOffset + compressedSize > buffer.limit()) {
+            throw new ZipException("Truncated entry " + name);
+        }
+        return dataOffset;
+    }
+
+    /** Inflates the first {@code length} bytes of the entry into the given array. */
+    private void inflate(@NonNull ByteBuffer buffer, @NonNull byte[] bytes, int length)
+            throws IOException {
+        // The inflater may need an extra dummy byte at the end when using the "nowrap" option.
+        byte[] compressed = COMPRESSED_BUFFER.get();
+        if (compressed.length < compressedSize + 1) {
+            compressed = new byte[compressedSize + 1];
+            if (compressed.length <= MAX_POOLED_BUFFER_SIZE) {
+                COMPRESSED_BUFFER.set(compressed);
+            }
+        }
+        buffer.get(compressed, 0, compressedSize);
+        compressed[compressedSize] = 0;
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedSize + 1);
+        try {
+            int offset = 0;
+            while (offset < length) {
+                int inflated = inflater.inflate(bytes, offset, length - offset);
+                if (inflated == 0
+                        && (inflater.finished()
+                                || inflater.needsInput()
+                                || inflater.needsDictionary())) {
+                    throw new ZipException("Truncated deflated entry " + name);
+                }
+                offset += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated entry " + name + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.dexing.JarClassFileInput.JarClassFileInputsException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+/**
+ * A {@link ClassFileInput} that memory-maps a jar file and reads its central directory directly
+ * from the mapping, see {@link MappedJarClassFileEntry} for how entries are read.
+ *
+ * <p>Jars that cannot be mapped in a single buffer (larger than 2GB) or that use the Zip64 format
+ * are read through {@link JarClassFileInput} instead.
+ */
+final class MappedJarClassFileInput implements ClassFileInput {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int ZIP64_MAGIC = 0xFFFFFFFF;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    @NonNull private final Path rootPath;
+    @Nullable private final ClassFileReadStatistics statistics;
+    @Nullable private List<MappedJarClassFileEntry> classEntries;
+    @Nullable private JarClassFileInput fallback;
+
+    public MappedJarClassFileInput(
+            @NonNull Path rootPath, @Nullable ClassFileReadStatistics statistics) {
+        this.rootPath = rootPath;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself is released once it is garbage collected.
+        classEntries = null;
+        if (fallback != null) {
+            fallback.close();
+        }
+    }
+
+    @Override
+    @NonNull
+    public Stream<ClassFileEntry> entries(Predicate<String> filter) throws IOException {
+        if (classEntries == null && fallback == null) {
+            try {
+                open();
+            } catch (IOException e) {
+                throw new JarClassFileInputsException(
+                        "Unable to read jar file " + rootPath.toString(), e);
+            }
+        }
+        if (fallback != null) {
+            return fallback.entries(filter);
+        }
+
+        List<ClassFileEntry> entryList = new ArrayList<>();
+        for (MappedJarClassFileEntry entry : Objects.requireNonNull(classEntries)) {
+            if (filter.test(entry.getRelativePath())) {
+                entryList.add(entry);
+            }
+        }
+        return entryList.stream();
+    }
+
+    @Override
+    public Path getPath() {
+        return rootPath;
+    }
+
+    /**
+     * Maps the jar and reads all .class entries from its central directory, or sets up the {@link
+     * #fallback} if the jar cannot be read from a single mapping.
+     */
+    private void open() throws IOException {
+        ByteBuffer jar;
+        try (FileChannel channel = FileChannel.open(rootPath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                fallback = new JarClassFileInput(rootPath, statistics);
+                return;
+            }
+            jar = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        jar.order(ByteOrder.LITTLE_ENDIAN);
+
+        int eocdOffset = findEndOfCentralDirectory(jar);
+        if (isZip64(jar, eocdOffset)) {
+            fallback = new JarClassFileInput(rootPath, statistics);
+            return;
+        }
+        int numberOfEntries = Short.toUnsignedInt(jar.getShort(eocdOffset + 10));
+        int centralDirectoryOffset = jar.getInt(eocdOffset + 16);
+
+        List<MappedJarClassFileEntry> entries = new ArrayList<>(numberOfEntries);
+        int offset = centralDirectoryOffset;
+        for (int i = 0; i < numberOfEntries; i++) {
+            if (offset < 0
+                    || offset + CENTRAL_DIRECTORY_HEADER_SIZE > eocdOffset
+                    || jar.getInt(offset) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry at offset " + offset);
+            }
+            int method = Short.toUnsignedInt(jar.getShort(offset + 10));
+            int compressedSize = jar.getInt(offset + 20);
+            int size = jar.getInt(offset + 24);
+            int nameLength = Short.toUnsignedInt(jar.getShort(offset + 28));
+            int extraLength = Short.toUnsignedInt(jar.getShort(offset + 30));
+            int commentLength = Short.toUnsignedInt(jar.getShort(offset + 32));
+            int localHeaderOffset = jar.getInt(offset + 42);
+            if (compressedSize == ZIP64_MAGIC
+                    || size == ZIP64_MAGIC
+                    || localHeaderOffset == ZIP64_MAGIC) {
+                fallback = new JarClassFileInput(rootPath, statistics);
+                return;
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = jar.duplicate();
+            nameBuffer.position(offset + CENTRAL_DIRECTORY_HEADER_SIZE);
+            nameBuffer.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (CLASS_MATCHER.test(name)) {
+                entries.add(
+                        new MappedJarClassFileEntry(
+                                name,
+                                method,
+                                compressedSize,
+                                size,
+                                localHeaderOffset,
+                                jar,
+                                this,
+                                statistics));
+            }
+            offset += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        classEntries = entries;
+    }
+
+    /**
+     * Returns the offset of the End of Central Directory record. The record is 22 bytes long,
+     * followed by a comment of at most 65535 bytes, so we search backwards from the end of the
+     * file.
+     */
+    private int findEndOfCentralDirectory(@NonNull ByteBuffer jar) throws ZipException {
+        int lastCandidate = Math.max(0, jar.limit() - EOCD_SIZE - MAX_COMMENT_SIZE);
+        for (int offset = jar.limit() - EOCD_SIZE; offset >= lastCandidate; offset--) {
+            if (jar.getInt(offset) == EOCD_SIGNATURE) {
+                return offset;
+            }
+        }
+        throw new ZipException("Unable to find the end of central directory in " + rootPath);
+    }
+
+    private static boolean isZip64(@NonNull ByteBuffer jar, int eocdOffset) {
+        if (Short.toUnsignedInt(jar.getShort(eocdOffset + 10)) == ZIP64_MAGIC_COUNT
+                || jar.getInt(eocdOffset + 16) == ZIP64_MAGIC) {
+            return true;
+        }
+        int locatorOffset = eocdOffset - ZIP64_EOCD_LOCATOR_SIZE;
+        return locatorOffset >= 0 && jar.getInt(locatorOffset) == ZIP64_EOCD_LOCATOR_SIGNATURE;
+    }
+}
@@ -17,8 +17,8 @@
 package com.android.builder.dexing;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.google.common.io.ByteStreams;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.ZipEntry;
@@ -29,12 +29,17 @@ final class NoCacheJarClassFileEntry implements ClassFileEntry {
     @NonNull private final ZipEntry entry;
     @NonNull private final ZipFile zipFile;
     @NonNull private final ClassFileInput input;
+    @Nullable private final ClassFileReadStatistics statistics;
 
     public NoCacheJarClassFileEntry(
-            @NonNull ZipEntry entry, @NonNull ZipFile zipFile, @NonNull ClassFileInput input) {
+            @NonNull ZipEntry entry,
+            @NonNull ZipFile zipFile,
+            @NonNull ClassFileInput input,
+            @Nullable ClassFileReadStatistics statistics) {
         this.entry = entry;
         this.zipFile = zipFile;
         this.input = input;
+        this.statistics = statistics;
     }
 
     @Override
@@ -60,13 +65,31 @@ final class NoCacheJarClassFileEntry implements ClassFileEntry {
 
     @Override
     public byte[] readAllBytes() throws IOException {
-        return ByteStreams.toByteArray(new BufferedInputStream(zipFile.getInputStream(entry)));
+        byte[] bytes;
+        try (InputStream is = zipFile.getInputStream(entry)) {
+            long size = entry.getSize();
+            if (size >= 0 && size <= Integer.MAX_VALUE) {
+                // allocate the exact size once, instead of growing (and copying) a buffer
+                bytes = new byte[(int) size];
+                ByteStreams.readFully(is, bytes);
+            } else {
+                bytes = ByteStreams.toByteArray(is);
+            }
+        }
+        if (statistics != null) {
+            statistics.recordRead(bytes.length);
+        }
+        return bytes;
     }
 
     @Override
     public int readAllBytes(byte[] bytes) throws IOException {
-        try (InputStream is = new BufferedInputStream(zipFile.getInputStream(entry))) {
-            return ByteStreams.read(is, bytes, 0, bytes.length);
+        try (InputStream is = zipFile.getInputStream(entry)) {
+            int read = ByteStreams.read(is, bytes, 0, bytes.length);
+            if (statistics != null) {
+                statistics.recordRead(read);
+            }
+            return read;
         }
     }
 }
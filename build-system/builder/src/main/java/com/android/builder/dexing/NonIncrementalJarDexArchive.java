@@ -22,6 +22,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -107,6 +108,36 @@ final class NonIncrementalJarDexArchive implements DexArchive {
         return dexEntries;
     }
 
+    @NonNull
+    @Override
+    public List<String> getRelativePaths() {
+        Preconditions.checkNotNull(readOnlyZipFile, "Archive is not readable : %s", targetPath);
+        List<String> relativePaths = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = readOnlyZipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry zipEntry = entries.nextElement();
+            if (!zipEntry.isDirectory()) {
+                relativePaths.add(zipEntry.getName());
+            }
+        }
+        return relativePaths;
+    }
+
+    @NonNull
+    @Override
+    public DexArchiveEntry getFile(@NonNull String relativePath) throws IOException {
+        Preconditions.checkNotNull(readOnlyZipFile, "Archive is not readable : %s", targetPath);
+        ZipEntry zipEntry = readOnlyZipFile.getEntry(relativePath);
+        if (zipEntry == null) {
+            throw new FileNotFoundException(relativePath + " not found in " + targetPath);
+        }
+        try (BufferedInputStream inputStream =
+                new BufferedInputStream(readOnlyZipFile.getInputStream(zipEntry))) {
+            byte[] content = ByteStreams.toByteArray(inputStream);
+            return new DexArchiveEntry(content, relativePath, this);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (jarOutputStream != null) {
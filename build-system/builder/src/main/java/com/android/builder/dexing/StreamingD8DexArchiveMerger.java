@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import static com.android.builder.dexing.D8ErrorMessagesKt.ERROR_DUPLICATE;
+import static com.android.builder.dexing.D8ErrorMessagesKt.ERROR_DUPLICATE_HELP_PAGE;
+
+import com.android.SdkConstants;
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.dex.ClassDef;
+import com.android.dex.Dex;
+import com.android.dex.DexFormat;
+import com.android.dex.FieldId;
+import com.android.dex.MethodId;
+import com.android.dex.ProtoId;
+import com.android.utils.FileUtils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link DexArchiveMerger} using D8 that does not load all dex archives in memory at once, which
+ * is what {@link D8DexArchiveMerger} does.
+ *
+ * <p>For native multidex, merging happens in two phases. First, the dex files of the dex archives
+ * are read one at a time and partitioned into balanced buckets, so that the dex files of a bucket
+ * fit in a single dex file. Only the paths and the interned references of the dex files are kept.
+ * Since a type defined by two dex files could end up in two buckets, which D8 would not detect,
+ * duplicate types are reported while partitioning. Then, buckets are merged in parallel with D8,
+ * reading their dex files again just before merging them. The total size of the dex files loaded
+ * at the same time is capped, and merging of a bucket waits until enough of its inputs have been
+ * released by other buckets. Merged dex files are named classes.dex, classes2.dex, etc. in the
+ * order of the buckets, which only depends on the paths of the dex archives and of their entries.
+ *
+ * <p>The buckets are merged by the threads of a separate executor, which wait for D8 to run on the
+ * fork join pool. They cannot run on the fork join pool itself, since the tasks of D8 could then
+ * be queued behind bucket tasks waiting for them.
+ *
+ * <p>Mono-dex and legacy multidex need all dex files in a single D8 invocation, so they are merged
+ * by {@link D8DexArchiveMerger}.
+ */
+final class StreamingD8DexArchiveMerger implements DexArchiveMerger {
+
+    @NonNull
+    private static final Logger LOGGER =
+            Logger.getLogger(StreamingD8DexArchiveMerger.class.getName());
+
+    /** Maximum number of type, field or method references of a dex file. */
+    private static final int MAX_REFERENCES =
+            Math.min(DexFormat.MAX_TYPE_IDX, DexFormat.MAX_MEMBER_IDX) + 1;
+
+    /** Unit of the permits of the semaphore used to cap the size of the loaded dex files. */
+    private static final int BYTES_PER_PERMIT = 1024;
+
+    @NonNull private final D8DexArchiveMerger delegate;
+    @NonNull private final ForkJoinPool forkJoinPool;
+    private final int maxPermits;
+
+    StreamingD8DexArchiveMerger(
+            @NonNull D8DexArchiveMerger delegate,
+            @NonNull ForkJoinPool forkJoinPool,
+            long maxResidentInputBytes) {
+        Preconditions.checkArgument(
+                maxResidentInputBytes > 0, "Maximum size of loaded inputs must be positive");
+        this.delegate = delegate;
+        this.forkJoinPool = forkJoinPool;
+        this.maxPermits = divideRoundingUp(maxResidentInputBytes);
+    }
+
+    @Override
+    public void mergeDexArchives(
+            @NonNull Iterator<Path> inputs,
+            @NonNull Path outputDir,
+            @Nullable Path mainDexClasses,
+            @NonNull DexingType dexingType)
+            throws DexArchiveMergerException {
+        if (dexingType != DexingType.NATIVE_MULTIDEX) {
+            delegate.mergeDexArchives(inputs, outputDir, mainDexClasses, dexingType);
+            return;
+        }
+        Preconditions.checkState(
+                mainDexClasses == null, "Main dex list cannot be set for native multidex.");
+
+        // sort paths so we produce deterministic output
+        List<Path> inputPaths = Lists.newArrayList(inputs);
+        inputPaths.sort(Ordering.natural());
+        if (inputPaths.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<Bucket> buckets = partition(inputPaths);
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.log(
+                        Level.INFO,
+                        String.format(
+                                "Merging %1$d dex archives to '%2$s' in %3$d buckets",
+                                inputPaths.size(), outputDir.toAbsolutePath(), buckets.size()));
+            }
+            mergeBuckets(buckets, outputDir);
+        } catch (IOException e) {
+            throw new DexArchiveMergerException(e);
+        }
+    }
+
+    /**
+     * Reads the dex files of the specified dex archives one at a time, and assigns them to buckets
+     * that fit in a single dex file. The buckets are balanced: the dex files are assigned in order
+     * to as many buckets as filling them up to the maximum number of references needs, but with the
+     * smallest limit of references per bucket that does not need more buckets.
+     */
+    @VisibleForTesting
+    @NonNull
+    static List<Bucket> partition(@NonNull List<Path> inputs)
+            throws IOException, DexArchiveMergerException {
+        ReferenceIndex index = new ReferenceIndex();
+        List<IndexedDexFile> dexFiles = index.index(inputs);
+        if (dexFiles.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int minLimit = 1;
+        for (IndexedDexFile dexFile : dexFiles) {
+            minLimit = Math.max(minLimit, dexFile.getMaxNumberOfReferences());
+        }
+        if (minLimit > MAX_REFERENCES) {
+            throw new DexArchiveMergerException(
+                    "A single DEX file from a dex archive has more than 64K references.");
+        }
+        int numberOfBuckets = assignBuckets(dexFiles, index, MAX_REFERENCES, null);
+        int low = minLimit;
+        int high = MAX_REFERENCES;
+        while (low < high) {
+            int limit = (low + high) >>> 1;
+            if (assignBuckets(dexFiles, index, limit, null) <= numberOfBuckets) {
+                high = limit;
+            } else {
+                low = limit + 1;
+            }
+        }
+
+        List<Bucket> buckets = new ArrayList<>(numberOfBuckets);
+        assignBuckets(dexFiles, index, low, buckets);
+        return buckets;
+    }
+
+    /**
+     * Assigns the dex files in order to buckets so that the type, field and method references of
+     * every bucket do not exceed the specified limit, and returns the number of buckets.
+     *
+     * @param buckets if not {@code null}, the buckets are added to this list
+     */
+    private static int assignBuckets(
+            @NonNull List<IndexedDexFile> dexFiles,
+            @NonNull ReferenceIndex index,
+            int limit,
+            @Nullable List<Bucket> buckets) {
+        // Number of the bucket a reference was last added to, to count the references of a bucket
+        // without clearing a set for every bucket
+        int[] typeBuckets = new int[index.typeIds.size()];
+        int[] fieldBuckets = new int[index.fieldIds.size()];
+        int[] methodBuckets = new int[index.methodIds.size()];
+        int bucketNumber = 1;
+        int typeCount = 0;
+        int fieldCount = 0;
+        int methodCount = 0;
+        Bucket currentBucket = new Bucket();
+        for (IndexedDexFile dexFile : dexFiles) {
+            int newTypes = countNewReferences(dexFile.typeIds, typeBuckets, bucketNumber);
+            int newFields = countNewReferences(dexFile.fieldIds, fieldBuckets, bucketNumber);
+            int newMethods = countNewReferences(dexFile.methodIds, methodBuckets, bucketNumber);
+            if (typeCount + newTypes > limit
+                    || fieldCount + newFields > limit
+                    || methodCount + newMethods > limit) {
+                if (buckets != null) {
+                    buckets.add(currentBucket);
+                    currentBucket = new Bucket();
+                }
+                bucketNumber++;
+                newTypes = dexFile.typeIds.length;
+                newFields = dexFile.fieldIds.length;
+                newMethods = dexFile.methodIds.length;
+                typeCount = 0;
+                fieldCount = 0;
+                methodCount = 0;
+            }
+            for (int typeId : dexFile.typeIds) {
+                typeBuckets[typeId] = bucketNumber;
+            }
+            for (int fieldId : dexFile.fieldIds) {
+                fieldBuckets[fieldId] = bucketNumber;
+            }
+            for (int methodId : dexFile.methodIds) {
+                methodBuckets[methodId] = bucketNumber;
+            }
+            typeCount += newTypes;
+            fieldCount += newFields;
+            methodCount += newMethods;
+            if (buckets != null) {
+                currentBucket.add(dexFile.archive, dexFile.relativePath, dexFile.sizeInBytes);
+            }
+        }
+        if (buckets != null) {
+            buckets.add(currentBucket);
+        }
+        return bucketNumber;
+    }
+
+    private static int countNewReferences(
+            @NonNull int[] referenceIds, @NonNull int[] referenceBuckets, int bucketNumber) {
+        int count = 0;
+        for (int referenceId : referenceIds) {
+            if (referenceBuckets[referenceId] != bucketNumber) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void mergeBuckets(@NonNull List<Bucket> buckets, @NonNull Path outputDir)
+            throws IOException, DexArchiveMergerException {
+        // fair, so that large buckets are not starved by smaller ones
+        Semaphore loadedInputs = new Semaphore(maxPermits, true);
+        List<Path> bucketOutputs = new ArrayList<>(buckets.size());
+        ExecutorService bucketExecutor =
+                Executors.newFixedThreadPool(
+                        Math.min(buckets.size(), forkJoinPool.getParallelism()),
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "dex-merger-bucket");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        try {
+            List<Future<Void>> subTasks = new ArrayList<>(buckets.size());
+            for (Bucket bucket : buckets) {
+                Path bucketOutput = Files.createTempDirectory(outputDir, "bucket");
+                bucketOutputs.add(bucketOutput);
+                subTasks.add(
+                        bucketExecutor.submit(
+                                () -> {
+                                    mergeBucket(bucket, bucketOutput, loadedInputs);
+                                    return null;
+                                }));
+            }
+            // now wait for all subtasks completion, before reporting any failure.
+            bucketExecutor.shutdown();
+            awaitTermination(bucketExecutor);
+            for (Future<Void> subTask : subTasks) {
+                waitFor(subTask);
+            }
+
+            int classesDexIndex = 0;
+            for (Path bucketOutput : bucketOutputs) {
+                for (Path dexFile : getMergedDexFiles(bucketOutput)) {
+                    Files.move(dexFile, outputDir.resolve(getDexFileName(classesDexIndex++)));
+                }
+            }
+        } finally {
+            bucketExecutor.shutdownNow();
+            for (Path bucketOutput : bucketOutputs) {
+                FileUtils.deleteRecursivelyIfExists(bucketOutput.toFile());
+            }
+        }
+    }
+
+    private static void awaitTermination(@NonNull ExecutorService executor)
+            throws DexArchiveMergerException {
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DexArchiveMergerException(e);
+        }
+    }
+
+    private void mergeBucket(
+            @NonNull Bucket bucket, @NonNull Path bucketOutput, @NonNull Semaphore loadedInputs)
+            throws IOException, InterruptedException, DexArchiveMergerException {
+        // A bucket larger than the cap is merged when no other bucket is loaded.
+        int permits = Math.min(maxPermits, Math.max(1, divideRoundingUp(bucket.getSizeInBytes())));
+        loadedInputs.acquire(permits);
+        try {
+            List<DexArchiveEntry> entries = new ArrayList<>(bucket.getNumberOfEntries());
+            for (Map.Entry<Path, List<String>> archive : bucket.entries.entrySet()) {
+                try (DexArchive dexArchive = DexArchives.fromInput(archive.getKey())) {
+                    for (String relativePath : archive.getValue()) {
+                        entries.add(dexArchive.getFile(relativePath));
+                    }
+                }
+            }
+            delegate.mergeDexEntries(entries, bucketOutput);
+        } finally {
+            loadedInputs.release(permits);
+        }
+    }
+
+    private static void waitFor(@NonNull Future<Void> task)
+            throws IOException, DexArchiveMergerException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DexArchiveMergerException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DexArchiveMergerException) {
+                throw (DexArchiveMergerException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else {
+                throw new DexArchiveMergerException(cause);
+            }
+        }
+    }
+
+    /** Returns the dex files written by D8 to the directory, in the order D8 named them. */
+    @NonNull
+    private static List<Path> getMergedDexFiles(@NonNull Path bucketOutput) {
+        List<Path> dexFiles = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            Path dexFile = bucketOutput.resolve(getDexFileName(i));
+            if (!Files.isRegularFile(dexFile)) {
+                return dexFiles;
+            }
+            dexFiles.add(dexFile);
+        }
+    }
+
+    @NonNull
+    private static String getDexFileName(int classesDexIndex) {
+        if (classesDexIndex == 0) {
+            return SdkConstants.FN_APK_CLASSES_DEX;
+        } else {
+            return String.format(SdkConstants.FN_APK_CLASSES_N_DEX, (classesDexIndex + 1));
+        }
+    }
+
+    private static int divideRoundingUp(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT);
+    }
+
+    /** Dex files that are merged together by a single D8 invocation. */
+    @VisibleForTesting
+    static final class Bucket {
+
+        /** Relative paths of the dex files to merge, for every dex archive. */
+        @NonNull private final Map<Path, List<String>> entries = new LinkedHashMap<>();
+
+        private long sizeInBytes;
+
+        void add(@NonNull Path archive, @NonNull String relativePath, long size) {
+            entries.computeIfAbsent(archive, a -> new ArrayList<>()).add(relativePath);
+            sizeInBytes += size;
+        }
+
+        int getNumberOfEntries() {
+            return entries.values().stream().mapToInt(List::size).sum();
+        }
+
+        long getSizeInBytes() {
+            return sizeInBytes;
+        }
+    }
+
+    /**
+     * Type, field and method references of the dex files, interned to small integers so that the
+     * dex files can be partitioned several times without reading them again. Also checks that no
+     * type is defined by several dex files, since the buckets are merged by separate D8 invocations
+     * that cannot detect it.
+     */
+    private static final class ReferenceIndex {
+
+        @NonNull private final Map<String, Integer> typeIds = new HashMap<>();
+        @NonNull private final Map<String, Integer> fieldIds = new HashMap<>();
+        @NonNull private final Map<String, Integer> methodIds = new HashMap<>();
+        @NonNull private final Set<String> definedTypes = new HashSet<>();
+
+        @NonNull
+        List<IndexedDexFile> index(@NonNull List<Path> inputs)
+                throws IOException, DexArchiveMergerException {
+            List<IndexedDexFile> dexFiles = new ArrayList<>();
+            for (Path input : inputs) {
+                try (DexArchive dexArchive = DexArchives.fromInput(input)) {
+                    for (String relativePath : dexArchive.getRelativePaths()) {
+                        byte[] content = dexArchive.getFile(relativePath).getDexFileContent();
+                        dexFiles.add(index(input, relativePath, new Dex(content), content.length));
+                    }
+                }
+            }
+            return dexFiles;
+        }
+
+        @NonNull
+        private IndexedDexFile index(
+                @NonNull Path archive, @NonNull String relativePath, @NonNull Dex dex, long size)
+                throws DexArchiveMergerException {
+            List<String> typeNames = dex.typeNames();
+            for (ClassDef classDef : dex.classDefs()) {
+                String type = typeNames.get(classDef.getTypeIndex());
+                if (!definedTypes.add(type)) {
+                    throw new DexArchiveMergerException(
+                            "Error while merging dex archives: "
+                                    + System.lineSeparator()
+                                    + ERROR_DUPLICATE
+                                    + ": "
+                                    + getClassName(type)
+                                    + System.lineSeparator()
+                                    + ERROR_DUPLICATE_HELP_PAGE);
+                }
+            }
+
+            int[] typeIndices = new int[typeNames.size()];
+            for (int i = 0; i < typeIndices.length; i++) {
+                typeIndices[i] = intern(typeIds, typeNames.get(i));
+            }
+            List<String> strings = dex.strings();
+            List<FieldId> fields = dex.fieldIds();
+            int[] fieldIndices = new int[fields.size()];
+            for (int i = 0; i < fieldIndices.length; i++) {
+                FieldId field = fields.get(i);
+                fieldIndices[i] =
+                        intern(
+                                fieldIds,
+                                typeNames.get(field.getDeclaringClassIndex())
+                                        + "->"
+                                        + strings.get(field.getNameIndex())
+                                        + ":"
+                                        + typeNames.get(field.getTypeIndex()));
+            }
+            List<MethodId> methods = dex.methodIds();
+            List<ProtoId> protos = dex.protoIds();
+            int[] methodIndices = new int[methods.size()];
+            for (int i = 0; i < methodIndices.length; i++) {
+                MethodId method = methods.get(i);
+                ProtoId proto = protos.get(method.getProtoIndex());
+                methodIndices[i] =
+                        intern(
+                                methodIds,
+                                typeNames.get(method.getDeclaringClassIndex())
+                                        + "->"
+                                        + strings.get(method.getNameIndex())
+                                        + dex.readTypeList(proto.getParametersOffset())
+                                        + typeNames.get(proto.getReturnTypeIndex()));
+            }
+            return new IndexedDexFile(
+                    archive, relativePath, size, typeIndices, fieldIndices, methodIndices);
+        }
+
+        private static int intern(@NonNull Map<String, Integer> ids, @NonNull String reference) {
+            Integer id = ids.get(reference);
+            if (id == null) {
+                id = ids.size();
+                ids.put(reference, id);
+            }
+            return id;
+        }
+
+        /** Returns the name of a class from its type descriptor, e.g. {@code a.b.C} for La/b/C;. */
+        @NonNull
+        private static String getClassName(@NonNull String type) {
+            if (type.startsWith("L") && type.endsWith(";")) {
+                return type.substring(1, type.length() - 1).replace('/', '.');
+            }
+            return type;
+        }
+    }
+
+    /** A dex file of a dex archive, with the ids of its references in a {@link ReferenceIndex}. */
+    private static final class IndexedDexFile {
+
+        @NonNull private final Path archive;
+        @NonNull private final String relativePath;
+        private final long sizeInBytes;
+        @NonNull private final int[] typeIds;
+        @NonNull private final int[] fieldIds;
+        @NonNull private final int[] methodIds;
+
+        IndexedDexFile(
+                @NonNull Path archive,
+                @NonNull String relativePath,
+                long sizeInBytes,
+                @NonNull int[] typeIds,
+                @NonNull int[] fieldIds,
+                @NonNull int[] methodIds) {
+            this.archive = archive;
+            this.relativePath = relativePath;
+            this.sizeInBytes = sizeInBytes;
+            this.typeIds = typeIds;
+            this.fieldIds = fieldIds;
+            this.methodIds = methodIds;
+        }
+
+        int getMaxNumberOfReferences() {
+            return Math.max(typeIds.length, Math.max(fieldIds.length, methodIds.length));
+        }
+    }
+}
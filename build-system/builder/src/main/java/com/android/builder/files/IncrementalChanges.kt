@@ -65,7 +65,7 @@ fun MutableMap<RelativeFile, FileStatus>.addZipChanges(
     cache: FileCacheByPath,
     cacheUpdates: MutableSet<Runnable>
 ) {
-    putAll(fromZip(ZipCentralDirectory(change), cache, cacheUpdates))
+    putAll(fromZip(ZipCentralDirectoryCache.get(change), cache, cacheUpdates))
 }
 
 fun MutableMap<RelativeFile, FileStatus>.addFileChange(
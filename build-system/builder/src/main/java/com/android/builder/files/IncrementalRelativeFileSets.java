@@ -96,7 +96,8 @@ public final class IncrementalRelativeFileSets {
         return ImmutableMap.<RelativeFile, FileStatus>builder()
                 .putAll(
                         Maps.asMap(
-                                RelativeFiles.fromZip(new ZipCentralDirectory(zip)), f -> status))
+                                RelativeFiles.fromZip(ZipCentralDirectoryCache.get(zip)),
+                                f -> status))
                 .build();
     }
 
@@ -340,7 +341,8 @@ public final class IncrementalRelativeFileSets {
             }
 
             if (baseFiles.contains(file)) {
-                relativeUpdates.putAll(fromZip(new ZipCentralDirectory(file), cache, cacheUpdates));
+                relativeUpdates.putAll(
+                        fromZip(ZipCentralDirectoryCache.get(file), cache, cacheUpdates));
             } else {
                 /*
                  * We ignore directories because there are no relative files for directories.
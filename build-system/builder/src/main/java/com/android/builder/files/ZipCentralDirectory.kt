@@ -25,6 +25,7 @@ import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.nio.charset.Charset
 import java.util.Collections
+import java.lang.Long.BYTES as LONG_BYTES
 import java.lang.Short.BYTES as SHORT_BYTES
 
 /**
@@ -212,35 +213,72 @@ class ZipCentralDirectory(
         while (buffer.remaining() >= CENTRAL_DIRECTORY_FILE_HEADER_SIZE && buffer.int == CENTRAL_DIRECTORY_FILE_HEADER_MAGIC) {
             // Read all the data
             /*
-            skip those and go over the 12 bytes directly
+            skip those and go over the 6 bytes directly
             val version = buf.short
             val versionNeeded = buf.short
-            val flags = buf.short
-            val compression = buf.short
+            val flags = buf.short*/
+            buffer.position(buffer.position() + 6)
+            val compressionMethod = buffer.short.toInt() and 0xFFFF
+            /*
+            skip those and go over the 4 bytes directly
             val modTime = buf.short
             val modDate = buf.short*/
-            buffer.position(buffer.position() + 12)
+            buffer.position(buffer.position() + 4)
 
             val crc: Long = buffer.int.toLong() and 0xFFFFFFFFL
-            /*val compressedSize =*/ buffer.int
-            val decompressedSize = buffer.int
+            var compressedSize: Long = buffer.int.toLong() and 0xFFFFFFFFL
+            var decompressedSize = buffer.int
             val pathLength = buffer.short
             val extraLength = buffer.short.toInt()
             val commentLength = buffer.short
             // Skip 2 (disk number) + 2 (internal attributes)+ 4 (external attributes)
             buffer.position(buffer.position() + 8)
-            /*val start =*/ buffer.int.toLong() // offset to local file entry header
+            var localHeaderOffset: Long = buffer.int.toLong() and 0xFFFFFFFFL
 
             // Read the filename
             val pathBytes = ByteArray(pathLength.toInt())
             buffer.get(pathBytes)
             val name = String(pathBytes, Charset.forName("UTF-8"))
 
-            buffer.position(buffer.position() + extraLength + commentLength.toInt())
+            // Fields set to ZIP64_MAGIC_VALUE are stored in the Zip64 extended information extra
+            // field, in this order, and only if they are set to ZIP64_MAGIC_VALUE.
+            val extraEnd = buffer.position() + extraLength
+            val zip64Size = (decompressedSize.toLong() and 0xFFFFFFFFL) == ZIP64_MAGIC_VALUE
+            val zip64CompressedSize = compressedSize == ZIP64_MAGIC_VALUE
+            val zip64Offset = localHeaderOffset == ZIP64_MAGIC_VALUE
+            if (zip64Size || zip64CompressedSize || zip64Offset) {
+                val zip64Extra = findExtraField(buffer, extraEnd, ZIP64_EXTRA_FIELD_HEADER_ID)
+                if (zip64Extra != null) {
+                    if (zip64Size && zip64Extra.remaining() >= LONG_BYTES) {
+                        val size = zip64Extra.long
+                        if (size > Int.MAX_VALUE) {
+                            throw Zip64NotSupportedException(
+                                "Zip64 entry $name is too large in $file"
+                            )
+                        }
+                        decompressedSize = size.toInt()
+                    }
+                    if (zip64CompressedSize && zip64Extra.remaining() >= LONG_BYTES) {
+                        compressedSize = zip64Extra.long
+                    }
+                    if (zip64Offset && zip64Extra.remaining() >= LONG_BYTES) {
+                        localHeaderOffset = zip64Extra.long
+                    }
+                }
+            }
+
+            buffer.position(extraEnd + commentLength.toInt())
 
             // only add files, not directories
             if (decompressedSize > 0 || !name.endsWith("/")) {
-                val entry = DirectoryEntry(name, crc, decompressedSize)
+                val entry = DirectoryEntry(
+                    name,
+                    crc,
+                    decompressedSize,
+                    compressionMethod,
+                    compressedSize,
+                    localHeaderOffset
+                )
                 entries[entry.name] = entry
             }
         }
@@ -248,12 +286,52 @@ class ZipCentralDirectory(
         return Collections.unmodifiableMap(entries)
     }
 
+    /**
+     * Finds an extra field of a central directory entry.
+     *
+     * @param buffer the buffer positioned at the start of the extra fields of the entry. Its
+     * position is not changed.
+     * @param end the position of the end of the extra fields of the entry
+     * @param headerId the header id of the extra field to find
+     * @return a little-endian buffer with the data of the extra field, or null if the entry has
+     * no such extra field
+     */
+    private fun findExtraField(buffer: ByteBuffer, end: Int, headerId: Int): ByteBuffer? {
+        var position = buffer.position()
+        while (position + 2 * SHORT_BYTES <= end) {
+            val id = buffer.getShort(position).toInt() and 0xFFFF
+            val size = buffer.getShort(position + SHORT_BYTES).toInt() and 0xFFFF
+            val dataStart = position + 2 * SHORT_BYTES
+            if (dataStart + size > end) {
+                return null
+            }
+            if (id == headerId) {
+                val data = buffer.duplicate()
+                data.position(dataStart)
+                data.limit(dataStart + size)
+                return data.slice().order(ByteOrder.LITTLE_ENDIAN)
+            }
+            position = dataStart + size
+        }
+        return null
+    }
 }
 
+/**
+ * An entry of a [ZipCentralDirectory].
+ *
+ * [compressionMethod], [compressedSize] and [localHeaderOffset] allow reading the content of the
+ * entry without parsing the zip file again. They are only meaningful if the directory was read
+ * from the zip file itself, not from a copy written with [ZipCentralDirectory.writeTo]. Values
+ * stored in a Zip64 extended information extra field are read from that field.
+ */
 data class DirectoryEntry(
     val name: String,
     val crc32: Long,
-    val size: Int
+    val size: Int,
+    val compressionMethod: Int,
+    val compressedSize: Long,
+    val localHeaderOffset: Long
 )
 
 private const val EOCD_SIGNATURE: Int = 0x06054b50
@@ -262,6 +340,10 @@ private val ZIP64_EOCD_LOCATOR_SIGNATURE = byteArrayOf(0x50, 0x4B, 0x06, 0x07)
 
 /** Number of bytes of the Zip64 EOCD locator record.  */
 private const val ZIP64_EOCD_LOCATOR_SIZE = 20
+/** Value of a field of a central directory entry that is stored in the Zip64 extra field. */
+private const val ZIP64_MAGIC_VALUE = 0xFFFFFFFFL
+/** Header id of the Zip64 extended information extra field. */
+private const val ZIP64_EXTRA_FIELD_HEADER_ID = 0x0001
 private const val UNINITIALIZED: Long = -1
 private const val CENTRAL_DIRECTORY_FILE_HEADER_MAGIC = 0x02014b50
 private const val CENTRAL_DIRECTORY_FILE_HEADER_SIZE = 46
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.files;
+
+import com.android.annotations.NonNull;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of parsed {@link ZipCentralDirectory} instances, so that the many build steps reading the
+ * same zip files (typically the jars of dependencies) only read the central directory of each zip
+ * once.
+ *
+ * <p>Entries are keyed by the path, last modification time and size of the zip files, so a zip
+ * file that is rewritten is read again. Entries are evicted in least-recently-used order once the
+ * total number of zip entries in the cache exceeds a bound, and are softly referenced so they can
+ * also be collected when memory is low. The cache is meant to be cleared at the end of every build.
+ *
+ * <p>Cached directories are fully read before being shared, so they can be used from multiple
+ * threads.
+ */
+public final class ZipCentralDirectoryCache {
+
+    /**
+     * Maximum number of zip entries in the cache. Each entry takes around 300 bytes, including its
+     * part of the raw central directory.
+     */
+    private static final long MAX_ZIP_ENTRIES = 500_000;
+
+    @NonNull
+    private static final Cache<Key, ZipCentralDirectory> cache =
+            CacheBuilder.newBuilder()
+                    .maximumWeight(MAX_ZIP_ENTRIES)
+                    .weigher((Key key, ZipCentralDirectory directory) -> getWeight(directory))
+                    .softValues()
+                    .recordStats()
+                    .build();
+
+    private ZipCentralDirectoryCache() {}
+
+    /**
+     * Obtains the central directory of a zip file, reading it if it is not in the cache.
+     *
+     * <p>If the file does not exist, a directory that is not cached is returned, which will fail
+     * when read like a directory created with {@link
+     * ZipCentralDirectory#ZipCentralDirectory(File)}.
+     *
+     * @param zip the zip file
+     * @return the central directory, already read
+     * @throws IOException failed to read the zip file
+     */
+    @NonNull
+    public static ZipCentralDirectory get(@NonNull File zip) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(zip.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return new ZipCentralDirectory(zip);
+        }
+        if (!attributes.isRegularFile()) {
+            return new ZipCentralDirectory(zip);
+        }
+
+        Key key =
+                new Key(zip.getAbsolutePath(), attributes.lastModifiedTime(), attributes.size());
+        try {
+            return cache.get(
+                    key,
+                    () -> {
+                        ZipCentralDirectory directory = new ZipCentralDirectory(zip);
+                        // read everything before sharing the directory with other threads
+                        directory.getEntries();
+                        return directory;
+                    });
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** Removes all directories from the cache. */
+    public static void clear() {
+        cache.invalidateAll();
+    }
+
+    /** Returns the statistics of the cache since it was created. */
+    @NonNull
+    public static CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @VisibleForTesting
+    static long size() {
+        cache.cleanUp();
+        return cache.size();
+    }
+
+    private static int getWeight(@NonNull ZipCentralDirectory directory) {
+        return 1 + directory.getEntries().size();
+    }
+
+    /** Key of a zip file in the cache. */
+    private static final class Key {
+
+        @NonNull private final String path;
+        @NonNull private final FileTime lastModifiedTime;
+        private final long size;
+
+        Key(@NonNull String path, @NonNull FileTime lastModifiedTime, long size) {
+            this.path = path;
+            this.lastModifiedTime = lastModifiedTime;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return size == key.size
+                    && path.equals(key.path)
+                    && lastModifiedTime.equals(key.lastModifiedTime);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(path, lastModifiedTime, size);
+        }
+    }
+}
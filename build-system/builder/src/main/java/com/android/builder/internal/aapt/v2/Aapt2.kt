@@ -30,6 +30,26 @@ interface Aapt2 {
     /** Perform the requested compilation. Throws [Aapt2Exception] on failure */
     fun compile(request: CompileResourceRequest, logger: ILogger)
 
+    /**
+     * Perform the requested compilations in order, which may be sent to AAPT2 together.
+     *
+     * Stops at the first request that fails, and returns its [Aapt2Exception]. The returned map is
+     * empty if all the requests succeeded. Requests after the failed one may not be compiled.
+     */
+    fun compile(
+        requests: List<CompileResourceRequest>,
+        logger: ILogger
+    ): Map<CompileResourceRequest, Aapt2Exception> {
+        for (request in requests) {
+            try {
+                compile(request, logger)
+            } catch (e: Aapt2Exception) {
+                return mapOf(request to e)
+            }
+        }
+        return mapOf()
+    }
+
     /** Perform the requested linking. Throws [Aapt2Exception] on failure. */
     fun link(request: AaptPackageConfig, logger: ILogger)
 }
\ No newline at end of file
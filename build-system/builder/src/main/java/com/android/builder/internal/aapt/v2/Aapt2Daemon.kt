@@ -77,6 +77,14 @@ abstract class Aapt2Daemon(
         }
     }
 
+    /**
+     * Starts the underlying daemon process if it is not already running, blocking until it is
+     * ready to receive commands.
+     *
+     * This allows daemons to be started ahead of the first call to [compile] or [link].
+     */
+    fun start() = checkStarted()
+
     /**
      * Implementors must start the underlying AAPT2 daemon process.
      *
@@ -109,6 +117,44 @@ abstract class Aapt2Daemon(
     @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
     protected abstract fun doCompile(request: CompileResourceRequest, logger: ILogger)
 
+    override fun compile(
+        requests: List<CompileResourceRequest>,
+        logger: ILogger
+    ): Map<CompileResourceRequest, Aapt2Exception> {
+        checkStarted()
+        try {
+            return doCompile(requests, logger)
+        } catch (e: TimeoutException) {
+            handleError("Compile of ${requests.size} files timed out", e)
+        } catch (e: Exception) {
+            handleError("Unexpected error during compile of ${requests.size} files", e)
+        }
+    }
+
+    /**
+     * Implementors may override this to send several of the requests given to the daemon at once.
+     *
+     * The first error in the users sources must be returned rather than thrown, and no more
+     * requests should be processed after it. By default, the requests are compiled one at a time
+     * with [doCompile].
+     *
+     * This will only be called after [startProcess] is called and before [stopProcess] is called
+     */
+    @Throws(TimeoutException::class, Aapt2InternalException::class)
+    protected open fun doCompile(
+        requests: List<CompileResourceRequest>,
+        logger: ILogger
+    ): Map<CompileResourceRequest, Aapt2Exception> {
+        for (request in requests) {
+            try {
+                doCompile(request, logger)
+            } catch (e: Aapt2Exception) {
+                return mapOf(request to e)
+            }
+        }
+        return mapOf()
+    }
+
     override fun link(request: AaptPackageConfig, logger: ILogger) {
         checkStarted()
         try {
@@ -131,6 +177,12 @@ abstract class Aapt2Daemon(
     @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
     protected abstract fun doLink(request: AaptPackageConfig, logger: ILogger)
 
+    /**
+     * Returns the resident set size of the underlying daemon process in bytes, or null if the
+     * process is not running or its memory usage cannot be read on this platform.
+     */
+    open fun residentSetSize(): Long? = null
+
     fun shutDown() {
         state = when (state) {
             State.NEW -> State.SHUTDOWN // Never started, nothing to do.
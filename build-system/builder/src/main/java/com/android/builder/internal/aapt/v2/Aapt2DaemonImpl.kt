@@ -68,6 +68,8 @@ class Aapt2DaemonImpl(
 
     private lateinit var process: Process
     private lateinit var writer: Writer
+    /** The status file of the process on Linux, or null if it cannot be found. */
+    private var processStatus: File? = null
 
     private val processOutput = object : GrabProcessOutput.IProcessOutput {
         @Volatile
@@ -116,6 +118,21 @@ class Aapt2DaemonImpl(
         }
         //Process is ready
         processOutput.delegate = noOutputExpected
+        processStatus = processId(process)?.let { File("/proc/$it/status") }?.takeIf { it.isFile }
+    }
+
+    override fun residentSetSize(): Long? {
+        val status = processStatus ?: return null
+        if (state != State.RUNNING) {
+            return null
+        }
+        // The line looks like "VmRSS:     123456 kB".
+        val line = try {
+            status.useLines { lines -> lines.firstOrNull { it.startsWith("VmRSS:") } }
+        } catch (e: IOException) {
+            null
+        }
+        return line?.substringAfter(':')?.trim()?.substringBefore(' ')?.toLongOrNull()?.times(1024)
     }
 
     /**
@@ -139,34 +156,103 @@ class Aapt2DaemonImpl(
         try {
             processOutput.delegate = waitForTask
             Aapt2DaemonUtil.requestCompile(writer, request)
-            // Temporary workaround for b/111629686, manually generate the partial R file for raw and non xml res.
-            request.partialRFile?.apply {
-                if (request.inputDirectoryName.startsWith("raw") || !request.inputFile.path.endsWith(".xml")) {
-                    val type = request.inputDirectoryName.substringBefore('-')
-                    val nameWithoutExtension = request.inputFile.name.substringBefore('.')
-                    Files.write(toPath(), ImmutableList.of("default int $type $nameWithoutExtension"))
-                }
-            }
+            writePartialRFileWorkaround(request)
             val result = waitForTask.future.get(daemonTimeouts.compile, daemonTimeouts.compileUnit)
-            when (result) {
-                is WaitForTaskCompletion.Result.Succeeded -> {}
-                is WaitForTaskCompletion.Result.Failed -> {
-                    val args = makeCompileCommand(request).joinToString(" \\\n        ")
-                    throw Aapt2Exception.create(
-                        logger = logger,
-                        description = "Android resource compilation failed",
-                        output = result.stdErr,
-                        processName = displayName,
-                        command = "$aaptPath compile $args"
-                    )
+            compileFailure(request, result, logger)?.let { throw it }
+        } finally {
+            processOutput.delegate = noOutputExpected
+        }
+    }
+
+    /**
+     * Sends the compile requests to the daemon ahead of their replies, so that the daemon does not
+     * wait for a round-trip between two requests. At most [MAX_PENDING_COMPILE_REQUESTS] requests
+     * are sent ahead.
+     *
+     * The daemon processes the requests in order, so its replies are matched to the requests in
+     * order too. No more requests are sent once one of them fails, but the replies to the requests
+     * already sent are still read, so the daemon can be used again. Each reply must be received
+     * within the compile timeout of the previous one, as the daemon processes one request at a
+     * time, so that the timeout does not depend on the size of the batch.
+     */
+    @Throws(TimeoutException::class, Aapt2InternalException::class)
+    override fun doCompile(
+        requests: List<CompileResourceRequest>,
+        logger: ILogger
+    ): Map<CompileResourceRequest, Aapt2Exception> {
+        val failures = LinkedHashMap<CompileResourceRequest, Aapt2Exception>()
+        if (requests.isEmpty()) {
+            return failures
+        }
+        val waitForTasks = WaitForTaskCompletions(displayName, logger, requests.size)
+        var sent = 0
+        try {
+            processOutput.delegate = waitForTasks
+            for ((index, request) in requests.withIndex()) {
+                if (failures.isEmpty()) {
+                    val end = minOf(requests.size, index + MAX_PENDING_COMPILE_REQUESTS)
+                    if (sent < end) {
+                        val toSend = requests.subList(sent, end)
+                        Aapt2DaemonUtil.requestCompile(writer, toSend)
+                        toSend.forEach { writePartialRFileWorkaround(it) }
+                        sent = end
+                    }
+                } else if (index >= sent) {
+                    break
                 }
-                is WaitForTaskCompletion.Result.InternalAapt2Error -> {
-                    throw result.failure
+                val result = waitForTasks.tasks[index].future
+                    .get(daemonTimeouts.compile, daemonTimeouts.compileUnit)
+                val failure = compileFailure(request, result, logger)
+                if (failure != null && failures.isEmpty()) {
+                    failures[request] = failure
                 }
             }
         } finally {
             processOutput.delegate = noOutputExpected
         }
+        return failures
+    }
+
+    /**
+     * Temporary workaround for b/111629686, manually generate the partial R file for raw and non
+     * xml res.
+     */
+    private fun writePartialRFileWorkaround(request: CompileResourceRequest) {
+        request.partialRFile?.apply {
+            if (request.inputDirectoryName.startsWith("raw")
+                || !request.inputFile.path.endsWith(".xml")) {
+                val type = request.inputDirectoryName.substringBefore('-')
+                val nameWithoutExtension = request.inputFile.name.substringBefore('.')
+                Files.write(toPath(), ImmutableList.of("default int $type $nameWithoutExtension"))
+            }
+        }
+    }
+
+    /**
+     * Returns the exception to report for a compile request, or null if it succeeded. Throws if
+     * AAPT2 itself failed.
+     */
+    private fun compileFailure(
+        request: CompileResourceRequest,
+        result: WaitForTaskCompletion.Result,
+        logger: ILogger
+    ): Aapt2Exception? {
+        return when (result) {
+            is WaitForTaskCompletion.Result.Succeeded -> null
+            is WaitForTaskCompletion.Result.Failed -> {
+                val args = makeCompileCommand(request).joinToString(" \\\n        ")
+                Aapt2Exception.create(
+                    logger = logger,
+                    description = "Android resource compilation failed",
+                    output = result.stdErr,
+                    processName = displayName,
+                    command = "$aaptPath compile $args"
+                )
+            }
+            is WaitForTaskCompletion.Result.InternalAapt2Error -> {
+                throw result.failure
+            }
+        }
     }
 
     @Throws(TimeoutException::class, Aapt2InternalException::class, Aapt2Exception::class)
@@ -235,6 +321,25 @@ class Aapt2DaemonImpl(
         }
     }
 
+    /**
+     * Returns the pid of a process, using Process.pid() when running on Java 9 or later and the
+     * field of the Unix implementation of Process on Java 8, or null if it cannot be read.
+     */
+    private fun processId(process: Process): Long? =
+            try {
+                Process::class.java.getMethod("pid").invoke(process) as Long
+            } catch (e: NoSuchMethodException) {
+                try {
+                    val field = process.javaClass.getDeclaredField("pid")
+                    field.isAccessible = true
+                    field.getInt(process).toLong()
+                } catch (e: Exception) {
+                    null
+                }
+            } catch (e: Exception) {
+                null
+            }
+
     class NoOutputExpected(private val displayName: String,
             val logger: ILogger) : GrabProcessOutput.IProcessOutput {
         override fun out(line: String?) {
@@ -352,6 +457,46 @@ class Aapt2DaemonImpl(
         }
     }
 
+    /**
+     * Waits for the replies to several requests sent at once, which the daemon sends in the order
+     * of the requests.
+     */
+    class WaitForTaskCompletions(
+            private val displayName: String,
+            val logger: ILogger,
+            count: Int) : GrabProcessOutput.IProcessOutput {
+
+        val tasks = List(count) { WaitForTaskCompletion(displayName, logger) }
+
+        /** Index of the task the daemon is currently replying to. */
+        @Volatile
+        private var current = 0
+
+        override fun out(line: String?) {
+            tasks[minOf(current, tasks.size - 1)].out(line)
+        }
+
+        override fun err(line: String?) {
+            when {
+                line == null -> {
+                    // The process exited, so none of the remaining tasks will complete.
+                    for (index in current until tasks.size) {
+                        tasks[index].err(null)
+                    }
+                }
+                current >= tasks.size -> {
+                    logger.error(null, "$displayName: Unexpected error output: $line")
+                }
+                else -> {
+                    tasks[current].err(line)
+                    if (line == "Done") {
+                        current++
+                    }
+                }
+            }
+        }
+    }
+
     class AllowShutdown(private val displayName: String,
             val logger: ILogger) : GrabProcessOutput.IProcessOutput {
 
@@ -369,4 +514,9 @@ class Aapt2DaemonImpl(
         }
     }
 
-}
\ No newline at end of file
+}
+
+/**
+ * Maximum number of compile requests of a batch sent to a daemon before their replies are read.
+ */
+private const val MAX_PENDING_COMPILE_REQUESTS = 16
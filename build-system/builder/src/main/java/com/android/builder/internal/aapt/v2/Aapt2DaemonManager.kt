@@ -24,6 +24,9 @@ import com.android.utils.ILogger
 import com.google.common.base.Preconditions
 import com.google.common.base.Ticker
 import java.io.Closeable
+import java.util.ArrayDeque
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
 import java.util.concurrent.TimeUnit
 import javax.annotation.concurrent.GuardedBy
 import javax.annotation.concurrent.NotThreadSafe
@@ -40,6 +43,15 @@ import javax.annotation.concurrent.ThreadSafe
  * Users of this class are expected to call leaseProcess on a worker thread in a
  * try-with-resources/use block. The operations on the [LeasedAaptDaemon] are then blocking on that
  * thread.
+ *
+ * Users that know how many leases they are about to request can call [preWarm] beforehand, so
+ * that daemons are started in the background while the work is being queued. Leases requested
+ * while a daemon is starting in the background wait for that daemon instead of starting another
+ * one.
+ *
+ * The memory used by an AAPT2 daemon grows with the number of resources it has processed, so
+ * daemons whose resident set size exceeds [maxDaemonResidentSetSize] bytes when they are returned
+ * to the pool are recycled.
  */
 @ThreadSafe
 class Aapt2DaemonManager(
@@ -48,7 +60,12 @@ class Aapt2DaemonManager(
         expiryTime: Long,
         expiryTimeUnit: TimeUnit,
         private val listener: Listener = NoOpListener(),
-        private val timeSource: Ticker = Ticker.systemTicker()) {
+        private val timeSource: Ticker = Ticker.systemTicker(),
+        private val maxPreWarmedDaemons: Int = Runtime.getRuntime().availableProcessors(),
+        private val maxDaemonResidentSetSize: Long = Long.MAX_VALUE,
+        private val warmUpExecutor: Executor = Executor { command ->
+            Thread(command, "AAPT2 daemon warm-up").apply { isDaemon = true }.start()
+        }) {
 
     private val expiryTimeNanoSeconds = expiryTimeUnit.toNanos(expiryTime)
 
@@ -58,10 +75,39 @@ class Aapt2DaemonManager(
     @GuardedBy("this")
     private val pool: MutableList<LeasableAaptDaemon> = mutableListOf()
 
+    @GuardedBy("this")
+    private var leaseCount: Int = 0
+    @GuardedBy("this")
+    private var queuedLeaseCount: Int = 0
+    @GuardedBy("this")
+    private var leaseNanoSeconds: Long = 0
+    @GuardedBy("this")
+    private var maxLeaseNanoSeconds: Long = 0
+    @GuardedBy("this")
+    private var queueWaitNanoSeconds: Long = 0
+    @GuardedBy("this")
+    private var recycledCount: Int = 0
+
+    /** When the leases announced by [preWarm] and not requested yet were announced. */
+    @GuardedBy("this")
+    private val queuedLeases: ArrayDeque<Long> = ArrayDeque()
+
+    /**
+     * Statistics of all the daemons started by this manager since it was last shut down, including
+     * those no longer pooled.
+     */
+    @GuardedBy("this")
+    private val daemonStats: MutableList<DaemonStats> = mutableListOf()
+
     internal class LeasableAaptDaemon(
             val daemon: Aapt2Daemon,
+            val displayId: Int,
             var lastUsedNanoSeconds: Long,
-            var busy: Boolean = false) {
+            var busy: Boolean = false,
+            var requestCount: Int = 0,
+            var busyNanoSeconds: Long = 0,
+            /** Released once the daemon has started in the background, null if not starting. */
+            var warmUp: CountDownLatch? = null) {
         fun shutdown() = daemon.shutDown()
     }
 
@@ -70,13 +116,98 @@ class Aapt2DaemonManager(
      * Or starting a new process if all the existing daemons in the pool are in use
      *
      * Blocks until the daemon is ready to receive commands.
+     *
+     * @param queued whether the work requesting this lease was announced by [preWarm], in which
+     *     case the time since the oldest lease announced to this manager is recorded as queue wait
      */
+    @JvmOverloads
+    fun leaseDaemon(queued: Boolean = false): LeasedAaptDaemon {
+        val requested = timeSource.read()
+        while (true) {
+            val daemon: LeasableAaptDaemon
+            val warmUp: CountDownLatch?
+            synchronized(this) {
+                daemon = pool.find {
+                    !it.busy && it.warmUp == null && it.daemon.state == Aapt2Daemon.State.RUNNING
+                } ?: pool.find { !it.busy && it.warmUp != null }
+                ?: pool.find { !it.busy }
+                ?: newAaptDaemon()
+                daemon.busy = true
+                warmUp = daemon.warmUp
+            }
+
+            // Wait for daemons being started in the background, rather than starting another one.
+            warmUp?.await()
+            if (warmUp != null && daemon.daemon.state != Aapt2Daemon.State.RUNNING) {
+                // The daemon failed to start, and is removed from the pool when returned.
+                returnProcess(daemon)
+                continue
+            }
+
+            synchronized(this) {
+                val leased = timeSource.read()
+                val leaseTime = leased - requested
+                leaseCount++
+                leaseNanoSeconds += leaseTime
+                maxLeaseNanoSeconds = maxOf(maxLeaseNanoSeconds, leaseTime)
+                // The announcement is only known to the manager of the process that announced it.
+                val queuedNanoSeconds = if (queued) queuedLeases.pollFirst() else null
+                if (queuedNanoSeconds != null) {
+                    queuedLeaseCount++
+                    queueWaitNanoSeconds += leased - queuedNanoSeconds
+                }
+            }
+            return LeasedAaptDaemon(daemon, timeSource, this::returnLease)
+        }
+    }
+
+    /**
+     * Announces that [queuedLeases] leases are about to be requested, for example because work
+     * items using AAPT2 were just submitted to a worker queue.
+     *
+     * Starts new daemons in the background so that the pool contains enough daemons to serve the
+     * queued leases, up to [maxPreWarmedDaemons]. Does not block while the daemons start.
+     *
+     * The queued work items should pass `queued = true` to [leaseDaemon], so that the time they
+     * stayed queued is measured.
+     */
+    fun preWarm(queuedLeases: Int) {
+        takeDaemonsToPreWarm(queuedLeases).forEach { daemon ->
+            warmUpExecutor.execute {
+                try {
+                    daemon.daemon.start()
+                } catch (e: Exception) {
+                    // The daemon shut itself down, so it is removed from the pool.
+                    // The error is reported again to whoever needs an AAPT2 daemon.
+                    logger.verbose("Failed to pre-warm AAPT2 daemon: %1\$s", e.message)
+                } finally {
+                    finishWarmUp(daemon)
+                }
+            }
+        }
+    }
+
     @Synchronized
-    fun leaseDaemon(): LeasedAaptDaemon {
-        val daemon =
-                pool.find { !it.busy } ?: newAaptDaemon()
-        daemon.busy = true
-        return LeasedAaptDaemon(daemon, this::returnProcess)
+    private fun takeDaemonsToPreWarm(queuedLeases: Int): List<LeasableAaptDaemon> {
+        val queued = timeSource.read()
+        repeat(queuedLeases) { this.queuedLeases.addLast(queued) }
+        val missing = minOf(queuedLeases, maxPreWarmedDaemons) - pool.size
+        return (0 until missing).map { newAaptDaemon().apply { warmUp = CountDownLatch(1) } }
+    }
+
+    /**
+     * Marks a daemon started in the background as ready, and wakes up the lease waiting for it, if
+     * any. If the daemon is not leased and failed to start, it is removed from the pool.
+     */
+    @Synchronized
+    private fun finishWarmUp(key: LeasableAaptDaemon) {
+        val warmUp = checkNotNull(key.warmUp)
+        key.warmUp = null
+        if (!key.busy) {
+            key.busy = true
+            returnProcess(key)
+        }
+        warmUp.countDown()
     }
 
     /**
@@ -88,10 +219,19 @@ class Aapt2DaemonManager(
         expiredDaemons.forEach { it.shutdown() }
     }
 
-    /** Shuts down this AAPT process manager. */
-    @Synchronized
+    /**
+     * Shuts down this AAPT process manager.
+     *
+     * Waits for the daemons being started in the background, so that they can be shut down.
+     */
     fun shutdown() {
-        if (pool.any { it.busy }) {
+        synchronized(this) { pool.mapNotNull { it.warmUp } }.forEach { it.await() }
+        shutdownPool()
+    }
+
+    @Synchronized
+    private fun shutdownPool() {
+        if (pool.any { it.busy || it.warmUp != null }) {
             error("AAPT Process manager cannot be shut down while daemons are in use")
         }
         if (!pool.isEmpty()) {
@@ -99,13 +239,21 @@ class Aapt2DaemonManager(
         }
         pool.forEach { it.shutdown() }
         pool.clear()
+        leaseCount = 0
+        queuedLeaseCount = 0
+        leaseNanoSeconds = 0
+        maxLeaseNanoSeconds = 0
+        queueWaitNanoSeconds = 0
+        recycledCount = 0
+        queuedLeases.clear()
+        daemonStats.clear()
     }
 
-    @GuardedBy("this")  // Only called from leaseDaemon, so already synchronized
+    @GuardedBy("this")  // Only called from synchronized methods
     private fun newAaptDaemon(): LeasableAaptDaemon {
         val displayId = latestDisplayId++
         val process = daemonFactory.invoke(displayId)
-        val daemon = LeasableAaptDaemon(process, timeSource.read())
+        val daemon = LeasableAaptDaemon(process, displayId, timeSource.read())
         if (pool.isEmpty()) {
             listener.firstDaemonStarted(this)
         }
@@ -113,20 +261,62 @@ class Aapt2DaemonManager(
         return daemon
     }
 
-    /** Marks the process as returned, and updates when it was last used */
+    /** Returns a leased process to the pool, and shuts it down if it needs to be recycled. */
+    private fun returnLease(key: LeasableAaptDaemon, requestCount: Int, busyNanoSeconds: Long) {
+        // Read outside of the lock, the daemon is still owned by the lease.
+        val residentSetSize =
+                if (maxDaemonResidentSetSize == Long.MAX_VALUE) null
+                else key.daemon.residentSetSize()
+        if (returnProcess(key, requestCount, busyNanoSeconds, residentSetSize)) {
+            key.shutdown()
+        }
+    }
+
+    /**
+     * Marks the process as returned, and updates when it was last used.
+     *
+     * Returns true if the process was taken out of the pool to be recycled, in which case the
+     * caller must shut it down.
+     */
     @Synchronized
-    private fun returnProcess(key: LeasableAaptDaemon) {
-        if (key.daemon.state != Aapt2Daemon.State.RUNNING) {
+    private fun returnProcess(
+            key: LeasableAaptDaemon,
+            requestCount: Int = 0,
+            busyNanoSeconds: Long = 0,
+            residentSetSize: Long? = null): Boolean {
+        key.requestCount += requestCount
+        key.busyNanoSeconds += busyNanoSeconds
+        if (requestCount > 0) {
+            recordDaemonStats(key)
+        }
+        val recycle = key.daemon.state == Aapt2Daemon.State.RUNNING
+                && residentSetSize != null && residentSetSize > maxDaemonResidentSetSize
+        if (key.daemon.state != Aapt2Daemon.State.RUNNING || recycle) {
             // If the daemon was not started or has stopped there's no point keeping it in the pool.
             // No need to shut it down either, that would have already happened if needed.
             pool.remove(key)
+            if (recycle) {
+                recycledCount++
+            }
             if (pool.isEmpty()) {
                 listener.lastDaemonStopped()
             }
-            return
+            return recycle
         }
         key.lastUsedNanoSeconds = timeSource.read()
         key.busy = false
+        return false
+    }
+
+    @GuardedBy("this")
+    private fun recordDaemonStats(key: LeasableAaptDaemon) {
+        val stats = DaemonStats(key.displayId, key.requestCount, key.busyNanoSeconds)
+        val index = daemonStats.indexOfFirst { it.displayId == key.displayId }
+        if (index < 0) {
+            daemonStats.add(stats)
+        } else {
+            daemonStats[index] = stats
+        }
     }
 
     @Synchronized
@@ -137,8 +327,9 @@ class Aapt2DaemonManager(
         pool.clear()
         for (daemon in oldPool) {
             when {
-            // Daemons that are in use, or have been used recently are kept
-                daemon.busy || daemon.lastUsedNanoSeconds >= expireHorizon -> pool.add(daemon)
+            // Daemons that are in use, starting, or have been used recently are kept
+                daemon.busy || daemon.warmUp != null
+                        || daemon.lastUsedNanoSeconds >= expireHorizon -> pool.add(daemon)
                 else -> expired.add(daemon)
             }
         }
@@ -159,25 +350,45 @@ class Aapt2DaemonManager(
     @NotThreadSafe
     class LeasedAaptDaemon internal constructor(
             private val leasableDaemon: LeasableAaptDaemon,
-            private val closeAction: (LeasableAaptDaemon) -> Unit) : Aapt2, Closeable {
+            private val timeSource: Ticker,
+            private val closeAction: (LeasableAaptDaemon, Int, Long) -> Unit) : Aapt2, Closeable {
 
         private var leaseValid = true
+        private var requestCount = 0
+        private var busyNanoSeconds = 0L
 
         @Throws(Aapt2Exception::class)
         override fun compile(request: CompileResourceRequest, logger: ILogger) {
             Preconditions.checkState(leaseValid, "Leased process is already closed")
-            leasableDaemon.daemon.compile(request, logger)
+            measure { leasableDaemon.daemon.compile(request, logger) }
+        }
+
+        override fun compile(
+                requests: List<CompileResourceRequest>,
+                logger: ILogger): Map<CompileResourceRequest, Aapt2Exception> {
+            Preconditions.checkState(leaseValid, "Leased process is already closed")
+            return measure(requests.size) { leasableDaemon.daemon.compile(requests, logger) }
         }
 
         @Throws(Aapt2Exception::class)
         override fun link(request: AaptPackageConfig, logger: ILogger) {
             Preconditions.checkState(leaseValid, "Leased process is already closed")
-            leasableDaemon.daemon.link(request, logger)
+            measure { leasableDaemon.daemon.link(request, logger) }
+        }
+
+        private inline fun <T> measure(requests: Int = 1, action: () -> T): T {
+            val start = timeSource.read()
+            try {
+                return action()
+            } finally {
+                requestCount += requests
+                busyNanoSeconds += timeSource.read() - start
+            }
         }
 
         override fun close() {
             Preconditions.checkState(leaseValid, "Leased process is already closed")
-            closeAction(leasableDaemon)
+            closeAction(leasableDaemon, requestCount, busyNanoSeconds)
             leaseValid = false
         }
     }
@@ -203,9 +414,59 @@ class Aapt2DaemonManager(
     }
 
     @Synchronized
-    fun stats(): Stats = Stats(poolSize = pool.size, busyCount = pool.count { it.busy })
+    fun stats(): Stats = Stats(
+            poolSize = pool.size,
+            busyCount = pool.count { it.busy },
+            queuedCount = queuedLeaseCount,
+            leaseCount = leaseCount,
+            leaseNanoSeconds = leaseNanoSeconds,
+            maxLeaseNanoSeconds = maxLeaseNanoSeconds,
+            queueWaitNanoSeconds = queueWaitNanoSeconds,
+            recycledCount = recycledCount,
+            daemons = daemonStats.toList())
+
+    /**
+     * Statistics of the pool since it was last shut down.
+     *
+     * [leaseNanoSeconds] is the total time spent in [leaseDaemon]. [queuedCount] is the number of
+     * leases that were announced by [preWarm], and [queueWaitNanoSeconds] the total time between
+     * these leases being announced and being requested.
+     */
+    data class Stats(
+            val poolSize: Int,
+            val busyCount: Int,
+            val queuedCount: Int = 0,
+            val leaseCount: Int = 0,
+            val leaseNanoSeconds: Long = 0,
+            val maxLeaseNanoSeconds: Long = 0,
+            val queueWaitNanoSeconds: Long = 0,
+            val recycledCount: Int = 0,
+            val daemons: List<DaemonStats> = listOf()) {
 
-    data class Stats(val poolSize: Int, val busyCount: Int)
+        override fun toString(): String {
+            val builder = StringBuilder()
+            builder.append("AAPT2 daemons: ${daemons.size} used, $recycledCount recycled, ")
+            builder.append("$leaseCount leases ")
+            builder.append("(lease time ${TimeUnit.NANOSECONDS.toMillis(leaseNanoSeconds)}ms, ")
+            builder.append("max ${TimeUnit.NANOSECONDS.toMillis(maxLeaseNanoSeconds)}ms, ")
+            builder.append("queue wait ${TimeUnit.NANOSECONDS.toMillis(queueWaitNanoSeconds)}ms)")
+            daemons.forEach { builder.append("\n  ").append(it) }
+            return builder.toString()
+        }
+    }
 
-}
+    /** Number of requests processed by a daemon, and the time spent processing them. */
+    data class DaemonStats(val displayId: Int, val requestCount: Int, val busyNanoSeconds: Long) {
+
+        /** Number of requests processed per second the daemon was busy. */
+        val throughput: Double
+            get() =
+                if (busyNanoSeconds == 0L) 0.0
+                else requestCount * TimeUnit.SECONDS.toNanos(1).toDouble() / busyNanoSeconds
 
+        override fun toString() =
+                "#$displayId: $requestCount requests in " +
+                        "${TimeUnit.NANOSECONDS.toMillis(busyNanoSeconds)}ms " +
+                        "(${"%.1f".format(throughput)} requests/s)"
+    }
+}
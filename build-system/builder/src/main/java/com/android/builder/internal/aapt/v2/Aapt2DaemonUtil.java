@@ -34,6 +34,21 @@ public class Aapt2DaemonUtil {
         request(writer, "c", AaptV2CommandBuilder.makeCompileCommand(command));
     }
 
+    /**
+     * Writes the compile commands for all the given requests before flushing the writer, so that
+     * the daemon can process them one after the other without waiting for the caller.
+     *
+     * <p>The daemon replies to each command in order.
+     */
+    public static void requestCompile(
+            @NonNull Writer writer, @NonNull Iterable<CompileResourceRequest> commands)
+            throws IOException {
+        for (CompileResourceRequest command : commands) {
+            writeRequest(writer, "c", AaptV2CommandBuilder.makeCompileCommand(command));
+        }
+        writer.flush();
+    }
+
     public static void requestLink(@NonNull Writer writer, @NonNull AaptPackageConfig command)
             throws IOException {
         ImmutableList<String> args;
@@ -51,6 +66,12 @@ public class Aapt2DaemonUtil {
 
     private static void request(Writer writer, String command, Iterable<String> args)
             throws IOException {
+        writeRequest(writer, command, args);
+        writer.flush();
+    }
+
+    private static void writeRequest(Writer writer, String command, Iterable<String> args)
+            throws IOException {
         writer.write(command);
         writer.write('\n');
         for (String s : args) {
@@ -60,6 +81,5 @@ public class Aapt2DaemonUtil {
         // Finish the request
         writer.write('\n');
         writer.write('\n');
-        writer.flush();
     }
 }
@@ -19,8 +19,10 @@ package com.android.builder.internal.packaging;
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
+import com.android.builder.files.DirectoryEntry;
 import com.android.builder.files.NativeLibraryAbiPredicate;
 import com.android.builder.files.RelativeFile;
+import com.android.builder.files.ZipCentralDirectoryCache;
 import com.android.builder.packaging.PackagerException;
 import com.android.ide.common.resources.FileStatus;
 import com.android.tools.build.apkzlib.zfile.ApkCreator;
@@ -33,11 +35,12 @@ import com.google.common.io.Closer;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 /**
  * Makes the final app package. The packager allows build an APK from:
@@ -79,6 +82,12 @@ import java.util.stream.StreamSupport;
  * directory named after the APK. So, APKs with different names will always use different
  * caches. Secondly, if multiple APKs can exist with different names, then different intermediate
  * directories should be provided for each.
+ *
+ * <p>Files and archives are handed to the {@link ApkCreator} sorted by name, so the order in which
+ * entries are added does not depend on the order of the updates. Depending on its configuration,
+ * the {@link ApkCreator} compresses entries in parallel while they are added, and writes them in
+ * the order they were added when the packager is closed. See {@link #getStatistics()} for the
+ * throughput of the packager.
  */
 public class IncrementalPackager implements Closeable {
 
@@ -100,6 +109,11 @@ public class IncrementalPackager implements Closeable {
     @NonNull
     private final NativeLibraryAbiPredicate mAbiPredicate;
 
+    /**
+     * Statistics of this packager.
+     */
+    @NonNull
+    private final PackagingStatistics mStatistics = new PackagingStatistics();
 
     /**
      * Creates a new instance.
@@ -156,6 +170,7 @@ public class IncrementalPackager implements Closeable {
 
         for (String deletedPath : deletedPaths) {
             mApkCreator.deleteFile(deletedPath);
+            mStatistics.fileDeleted();
         }
 
         Predicate<PackagedFileUpdate> isNewOrChanged =
@@ -167,14 +182,16 @@ public class IncrementalPackager implements Closeable {
                                 pfu ->
                                         pfu.getSource().getType() == RelativeFile.Type.DIRECTORY
                                                 && isNewOrChanged.test(pfu))
+                        .sorted(Comparator.comparing(PackagedFileUpdate::getName))
                         .collect(Collectors.toList());
 
         for (PackagedFileUpdate rf : newOrChangedNonArchiveFiles) {
             File out = rf.getSource().getFile();
             mApkCreator.writeFile(out, rf.getName());
+            mStatistics.fileWritten(out.length());
         }
 
-        Iterable<PackagedFileUpdate> newOrChangedArchiveFiles =
+        List<PackagedFileUpdate> newOrChangedArchiveFiles =
                 updates.stream()
                         .filter(
                                 pfu ->
@@ -182,10 +199,13 @@ public class IncrementalPackager implements Closeable {
                                                 && isNewOrChanged.test(pfu))
                         .collect(Collectors.toList());
 
-        Set<File> archives =
-                StreamSupport.stream(newOrChangedArchiveFiles.spliterator(), false)
+        List<File> archives =
+                newOrChangedArchiveFiles
+                        .stream()
                         .map(pfu -> pfu.getSource().getBase())
-                        .collect(Collectors.toSet());
+                        .distinct()
+                        .sorted()
+                        .collect(Collectors.toList());
         Set<String> names = Sets.newHashSet(
                 Iterables.transform(
                         newOrChangedArchiveFiles,
@@ -200,9 +220,37 @@ public class IncrementalPackager implements Closeable {
             pathNameMap.put(archiveUpdate.getSource().getRelativePath(), archiveUpdate.getName());
         }
 
+        Map<File, List<String>> relativePathsByArchive =
+                newOrChangedArchiveFiles
+                        .stream()
+                        .collect(
+                                Collectors.groupingBy(
+                                        pfu -> pfu.getSource().getBase(),
+                                        Collectors.mapping(
+                                                pfu -> pfu.getSource().getRelativePath(),
+                                                Collectors.toList())));
         for (File arch : archives) {
             mApkCreator.writeZip(arch, pathNameMap::get, name -> !names.contains(name));
+            mStatistics.archiveMerged(getUncompressedSize(arch, relativePathsByArchive.get(arch)));
+        }
+    }
+
+    /**
+     * Returns the total uncompressed size of the given entries of an archive, read from its central
+     * directory. The central directory is usually already cached since it was read to find the
+     * changed entries of the archive (see {@link ZipCentralDirectoryCache}).
+     */
+    private static long getUncompressedSize(
+            @NonNull File archive, @NonNull List<String> relativePaths) throws IOException {
+        Map<String, DirectoryEntry> entries = ZipCentralDirectoryCache.get(archive).getEntries();
+        long size = 0;
+        for (String relativePath : relativePaths) {
+            DirectoryEntry entry = entries.get(relativePath);
+            if (entry != null && entry.getSize() > 0) {
+                size += entry.getSize();
+            }
         }
+        return size;
     }
 
     /**
@@ -312,6 +360,14 @@ public class IncrementalPackager implements Closeable {
         }
     }
 
+    /**
+     * Returns the statistics of this packager. They are complete once the packager is closed.
+     */
+    @NonNull
+    public PackagingStatistics getStatistics() {
+        return mStatistics;
+    }
+
     public boolean hasPendingChangesWithWait() throws IOException {
         return mApkCreator != null && mApkCreator.hasPendingChangesWithWait();
     }
@@ -326,6 +382,8 @@ public class IncrementalPackager implements Closeable {
             closer.register(mApkCreator);
             closer.register(mDexRenamer);
             mApkCreator = null;
+        } finally {
+            mStatistics.stop();
         }
     }
 }
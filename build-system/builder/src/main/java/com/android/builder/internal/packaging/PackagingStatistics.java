@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.packaging;
+
+import com.android.annotations.NonNull;
+import com.google.common.base.Stopwatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of an {@link IncrementalPackager}, from its creation until it is closed. Closing the
+ * packager waits for the compression of all entries and writes the archive, so the elapsed time
+ * includes all the work done to produce the APK.
+ */
+public final class PackagingStatistics {
+
+    @NonNull private final Stopwatch stopwatch = Stopwatch.createStarted();
+
+    private int filesWritten;
+    private long bytesWritten;
+    private int archivesMerged;
+    private long archiveBytes;
+    private int filesDeleted;
+
+    void fileWritten(long size) {
+        filesWritten++;
+        bytesWritten += size;
+    }
+
+    void archiveMerged(long size) {
+        archivesMerged++;
+        archiveBytes += size;
+    }
+
+    void fileDeleted() {
+        filesDeleted++;
+    }
+
+    void stop() {
+        if (stopwatch.isRunning()) {
+            stopwatch.stop();
+        }
+    }
+
+    /** Returns the number of files added or updated from directories. */
+    public int getFilesWritten() {
+        return filesWritten;
+    }
+
+    /** Returns the total size of the files added or updated from directories. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Returns the number of archives entries were added or updated from. */
+    public int getArchivesMerged() {
+        return archivesMerged;
+    }
+
+    /** Returns the total uncompressed size of the entries added or updated from archives. */
+    public long getArchiveBytes() {
+        return archiveBytes;
+    }
+
+    /** Returns the number of entries deleted from the APK. */
+    public int getFilesDeleted() {
+        return filesDeleted;
+    }
+
+    /** Returns the time spent packaging, in milliseconds. */
+    public long getElapsedMillis() {
+        return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    }
+
+    /** Returns the number of input bytes processed per second, in megabytes. */
+    public double getThroughputMbPerSecond() {
+        long elapsed = Math.max(1, stopwatch.elapsed(TimeUnit.MICROSECONDS));
+        return (bytesWritten + archiveBytes) / (double) elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%1$d files (%2$d bytes) and entries of %3$d archives (%4$d bytes) written, %5$d "
+                        + "files deleted in %6$d ms (%7$.1f MB/s)",
+                filesWritten,
+                bytesWritten,
+                archivesMerged,
+                archiveBytes,
+                filesDeleted,
+                getElapsedMillis(),
+                getThroughputMbPerSecond());
+    }
+}
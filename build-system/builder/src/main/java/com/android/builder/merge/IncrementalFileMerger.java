@@ -20,9 +20,9 @@ import com.android.annotations.NonNull;
 import com.android.ide.common.resources.FileStatus;
 import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 /**
@@ -42,7 +42,7 @@ public final class IncrementalFileMerger {
      * applying a set of changes represented by a list of instances of
      * {@link IncrementalFileMergerInput} to a current state represented by an instance of
      * {@link IncrementalFileMergerState}. All changes that need to be made to the output as a
-     * consequence of the inputs are reported to {@code output}.
+     * consequence of the inputs are reported to {@code output}, in the order of the paths.
      *
      * <p>See package description for details.
      *
@@ -77,8 +77,9 @@ public final class IncrementalFileMerger {
             mergeChangedInputs(inputs, output, state, newState);
         }
 
-        inputs.forEach(IncrementalFileMergerInput::close);
+        // Close the output first, as it may still be reading from the inputs.
         output.close();
+        inputs.forEach(IncrementalFileMergerInput::close);
 
         return newState.build();
     }
@@ -99,9 +100,10 @@ public final class IncrementalFileMerger {
             @NonNull IncrementalFileMergerState.Builder newState) {
 
         /*
-         * Make the set of all impacted paths.
+         * Make the set of all impacted paths. Paths are sorted so that changes are reported to
+         * the output in a deterministic order.
          */
-        Set<String> impactedPaths = new HashSet<>();
+        Set<String> impactedPaths = new TreeSet<>();
         inputs.forEach(i -> impactedPaths.addAll(i.getUpdatedPaths()));
 
         /*
@@ -157,7 +159,7 @@ public final class IncrementalFileMerger {
          * are new (in case they appear in the updated set) or they are referred to in the previous
          * state.
          */
-        Set<String> maybeImpactedPaths = new HashSet<>();
+        Set<String> maybeImpactedPaths = new TreeSet<>();
         state.getInputNames().forEach(n -> maybeImpactedPaths.addAll(state.filesOf(n)));
         inputs.forEach(i -> maybeImpactedPaths.addAll(i.getUpdatedPaths()));
 
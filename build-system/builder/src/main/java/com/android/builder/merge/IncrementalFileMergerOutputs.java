@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
@@ -107,4 +108,28 @@ public final class IncrementalFileMergerOutputs {
             }
         };
     }
+
+    /**
+     * Creates a new output like {@link #fromAlgorithmAndWriter(StreamMergeAlgorithm,
+     * MergeOutputWriter)}, but that merges files in parallel using the provided pool. Files are
+     * still written one at a time, in the order in which they are reported to the output, so the
+     * result is the same as with the sequential output.
+     *
+     * <p>The merged content of a file is kept in memory until it is written, and only a bounded
+     * number of files are merged ahead of the file being written. The inputs of the files must
+     * support opening and reading paths from multiple threads, and the output must be closed
+     * before the inputs are.
+     *
+     * @param algorithm the algorithm to merge files (not used for files that are removed)
+     * @param writer the writer that builds the output
+     * @param forkJoinPool the pool used to merge files
+     * @return the output
+     */
+    @NonNull
+    public static IncrementalFileMergerOutput fromAlgorithmAndWriter(
+            @NonNull StreamMergeAlgorithm algorithm,
+            @NonNull MergeOutputWriter writer,
+            @NonNull ForkJoinPool forkJoinPool) {
+        return new ParallelIncrementalFileMergerOutput(algorithm, writer, forkJoinPool);
+    }
 }
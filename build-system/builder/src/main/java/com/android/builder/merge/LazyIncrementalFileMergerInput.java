@@ -19,10 +19,10 @@ package com.android.builder.merge;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.builder.files.RelativeFile;
+import com.android.builder.files.ZipCentralDirectory;
+import com.android.builder.files.ZipCentralDirectoryCache;
 import com.android.ide.common.resources.FileStatus;
 import com.android.tools.build.apkzlib.utils.CachedSupplier;
-import com.android.tools.build.apkzlib.zip.StoredEntry;
-import com.android.tools.build.apkzlib.zip.ZFile;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
@@ -43,6 +43,8 @@ import java.util.Set;
  *
  * <p>In general, this is constructed not directly using the constructor (which absolutely can be
  * used), but using the factory methods in {@link LazyIncrementalFileMergerInputs}.
+ *
+ * <p>While the input is open, paths may be opened and read from multiple threads.
  */
 public class LazyIncrementalFileMergerInput implements IncrementalFileMergerInput {
 
@@ -78,14 +80,17 @@ public class LazyIncrementalFileMergerInput implements IncrementalFileMergerInpu
     @NonNull
     final CachedSupplier<ImmutableSet<File>> zips;
 
+    /** Central directories of all zips in {@link #zips}, used to read entries of the zips. */
+    @NonNull private final CachedSupplier<Map<File, ZipCentralDirectory>> directories;
+
     /**
      * After {@link #open()} is invoked and before {@link #close()} is invoked, all zips in
-     * {@link #zips} are open and the reference to the {@link ZFile} is stored here.
+     * {@link #zips} are open and the reader for each zip is stored here.
      *
      * <p>This will be {@code null} if {@link #open()} has not yet been called.
      */
     @Nullable
-    Map<File, ZFile> openZips;
+    Map<File, ZipEntryReader> openZips;
 
     /**
      * Creates a new input.
@@ -98,6 +103,24 @@ public class LazyIncrementalFileMergerInput implements IncrementalFileMergerInpu
             @NonNull String name,
             @NonNull CachedSupplier<Map<RelativeFile, FileStatus>> updates,
             @NonNull CachedSupplier<Set<RelativeFile>> files) {
+        this(name, updates, files, null);
+    }
+
+    /**
+     * Creates a new input that reuses the central directories of the zips that were read to find
+     * {@code files}, instead of reading them again when the input is opened.
+     *
+     * @param name the input name
+     * @param updates the file and how they were updated
+     * @param files all files
+     * @param directories the central directories of the zips in {@code files}; {@code null} to
+     *     read them when the input is opened
+     */
+    public LazyIncrementalFileMergerInput(
+            @NonNull String name,
+            @NonNull CachedSupplier<Map<RelativeFile, FileStatus>> updates,
+            @NonNull CachedSupplier<Set<RelativeFile>> files,
+            @Nullable CachedSupplier<Map<File, ZipCentralDirectory>> directories) {
         this.name = name;
         this.updates = updates;
         this.updatePaths =
@@ -138,6 +161,24 @@ public class LazyIncrementalFileMergerInput implements IncrementalFileMergerInpu
                             return ImmutableSet.copyOf(zips);
                         });
 
+        if (directories != null) {
+            this.directories = directories;
+        } else {
+            this.directories =
+                    new CachedSupplier<>(
+                            () -> {
+                                Map<File, ZipCentralDirectory> read = new HashMap<>();
+                                for (File zip : zips.get()) {
+                                    try {
+                                        read.put(zip, ZipCentralDirectoryCache.get(zip));
+                                    } catch (IOException e) {
+                                        throw new UncheckedIOException(e);
+                                    }
+                                }
+                                return read;
+                            });
+        }
+
         openZips = null;
     }
 
@@ -179,18 +220,11 @@ public class LazyIncrementalFileMergerInput implements IncrementalFileMergerInpu
         Preconditions.checkState(rf != null, "Unknown file: %s", path);
 
         if (rf.getType() == RelativeFile.Type.JAR) {
-            ZFile zf = openZips.get(rf.getBase());
-            Preconditions.checkState(zf != null, "Unknown base: %s", rf.getBase().getName());
-
-            StoredEntry entry = zf.get(path);
-            Preconditions.checkState(
-                    entry != null,
-                    "Unknown path %s in zip file %s",
-                    path,
-                    zf.getFile().getAbsolutePath());
+            ZipEntryReader reader = openZips.get(rf.getBase());
+            Preconditions.checkState(reader != null, "Unknown base: %s", rf.getBase().getName());
 
             try {
-                return entry.open();
+                return reader.open(path);
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -207,16 +241,21 @@ public class LazyIncrementalFileMergerInput implements IncrementalFileMergerInpu
     public void open() {
         Preconditions.checkState(openZips == null, "input already open");
 
-        Map<File, ZFile> open = new HashMap<>();
+        Map<File, ZipEntryReader> open = new HashMap<>();
 
         /*
-         * Try to open all zips; if any fails store the exception.
+         * Try to open all zips; if any fails store the exception. Zips are not parsed again, their
+         * entries are read using the central directories.
          */
         UncheckedIOException failure = null;
+        Map<File, ZipCentralDirectory> zipDirectories = directories.get();
         for (File f : zips.get()) {
             try {
-                ZFile zf = ZFile.openReadOnly(f);
-                open.put(f, zf);
+                ZipCentralDirectory directory = zipDirectories.get(f);
+                ZipEntryReader reader =
+                        new ZipEntryReader(
+                                directory != null ? directory : new ZipCentralDirectory(f));
+                open.put(f, reader);
             } catch (IOException e) {
                 failure = new UncheckedIOException(e);
                 break;
@@ -227,9 +266,9 @@ public class LazyIncrementalFileMergerInput implements IncrementalFileMergerInpu
          * If we had a failure, try to close all zips that were open and throw the exception.
          */
         if (failure != null) {
-            for (ZFile zf : open.values()) {
+            for (ZipEntryReader reader : open.values()) {
                 try {
-                    zf.close();
+                    reader.close();
                 } catch (IOException e) {
                     failure.addSuppressed(e);
                 }
@@ -247,8 +286,8 @@ public class LazyIncrementalFileMergerInput implements IncrementalFileMergerInpu
         Preconditions.checkState(openZips != null, "input not open");
 
         try (Closer closer = Closer.create()) {
-            for (ZFile zf : openZips.values()) {
-                closer.register(zf);
+            for (ZipEntryReader reader : openZips.values()) {
+                closer.register(reader);
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -22,6 +22,7 @@ import com.android.builder.files.IncrementalRelativeFileSets;
 import com.android.builder.files.RelativeFile;
 import com.android.builder.files.RelativeFiles;
 import com.android.builder.files.ZipCentralDirectory;
+import com.android.builder.files.ZipCentralDirectoryCache;
 import com.android.ide.common.resources.FileStatus;
 import com.android.tools.build.apkzlib.utils.CachedSupplier;
 import com.google.common.collect.ImmutableMap;
@@ -31,8 +32,11 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * Factory methods for {@link LazyIncrementalFileMergerInput}.
@@ -57,7 +61,9 @@ public final class LazyIncrementalFileMergerInputs {
 
         ImmutableSet<File> baseI = ImmutableSet.copyOf(base);
 
-        CachedSupplier<Set<RelativeFile>> all = new CachedSupplier<>(() -> load(baseI));
+        Map<File, ZipCentralDirectory> directories = new ConcurrentHashMap<>();
+        CachedSupplier<Set<RelativeFile>> all =
+                new CachedSupplier<>(() -> load(baseI, directories));
 
         CachedSupplier<Map<RelativeFile, FileStatus>> upd =
                 new CachedSupplier<>(
@@ -68,35 +74,48 @@ public final class LazyIncrementalFileMergerInputs {
                             return builder.build();
                         });
 
-        return new LazyIncrementalFileMergerInput(name, upd, all);
+        return new LazyIncrementalFileMergerInput(
+                name, upd, all, directoriesOf(all, directories));
     }
 
     /**
-     * Loads all relative files in a set of base files or directories.
+     * Creates a supplier of the central directories read by {@link #load(Set, Map)} when loading
+     * the files of an input.
+     */
+    @NonNull
+    private static CachedSupplier<Map<File, ZipCentralDirectory>> directoriesOf(
+            @NonNull CachedSupplier<Set<RelativeFile>> all,
+            @NonNull Map<File, ZipCentralDirectory> directories) {
+        return new CachedSupplier<>(
+                () -> {
+                    // make sure all zips have been read
+                    all.get();
+                    return ImmutableMap.copyOf(directories);
+                });
+    }
+
+    /**
+     * Loads all relative files in a set of base files or directories. Zips and directories are
+     * read in parallel.
      *
      * @param base the directories and zips; no files with the same OS-independent paths may
      * exist when constructing the trees from these elements
+     * @param directories receives the central directories of all zips in {@code base}
      * @return the set of relative files
      * @throws DuplicatePathInIncrementalInputException if more than one file with the same
      * OS-independent path exist
      */
-    private static ImmutableSet<RelativeFile> load(@NonNull Set<File> base) {
+    private static ImmutableSet<RelativeFile> load(
+            @NonNull Set<File> base, @NonNull Map<File, ZipCentralDirectory> directories) {
+        List<Set<RelativeFile>> filesOfBases =
+                base.parallelStream()
+                        .map(b -> loadBase(b, directories))
+                        .collect(Collectors.toList());
+
+        // Check for duplicates in the order of the base files, so the same path is reported.
         Set<String> paths = new HashSet<>();
         ImmutableSet.Builder<RelativeFile> builder = ImmutableSet.builder();
-        for (File b : base) {
-            Set<RelativeFile> files;
-            if (b.isFile()) {
-                try {
-                    files = RelativeFiles.fromZip(new ZipCentralDirectory(b));
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                }
-            } else if (b.isDirectory()) {
-                files = RelativeFiles.fromDirectory(b);
-            } else {
-                throw new AssertionError();
-            }
-
+        for (Set<RelativeFile> files : filesOfBases) {
             for (RelativeFile rf : files) {
                 String p = rf.getRelativePath();
                 if (!paths.add(p)) {
@@ -111,6 +130,34 @@ public final class LazyIncrementalFileMergerInputs {
         return builder.build();
     }
 
+    /**
+     * Loads all relative files in a base file or directory.
+     *
+     * @param base the directory or zip
+     * @param directories receives the central directory of {@code base} if it is a zip
+     * @return the set of relative files
+     */
+    @NonNull
+    private static Set<RelativeFile> loadBase(
+            @NonNull File base, @NonNull Map<File, ZipCentralDirectory> directories) {
+        if (base.isFile()) {
+            ZipCentralDirectory directory;
+            Set<RelativeFile> files;
+            try {
+                directory = ZipCentralDirectoryCache.get(base);
+                files = RelativeFiles.fromZip(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            directories.put(base, directory);
+            return files;
+        } else if (base.isDirectory()) {
+            return RelativeFiles.fromDirectory(base);
+        } else {
+            throw new AssertionError();
+        }
+    }
+
     /**
      * Creates an input from a set of directories or zips with incremental information. Because
      * updates to the zips do not tell which files inside the zips are updated, a cache to compare
@@ -134,7 +181,9 @@ public final class LazyIncrementalFileMergerInputs {
             @NonNull FileCacheByPath cache,
             @NonNull IncrementalRelativeFileSets.FileDeletionPolicy fileDeletionPolicy) {
 
-        CachedSupplier<Set<RelativeFile>> all = new CachedSupplier<>(() -> load(base));
+        Map<File, ZipCentralDirectory> directories = new ConcurrentHashMap<>();
+        CachedSupplier<Set<RelativeFile>> all =
+                new CachedSupplier<>(() -> load(base, directories));
 
         CachedSupplier<Map<RelativeFile, FileStatus>> upd =
                 new CachedSupplier<>(
@@ -155,6 +204,7 @@ public final class LazyIncrementalFileMergerInputs {
                             }
                         });
 
-        return new LazyIncrementalFileMergerInput(name, upd, all);
+        return new LazyIncrementalFileMergerInput(
+                name, upd, all, directoriesOf(all, directories));
     }
 }
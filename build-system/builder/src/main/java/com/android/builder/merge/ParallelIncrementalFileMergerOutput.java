@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.merge;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+
+/**
+ * Output that merges files using a {@link StreamMergeAlgorithm} in parallel, and writes them using
+ * a {@link MergeOutputWriter}.
+ *
+ * <p>Each created or updated path is merged by a task of a {@link ForkJoinPool}, which opens its
+ * inputs and reads the start of the merged content. Files that are not larger than {@link
+ * #MAX_BUFFERED_BYTES} are read entirely by the task. The rest of larger files is streamed from
+ * the inputs when the file is written, so their content is never held in memory. Merged files are
+ * written on the thread using the output, in the order in which they were reported, so the writer
+ * does not need to be thread-safe and the output does not depend on the order in which tasks
+ * complete. The number of merged files waiting to be written is bounded, which bounds memory use.
+ * Removals are only written after all pending files are written.
+ *
+ * <p>The inputs of the files must support opening and reading paths from multiple threads.
+ */
+final class ParallelIncrementalFileMergerOutput implements IncrementalFileMergerOutput {
+
+    /** Maximum number of bytes of a merged file read by its task before the file is written. */
+    private static final int MAX_BUFFERED_BYTES = 64 * 1024;
+
+    @NonNull private final StreamMergeAlgorithm algorithm;
+    @NonNull private final MergeOutputWriter writer;
+    @NonNull private final ForkJoinPool forkJoinPool;
+
+    /** Maximum number of merged files waiting to be written. */
+    private final int maxPendingMerges;
+
+    /** Files being merged or waiting to be written, in the order they were reported. */
+    @NonNull private final Deque<PendingMerge> pendingMerges = new ArrayDeque<>();
+
+    ParallelIncrementalFileMergerOutput(
+            @NonNull StreamMergeAlgorithm algorithm,
+            @NonNull MergeOutputWriter writer,
+            @NonNull ForkJoinPool forkJoinPool) {
+        this.algorithm = algorithm;
+        this.writer = writer;
+        this.forkJoinPool = forkJoinPool;
+        this.maxPendingMerges = 2 * forkJoinPool.getParallelism();
+    }
+
+    @Override
+    public void open() {
+        writer.open();
+    }
+
+    @Override
+    public void close() {
+        try {
+            writePending(0);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Override
+    public void remove(@NonNull String path) {
+        // Pending files may be in the same directory.
+        writePending(0);
+        writer.remove(path);
+    }
+
+    @Override
+    public void create(@NonNull String path, @NonNull List<IncrementalFileMergerInput> inputs) {
+        submit(path, inputs, false);
+    }
+
+    @Override
+    public void update(
+            @NonNull String path,
+            @NonNull List<String> prevInputNames,
+            @NonNull List<IncrementalFileMergerInput> inputs) {
+        submit(path, inputs, true);
+    }
+
+    private void submit(
+            @NonNull String path,
+            @NonNull List<IncrementalFileMergerInput> inputs,
+            boolean replace) {
+        ImmutableList<IncrementalFileMergerInput> inputsCopy = ImmutableList.copyOf(inputs);
+        ForkJoinTask<MergedContent> task = forkJoinPool.submit(() -> merge(path, inputsCopy));
+        pendingMerges.add(new PendingMerge(path, replace, task));
+        writePending(maxPendingMerges);
+    }
+
+    /**
+     * Merges a file and reads the start of its content.
+     *
+     * @param path the path of the file
+     * @param inputs the inputs with the file
+     * @return the merged content, which must be closed
+     * @throws IOException failed to read an input
+     */
+    @NonNull
+    private MergedContent merge(
+            @NonNull String path, @NonNull List<IncrementalFileMergerInput> inputs)
+            throws IOException {
+        Closer closer = Closer.create();
+        try {
+            List<InputStream> inStreams =
+                    inputs.stream().map(i -> i.openPath(path)).collect(Collectors.toList());
+            InputStream mergedStream =
+                    algorithm.merge(path, ImmutableList.copyOf(inStreams), closer);
+            closer.register(mergedStream);
+
+            byte[] buffer = new byte[MAX_BUFFERED_BYTES];
+            int length = ByteStreams.read(mergedStream, buffer, 0, buffer.length);
+            if (length < buffer.length) {
+                closer.close();
+                return new MergedContent(Arrays.copyOf(buffer, length), null, null);
+            }
+            return new MergedContent(buffer, mergedStream, closer);
+        } catch (Throwable t) {
+            throw closer.rethrow(t, IOException.class);
+        }
+    }
+
+    /**
+     * Writes pending files, in order, until at most {@code maxRemaining} files are pending. If
+     * merging or writing a file fails, waits for all pending files to be merged and closes them
+     * before reporting the failure, so no task reads from the inputs after the output is closed.
+     */
+    private void writePending(int maxRemaining) {
+        while (pendingMerges.size() > maxRemaining) {
+            PendingMerge pendingMerge = pendingMerges.remove();
+            try (MergedContent content = waitFor(pendingMerge.task)) {
+                if (pendingMerge.replace) {
+                    writer.replace(pendingMerge.path, content.open());
+                } else {
+                    writer.create(pendingMerge.path, content.open());
+                }
+            } catch (IOException e) {
+                abortPending(e);
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException | Error e) {
+                abortPending(e);
+                throw e;
+            }
+        }
+    }
+
+    /** Waits for all pending files to be merged, and closes their content. */
+    private void abortPending(@NonNull Throwable failure) {
+        for (PendingMerge pendingMerge : pendingMerges) {
+            pendingMerge.task.quietlyJoin();
+            if (pendingMerge.task.isCompletedNormally()) {
+                try {
+                    pendingMerge.task.getRawResult().close();
+                } catch (IOException e) {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        pendingMerges.clear();
+    }
+
+    @NonNull
+    private static MergedContent waitFor(@NonNull ForkJoinTask<MergedContent> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Content of a merged file: the bytes read by the task merging the file, followed by the rest
+     * of the merged stream if the file is larger than {@link #MAX_BUFFERED_BYTES}.
+     */
+    private static final class MergedContent implements AutoCloseable {
+
+        @NonNull private final byte[] start;
+        @Nullable private final InputStream rest;
+        @Nullable private final Closer closer;
+
+        MergedContent(
+                @NonNull byte[] start, @Nullable InputStream rest, @Nullable Closer closer) {
+            this.start = start;
+            this.rest = rest;
+            this.closer = closer;
+        }
+
+        @NonNull
+        InputStream open() {
+            InputStream startStream = new ByteArrayInputStream(start);
+            return rest == null ? startStream : new SequenceInputStream(startStream, rest);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closer != null) {
+                closer.close();
+            }
+        }
+    }
+
+    /** A file being merged, or waiting to be written. */
+    private static final class PendingMerge {
+
+        @NonNull private final String path;
+        private final boolean replace;
+        @NonNull private final ForkJoinTask<MergedContent> task;
+
+        PendingMerge(
+                @NonNull String path, boolean replace, @NonNull ForkJoinTask<MergedContent> task) {
+            this.path = path;
+            this.replace = replace;
+            this.task = task;
+        }
+    }
+}
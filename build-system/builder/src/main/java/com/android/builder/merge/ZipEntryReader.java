@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.merge;
+
+import com.android.annotations.NonNull;
+import com.android.builder.files.DirectoryEntry;
+import com.android.builder.files.ZipCentralDirectory;
+import com.android.tools.build.apkzlib.zip.compress.Zip64NotSupportedException;
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the entries of a zip file using an already parsed {@link ZipCentralDirectory}, so the zip
+ * file does not need to be parsed again to read its entries.
+ *
+ * <p>Entries are read using positional reads on a single {@link FileChannel}, so streams of
+ * entries may be opened and read from multiple threads at the same time. Only stored and deflated
+ * entries are supported. Like {@code ZFile}, Zip64 entries whose sizes or offsets do not fit the
+ * central directory are not supported.
+ */
+final class ZipEntryReader implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int LOCAL_HEADER_NAME_LENGTH_OFFSET = 26;
+    private static final int LOCAL_HEADER_EXTRA_LENGTH_OFFSET = 28;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int INFLATER_BUFFER_SIZE = 8192;
+
+    /** Value of a central directory field that is only stored in the Zip64 extra field. */
+    private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+
+    @NonNull private final ZipCentralDirectory directory;
+    @NonNull private final FileChannel channel;
+
+    /**
+     * Creates a new reader and opens the zip file.
+     *
+     * @param directory the central directory of the zip file, read from the zip file itself
+     * @throws IOException failed to open the zip file
+     */
+    ZipEntryReader(@NonNull ZipCentralDirectory directory) throws IOException {
+        this.directory = directory;
+        this.channel = FileChannel.open(directory.getFile().toPath(), StandardOpenOption.READ);
+    }
+
+    /** Obtains the zip file. */
+    @NonNull
+    File getFile() {
+        return directory.getFile();
+    }
+
+    /**
+     * Opens a stream with the uncompressed content of an entry.
+     *
+     * @param path the path of the entry in the zip file
+     * @return the stream, which must be closed by the caller
+     * @throws IOException failed to read the local header of the entry, or the entry uses an
+     *     unsupported compression method or Zip64 sizes or offsets
+     */
+    @NonNull
+    InputStream open(@NonNull String path) throws IOException {
+        DirectoryEntry entry = directory.getEntries().get(path);
+        Preconditions.checkState(
+                entry != null,
+                "Unknown path %s in zip file %s",
+                path,
+                directory.getFile().getAbsolutePath());
+        if (entry.getCompressedSize() == ZIP64_MAGIC_VALUE
+                || entry.getLocalHeaderOffset() == ZIP64_MAGIC_VALUE) {
+            throw new Zip64NotSupportedException(
+                    String.format(
+                            "Zip64 entry %1$s is not supported in zip file %2$s",
+                            path, directory.getFile().getAbsolutePath()));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            long position = entry.getLocalHeaderOffset() + header.position();
+            if (channel.read(header, position) < 0) {
+                throw new EOFException(
+                        String.format(
+                                "Unexpected end of zip file %1$s reading %2$s",
+                                directory.getFile().getAbsolutePath(), path));
+            }
+        }
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException(
+                    String.format(
+                            "Invalid local header for %1$s in zip file %2$s",
+                            path, directory.getFile().getAbsolutePath()));
+        }
+
+        long dataOffset =
+                entry.getLocalHeaderOffset()
+                        + LOCAL_HEADER_SIZE
+                        + Short.toUnsignedInt(header.getShort(LOCAL_HEADER_NAME_LENGTH_OFFSET))
+                        + Short.toUnsignedInt(header.getShort(LOCAL_HEADER_EXTRA_LENGTH_OFFSET));
+        InputStream data = new EntryDataInputStream(channel, dataOffset, entry.getCompressedSize());
+
+        switch (entry.getCompressionMethod()) {
+            case STORED:
+                return data;
+            case DEFLATED:
+                Inflater inflater = new Inflater(true);
+                // Inflater requires an extra "dummy" byte at the end of the input when the nowrap
+                // option is used.
+                InputStream paddedData =
+                        new SequenceInputStream(data, new ByteArrayInputStream(new byte[1]));
+                return new InflaterInputStream(paddedData, inflater, INFLATER_BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            default:
+                data.close();
+                throw new IOException(
+                        String.format(
+                                "Unsupported compression method %1$d for %2$s in zip file %3$s",
+                                entry.getCompressionMethod(),
+                                path,
+                                directory.getFile().getAbsolutePath()));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Stream reading a region of a file using positional reads. */
+    private static final class EntryDataInputStream extends InputStream {
+
+        @NonNull private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        EntryDataInputStream(@NonNull FileChannel channel, long start, long size) {
+            this.channel = channel;
+            this.position = start;
+            this.end = start + size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+
+            int toRead = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of zip file");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.symbols
+
+import com.android.ide.common.symbols.Symbol
+import com.android.ide.common.symbols.SymbolIo
+import com.android.ide.common.symbols.SymbolTable
+import com.android.utils.JvmWideVariable
+import com.google.common.annotations.VisibleForTesting
+import com.google.common.base.Verify
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.collect.ImmutableSet
+import com.google.common.util.concurrent.UncheckedExecutionException
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Index of the symbol tables of the libraries a build depends on, so that the package-aware
+ * symbol list of each library (its package and R.txt) is only read once when the R classes of
+ * several variants or modules are generated.
+ *
+ * Symbol tables are immutable, so they are shared by all the callers. Entries are keyed by the
+ * path, size and timestamp of the symbol files, so a file that changes is read again. The index
+ * keeps an estimate of the memory used by each table; entries are evicted in least-recently-used
+ * order once the total exceeds a bound, and are softly referenced so they can also be collected
+ * when memory is low. The index is meant to be cleared at the end of every build.
+ *
+ * This class may be loaded by several class loaders, e.g. by the class loaders of Gradle workers,
+ * each with its own index. [clear] advances a JVM-wide generation, and the index of every class
+ * loader is cleared the next time it is used in a later generation.
+ */
+object LibrarySymbolTableIndex {
+
+    /** Maximum estimated memory used by the indexed symbol tables, in bytes. */
+    private const val MAX_ESTIMATED_SIZE = 128L * 1024 * 1024
+
+    /** Estimated size of an empty symbol table. */
+    private const val TABLE_OVERHEAD = 128L
+
+    /** Estimated size of a symbol and of the table cell holding it, without its strings. */
+    private const val SYMBOL_OVERHEAD = 96L
+
+    /** Estimated size of a string, without its characters. */
+    private const val STRING_OVERHEAD = 40L
+
+    private const val REFERENCE_SIZE = 8L
+
+    private val cache: Cache<SymbolFileKey, IndexedSymbolTable> =
+        CacheBuilder.newBuilder()
+            .maximumWeight(MAX_ESTIMATED_SIZE)
+            .weigher { _: SymbolFileKey, table: IndexedSymbolTable ->
+                Math.min(table.estimatedSize, Int.MAX_VALUE.toLong()).toInt()
+            }
+            .softValues()
+            .build()
+
+    /** Generation of the indexes of all the class loaders, advanced when they are cleared. */
+    private val indexGeneration: AtomicLong =
+        Verify.verifyNotNull(
+            // IMPORTANT: This variable's group, name, and type must not be changed across plugin
+            // versions.
+            JvmWideVariable(
+                LibrarySymbolTableIndex::class.java,
+                "indexGeneration",
+                AtomicLong::class.java,
+                AtomicLong()
+            ).get()
+        )
+
+    /** Generation the index of this class loader was filled in. */
+    @Volatile
+    private var cacheGeneration: Long = indexGeneration.get()
+
+    /**
+     * Returns the symbol tables of the given libraries, reading the symbol files which are not
+     * indexed yet.
+     *
+     * This is equivalent to
+     * [com.android.ide.common.symbols.loadDependenciesSymbolTables].
+     *
+     * @param libraries the package-aware symbol files of the libraries
+     * @return a set with the symbol table of each library
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun load(libraries: Iterable<File>): ImmutableSet<SymbolTable> {
+        return ImmutableSet.builder<SymbolTable>().apply {
+            for (library in libraries) {
+                add(get(library))
+            }
+        }.build()
+    }
+
+    /**
+     * Returns the symbol table of a library, reading its symbol file if it is not indexed yet.
+     *
+     * @param symbolFile the package-aware symbol file of the library
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun get(symbolFile: File): SymbolTable = getIndexed(symbolFile).table
+
+    private fun getIndexed(symbolFile: File): IndexedSymbolTable {
+        checkGeneration()
+        val key =
+            SymbolFileKey(symbolFile.absoluteFile, symbolFile.length(), symbolFile.lastModified())
+        try {
+            return cache.get(key) {
+                IndexedSymbolTable(SymbolIo.readSymbolListWithPackageName(symbolFile.toPath()))
+            }
+        } catch (e: ExecutionException) {
+            val cause = e.cause
+            throw cause as? IOException ?: IOException(cause)
+        } catch (e: UncheckedExecutionException) {
+            throw e.cause as? RuntimeException ?: e
+        }
+    }
+
+    /** Removes all the symbol tables from the index, in all the class loaders that loaded it. */
+    @JvmStatic
+    fun clear() {
+        indexGeneration.incrementAndGet()
+        checkGeneration()
+    }
+
+    /** Clears the index of this class loader if the indexes were cleared since it was filled. */
+    private fun checkGeneration() {
+        val generation = indexGeneration.get()
+        if (generation != cacheGeneration) {
+            synchronized(this) {
+                if (generation != cacheGeneration) {
+                    cache.invalidateAll()
+                    cacheGeneration = generation
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    @JvmStatic
+    internal fun size(): Long {
+        checkGeneration()
+        cache.cleanUp()
+        return cache.size()
+    }
+
+    /**
+     * Estimates the memory used by a symbol table, in bytes.
+     *
+     * The estimate counts the symbols, their names and children, and the cells of the table
+     * holding them. Strings shared between tables are counted once per table.
+     */
+    @VisibleForTesting
+    @JvmStatic
+    internal fun estimateSize(table: SymbolTable): Long {
+        var size = TABLE_OVERHEAD + estimateSize(table.tablePackage)
+        for (symbol in table.symbols.values()) {
+            size += SYMBOL_OVERHEAD + estimateSize(symbol.name)
+            if (symbol.canonicalName != symbol.name) {
+                size += estimateSize(symbol.canonicalName)
+            }
+            if (symbol is Symbol.StyleableSymbol) {
+                for (child in symbol.children) {
+                    size += REFERENCE_SIZE + estimateSize(child)
+                }
+            }
+        }
+        return size
+    }
+
+    private fun estimateSize(string: String): Long = STRING_OVERHEAD + 2L * string.length
+
+    /** Identifies a version of a symbol file. */
+    private data class SymbolFileKey(val file: File, val length: Long, val lastModified: Long)
+
+    /** A symbol table in the index, with the estimate of the memory it uses. */
+    private class IndexedSymbolTable(val table: SymbolTable) {
+        val estimatedSize: Long = estimateSize(table)
+    }
+}
@@ -22,7 +22,6 @@ import com.android.ide.common.symbols.RGeneration
 import com.android.ide.common.symbols.SymbolIo
 import com.android.ide.common.symbols.SymbolTable
 import com.android.ide.common.symbols.getPackageNameFromManifest
-import com.android.ide.common.symbols.loadDependenciesSymbolTables
 import com.android.ide.common.symbols.mergeAndRenumberSymbols
 import com.android.ide.common.symbols.parseManifest
 import com.android.utils.FileUtils
@@ -62,7 +61,7 @@ fun processLibraryMainSymbolTable(
     val finalPackageName = mainPackageName ?: getPackageNameFromManifest(parseManifest(manifestFile))
 
     // Get symbol tables of the libraries we depend on.
-    val depSymbolTables = loadDependenciesSymbolTables(libraries)
+    val depSymbolTables = LibrarySymbolTableIndex.load(libraries)
     val tablesToWrite =
         processLibraryMainSymbolTable(
             finalPackageName,
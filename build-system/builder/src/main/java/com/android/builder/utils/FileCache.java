@@ -20,6 +20,7 @@ import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.annotations.concurrency.Immutable;
 import com.android.utils.FileUtils;
+import com.android.utils.concurrency.ReadWriteProcessLock;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.MoreObjects;
@@ -33,13 +34,22 @@ import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Stream;
 
 /**
@@ -79,6 +89,12 @@ import java.util.stream.Stream;
  * <p>If a cache entry exists but is found to be corrupted, the cache entry will be deleted and
  * recreated.
  *
+ * <p>Each cache entry records its size and its last access time (and the number of times it was
+ * accessed) in a small metadata file inside the cache entry directory. Together, these metadata
+ * files form a persistent index of the cache, which allows the cache to be trimmed to a given size
+ * (see {@link #deleteCacheEntriesExceedingSize(long, EvictionPolicy)}) without having to compute
+ * the sizes of all the cached files/directories again.
+ *
  * <p>This class is thread-safe.
  */
 @Immutable
@@ -100,17 +116,37 @@ public class FileCache {
         SINGLE_PROCESS
     }
 
+    /** The name format of the lock files of the stripes in the case of lock-striped locking. */
+    private static final String STRIPE_LOCK_FILE_NAME_FORMAT = ".stripe-%d.lock";
+
     @NonNull private final File cacheDirectory;
 
     @NonNull private final LockingScope lockingScope;
 
-    // Additional fields used for testing only
+    /**
+     * The process locks shared by the cache entries in the case of lock-striped {@code
+     * MULTI_PROCESS} locking (see {@link #getInstanceWithStripedMultiProcessLocking(File, int)}),
+     * or null if each cache entry has its own lock file. The process locks are created lazily since
+     * their lock files can only be created once the cache directory exists.
+     */
+    @Nullable private final AtomicReferenceArray<ReadWriteProcessLock> lockStripes;
+
+    // Counters reported via getStatistics()
     @NonNull private final AtomicInteger missCount = new AtomicInteger(0);
     @NonNull private final AtomicInteger hitCount = new AtomicInteger(0);
+    @NonNull private final AtomicInteger evictionCount = new AtomicInteger(0);
+    @NonNull private final AtomicLong evictedBytes = new AtomicLong(0);
 
-    private FileCache(@NonNull File cacheDirectory, @NonNull LockingScope lockingScope) {
+    private FileCache(
+            @NonNull File cacheDirectory,
+            @NonNull LockingScope lockingScope,
+            int numberOfLockStripes) {
         this.cacheDirectory = cacheDirectory;
         this.lockingScope = lockingScope;
+        this.lockStripes =
+                numberOfLockStripes > 0
+                        ? new AtomicReferenceArray<>(numberOfLockStripes)
+                        : null;
     }
 
     /**
@@ -137,7 +173,38 @@ public class FileCache {
      */
     @NonNull
     public static FileCache getInstanceWithMultiProcessLocking(@NonNull File cacheDirectory) {
-        return new FileCache(cacheDirectory, LockingScope.MULTI_PROCESS);
+        return new FileCache(cacheDirectory, LockingScope.MULTI_PROCESS, 0);
+    }
+
+    /**
+     * Returns a {@code FileCache} instance where synchronization takes effect for threads both
+     * within the same process and across different processes, using a fixed pool of lock files
+     * shared by the cache entries (lock striping).
+     *
+     * <p>This method is similar to {@link #getInstanceWithMultiProcessLocking(File)}, except that
+     * instead of one lock file per cache entry, the cache uses the given number of lock files
+     * placed inside the cache directory, and each cache entry is guarded by the lock file selected
+     * by its key. As a result, the lock files are created only once and are reused across cache
+     * queries (which avoids creating and normalizing a lock file for each query), at the cost of
+     * synchronizing access to different cache entries that happen to share the same lock file.
+     *
+     * <p>All the instances and processes accessing the same cache directory must use the same
+     * locking mode and the same number of lock stripes; otherwise, access to the cache entries is
+     * not synchronized.
+     *
+     * <p>IMPORTANT: Since different cache entries may share the same lock, a file creator callback
+     * function of this cache must not access the same cache.
+     *
+     * @param cacheDirectory the cache directory, which may not yet exist
+     * @param numberOfLockStripes the number of lock files shared by the cache entries
+     * @see #getInstanceWithMultiProcessLocking(File)
+     */
+    @NonNull
+    public static FileCache getInstanceWithStripedMultiProcessLocking(
+            @NonNull File cacheDirectory, int numberOfLockStripes) {
+        Preconditions.checkArgument(
+                numberOfLockStripes > 0, "Number of lock stripes must be positive");
+        return new FileCache(cacheDirectory, LockingScope.MULTI_PROCESS, numberOfLockStripes);
     }
 
     /**
@@ -156,7 +223,7 @@ public class FileCache {
      */
     @NonNull
     public static FileCache getInstanceWithSingleProcessLocking(@NonNull File cacheDirectory) {
-        return new FileCache(cacheDirectory, LockingScope.SINGLE_PROCESS);
+        return new FileCache(cacheDirectory, LockingScope.SINGLE_PROCESS, 0);
     }
 
     @NonNull
@@ -401,13 +468,14 @@ public class FileCache {
 
                 // Guard the cache entry directory with a READ lock so that multiple
                 // threads/processes can read it at the same time
-                QueryResult queryResult = getSynchronizedFile(cacheEntryDir).read(
+                QueryResult queryResult = getSynchronizedCacheEntryDir(cacheEntryDir).read(
                         (sameCacheEntryDir) -> {
                             QueryResult result = checkCacheEntry(inputs, cacheEntryDir);
                             // If the cache entry is HIT, run the given action
                             if (result.getQueryEvent().equals(QueryEvent.HIT)) {
                                 hitCount.incrementAndGet();
                                 actionIfCacheHit.call();
+                                recordCacheEntryAccess(cacheEntryDir);
                             }
                             return result;
                         });
@@ -418,7 +486,7 @@ public class FileCache {
 
                 // Guard the cache entry directory with a WRITE lock so that only one thread/process
                 // can write to it
-                return getSynchronizedFile(cacheEntryDir).write(sameCacheEntryDir -> {
+                return getSynchronizedCacheEntryDir(cacheEntryDir).write(sameCacheEntryDir -> {
                     // Check the cache entry again as it might have been changed by another
                     // thread/process since the last time we checked it.
                     QueryResult result = checkCacheEntry(inputs, cacheEntryDir);
@@ -427,6 +495,7 @@ public class FileCache {
                     if (result.getQueryEvent().equals(QueryEvent.HIT)) {
                         hitCount.incrementAndGet();
                         actionIfCacheHit.call();
+                        recordCacheEntryAccess(cacheEntryDir);
                         return result;
                     }
 
@@ -453,6 +522,12 @@ public class FileCache {
                     Files.asCharSink(getInputsFile(cacheEntryDir), StandardCharsets.UTF_8)
                             .write(inputs.toString());
 
+                    // Record the size of the new cache entry so that cache eviction does not need
+                    // to compute it again
+                    new CacheEntryMetadata(
+                                    getSizeInBytes(cacheEntryDir), System.currentTimeMillis(), 1)
+                            .writeTo(getMetadataFile(cacheEntryDir));
+
                     return result;
                 });
             });
@@ -497,7 +572,7 @@ public class FileCache {
                     getSynchronizedFile(cacheDirectory).read(
                             sameCacheDirectory -> {
                                 FileUtils.mkdirs(cacheDirectory);
-                                return getSynchronizedFile(getCacheEntryDir(inputs)).read(
+                                return getSynchronizedCacheEntryDir(getCacheEntryDir(inputs)).read(
                                         (cacheEntryDir) -> checkCacheEntry(inputs, cacheEntryDir));
                             });
             return queryResult.getQueryEvent().equals(QueryEvent.HIT);
@@ -592,6 +667,67 @@ public class FileCache {
         return new File(cacheEntryDir, "inputs");
     }
 
+    /**
+     * Returns the path of a metadata file inside the cache entry directory, which records the size
+     * and the usage of the cache entry (see {@link CacheEntryMetadata}).
+     */
+    @NonNull
+    private static File getMetadataFile(@NonNull File cacheEntryDir) {
+        return new File(cacheEntryDir, "metadata");
+    }
+
+    /**
+     * Records an access to the given cache entry in its metadata file. The cache entry directory
+     * should have been guarded with a READ or WRITE lock when this method is invoked.
+     *
+     * <p>Multiple threads/processes may hold a READ lock on the same cache entry at the same time.
+     * The metadata file is replaced atomically, so it is never seen partially written, but
+     * concurrent accesses may occasionally overwrite each other's record. This is acceptable since
+     * the metadata is only used to decide which cache entries to evict first. For the same reason,
+     * failing to record an access does not fail the cache query.
+     *
+     * <p>The size of the cache entry is computed again with each access, so that the index stays
+     * accurate if the cached files are changed after the cache entry is created. A cache entry
+     * usually has a few files, so this is cheap compared to using them.
+     */
+    private static void recordCacheEntryAccess(@NonNull File cacheEntryDir) {
+        try {
+            File metadataFile = getMetadataFile(cacheEntryDir);
+            CacheEntryMetadata metadata = CacheEntryMetadata.readFrom(metadataFile);
+            long accessCount = metadata != null ? metadata.getAccessCount() + 1 : 1;
+            new CacheEntryMetadata(
+                            getSizeInBytes(cacheEntryDir), System.currentTimeMillis(), accessCount)
+                    .writeTo(metadataFile);
+        } catch (IOException | UncheckedIOException e) {
+            // The cache entry will only be evicted earlier than it should be
+        }
+    }
+
+    /**
+     * Returns the metadata of the given cache entry. If the cache entry does not have a valid
+     * metadata file (e.g., if it was created by an older version of this class), the metadata is
+     * computed from the cache entry directory itself.
+     */
+    @NonNull
+    private static CacheEntryMetadata getCacheEntryMetadata(@NonNull File cacheEntryDir)
+            throws IOException {
+        CacheEntryMetadata metadata = CacheEntryMetadata.readFrom(getMetadataFile(cacheEntryDir));
+        if (metadata != null) {
+            return metadata;
+        }
+        return new CacheEntryMetadata(
+                getSizeInBytes(cacheEntryDir), cacheEntryDir.lastModified(), 1);
+    }
+
+    /** Returns the total size of the regular files in the given file/directory. */
+    private static long getSizeInBytes(@NonNull File fileOrDirectory) throws IOException {
+        try (Stream<Path> entries = java.nio.file.Files.walk(fileOrDirectory.toPath())) {
+            return entries.filter(java.nio.file.Files::isRegularFile)
+                    .mapToLong(entry -> entry.toFile().length())
+                    .sum();
+        }
+    }
+
     /**
      * Returns the path of the cached output file/directory that is unique to the given list of
      * inputs (different lists of inputs correspond to different cached files/directories).
@@ -656,9 +792,157 @@ public class FileCache {
         }
     }
 
+    /**
+     * Deletes cache entries until the total size of the cache is at most the given size. The cache
+     * entries to delete are selected according to the given {@link EvictionPolicy}.
+     *
+     * <p>This method is the same as {@link #deleteCacheEntriesExceedingSize(long, EvictionPolicy,
+     * Duration)} with no minimum idle time, so it should not be called while the cache is in use.
+     *
+     * @param maxCacheSizeInBytes the maximum total size of the cache entries to keep
+     * @param evictionPolicy the policy to select the cache entries to delete first
+     */
+    public void deleteCacheEntriesExceedingSize(
+            long maxCacheSizeInBytes, @NonNull EvictionPolicy evictionPolicy) {
+        deleteCacheEntriesExceedingSize(maxCacheSizeInBytes, evictionPolicy, Duration.ZERO);
+    }
+
+    /**
+     * Deletes cache entries until the total size of the cache is at most the given size. The cache
+     * entries to delete are selected according to the given {@link EvictionPolicy}.
+     *
+     * <p>The size of a cache entry is read from the cache's persistent index (see {@link
+     * CacheEntryMetadata}), so this method does not need to compute the sizes of all the cached
+     * files/directories unless they were created by an older version of this class. The sizes of
+     * the cache entries selected for deletion are computed again before they are deleted.
+     *
+     * <p>The cache remains usable by other threads/processes while this method runs: each cache
+     * entry is deleted under its own WRITE lock, so it is never deleted while it is being read or
+     * written to. However, the files returned by {@link #createFileInCacheIfAbsent(Inputs,
+     * ExceptionConsumer)} are used after their cache entries are unlocked, so cache entries that
+     * were accessed within the given minimum idle time are kept, even if the cache then exceeds
+     * the given size.
+     *
+     * @param maxCacheSizeInBytes the maximum total size of the cache entries to keep
+     * @param evictionPolicy the policy to select the cache entries to delete first
+     * @param minIdleTime the time since their last access after which cache entries may be deleted
+     */
+    public void deleteCacheEntriesExceedingSize(
+            long maxCacheSizeInBytes,
+            @NonNull EvictionPolicy evictionPolicy,
+            @NonNull Duration minIdleTime) {
+        Preconditions.checkArgument(
+                maxCacheSizeInBytes >= 0, "Maximum cache size must not be negative");
+
+        // Check the parent directory of the cache directory, similarly to FileCache.delete()
+        if (lockingScope == LockingScope.MULTI_PROCESS) {
+            if (!FileUtils.parentDirExists(cacheDirectory)) {
+                return;
+            }
+        }
+
+        Comparator<Map.Entry<File, CacheEntryMetadata>> evictionOrder;
+        switch (evictionPolicy) {
+            case LEAST_RECENTLY_USED:
+                evictionOrder =
+                        Comparator.comparingLong(
+                                entry -> entry.getValue().getLastAccessTimestamp());
+                break;
+            case LEAST_FREQUENTLY_USED:
+                evictionOrder =
+                        Comparator.<Map.Entry<File, CacheEntryMetadata>>comparingLong(
+                                        entry -> entry.getValue().getAccessCount())
+                                .thenComparingLong(
+                                        entry -> entry.getValue().getLastAccessTimestamp());
+                break;
+            default:
+                throw new RuntimeException("Unknown enum " + evictionPolicy);
+        }
+
+        try {
+            // Guard the cache directory with a READ lock so that the cache cannot be deleted while
+            // we are deleting cache entries, but other threads/processes can still use it
+            getSynchronizedFile(cacheDirectory).read(sameCacheDirectory -> {
+                if (!cacheDirectory.exists()) {
+                    return null;
+                }
+
+                List<Map.Entry<File, CacheEntryMetadata>> cacheEntries = new ArrayList<>();
+                long cacheSizeInBytes = 0;
+                for (File fileInDir : Verify.verifyNotNull(cacheDirectory.listFiles())) {
+                    if (fileInDir.isDirectory() && getInputsFile(fileInDir).isFile()) {
+                        CacheEntryMetadata metadata = getCacheEntryMetadata(fileInDir);
+                        cacheEntries.add(Maps.immutableEntry(fileInDir, metadata));
+                        cacheSizeInBytes += metadata.getEntrySizeInBytes();
+                    }
+                }
+
+                cacheEntries.sort(evictionOrder);
+                for (Map.Entry<File, CacheEntryMetadata> cacheEntry : cacheEntries) {
+                    if (cacheSizeInBytes <= maxCacheSizeInBytes) {
+                        break;
+                    }
+                    File cacheEntryDir = cacheEntry.getKey();
+                    long indexedSizeInBytes = cacheEntry.getValue().getEntrySizeInBytes();
+
+                    // Guard the cache entry directory with a WRITE lock so that no other
+                    // thread/process can read or write to it while we are deleting it
+                    long deletedSizeInBytes =
+                            getSynchronizedCacheEntryDir(cacheEntryDir)
+                                    .write(
+                                            sameCacheEntryDir ->
+                                                    deleteCacheEntryIfIdle(
+                                                            cacheEntryDir, minIdleTime));
+                    if (deletedSizeInBytes < 0) {
+                        continue;
+                    }
+
+                    cacheSizeInBytes -= indexedSizeInBytes;
+                    evictionCount.incrementAndGet();
+                    evictedBytes.addAndGet(deletedSizeInBytes);
+                }
+                return null;
+            });
+        } catch (ExecutionException exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+
+    /**
+     * Deletes the given cache entry unless it was accessed within the given idle time or has been
+     * deleted since it was listed. The cache entry directory should have been guarded with a WRITE
+     * lock when this method is invoked.
+     *
+     * <p>The per-entry lock file is not deleted in the case of {@code MULTI_PROCESS} locking, since
+     * another thread/process may be waiting on it; it is deleted together with the cache entries
+     * that are deleted for their age (see {@link #deleteOldCacheEntries(long)}).
+     *
+     * @return the actual size of the deleted cache entry, or -1 if it was not deleted
+     */
+    private static long deleteCacheEntryIfIdle(
+            @NonNull File cacheEntryDir, @NonNull Duration minIdleTime) throws IOException {
+        if (!getInputsFile(cacheEntryDir).isFile()) {
+            return -1;
+        }
+        // Read the metadata again as the cache entry might have been accessed by another
+        // thread/process since it was listed
+        CacheEntryMetadata metadata = getCacheEntryMetadata(cacheEntryDir);
+        if (System.currentTimeMillis() - metadata.getLastAccessTimestamp()
+                < minIdleTime.toMillis()) {
+            return -1;
+        }
+        long entrySizeInBytes = getSizeInBytes(cacheEntryDir);
+        FileUtils.deletePath(cacheEntryDir);
+        return entrySizeInBytes;
+    }
+
     /**
      * Deletes the cache directory and its contents.
      *
+     * <p>In the case of lock-striped {@code MULTI_PROCESS} locking, the lock files of the stripes
+     * are kept (and so is the cache directory) since other instances and processes may still hold
+     * locks on them; only the cache entries and other files in the cache directory are deleted.
+     *
      * <p>This method may block if the cache is being accessed by another thread/process.
      */
     public void delete() throws IOException {
@@ -677,7 +961,16 @@ public class FileCache {
             getSynchronizedFile(cacheDirectory)
                     .write(
                             sameCacheDirectory -> {
-                                FileUtils.deletePath(cacheDirectory);
+                                if (lockStripes == null) {
+                                    FileUtils.deletePath(cacheDirectory);
+                                } else if (cacheDirectory.exists()) {
+                                    for (File fileInDir :
+                                            Verify.verifyNotNull(cacheDirectory.listFiles())) {
+                                        if (!isStripeLockFile(fileInDir)) {
+                                            FileUtils.deletePath(fileInDir);
+                                        }
+                                    }
+                                }
                                 return null;
                             });
         } catch (ExecutionException exception) {
@@ -715,6 +1008,49 @@ public class FileCache {
         }
     }
 
+    /**
+     * Returns a {@link SynchronizedFile} to synchronize access to the given cache entry directory.
+     *
+     * <p>In the case of lock-striped {@code MULTI_PROCESS} locking, the returned {@code
+     * SynchronizedFile} uses the process lock selected by the cache entry's key; otherwise, it is
+     * the same as {@link #getSynchronizedFile(File)}. In the former case, the cache directory must
+     * exist when this method is called.
+     */
+    @NonNull
+    private SynchronizedFile getSynchronizedCacheEntryDir(@NonNull File cacheEntryDir) {
+        if (lockStripes == null) {
+            return getSynchronizedFile(cacheEntryDir);
+        }
+        // The name of a cache entry directory is the hexadecimal hash of its inputs, so its first
+        // characters are uniformly distributed
+        int stripe =
+                (int)
+                        (Long.parseLong(cacheEntryDir.getName().substring(0, 8), 16)
+                                % lockStripes.length());
+        ReadWriteProcessLock lock = lockStripes.get(stripe);
+        if (lock == null) {
+            // There could be a race condition here if another thread also reaches this point, but
+            // that is Okay because ReadWriteProcessLock instances of the same lock file share the
+            // same underlying locks.
+            lock = new ReadWriteProcessLock(getStripeLockFile(stripe).toPath());
+            lockStripes.compareAndSet(stripe, null, lock);
+        }
+        return SynchronizedFile.getInstanceWithMultiProcessLocking(cacheEntryDir, lock);
+    }
+
+    /** Returns the lock file of the given stripe in the case of lock-striped locking. */
+    @NonNull
+    private File getStripeLockFile(int stripe) {
+        return new File(cacheDirectory, String.format(STRIPE_LOCK_FILE_NAME_FORMAT, stripe));
+    }
+
+    /** Returns whether the given file in the cache directory is the lock file of a stripe. */
+    private static boolean isStripeLockFile(@NonNull File fileInDir) {
+        return fileInDir.isFile()
+                && fileInDir.getName().startsWith(".stripe-")
+                && fileInDir.getName().endsWith(".lock");
+    }
+
     @VisibleForTesting
     int getMisses() {
         return missCount.get();
@@ -725,11 +1061,22 @@ public class FileCache {
         return hitCount.get();
     }
 
+    /**
+     * Returns the hit, miss, and eviction counts of this {@code FileCache} instance (not of the
+     * physical cache directory, which may be shared with other instances and processes).
+     */
+    @NonNull
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(
+                hitCount.get(), missCount.get(), evictionCount.get(), evictedBytes.get());
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
                 .add("cacheDirectory", cacheDirectory)
                 .add("lockingScope", lockingScope)
+                .add("lockStripes", lockStripes != null ? lockStripes.length() : 0)
                 .toString();
     }
 
@@ -770,6 +1117,83 @@ public class FileCache {
         }
     }
 
+    /**
+     * The metadata of a cache entry, which is stored in a fixed-size binary file inside the cache
+     * entry directory. It records the size of the cache entry, the last time it was accessed, and
+     * the number of times it was accessed.
+     */
+    @Immutable
+    private static final class CacheEntryMetadata {
+
+        private static final int SIZE_IN_BYTES = 3 * Long.BYTES;
+
+        private final long entrySizeInBytes;
+
+        private final long lastAccessTimestamp;
+
+        private final long accessCount;
+
+        CacheEntryMetadata(long entrySizeInBytes, long lastAccessTimestamp, long accessCount) {
+            this.entrySizeInBytes = entrySizeInBytes;
+            this.lastAccessTimestamp = lastAccessTimestamp;
+            this.accessCount = accessCount;
+        }
+
+        /**
+         * Reads the metadata from the given file, or returns null if the file does not exist or
+         * is not a valid metadata file.
+         */
+        @Nullable
+        static CacheEntryMetadata readFrom(@NonNull File metadataFile) {
+            byte[] bytes;
+            try {
+                bytes = java.nio.file.Files.readAllBytes(metadataFile.toPath());
+            } catch (IOException e) {
+                return null;
+            }
+            if (bytes.length != SIZE_IN_BYTES) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new CacheEntryMetadata(buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+
+        /**
+         * Writes the metadata to the given file. The metadata is first written to a temporary file
+         * next to it, which then atomically replaces the given file, so that threads/processes
+         * reading the metadata concurrently never see a partially written file.
+         */
+        void writeTo(@NonNull File metadataFile) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(SIZE_IN_BYTES);
+            buffer.putLong(entrySizeInBytes).putLong(lastAccessTimestamp).putLong(accessCount);
+            File tempFile =
+                    File.createTempFile(
+                            metadataFile.getName(), ".tmp", metadataFile.getParentFile());
+            try {
+                java.nio.file.Files.write(tempFile.toPath(), buffer.array());
+                java.nio.file.Files.move(
+                        tempFile.toPath(),
+                        metadataFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                FileUtils.deleteIfExists(tempFile);
+            }
+        }
+
+        long getEntrySizeInBytes() {
+            return entrySizeInBytes;
+        }
+
+        long getLastAccessTimestamp() {
+            return lastAccessTimestamp;
+        }
+
+        long getAccessCount() {
+            return accessCount;
+        }
+    }
+
     /**
      * List of input parameters to be provided by the client when using {@link FileCache}.
      *
@@ -1228,6 +1652,75 @@ public class FileCache {
         CORRUPTED,
     }
 
+    /**
+     * The policy used to select the cache entries to delete first when the cache exceeds its size
+     * budget (see {@link #deleteCacheEntriesExceedingSize(long, EvictionPolicy)}).
+     */
+    public enum EvictionPolicy {
+
+        /** Cache entries that were accessed least recently are deleted first. */
+        LEAST_RECENTLY_USED,
+
+        /**
+         * Cache entries that were accessed least often are deleted first. Cache entries that were
+         * accessed equally often are deleted in least-recently-used order.
+         */
+        LEAST_FREQUENTLY_USED,
+    }
+
+    /** Usage statistics of a {@link FileCache} instance. */
+    @Immutable
+    public static final class CacheStatistics {
+
+        private final int hits;
+
+        private final int misses;
+
+        private final int evictedEntries;
+
+        private final long evictedBytes;
+
+        CacheStatistics(int hits, int misses, int evictedEntries, long evictedBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictedEntries = evictedEntries;
+            this.evictedBytes = evictedBytes;
+        }
+
+        /** Returns the number of queries where the cache entry existed and was not corrupted. */
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of queries where the cache entry was missing or corrupted and had to
+         * be (re)created.
+         */
+        public int getMisses() {
+            return misses;
+        }
+
+        /** Returns the number of cache entries deleted to keep the cache within its size budget. */
+        public int getEvictedEntries() {
+            return evictedEntries;
+        }
+
+        /** Returns the total size of the cache entries deleted to keep the cache within budget. */
+        public long getEvictedBytes() {
+            return evictedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("hits", hits)
+                    .add("misses", misses)
+                    .add("evictedEntries", evictedEntries)
+                    .add("evictedBytes", evictedBytes)
+                    .toString();
+        }
+    }
+
     /**
      * A common point between different cache operations occurring during one single task, the cache
      * session allows to factorize some operations, For example file hash are computed only once per
@@ -150,6 +150,21 @@ public final class SynchronizedFile {
         }
     }
 
+    /**
+     * Returns a {@code SynchronizedFile} instance for the given file and the given (possibly
+     * shared) process lock.
+     *
+     * <p>This constructor is private. Clients should use static factory method provided by this
+     * class to create a {@code SynchronizedFile} instance.
+     */
+    private SynchronizedFile(
+            @NonNull File fileToSynchronize, @NonNull ReadWriteProcessLock readWriteProcessLock) {
+        this.fileToSynchronize = fileToSynchronize;
+        this.lockingScope = LockingScope.MULTI_PROCESS;
+        this.readWriteProcessLock = readWriteProcessLock;
+        this.readWriteThreadLock = null;
+    }
+
     /**
      * Returns a {@code SynchronizedFile} instance for the given file, where synchronization on the
      * same file takes effect for threads both within the same process and across different
@@ -187,6 +202,32 @@ public final class SynchronizedFile {
         return new SynchronizedFile(fileToSynchronize, LockingScope.MULTI_PROCESS);
     }
 
+    /**
+     * Returns a {@code SynchronizedFile} instance for the given file, where synchronization takes
+     * effect for threads both within the same process and across different processes, and is
+     * provided by the given {@link ReadWriteProcessLock}.
+     *
+     * <p>Unlike {@link #getInstanceWithMultiProcessLocking(File)}, this method does not require a
+     * lock file dedicated to the file being synchronized. The same process lock can be shared by
+     * multiple files (e.g., a client can use a fixed pool of process locks to synchronize an
+     * unbounded number of files, also known as lock striping). In that case, access to any of the
+     * files sharing the same process lock is synchronized, not only access to the same file.
+     *
+     * <p>IMPORTANT: Since {@link ReadWriteProcessLock} is not reentrant, an action executed with
+     * this {@code SynchronizedFile} must not access another file that shares the same process lock.
+     *
+     * <p>This method does not normalize the file's path (and does not access the file system) as
+     * the identity of the lock is given by the process lock, not by the file.
+     *
+     * @param fileToSynchronize the file whose access will be synchronized, which may not yet exist
+     * @param readWriteProcessLock the process lock used to synchronize access to the file
+     */
+    @NonNull
+    public static SynchronizedFile getInstanceWithMultiProcessLocking(
+            @NonNull File fileToSynchronize, @NonNull ReadWriteProcessLock readWriteProcessLock) {
+        return new SynchronizedFile(fileToSynchronize, readWriteProcessLock);
+    }
+
     /**
      * Returns a {@code SynchronizedFile} instance for the given file, where synchronization on the
      * same file takes effect for threads within the same process but not for threads across
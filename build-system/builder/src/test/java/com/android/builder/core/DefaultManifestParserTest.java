@@ -24,17 +24,23 @@ import static org.mockito.Mockito.verify;
 import com.android.builder.errors.EvalIssueReporter;
 import com.android.builder.model.ApiVersion;
 import com.android.testutils.TestResources;
+import com.android.utils.JvmWideVariable;
+import com.google.common.io.Files;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BooleanSupplier;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
 public class DefaultManifestParserTest {
     @Rule public MockitoRule rule = MockitoJUnit.rule();
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     private BooleanSupplier canParseManifest = () -> true;
 
@@ -140,4 +146,64 @@ public class DefaultManifestParserTest {
         Boolean useEmbeddedDex = defaultManifestParser.getUseEmbeddedDex();
         assertThat(useEmbeddedDex).isEqualTo(true);
     }
+
+    @Test
+    public void parsedManifestIsShared() throws Exception {
+        DefaultManifestParser.clearCache();
+        File manifest = temporaryFolder.newFile("AndroidManifest.xml");
+        writeManifest(manifest, "com.example.one");
+
+        assertThat(new DefaultManifestParser(manifest, canParseManifest, null).getPackage())
+                .isEqualTo("com.example.one");
+        assertThat(new DefaultManifestParser(manifest, canParseManifest, null).getPackage())
+                .isEqualTo("com.example.one");
+        assertThat(DefaultManifestParser.getCachedManifestCount()).isEqualTo(1);
+
+        DefaultManifestParser.clearCache();
+        assertThat(DefaultManifestParser.getCachedManifestCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void cacheIsClearedFromOtherClassLoaders() throws Exception {
+        DefaultManifestParser.clearCache();
+        File manifest = temporaryFolder.newFile("AndroidManifest.xml");
+        writeManifest(manifest, "com.example.one");
+        assertThat(new DefaultManifestParser(manifest, canParseManifest, null).getPackage())
+                .isEqualTo("com.example.one");
+        assertThat(DefaultManifestParser.getCachedManifestCount()).isEqualTo(1);
+
+        // This is what clearing the cache from another class loader does.
+        new JvmWideVariable<>(
+                        DefaultManifestParser.class,
+                        "cacheGeneration",
+                        AtomicLong.class,
+                        new AtomicLong())
+                .get()
+                .incrementAndGet();
+        assertThat(DefaultManifestParser.getCachedManifestCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void changedManifestIsParsedAgain() throws Exception {
+        File manifest = temporaryFolder.newFile("AndroidManifest.xml");
+        writeManifest(manifest, "com.example.one");
+        DefaultManifestParser parser = new DefaultManifestParser(manifest, canParseManifest, null);
+        assertThat(parser.getPackage()).isEqualTo("com.example.one");
+
+        writeManifest(manifest, "com.example.changed");
+
+        assertThat(new DefaultManifestParser(manifest, canParseManifest, null).getPackage())
+                .isEqualTo("com.example.changed");
+        // A parser only reads the manifest once.
+        assertThat(parser.getPackage()).isEqualTo("com.example.one");
+    }
+
+    private static void writeManifest(File manifest, String packageName) throws Exception {
+        Files.asCharSink(manifest, StandardCharsets.UTF_8)
+                .write(
+                        "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                                + "    package=\""
+                                + packageName
+                                + "\" />\n");
+    }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.core;
+
+import com.android.annotations.NonNull;
+import com.android.builder.model.ProductFlavor;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Files;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the configuration-time cost of resolving the variant attributes (application id,
+ * version name and version code) of a project with many flavors, with and without the memoization
+ * of {@link VariantAttributesProvider} and the cache of {@link DefaultManifestParser}.
+ *
+ * <p>Each variant of the model has its own manifest parser and merged flavor, as in the Gradle
+ * plugin, and its attributes are read several times, as the tasks and the model do.
+ *
+ * <p>This is not a unit test. Run it manually with the builder test classpath, e.g.:
+ *
+ * <pre>
+ * java com.android.builder.core.VariantAttributesBenchmark [dimensions] [flavors] [reads] [runs]
+ * </pre>
+ */
+public final class VariantAttributesBenchmark {
+
+    private static final String[] BUILD_TYPES = {"debug", "release", "staging"};
+
+    public static void main(String[] args) throws Exception {
+        int dimensions = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int flavorsPerDimension = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int reads = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        File manifest = File.createTempFile("AndroidManifest", ".xml");
+        manifest.deleteOnExit();
+        Files.asCharSink(manifest, StandardCharsets.UTF_8)
+                .write(
+                        "<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"\n"
+                                + "    package=\"com.example.benchmark\"\n"
+                                + "    android:versionCode=\"42\"\n"
+                                + "    android:versionName=\"4.2\">\n"
+                                + "  <application android:label=\"Benchmark\" />\n"
+                                + "</manifest>\n");
+
+        DefaultProductFlavor defaultConfig = new DefaultProductFlavor("main");
+        List<List<ProductFlavor>> combinations =
+                createCombinations(dimensions, flavorsPerDimension);
+        System.out.println(
+                String.format(
+                        "%1$d flavor combinations, %2$d variants, %3$d reads per attribute",
+                        combinations.size(),
+                        combinations.size() * BUILD_TYPES.length,
+                        reads));
+
+        for (int run = 0; run < runs; run++) {
+            long uncached = configure(defaultConfig, combinations, manifest, reads, false);
+            long cached = configure(defaultConfig, combinations, manifest, reads, true);
+            System.out.println(
+                    String.format(
+                            "run %1$d: uncached %2$d ms, memoized %3$d ms"
+                                    + " (%4$d cached manifests)",
+                            run,
+                            uncached,
+                            cached,
+                            DefaultManifestParser.getCachedManifestCount()));
+        }
+    }
+
+    /**
+     * Creates the variants of all the flavor combinations and build types, and reads their
+     * attributes.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    private static long configure(
+            @NonNull DefaultProductFlavor defaultConfig,
+            @NonNull List<List<ProductFlavor>> combinations,
+            @NonNull File manifest,
+            int reads,
+            boolean memoized) {
+        DefaultManifestParser.clearCache();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        long checksum = 0;
+        for (List<ProductFlavor> flavors : combinations) {
+            ProductFlavor mergedFlavor =
+                    MergedFlavor.mergeFlavors(defaultConfig, flavors, new ThrowingIssueReporter());
+            for (String buildTypeName : BUILD_TYPES) {
+                DefaultBuildType buildType = new DefaultBuildType(buildTypeName);
+                buildType.setApplicationIdSuffix(buildTypeName);
+                VariantAttributesProvider provider =
+                        new VariantAttributesProvider(
+                                mergedFlavor,
+                                buildType,
+                                false,
+                                new DefaultManifestParser(manifest, () -> true, null),
+                                manifest,
+                                buildTypeName);
+                for (int i = 0; i < reads; i++) {
+                    if (!memoized) {
+                        DefaultManifestParser.clearCache();
+                        provider.invalidate();
+                    }
+                    checksum += provider.getApplicationId("").hashCode();
+                    checksum += String.valueOf(provider.getVersionName()).hashCode();
+                    checksum += provider.getVersionCode();
+                }
+            }
+        }
+        stopwatch.stop();
+        if (checksum == 0) {
+            System.out.println("Unexpected checksum");
+        }
+        return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    }
+
+    @NonNull
+    private static List<List<ProductFlavor>> createCombinations(
+            int dimensions, int flavorsPerDimension) {
+        List<List<ProductFlavor>> combinations = new ArrayList<>();
+        combinations.add(new ArrayList<>());
+        for (int dimension = 0; dimension < dimensions; dimension++) {
+            List<ProductFlavor> dimensionFlavors = new ArrayList<>(flavorsPerDimension);
+            for (int i = 0; i < flavorsPerDimension; i++) {
+                DefaultProductFlavor flavor =
+                        new DefaultProductFlavor("flavor" + dimension + "x" + i);
+                flavor.setDimension("dimension" + dimension);
+                flavor.setApplicationIdSuffix("d" + dimension + "f" + i);
+                if (i % 2 == 0) {
+                    flavor.setVersionNameSuffix("-" + flavor.getName());
+                }
+                dimensionFlavors.add(flavor);
+            }
+
+            List<List<ProductFlavor>> expanded = new ArrayList<>();
+            for (List<ProductFlavor> combination : combinations) {
+                for (ProductFlavor flavor : dimensionFlavors) {
+                    List<ProductFlavor> flavors = new ArrayList<>(combination);
+                    flavors.add(flavor);
+                    expanded.add(flavors);
+                }
+            }
+            combinations = expanded;
+        }
+        return combinations;
+    }
+}
@@ -19,6 +19,8 @@ package com.android.builder.core
 import com.android.builder.errors.EvalIssueReporter
 import com.google.common.truth.Truth.assertThat
 import org.mockito.Mockito.`when`
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
 
 import com.android.testutils.TestResources
 import java.io.File
@@ -180,6 +182,36 @@ class VariantAttributesProviderTest {
         assertThat(provider.versionCode).isEqualTo(32)
     }
 
+    @Test
+    fun testVersionCodeIsMemoized() {
+        `when`(manifestSupplier.versionCode).thenReturn(34)
+        val provider = provider
+        assertThat(provider.versionCode).isEqualTo(34)
+        assertThat(provider.versionCode).isEqualTo(34)
+        verify(manifestSupplier, times(1)).versionCode
+
+        provider.invalidate()
+        assertThat(provider.versionCode).isEqualTo(34)
+        verify(manifestSupplier, times(2)).versionCode
+    }
+
+    @Test
+    fun testMemoizedAttributesFollowFlavorChanges() {
+        val provider = provider
+        assertThat(provider.idOverride).isNull()
+
+        mergedFlavor.applicationId = "foo.bar"
+        assertThat(provider.idOverride).isEqualTo("foo.bar")
+
+        buildType.applicationIdSuffix = "debug"
+        assertThat(provider.idOverride).isEqualTo("foo.bar.debug")
+
+        val otherFlavor = DefaultProductFlavor("other")
+        otherFlavor.applicationId = "other.app"
+        provider.mergedFlavor = otherFlavor
+        assertThat(provider.idOverride).isEqualTo("other.app.debug")
+    }
+
     @Test
     fun testInstrumentationRunnerFromManifest() {
         `when`(manifestSupplier.instrumentationRunner).thenReturn("instrumentation-manifest")
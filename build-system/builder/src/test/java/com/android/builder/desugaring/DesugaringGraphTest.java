@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.desugaring;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link DesugaringGraph} and its persistence. */
+public class DesugaringGraphTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path pathA;
+    private Path pathB;
+    private Path pathC;
+    private Path jar;
+
+    @Before
+    public void setUp() throws IOException {
+        pathA = temporaryFolder.newFile("A.class").toPath();
+        pathB = temporaryFolder.newFile("B.class").toPath();
+        pathC = temporaryFolder.newFile("C.class").toPath();
+        jar = temporaryFolder.newFile("lib.jar").toPath();
+    }
+
+    @Test
+    public void testDependentPaths() {
+        DesugaringGraph graph = new DesugaringGraph(getData());
+
+        assertThat(graph.getDependentPaths(pathA)).containsExactly(pathB, pathC, jar);
+        assertThat(graph.getDependentPaths(pathB)).containsExactly(pathC);
+        assertThat(graph.getDependentPaths(pathC)).isEmpty();
+        assertThat(graph.getDependentPaths(jar)).containsExactly(pathA, pathB, pathC);
+    }
+
+    @Test
+    public void testDependentPathsOfMultiplePaths() {
+        DesugaringGraph graph = new DesugaringGraph(getData());
+
+        assertThat(graph.getDependentPaths(ImmutableList.of(pathB, pathC))).isEmpty();
+        assertThat(graph.getDependentPaths(ImmutableList.of(pathA, pathB)))
+                .containsExactly(pathC, jar);
+        assertThat(graph.getDependentPaths(ImmutableList.of(temporaryFolder.getRoot().toPath())))
+                .isEmpty();
+    }
+
+    @Test
+    public void testDependentPathsAfterUpdate() throws IOException {
+        DesugaringGraph graph = new DesugaringGraph(getData());
+
+        // C no longer extends B, and B is removed
+        Files.delete(pathB);
+        graph.update(
+                ImmutableList.of(
+                        new DesugaringData(pathB),
+                        new DesugaringData(pathC, "C", ImmutableSet.of("A"))));
+
+        assertThat(graph.getDependentPaths(pathA)).containsExactly(pathC, jar);
+        assertThat(graph.getDependents("B")).isEmpty();
+        assertThat(graph.getDependencies("C")).containsExactly("A");
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        DesugaringGraph graph = new DesugaringGraph(getData());
+        graph.update(ImmutableList.of(new DesugaringData(pathC, "C", ImmutableSet.of("A"))));
+        Path file = temporaryFolder.getRoot().toPath().resolve("graph/desugaring-graph.bin");
+        graph.write(file);
+
+        DesugaringGraph readGraph = DesugaringGraph.read(file);
+        assertThat(readGraph).isNotNull();
+        for (Path path : ImmutableList.of(pathA, pathB, pathC, jar)) {
+            assertThat(readGraph.getDependentPaths(path))
+                    .containsExactlyElementsIn(graph.getDependentPaths(path));
+            assertThat(readGraph.getDependenciesPaths(path))
+                    .containsExactlyElementsIn(graph.getDependenciesPaths(path));
+        }
+        for (String type : ImmutableList.of("A", "B", "C", "L1", "L2")) {
+            assertThat(readGraph.getDependents(type))
+                    .containsExactlyElementsIn(graph.getDependents(type));
+            assertThat(readGraph.getDependencies(type))
+                    .containsExactlyElementsIn(graph.getDependencies(type));
+        }
+
+        // read graph can be updated
+        readGraph.update(ImmutableList.of(new DesugaringData(pathC, "C", ImmutableSet.of("B"))));
+        assertThat(readGraph.getDependentPaths(pathB)).containsExactly(pathC);
+    }
+
+    @Test
+    public void testReadInvalidFile() throws IOException {
+        Path file = temporaryFolder.getRoot().toPath().resolve("desugaring-graph.bin");
+        assertThat(DesugaringGraph.read(file)).isNull();
+
+        Files.write(file, "not a graph".getBytes(StandardCharsets.UTF_8));
+        assertThat(DesugaringGraph.read(file)).isNull();
+
+        new DesugaringGraph(getData()).write(file);
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 1));
+        assertThat(DesugaringGraph.read(file)).isNull();
+    }
+
+    /**
+     * Returns data for the following types: B extends A, C extends B, A implements L1 and L2,
+     * where L1 and L2 are in a jar, and L2 has a lambda of type A.
+     */
+    @NonNull
+    private List<DesugaringData> getData() {
+        return ImmutableList.of(
+                new DesugaringData(pathA, "A", ImmutableSet.of("L1", "L2")),
+                new DesugaringData(pathB, "B", ImmutableSet.of("A")),
+                new DesugaringData(pathC, "C", ImmutableSet.of("B")),
+                new DesugaringData(jar, "L1", ImmutableSet.of()),
+                new DesugaringData(jar, "L2", ImmutableSet.of("A")));
+    }
+}
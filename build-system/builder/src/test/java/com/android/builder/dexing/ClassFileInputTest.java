@@ -26,10 +26,18 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.truth.Truth;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -182,6 +190,123 @@ public class ClassFileInputTest {
         Truth.assertThat(relativePaths).containsExactlyElementsIn(fileNames);
     }
 
+    @Test
+    public void testMemoryMappedJarCorrectlyRead() throws IOException {
+        File jarFile = FileUtils.join(temporaryFolder.getRoot(), "input.jar");
+        byte[] storedContent = "stored class content".getBytes(StandardCharsets.UTF_8);
+        byte[] deflatedContent = new byte[100_000];
+        for (int i = 0; i < deflatedContent.length; i++) {
+            deflatedContent[i] = (byte) (i % 7);
+        }
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            addEntry(zos, "A.class", storedContent, ZipEntry.STORED);
+            addEntry(zos, "dir/B.class", deflatedContent, ZipEntry.DEFLATED);
+            addEntry(zos, "ignored.txt", storedContent, ZipEntry.DEFLATED);
+        }
+
+        ClassFileReadStatistics statistics = new ClassFileReadStatistics();
+        Map<String, byte[]> contents;
+        try (ClassFileInput input = ClassFileInputs.fromPath(jarFile.toPath(), true, statistics)) {
+            contents =
+                    input.entries(path -> true)
+                            .collect(
+                                    Collectors.toMap(
+                                            ClassFileEntry::getRelativePath,
+                                            entry -> {
+                                                try {
+                                                    return entry.readAllBytes();
+                                                } catch (IOException e) {
+                                                    throw new RuntimeException(e);
+                                                }
+                                            }));
+        }
+
+        assertThat(contents.keySet()).containsExactly("A.class", "dir/B.class");
+        assertThat(contents.get("A.class")).isEqualTo(storedContent);
+        assertThat(contents.get("dir/B.class")).isEqualTo(deflatedContent);
+        assertThat(statistics.getClassesRead()).isEqualTo(2);
+        assertThat(statistics.getBytesAllocated())
+                .isEqualTo(storedContent.length + deflatedContent.length);
+        assertThat(statistics.getMappedClassesRead()).isEqualTo(1);
+        assertThat(statistics.getInflatedClassesRead()).isEqualTo(1);
+    }
+
+    @Test
+    public void testMemoryMappedJarReadIntoBuffer() throws IOException {
+        File jarFile = FileUtils.join(temporaryFolder.getRoot(), "input.jar");
+        byte[] content = "class content".getBytes(StandardCharsets.UTF_8);
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            addEntry(zos, "A.class", content, ZipEntry.STORED);
+            addEntry(zos, "B.class", content, ZipEntry.DEFLATED);
+        }
+
+        // Reading into a buffer behaves the same whether the jar is mapped or not: the content is
+        // read up to the size of the buffer
+        for (boolean memoryMapped : new boolean[] {false, true}) {
+            try (ClassFileInput input =
+                    ClassFileInputs.fromPath(jarFile.toPath(), memoryMapped, null)) {
+                for (ClassFileEntry entry :
+                        input.entries(path -> true).collect(Collectors.toList())) {
+                    byte[] largeBuffer = new byte[content.length + 10];
+                    assertThat(entry.readAllBytes(largeBuffer)).isEqualTo(content.length);
+                    assertThat(Arrays.copyOf(largeBuffer, content.length)).isEqualTo(content);
+
+                    byte[] smallBuffer = new byte[5];
+                    assertThat(entry.readAllBytes(smallBuffer)).isEqualTo(5);
+                    assertThat(smallBuffer).isEqualTo(Arrays.copyOf(content, 5));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMemoryMappedEmptyJar() throws IOException {
+        File jarFile = FileUtils.join(temporaryFolder.getRoot(), "input.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jarFile))) {
+            zos.setComment("empty archive");
+        }
+
+        try (ClassFileInput input = ClassFileInputs.fromPath(jarFile.toPath(), true, null)) {
+            assertThat(input.entries(path -> true).count()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testStatisticsForDirectory() throws IOException {
+        byte[] content = "class content".getBytes(StandardCharsets.UTF_8);
+        Files.write(temporaryFolder.newFile("A.class").toPath(), content);
+
+        ClassFileReadStatistics statistics = new ClassFileReadStatistics();
+        try (ClassFileInput input =
+                ClassFileInputs.fromPath(temporaryFolder.getRoot().toPath(), true, statistics)) {
+            for (ClassFileEntry entry : input.entries(path -> true).collect(Collectors.toList())) {
+                assertThat(entry.readAllBytes()).isEqualTo(content);
+            }
+        }
+
+        assertThat(statistics.getClassesRead()).isEqualTo(1);
+        assertThat(statistics.getBytesAllocated()).isEqualTo(content.length);
+        assertThat(statistics.getMappedClassesRead()).isEqualTo(0);
+        assertThat(statistics.getInflatedClassesRead()).isEqualTo(0);
+    }
+
+    private static void addEntry(
+            @NonNull ZipOutputStream zos, @NonNull String name, @NonNull byte[] content, int method)
+            throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc32 = new CRC32();
+            crc32.update(content);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc32.getValue());
+        }
+        zos.putNextEntry(entry);
+        zos.write(content);
+        zos.closeEntry();
+    }
+
     private void validateEntries(@NonNull File rootPath, @NonNull List<String> fileNames)
             throws IOException {
         List<String> filesRead =
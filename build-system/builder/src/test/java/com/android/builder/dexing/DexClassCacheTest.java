@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link DexClassCache} and {@link ClassCachingDexArchiveBuilder}. */
+public class DexClassCacheTest {
+
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        DexClassCache cache = new DexClassCache(temporaryFolder.newFile("pack"), MAX_SIZE);
+        HashCode keyA = DexClassCache.getKey("config", bytes("A"));
+        HashCode keyB = DexClassCache.getKey("config", bytes("B"));
+
+        assertThat(cache.getAll(ImmutableList.of(keyA, keyB))).isEmpty();
+
+        cache.putAll(ImmutableMap.of(keyA, bytes("dexA")));
+        Map<HashCode, byte[]> found = cache.getAll(ImmutableList.of(keyA, keyB));
+        assertThat(found.keySet()).containsExactly(keyA);
+        assertThat(found.get(keyA)).isEqualTo(bytes("dexA"));
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(3);
+    }
+
+    @Test
+    public void testKeyDependsOnConfiguration() {
+        assertThat(DexClassCache.getKey("config", bytes("A")))
+                .isNotEqualTo(DexClassCache.getKey("otherConfig", bytes("A")));
+        assertThat(DexClassCache.getKey("config", bytes("A")))
+                .isEqualTo(DexClassCache.getKey("config", bytes("A")));
+    }
+
+    @Test
+    public void testSharedBetweenInstances() throws IOException {
+        File packFile = temporaryFolder.newFile("pack");
+        // Two instances simulate two processes sharing the same pack file
+        DexClassCache cache1 = new DexClassCache(packFile, MAX_SIZE);
+        DexClassCache cache2 = new DexClassCache(packFile, MAX_SIZE);
+        HashCode keyA = DexClassCache.getKey("config", bytes("A"));
+        HashCode keyB = DexClassCache.getKey("config", bytes("B"));
+
+        cache1.putAll(ImmutableMap.of(keyA, bytes("dexA")));
+        assertThat(cache2.getAll(ImmutableList.of(keyA)).get(keyA)).isEqualTo(bytes("dexA"));
+
+        cache2.putAll(ImmutableMap.of(keyB, bytes("dexB")));
+        Map<HashCode, byte[]> found = cache1.getAll(ImmutableList.of(keyA, keyB));
+        assertThat(found.get(keyA)).isEqualTo(bytes("dexA"));
+        assertThat(found.get(keyB)).isEqualTo(bytes("dexB"));
+    }
+
+    @Test
+    public void testClearedWhenFull() throws IOException {
+        File packFile = temporaryFolder.newFile("pack");
+        DexClassCache cache1 = new DexClassCache(packFile, 200);
+        DexClassCache cache2 = new DexClassCache(packFile, 200);
+        HashCode keyA = DexClassCache.getKey("config", bytes("A"));
+        HashCode keyB = DexClassCache.getKey("config", bytes("B"));
+
+        cache1.putAll(ImmutableMap.of(keyA, new byte[100]));
+        assertThat(cache2.getAll(ImmutableList.of(keyA))).containsKey(keyA);
+
+        cache1.putAll(ImmutableMap.of(keyB, new byte[100]));
+        assertThat(packFile.length()).isAtMost(200L);
+        assertThat(cache2.getAll(ImmutableList.of(keyA))).isEmpty();
+        assertThat(cache2.getAll(ImmutableList.of(keyB))).containsKey(keyB);
+    }
+
+    @Test
+    public void testIncompleteRecordIgnored() throws IOException {
+        File packFile = temporaryFolder.newFile("pack");
+        DexClassCache cache = new DexClassCache(packFile, MAX_SIZE);
+        HashCode keyA = DexClassCache.getKey("config", bytes("A"));
+        HashCode keyB = DexClassCache.getKey("config", bytes("B"));
+        cache.putAll(ImmutableMap.of(keyA, bytes("dexA")));
+        long validLength = packFile.length();
+
+        // Simulate a writer killed in the middle of appending a record
+        Files.write(packFile.toPath(), keyB.asBytes(), StandardOpenOption.APPEND);
+        DexClassCache newCache = new DexClassCache(packFile, MAX_SIZE);
+        assertThat(newCache.getAll(ImmutableList.of(keyA, keyB)).keySet()).containsExactly(keyA);
+
+        newCache.putAll(ImmutableMap.of(keyB, bytes("dexB")));
+        assertThat(packFile.length()).isEqualTo(validLength + 40 + bytes("dexB").length);
+        assertThat(cache.getAll(ImmutableList.of(keyB)).get(keyB)).isEqualTo(bytes("dexB"));
+    }
+
+    @Test
+    public void testInvalidPackFile() throws IOException {
+        File packFile = temporaryFolder.newFile("pack");
+        Files.write(packFile.toPath(), bytes("not a pack file"));
+        DexClassCache cache = new DexClassCache(packFile, MAX_SIZE);
+        HashCode keyA = DexClassCache.getKey("config", bytes("A"));
+
+        assertThat(cache.getAll(ImmutableList.of(keyA))).isEmpty();
+        cache.putAll(ImmutableMap.of(keyA, bytes("dexA")));
+        assertThat(cache.getAll(ImmutableList.of(keyA)).get(keyA)).isEqualTo(bytes("dexA"));
+    }
+
+    @Test
+    public void testClassCachingDexArchiveBuilder() throws IOException {
+        Path classes = temporaryFolder.newFolder("classes").toPath();
+        Files.createDirectories(classes.resolve("test"));
+        Files.write(classes.resolve("test/A.class"), bytes("A"));
+        Files.write(classes.resolve("test/B.class"), bytes("B"));
+
+        DexClassCache cache = new DexClassCache(temporaryFolder.newFile("pack"), MAX_SIZE);
+        FakeDexArchiveBuilder fakeBuilder = new FakeDexArchiveBuilder();
+        DexArchiveBuilder builder =
+                DexArchiveBuilder.createClassCachingDexBuilder(fakeBuilder, cache, "config");
+
+        Path output = temporaryFolder.getRoot().toPath().resolve("output1.jar");
+        convert(builder, classes, output);
+        assertThat(fakeBuilder.converted.get()).isEqualTo(2);
+        assertThat(readDexArchive(output))
+                .containsExactly("test/A.dex", "dex:A", "test/B.dex", "dex:B");
+
+        Files.write(classes.resolve("test/B.class"), bytes("B2"));
+        output = temporaryFolder.getRoot().toPath().resolve("output2.jar");
+        convert(builder, classes, output);
+        assertThat(fakeBuilder.converted.get()).isEqualTo(3);
+        assertThat(readDexArchive(output))
+                .containsExactly("test/A.dex", "dex:A", "test/B.dex", "dex:B2");
+    }
+
+    private static void convert(
+            @NonNull DexArchiveBuilder builder, @NonNull Path classes, @NonNull Path output)
+            throws IOException {
+        try (ClassFileInput input = ClassFileInputs.fromPath(classes);
+                Stream<ClassFileEntry> entries = input.entries(path -> true)) {
+            builder.convert(entries, output, false);
+        }
+    }
+
+    @NonNull
+    private static Map<String, String> readDexArchive(@NonNull Path dexArchive)
+            throws IOException {
+        return DexArchives.getEntriesFromSingleArchive(dexArchive)
+                .stream()
+                .collect(
+                        Collectors.toMap(
+                                DexArchiveEntry::getRelativePathInArchive,
+                                entry ->
+                                        new String(
+                                                entry.getDexFileContent(),
+                                                StandardCharsets.UTF_8)));
+    }
+
+    @NonNull
+    private static byte[] bytes(@NonNull String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Writes a fake dex file per class, which contains "dex:" followed by the class content. */
+    private static final class FakeDexArchiveBuilder extends DexArchiveBuilder {
+
+        private final AtomicInteger converted = new AtomicInteger();
+
+        @Override
+        public void convert(
+                @NonNull Stream<ClassFileEntry> input, @NonNull Path output, boolean isIncremental)
+                throws DexArchiveBuilderException {
+            try (DexArchive dexArchive = DexArchives.fromInput(output)) {
+                for (ClassFileEntry entry : input.collect(Collectors.toList())) {
+                    byte[] dex =
+                            ("dex:" + new String(entry.readAllBytes(), StandardCharsets.UTF_8))
+                                    .getBytes(StandardCharsets.UTF_8);
+                    dexArchive.addFile(
+                            ClassFileEntry.withDexExtension(entry.getRelativePath()),
+                            dex,
+                            0,
+                            dex.length);
+                    converted.incrementAndGet();
+                }
+            } catch (IOException e) {
+                throw new DexArchiveBuilderException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.dexing;
+
+import static com.android.testutils.truth.DexSubject.assertThat;
+import static com.android.testutils.truth.PathSubject.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.annotations.NonNull;
+import com.android.builder.core.StandardOutErrMessageReceiver;
+import com.android.testutils.TestInputsGenerator;
+import com.android.testutils.apk.Dex;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.truth.Truth;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link StreamingD8DexArchiveMerger}. */
+public class StreamingD8DexArchiveMergerTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testMergeTwo() throws Exception {
+        Path fstArchive =
+                DexArchiveTestUtil.createClassesAndConvertToDexArchive(
+                        temporaryFolder.getRoot().toPath().resolve("fst"), "A");
+        Path sndArchive =
+                DexArchiveTestUtil.createClassesAndConvertToDexArchive(
+                        temporaryFolder.getRoot().toPath().resolve("snd"), "B");
+
+        Path output = temporaryFolder.getRoot().toPath().resolve("output");
+        merge(ImmutableList.of(fstArchive, sndArchive), output, Long.MAX_VALUE);
+
+        Dex outputDex = new Dex(output.resolve("classes.dex"));
+        assertThat(outputDex).containsExactlyClassesIn(DexArchiveTestUtil.getDexClasses("A", "B"));
+        assertThat(output.resolve("classes2.dex")).doesNotExist();
+        Truth.assertThat(Files.list(output).count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testMultipleBuckets() throws Exception {
+        Path inputRoot = temporaryFolder.getRoot().toPath().resolve("classes");
+        DexArchiveTestUtil.createClassWithMethodDescriptors(inputRoot, "A", 40000);
+        DexArchiveTestUtil.createClassWithMethodDescriptors(inputRoot, "B", 40000);
+        DexArchiveTestUtil.createClassWithMethodDescriptors(inputRoot, "C", 10);
+        Path dexArchive = temporaryFolder.getRoot().toPath().resolve("dex_archive");
+        DexArchiveTestUtil.convertClassesToDexArchive(inputRoot, dexArchive, DexerTool.D8);
+
+        List<StreamingD8DexArchiveMerger.Bucket> buckets =
+                StreamingD8DexArchiveMerger.partition(ImmutableList.of(dexArchive));
+        Truth.assertThat(buckets).hasSize(2);
+        Truth.assertThat(buckets.get(0).getNumberOfEntries()).isEqualTo(1);
+        Truth.assertThat(buckets.get(1).getNumberOfEntries()).isEqualTo(2);
+
+        // Only a single bucket can be loaded at a time
+        Path output = temporaryFolder.getRoot().toPath().resolve("output");
+        merge(ImmutableList.of(dexArchive), output, 1);
+
+        assertThat(new Dex(output.resolve("classes.dex")))
+                .containsExactlyClassesIn(DexArchiveTestUtil.getDexClasses("A"));
+        assertThat(new Dex(output.resolve("classes2.dex")))
+                .containsExactlyClassesIn(DexArchiveTestUtil.getDexClasses("B", "C"));
+        assertThat(output.resolve("classes3.dex")).doesNotExist();
+        Truth.assertThat(Files.list(output).count()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDuplicateClassError() throws Exception {
+        // The classes with the same name are small enough to be in different buckets
+        Path inputRoot = temporaryFolder.getRoot().toPath().resolve("classes");
+        DexArchiveTestUtil.createClassWithMethodDescriptors(inputRoot, "A", 40000);
+        DexArchiveTestUtil.createClassWithMethodDescriptors(inputRoot, "B", 40000);
+        Path fstArchive = temporaryFolder.getRoot().toPath().resolve("fst");
+        DexArchiveTestUtil.convertClassesToDexArchive(inputRoot, fstArchive, DexerTool.D8);
+
+        Path classes = temporaryFolder.newFolder("duplicate").toPath();
+        TestInputsGenerator.dirWithEmptyClasses(
+                classes, Collections.singletonList(DexArchiveTestUtil.PACKAGE + "/B"));
+        Path sndArchive = temporaryFolder.getRoot().toPath().resolve("snd");
+        DexArchiveTestUtil.convertClassesToDexArchive(classes, sndArchive, DexerTool.D8);
+
+        Path output = temporaryFolder.getRoot().toPath().resolve("output");
+        try {
+            merge(ImmutableList.of(fstArchive, sndArchive), output, Long.MAX_VALUE);
+            fail("dex merging should fail when there are classes with same name and package");
+        } catch (DexArchiveMergerException e) {
+            Truth.assertThat(e.getMessage()).contains("Program type already present: test.B");
+        }
+    }
+
+    @Test
+    public void testOrderOfInputsDoesNotChangeOutput() throws Exception {
+        List<Path> archives = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            archives.add(
+                    DexArchiveTestUtil.createClassesAndConvertToDexArchive(
+                            temporaryFolder.getRoot().toPath().resolve("A" + i), "A" + i));
+        }
+
+        Path output = temporaryFolder.getRoot().toPath().resolve("output");
+        merge(archives, output, 1);
+        byte[] classesDex = Files.readAllBytes(output.resolve("classes.dex"));
+
+        for (int i = 0; i < 3; i++) {
+            Collections.shuffle(archives);
+            Path newOutput = temporaryFolder.getRoot().toPath().resolve("output" + i);
+            merge(archives, newOutput, 1);
+            Truth.assertThat(Files.readAllBytes(newOutput.resolve("classes.dex")))
+                    .isEqualTo(classesDex);
+        }
+    }
+
+    @Test
+    public void testMonoDexIsNotPartitioned() throws Exception {
+        Path fstArchive =
+                DexArchiveTestUtil.createClassesAndConvertToDexArchive(
+                        temporaryFolder.getRoot().toPath().resolve("fst"), "A");
+        Path sndArchive =
+                DexArchiveTestUtil.createClassesAndConvertToDexArchive(
+                        temporaryFolder.getRoot().toPath().resolve("snd"), "B");
+
+        Path output = temporaryFolder.getRoot().toPath().resolve("output");
+        Files.createDirectory(output);
+        DexArchiveMerger.createStreamingD8DexMerger(
+                        new StandardOutErrMessageReceiver(), 21, true, ForkJoinPool.commonPool(), 1)
+                .mergeDexArchives(
+                        ImmutableList.of(fstArchive, sndArchive).iterator(),
+                        output,
+                        null,
+                        DexingType.MONO_DEX);
+
+        Dex outputDex = new Dex(output.resolve("classes.dex"));
+        assertThat(outputDex).containsExactlyClassesIn(DexArchiveTestUtil.getDexClasses("A", "B"));
+    }
+
+    private static void merge(
+            @NonNull Collection<Path> dexArchives, @NonNull Path output, long maxResidentInputBytes)
+            throws Exception {
+        Files.createDirectory(output);
+        DexArchiveMerger.createStreamingD8DexMerger(
+                        new StandardOutErrMessageReceiver(),
+                        21,
+                        true,
+                        ForkJoinPool.commonPool(),
+                        maxResidentInputBytes)
+                .mergeDexArchives(
+                        dexArchives.iterator(), output, null, DexingType.NATIVE_MULTIDEX);
+    }
+}
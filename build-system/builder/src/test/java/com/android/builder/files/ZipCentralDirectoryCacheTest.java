@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.files;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link ZipCentralDirectoryCache}. */
+public class ZipCentralDirectoryCacheTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void clearCache() {
+        ZipCentralDirectoryCache.clear();
+    }
+
+    @Test
+    public void testSameZipIsReadOnce() throws IOException {
+        File zip = createZip("a.jar", "a/A.txt", "a/B.txt");
+
+        ZipCentralDirectory directory = ZipCentralDirectoryCache.get(zip);
+        assertThat(directory.getEntries().keySet()).containsExactly("a/A.txt", "a/B.txt");
+        assertThat(ZipCentralDirectoryCache.get(zip)).isSameAs(directory);
+        assertThat(ZipCentralDirectoryCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testChangedZipIsReadAgain() throws IOException {
+        File zip = createZip("a.jar", "a/A.txt");
+        ZipCentralDirectory directory = ZipCentralDirectoryCache.get(zip);
+
+        // same modification time, different size
+        FileTime lastModifiedTime = Files.getLastModifiedTime(zip.toPath());
+        createZip("a.jar", "a/A.txt", "a/B.txt");
+        Files.setLastModifiedTime(zip.toPath(), lastModifiedTime);
+
+        ZipCentralDirectory newDirectory = ZipCentralDirectoryCache.get(zip);
+        assertThat(newDirectory).isNotSameAs(directory);
+        assertThat(newDirectory.getEntries().keySet()).containsExactly("a/A.txt", "a/B.txt");
+    }
+
+    @Test
+    public void testMissingZipIsNotCached() throws IOException {
+        File zip = new File(temporaryFolder.getRoot(), "missing.jar");
+
+        ZipCentralDirectory directory = ZipCentralDirectoryCache.get(zip);
+        assertThat(directory.getFile()).isEqualTo(zip);
+        assertThat(ZipCentralDirectoryCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        File zip = createZip("a.jar", "a/A.txt");
+        ZipCentralDirectory directory = ZipCentralDirectoryCache.get(zip);
+
+        ZipCentralDirectoryCache.clear();
+
+        assertThat(ZipCentralDirectoryCache.size()).isEqualTo(0);
+        assertThat(ZipCentralDirectoryCache.get(zip)).isNotSameAs(directory);
+    }
+
+    @NonNull
+    private File createZip(@NonNull String name, @NonNull String... paths) throws IOException {
+        File zip = new File(temporaryFolder.getRoot(), name);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (String path : paths) {
+                out.putNextEntry(new ZipEntry(path));
+                out.write(path.getBytes());
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.internal.aapt.v2
+
+import com.android.ide.common.resources.CompileResourceRequest
+import com.android.utils.FileUtils
+import com.android.utils.StdLogger
+import com.google.common.base.Stopwatch
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares compiling resources one request at a time with [Aapt2Daemon.compile] and sending all
+ * the requests at once with the batch [Aapt2Daemon.compile], using [CompilingAapt2Daemon] as a
+ * stand-in for AAPT2 so that only the cost of the round-trips with the daemon is measured.
+ *
+ * This is not a unit test. Run it manually with the builder test classpath, e.g.:
+ *
+ * ```
+ * java com.android.builder.internal.aapt.v2.Aapt2BatchCompileBenchmark [files] [runs] [delayMicros]
+ * ```
+ *
+ * where `delayMicros` is the simulated time taken by AAPT2 to compile each file.
+ */
+class Aapt2BatchCompileBenchmark {
+    companion object {
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val files = args.getOrNull(0)?.toInt() ?: 10_000
+            val runs = args.getOrNull(1)?.toInt() ?: 5
+            val delayMicros = args.getOrNull(2)?.toLong() ?: 0
+
+            val directory = Files.createTempDirectory("aapt2-batch-compile-benchmark").toFile()
+            try {
+                val inputDirectory = File(directory, "values")
+                inputDirectory.mkdirs()
+                val requests = (0 until files).map {
+                    val inputFile = File(inputDirectory, "values_$it.xml")
+                    inputFile.writeText("<resources><string name=\"s$it\">$it</string></resources>")
+                    CompileResourceRequest(
+                        inputFile = inputFile,
+                        outputDirectory = File(directory, "out"))
+                }
+
+                for (run in 1..runs) {
+                    val single = time(directory, delayMicros) { daemon ->
+                        requests.forEach { daemon.compile(it, logger) }
+                    }
+                    val batch = time(directory, delayMicros) { daemon ->
+                        daemon.compile(requests, logger)
+                    }
+                    println(
+                        "Run $run: $files files, " +
+                                "one request at a time ${single}ms, " +
+                                "batched ${batch}ms")
+                }
+            } finally {
+                FileUtils.deletePath(directory)
+            }
+        }
+
+        private val logger = StdLogger(StdLogger.Level.WARNING)
+
+        private fun time(
+            directory: File,
+            delayMicros: Long,
+            action: (Aapt2Daemon) -> Unit
+        ): Long {
+            val outputDirectory = File(directory, "out")
+            FileUtils.cleanOutputDir(outputDirectory)
+            val daemon = Aapt2DaemonImpl(
+                displayId = "benchmark",
+                aaptPath = "fake_path",
+                aaptCommand = listOf(
+                    FileUtils.join(System.getProperty("java.home"), "bin", "java"),
+                    "-cp",
+                    System.getProperty("java.class.path"),
+                    CompilingAapt2Daemon::class.java.name,
+                    delayMicros.toString()),
+                versionString = "fake_version",
+                daemonTimeouts = Aapt2DaemonTimeouts(),
+                logger = logger)
+            try {
+                // Do not measure the daemon startup.
+                daemon.start()
+                val stopwatch = Stopwatch.createStarted()
+                action(daemon)
+                return stopwatch.elapsed(TimeUnit.MILLISECONDS)
+            } finally {
+                daemon.shutDown()
+            }
+        }
+    }
+}
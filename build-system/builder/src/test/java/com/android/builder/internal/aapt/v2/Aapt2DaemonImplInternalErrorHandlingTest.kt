@@ -191,6 +191,54 @@ class Aapt2DaemonImplInternalErrorHandlingTest {
         }
     }
 
+    @Test
+    fun testCrashesDuringBatchCompile() {
+        testCrashesDuringInteraction { daemon ->
+            val inputDirectory = temporaryFolder.newFolder()
+            val outputDirectory = temporaryFolder.newFolder()
+            val requests = listOf("strings.xml", "styles.xml").map {
+                CompileResourceRequest(
+                    inputFile = File(inputDirectory, "values/$it"),
+                    outputDirectory = outputDirectory
+                )
+            }
+            daemon.compile(requests, logger)
+        }
+    }
+
+    @Test
+    fun testBatchCompileMatchesRepliesToRequests() {
+        val daemon = Aapt2DaemonImpl(
+            displayId = "'Aapt2DaemonImplInternalErrorHandlingTest.${testName.methodName}'",
+            aaptPath = "fake_path",
+            aaptCommand = createCommand(CompilingAapt2Daemon::class),
+            versionString = "fake_version",
+            daemonTimeouts = Aapt2DaemonTimeouts(),
+            logger = logger)
+        val inputDirectory = File(temporaryFolder.newFolder(), "values")
+        val outputDirectory = temporaryFolder.newFolder()
+        val requests = listOf("a.xml", "invalid_b.xml", "c.xml", "invalid_d.xml", "e.xml").map {
+            CompileResourceRequest(
+                inputFile = File(inputDirectory, it).apply {
+                    parentFile.mkdirs()
+                    writeText("<resources/>")
+                },
+                outputDirectory = outputDirectory
+            )
+        }
+
+        val failures = daemon.compile(requests, logger)
+
+        // Only the first failure is reported, the other requests were already sent to the daemon.
+        assertThat(failures.keys).containsExactly(requests[1])
+        assertThat(failures.getValue(requests[1]).message).contains("invalid_b.xml: error")
+        assertThat(outputDirectory.list()).asList().containsExactly(
+            "values_a.arsc.flat", "values_c.arsc.flat", "values_e.arsc.flat")
+        assertThat(daemon.state).isEqualTo(Aapt2Daemon.State.RUNNING)
+        daemon.shutDown()
+        logger.clear()
+    }
+
     @Test
     fun testCrashesDuringLink() {
         testCrashesDuringInteraction { daemon ->
@@ -82,6 +82,38 @@ class Aapt2DaemonImplTest {
                         requests.map { Aapt2RenamingConventions.compilationRename(it.inputFile) })
     }
 
+    @Test
+    fun testCompileBatch() {
+        val outDir = temporaryFolder.newFolder()
+        val invalidRequest = CompileResourceRequest(
+                inputFile = resourceFile("values", "foo.txt", "content"),
+                outputDirectory = outDir)
+        val validRequests = listOf(
+                CompileResourceRequest(
+                        inputFile = valuesFile("strings", "<resources></resources>"),
+                        outputDirectory = outDir),
+                CompileResourceRequest(
+                        inputFile = valuesFile("styles", "<resources></resources>"),
+                        outputDirectory = outDir)
+        )
+        val daemon = createDaemon()
+        val failures =
+                daemon.compile(listOf(validRequests[0], invalidRequest, validRequests[1]), logger)
+
+        // The request after the invalid file was already sent to the daemon, so it is compiled.
+        assertThat(failures.keys).containsExactly(invalidRequest)
+        assertThat(failures.getValue(invalidRequest).message).contains("error: invalid file path")
+        assertThat(outDir.list()).asList()
+                .containsExactlyElementsIn(
+                        validRequests.map {
+                            Aapt2RenamingConventions.compilationRename(it.inputFile)
+                        })
+        logger.clear()
+
+        // The daemon can still be used once the batch is done.
+        daemon.compile(validRequests[0], logger)
+    }
+
     @Test
     fun testPartialR() {
         val outDir = temporaryFolder.newFolder()
@@ -29,8 +29,14 @@ import org.junit.Rule
 import org.junit.Test
 import org.junit.rules.Timeout
 import java.io.File
+import java.util.Collections
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
 import java.util.concurrent.Semaphore
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 import java.util.concurrent.atomic.AtomicInteger
 import kotlin.test.assertFailsWith
 
@@ -238,7 +244,151 @@ class Aapt2DaemonManagerTest {
         Listener.assertStopCountEquals(1)
     }
 
-    class TestAapt2Daemon(displayId: Int) : Aapt2Daemon("Test AAPT Daemon #$displayId",
+    @Test
+    fun testPreWarm() {
+        val daemons = Collections.synchronizedList(mutableListOf<TestAapt2Daemon>())
+        val startAllowed = CountDownLatch(1)
+        val executor = Executors.newCachedThreadPool()
+        val manager = createManager(maxPreWarmedDaemons = 2, warmUpExecutor = executor) {
+            displayId ->
+            object : TestAapt2Daemon(displayId) {
+                override fun startProcess() {
+                    startAllowed.await()
+                }
+            }.also { daemons.add(it) }
+        }
+
+        manager.preWarm(3)
+        // Only up to 2 daemons are started ahead of time, in the background.
+        assertThat(daemons).hasSize(2)
+        assertThat(manager.stats().poolSize).isEqualTo(2)
+        assertThat(manager.stats().busyCount).isEqualTo(0)
+
+        // Leases requested while the daemons are starting wait for them.
+        setTime(2, TimeUnit.SECONDS)
+        val leases = (1..2).map { executor.submit(Callable { manager.leaseDaemon(queued = true) }) }
+        assertFailsWith(TimeoutException::class) { leases[0].get(100, TimeUnit.MILLISECONDS) }
+        startAllowed.countDown()
+        leases.forEach { it.get().close() }
+        assertThat(daemons).hasSize(2)
+        assertThat(daemons.map { it.state }).containsExactly(
+                Aapt2Daemon.State.RUNNING, Aapt2Daemon.State.RUNNING)
+
+        var stats = manager.stats()
+        assertThat(stats.poolSize).isEqualTo(2)
+        assertThat(stats.busyCount).isEqualTo(0)
+        assertThat(stats.leaseCount).isEqualTo(2)
+        assertThat(stats.queuedCount).isEqualTo(2)
+        assertThat(stats.queueWaitNanoSeconds).isEqualTo(TimeUnit.SECONDS.toNanos(4))
+
+        // Leases that were not announced do not count as queued.
+        manager.leaseDaemon().use { }
+        stats = manager.stats()
+        assertThat(stats.leaseCount).isEqualTo(3)
+        assertThat(stats.queuedCount).isEqualTo(2)
+
+        // The pool already has enough daemons for the queued leases.
+        manager.preWarm(1)
+        assertThat(daemons).hasSize(2)
+        manager.shutdown()
+        assertThat(manager.stats().leaseCount).isEqualTo(0)
+        executor.shutdown()
+    }
+
+    @Test
+    fun testFailedPreWarm() {
+        val daemons = Collections.synchronizedList(mutableListOf<TestAapt2Daemon>())
+        val startAllowed = CountDownLatch(1)
+        val executor = Executors.newCachedThreadPool()
+        val manager = createManager(maxPreWarmedDaemons = 1, warmUpExecutor = executor) {
+            displayId ->
+            object : TestAapt2Daemon(displayId) {
+                override fun startProcess() {
+                    if (displayId == 0) {
+                        startAllowed.await()
+                        throw IllegalStateException("Failed to start")
+                    }
+                }
+            }.also { daemons.add(it) }
+        }
+
+        manager.preWarm(1)
+        val lease = executor.submit(Callable { manager.leaseDaemon() })
+        startAllowed.countDown()
+        // The lease waits for the daemon that fails to start, then gets another one.
+        lease.get().use { }
+        assertThat(daemons).hasSize(2)
+        assertThat(daemons[0].state).isEqualTo(Aapt2Daemon.State.SHUTDOWN)
+        assertThat(manager.stats().leaseCount).isEqualTo(1)
+        manager.shutdown()
+        executor.shutdown()
+    }
+
+    @Test
+    fun testRecycling() {
+        val daemons = mutableListOf<TestAapt2Daemon>()
+        val manager = createManager(maxDaemonResidentSetSize = 150) { displayId ->
+            object : TestAapt2Daemon(displayId) {
+                // The memory of the daemon grows with the number of requests it processed.
+                override fun residentSetSize() = compileRequests.size * 100L
+            }.also { daemons.add(it) }
+        }
+        val request = CompileResourceRequest(
+                inputFile = File("in1"),
+                outputDirectory = File("out1"),
+                inputDirectoryName = "values")
+
+        manager.leaseDaemon().use { it.compile(request, NoErrorsOrWarningsLogger()) }
+        assertThat(manager.stats().poolSize).isEqualTo(1)
+        assertThat(daemons.single().state).isEqualTo(Aapt2Daemon.State.RUNNING)
+
+        manager.leaseDaemon().use { it.compile(request, NoErrorsOrWarningsLogger()) }
+        // The daemon uses too much memory, so it is shut down and replaced.
+        assertThat(manager.stats().poolSize).isEqualTo(0)
+        assertThat(manager.stats().recycledCount).isEqualTo(1)
+        assertThat(daemons.single().state).isEqualTo(Aapt2Daemon.State.SHUTDOWN)
+        Listener.assertStopCountEquals(1)
+
+        manager.leaseDaemon().use { it.compile(request, NoErrorsOrWarningsLogger()) }
+        assertThat(daemons).hasSize(2)
+        assertThat(daemons[0].compileRequests).hasSize(2)
+        assertThat(daemons[1].compileRequests).hasSize(1)
+        manager.shutdown()
+    }
+
+    @Test
+    fun testDaemonStats() {
+        val manager = createManager { displayId ->
+            object : TestAapt2Daemon(displayId) {
+                override fun doCompile(request: CompileResourceRequest, logger: ILogger) {
+                    super.doCompile(request, logger)
+                    nanoTime += TimeUnit.MILLISECONDS.toNanos(500)
+                }
+            }
+        }
+        manager.leaseDaemon().use { process ->
+            repeat(4) {
+                process.compile(
+                        CompileResourceRequest(
+                                inputFile = File("in$it"),
+                                outputDirectory = File("out1"),
+                                inputDirectoryName = "values"),
+                        NoErrorsOrWarningsLogger())
+            }
+        }
+
+        val stats = manager.stats()
+        assertThat(stats.leaseCount).isEqualTo(1)
+        assertThat(stats.daemons).containsExactly(
+                Aapt2DaemonManager.DaemonStats(
+                        displayId = 0,
+                        requestCount = 4,
+                        busyNanoSeconds = TimeUnit.SECONDS.toNanos(2)))
+        assertThat(stats.daemons.single().throughput).isWithin(0.001).of(2.0)
+        manager.shutdown()
+    }
+
+    open class TestAapt2Daemon(displayId: Int) : Aapt2Daemon("Test AAPT Daemon #$displayId",
             NoErrorsOrWarningsLogger()) {
         val compileRequests = mutableListOf<CompileResourceRequest>()
         val linkRequests = mutableListOf<AaptPackageConfig>()
@@ -258,14 +408,21 @@ class Aapt2DaemonManagerTest {
         }
     }
 
-    private fun createManager(daemonFactory: (Int) -> Aapt2Daemon) =
+    private fun createManager(
+            maxPreWarmedDaemons: Int = 4,
+            maxDaemonResidentSetSize: Long = Long.MAX_VALUE,
+            warmUpExecutor: Executor = Executor { it.run() },
+            daemonFactory: (Int) -> Aapt2Daemon) =
             Aapt2DaemonManager(
                     logger = NoErrorsOrWarningsLogger(),
                     daemonFactory = daemonFactory,
                     expiryTime = 1,
                     expiryTimeUnit = TimeUnit.MINUTES,
                     timeSource = ticker,
-                    listener = Listener)
+                    listener = Listener,
+                    maxPreWarmedDaemons = maxPreWarmedDaemons,
+                    maxDaemonResidentSetSize = maxDaemonResidentSetSize,
+                    warmUpExecutor = warmUpExecutor)
 
     private fun setTime(value: Long, timeUnit: TimeUnit) {
         nanoTime = timeUnit.toNanos(value)
@@ -16,6 +16,8 @@
 
 package com.android.builder.internal.aapt.v2
 
+import java.io.File
+
 class NeverReadyAapt2Daemon {
     companion object {
         @JvmStatic
@@ -69,3 +71,55 @@ class ExitsDuringCompileOrLinkAapt2Daemon {
         }
     }
 }
+
+/**
+ * Follows the AAPT2 daemon protocol for compile requests, without compiling anything.
+ *
+ * Compiling copies the input file to the output directory, and fails for input files with
+ * "invalid" in their name. The first argument, if present, is a delay in microseconds to simulate
+ * the time taken by each compilation.
+ */
+class CompilingAapt2Daemon {
+    companion object {
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val delayMicros = args.firstOrNull()?.toLong() ?: 0
+            println("Ready")
+            val reader = System.`in`.bufferedReader(Charsets.UTF_8)
+            while (true) {
+                val action = reader.readLine() ?: return
+                if (action.isEmpty()) {
+                    continue
+                }
+                val arguments = generateSequence { reader.readLine() }
+                    .takeWhile { it.isNotEmpty() }
+                    .toList()
+                when (action) {
+                    "c" -> {
+                        compile(arguments, delayMicros)
+                        System.err.println("Done")
+                    }
+                    "quit" -> {
+                        println("Exiting daemon")
+                        return
+                    }
+                    else -> System.err.println("Unknown action $action\nError\nDone")
+                }
+            }
+        }
+
+        private fun compile(arguments: List<String>, delayMicros: Long) {
+            if (delayMicros > 0) {
+                Thread.sleep(delayMicros / 1000, (delayMicros % 1000).toInt() * 1000)
+            }
+            val input = File(arguments.last())
+            if (input.name.contains("invalid")) {
+                System.err.println("${input.path}: error: invalid resource.")
+                System.err.println("Error")
+                return
+            }
+            val outputDirectory = File(arguments[arguments.indexOf("-o") + 1])
+            input.copyTo(File(outputDirectory, Aapt2RenamingConventions.compilationRename(input)))
+        }
+    }
+}
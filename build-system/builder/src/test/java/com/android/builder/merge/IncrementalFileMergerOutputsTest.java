@@ -30,6 +30,7 @@ import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import org.junit.Test;
 
@@ -176,4 +177,80 @@ public class IncrementalFileMergerOutputsTest {
         assertArrayEquals(new byte[] { 9, 8 }, algFrom.get(0).get(0));
         assertArrayEquals(new byte[] { 8, 9 }, algFrom.get(0).get(1));
     }
+
+    @Test
+    public void parallelAlgorithmWriterKeepsOrder() throws Exception {
+        IncrementalFileMergerTestInput i0 = new IncrementalFileMergerTestInput("in0");
+        IncrementalFileMergerTestInput i1 = new IncrementalFileMergerTestInput("in1");
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String path = "/file" + i;
+            paths.add(path);
+            i0.add(path);
+            // data must not end with a new line, or concat will not add one
+            i0.setData(path, new byte[] {(byte) (i + 100)});
+            i1.add(path);
+            i1.setData(path, new byte[] {(byte) -i});
+        }
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        IncrementalFileMergerOutput parallelOut =
+                IncrementalFileMergerOutputs.fromAlgorithmAndWriter(
+                        StreamMergeAlgorithms.concat(), writer, forkJoinPool);
+        i0.open();
+        i1.open();
+        parallelOut.open();
+        for (int i = 0; i < 50; i++) {
+            parallelOut.create(paths.get(i), ImmutableList.of(i0, i1));
+        }
+        parallelOut.remove("/removed");
+        for (int i = 50; i < 100; i++) {
+            parallelOut.update(paths.get(i), ImmutableList.of("in0"), ImmutableList.of(i1, i0));
+        }
+        parallelOut.close();
+        i1.close();
+        i0.close();
+        forkJoinPool.shutdown();
+
+        assertEquals(1, opens.size());
+        assertEquals(1, closes.size());
+        assertEquals(ImmutableList.of("/removed"), removes);
+        assertEquals(paths.subList(0, 50), creates);
+        assertEquals(paths.subList(50, 100), replaces);
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(
+                    new byte[] {(byte) (i + 100), '\n', (byte) -i}, createsData.get(i));
+            assertArrayEquals(
+                    new byte[] {(byte) -(i + 50), '\n', (byte) (i + 150)}, replacesData.get(i));
+        }
+    }
+
+    @Test
+    public void parallelAlgorithmWriterStreamsLargeFiles() throws Exception {
+        IncrementalFileMergerTestInput i0 = new IncrementalFileMergerTestInput("in0");
+        byte[] large = new byte[200 * 1024];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        i0.add("/large");
+        i0.setData("/large", large);
+        i0.add("/small");
+        i0.setData("/small", new byte[] {1, 2, 3});
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+        IncrementalFileMergerOutput parallelOut =
+                IncrementalFileMergerOutputs.fromAlgorithmAndWriter(
+                        StreamMergeAlgorithms.concat(), writer, forkJoinPool);
+        i0.open();
+        parallelOut.open();
+        parallelOut.create("/large", ImmutableList.of(i0));
+        parallelOut.create("/small", ImmutableList.of(i0));
+        parallelOut.close();
+        i0.close();
+        forkJoinPool.shutdown();
+
+        assertEquals(ImmutableList.of("/large", "/small"), creates);
+        assertArrayEquals(large, createsData.get(0));
+        assertArrayEquals(new byte[] {1, 2, 3}, createsData.get(1));
+    }
 }
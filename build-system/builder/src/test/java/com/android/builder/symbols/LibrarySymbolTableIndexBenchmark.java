@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.symbols;
+
+import com.android.annotations.NonNull;
+import com.android.ide.common.symbols.SymbolTable;
+import com.android.ide.common.symbols.SymbolUtils;
+import com.android.utils.FileUtils;
+import com.google.common.base.Stopwatch;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of loading the symbol tables of the dependencies of every variant of a
+ * project, reading the symbol files of the libraries for each variant as before, and with the
+ * shared {@link LibrarySymbolTableIndex}.
+ *
+ * <p>The dependencies are synthetic exploded AARs, each with a package-aware symbol list with
+ * resources of several types and styleables.
+ *
+ * <p>This is not a unit test. Run it manually with the builder test classpath, e.g.:
+ *
+ * <pre>
+ * java com.android.builder.symbols.LibrarySymbolTableIndexBenchmark \
+ *     [libraries] [symbols] [variants] [runs]
+ * </pre>
+ */
+public final class LibrarySymbolTableIndexBenchmark {
+
+    private static final String[] TYPES = {"attr", "color", "dimen", "drawable", "id", "string"};
+
+    public static void main(String[] args) throws Exception {
+        int libraryCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int symbolCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int variants = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+        File root = Files.createTempDirectory("aars").toFile();
+        try {
+            List<File> libraries = createLibraries(root, libraryCount, symbolCount);
+            System.out.println(
+                    String.format(
+                            "%1$d libraries with %2$d symbols, %3$d variants",
+                            libraryCount, symbolCount, variants));
+
+            for (int run = 0; run < runs; run++) {
+                long perVariant = loadAll(libraries, variants, false);
+                long indexed = loadAll(libraries, variants, true);
+                System.out.println(
+                        String.format(
+                                "run %1$d: per variant %2$d ms, indexed %3$d ms",
+                                run, perVariant, indexed));
+            }
+        } finally {
+            LibrarySymbolTableIndex.clear();
+            FileUtils.deletePath(root);
+        }
+    }
+
+    /**
+     * Loads the symbol tables of the libraries for every variant.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    private static long loadAll(@NonNull List<File> libraries, int variants, boolean indexed)
+            throws IOException {
+        LibrarySymbolTableIndex.clear();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        long checksum = 0;
+        for (int variant = 0; variant < variants; variant++) {
+            Set<SymbolTable> tables =
+                    indexed
+                            ? LibrarySymbolTableIndex.load(libraries)
+                            : SymbolUtils.loadDependenciesSymbolTables(libraries);
+            for (SymbolTable table : tables) {
+                checksum += table.getSymbols().size();
+            }
+        }
+        stopwatch.stop();
+        if (checksum == 0) {
+            System.out.println("Unexpected checksum");
+        }
+        return stopwatch.elapsed(TimeUnit.MILLISECONDS);
+    }
+
+    @NonNull
+    private static List<File> createLibraries(@NonNull File root, int libraryCount, int symbolCount)
+            throws IOException {
+        List<File> libraries = new ArrayList<>(libraryCount);
+        for (int i = 0; i < libraryCount; i++) {
+            File library = new File(root, "lib" + i + "/package-aware-r.txt");
+            FileUtils.mkdirs(library.getParentFile());
+            try (Writer writer =
+                    Files.newBufferedWriter(library.toPath(), StandardCharsets.UTF_8)) {
+                writer.write("com.example.lib" + i + "\n");
+                for (int j = 0; j < symbolCount; j++) {
+                    writer.write(TYPES[j % TYPES.length] + " lib" + i + "_res" + j + "\n");
+                }
+                for (int j = 0; j < symbolCount / 20; j++) {
+                    writer.write("styleable Lib" + i + "Style" + j);
+                    for (int k = 0; k < 4; k++) {
+                        writer.write(" lib" + i + "_res" + (k * TYPES.length));
+                    }
+                    writer.write("\n");
+                }
+            }
+            libraries.add(library);
+        }
+        return libraries;
+    }
+}
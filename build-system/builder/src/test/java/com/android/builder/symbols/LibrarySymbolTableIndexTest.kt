@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.symbols
+
+import com.android.resources.ResourceType
+import com.android.utils.JvmWideVariable
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.concurrent.atomic.AtomicLong
+
+class LibrarySymbolTableIndexTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    @Before
+    fun setUp() {
+        LibrarySymbolTableIndex.clear()
+    }
+
+    @After
+    fun tearDown() {
+        LibrarySymbolTableIndex.clear()
+    }
+
+    @Test
+    fun symbolTablesAreShared() {
+        val lib1 = writeSymbolFile("lib1", "com.example.lib1", "string lib1string")
+        val lib2 = writeSymbolFile("lib2", "com.example.lib2", "styleable Lib2 attr1 attr2")
+
+        val tables = LibrarySymbolTableIndex.load(listOf(lib1, lib2))
+        assertThat(tables.map { it.tablePackage })
+            .containsExactly("com.example.lib1", "com.example.lib2")
+            .inOrder()
+        assertThat(tables.last().symbols.get(ResourceType.STYLEABLE, "Lib2")!!.children)
+            .containsExactly("attr1", "attr2")
+            .inOrder()
+
+        val otherVariantTables = LibrarySymbolTableIndex.load(listOf(lib2, lib1))
+        assertThat(otherVariantTables.first()).isSameAs(tables.last())
+        assertThat(otherVariantTables.last()).isSameAs(tables.first())
+        assertThat(LibrarySymbolTableIndex.size()).isEqualTo(2)
+    }
+
+    @Test
+    fun changedSymbolFileIsReadAgain() {
+        val lib = writeSymbolFile("lib", "com.example.lib", "string first")
+        val table = LibrarySymbolTableIndex.get(lib)
+
+        writeSymbolFile("lib", "com.example.lib", "string first", "string second")
+        lib.setLastModified(lib.lastModified() + 2000)
+        val updatedTable = LibrarySymbolTableIndex.get(lib)
+
+        assertThat(updatedTable).isNotSameAs(table)
+        assertThat(updatedTable.symbols.row(ResourceType.STRING).keys)
+            .containsExactly("first", "second")
+    }
+
+    @Test
+    fun estimatedSizeGrowsWithSymbols() {
+        val small = writeSymbolFile("small", "com.example.small", "string a")
+        val large =
+            writeSymbolFile(
+                "large",
+                "com.example.large",
+                *Array(100) { "string string$it" } + "styleable Large attr1 attr2")
+
+        val smallSize = LibrarySymbolTableIndex.estimateSize(LibrarySymbolTableIndex.get(small))
+        val largeSize = LibrarySymbolTableIndex.estimateSize(LibrarySymbolTableIndex.get(large))
+
+        assertThat(smallSize).isGreaterThan(0L)
+        assertThat(largeSize).isGreaterThan(10 * smallSize)
+    }
+
+    @Test
+    fun indexIsClearedFromOtherClassLoaders() {
+        val lib = writeSymbolFile("lib", "com.example.lib", "string first")
+        LibrarySymbolTableIndex.get(lib)
+        assertThat(LibrarySymbolTableIndex.size()).isEqualTo(1)
+
+        // This is what clearing the index from another class loader does.
+        JvmWideVariable(
+            LibrarySymbolTableIndex::class.java,
+            "indexGeneration",
+            AtomicLong::class.java,
+            AtomicLong()
+        ).get()!!.incrementAndGet()
+        assertThat(LibrarySymbolTableIndex.size()).isEqualTo(0)
+    }
+
+    private fun writeSymbolFile(name: String, packageName: String, vararg lines: String): File {
+        val file = File(temporaryFolder.root, "$name-package-aware-r.txt")
+        file.writeText(packageName + "\n" + lines.joinToString("\n") + "\n")
+        return file
+    }
+}
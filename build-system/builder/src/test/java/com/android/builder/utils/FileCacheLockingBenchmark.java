@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.utils;
+
+import com.android.annotations.NonNull;
+import com.android.utils.FileUtils;
+import com.google.common.base.Stopwatch;
+import com.google.common.io.Files;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares the throughput of {@link FileCache} lookups under contention with one lock file per
+ * cache entry ({@link FileCache#getInstanceWithMultiProcessLocking(File)}) and with lock striping
+ * ({@link FileCache#getInstanceWithStripedMultiProcessLocking(File, int)}).
+ *
+ * <p>This is not a unit test. Run it manually with the builder test classpath, e.g.:
+ *
+ * <pre>
+ * java com.android.builder.utils.FileCacheLockingBenchmark [threads] [entries] [seconds]
+ * </pre>
+ *
+ * <p>To measure contention across processes, run several instances at the same time; all of them
+ * use the same cache directories under {@code java.io.tmpdir}.
+ */
+public final class FileCacheLockingBenchmark {
+
+    private static final int NUMBER_OF_LOCK_STRIPES = 64;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        File baseDir = new File(System.getProperty("java.io.tmpdir"), "file-cache-benchmark");
+        run(
+                "per-entry lock files",
+                new File(baseDir, "per-entry"),
+                FileCache::getInstanceWithMultiProcessLocking,
+                threads,
+                entries,
+                seconds);
+        run(
+                NUMBER_OF_LOCK_STRIPES + " lock stripes",
+                new File(baseDir, "striped"),
+                cacheDir ->
+                        FileCache.getInstanceWithStripedMultiProcessLocking(
+                                cacheDir, NUMBER_OF_LOCK_STRIPES),
+                threads,
+                entries,
+                seconds);
+    }
+
+    private static void run(
+            @NonNull String name,
+            @NonNull File cacheDir,
+            @NonNull Function<File, FileCache> cacheFactory,
+            int threads,
+            int entries,
+            int seconds)
+            throws Exception {
+        FileUtils.mkdirs(cacheDir);
+        FileCache fileCache = cacheFactory.apply(cacheDir);
+        List<FileCache.Inputs> inputList = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            inputList.add(
+                    new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                            .putLong("entry", i)
+                            .build());
+        }
+
+        // Populate the cache first so that the measured lookups are (mostly) cache hits
+        for (FileCache.Inputs inputs : inputList) {
+            fileCache.createFileInCacheIfAbsent(
+                    inputs,
+                    outputFile ->
+                            Files.asCharSink(outputFile, StandardCharsets.UTF_8).write("output"));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        List<Future<Long>> results = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            results.add(
+                    executor.submit(
+                            () -> {
+                                long lookups = 0;
+                                while (System.nanoTime() < deadline) {
+                                    FileCache.Inputs inputs =
+                                            inputList.get(
+                                                    ThreadLocalRandom.current().nextInt(entries));
+                                    fileCache.createFileInCacheIfAbsent(
+                                            inputs,
+                                            outputFile ->
+                                                    Files.asCharSink(
+                                                                    outputFile,
+                                                                    StandardCharsets.UTF_8)
+                                                            .write("output"));
+                                    lookups++;
+                                }
+                                return lookups;
+                            }));
+        }
+        long totalLookups = 0;
+        for (Future<Long> result : results) {
+            totalLookups += result.get();
+        }
+        stopwatch.stop();
+        executor.shutdown();
+
+        System.out.println(
+                String.format(
+                        "%1$s: %2$d threads, %3$d lookups in %4$d ms (%5$.1f lookups/s)",
+                        name,
+                        threads,
+                        totalLookups,
+                        stopwatch.elapsed(TimeUnit.MILLISECONDS),
+                        totalLookups * 1000.0 / stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+    }
+}
@@ -885,6 +885,132 @@ public class FileCacheTest {
         assertThat(cacheDir).doesNotExist();
     }
 
+    @Test
+    public void testDeleteCacheEntriesExceedingSize_LeastRecentlyUsed() throws Exception {
+        FileCache fileCache = FileCache.getInstanceWithMultiProcessLocking(cacheDir);
+        FileCache.Inputs inputs1 =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo1")
+                        .build();
+        FileCache.Inputs inputs2 =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo2")
+                        .build();
+        FileCache.Inputs inputs3 =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo3")
+                        .build();
+
+        fileCache.createFileInCacheIfAbsent(
+                inputs1, (outputFile) -> Files.write(new byte[1000], outputFile));
+        Thread.sleep(10);
+        fileCache.createFileInCacheIfAbsent(
+                inputs2, (outputFile) -> Files.write(new byte[1000], outputFile));
+        Thread.sleep(10);
+        fileCache.createFileInCacheIfAbsent(
+                inputs3, (outputFile) -> Files.write(new byte[1000], outputFile));
+        Thread.sleep(10);
+
+        // Access the first cache entry again so that the second one is the least recently used
+        fileCache.createFileInCacheIfAbsent(
+                inputs1, (outputFile) -> fail("This statement should not be executed"));
+
+        // The cache entries are slightly larger than 1000 bytes because of their inputs files
+        fileCache.deleteCacheEntriesExceedingSize(
+                2500, FileCache.EvictionPolicy.LEAST_RECENTLY_USED);
+        assertThat(fileCache.cacheEntryExists(inputs1)).isTrue();
+        assertThat(fileCache.cacheEntryExists(inputs2)).isFalse();
+        assertThat(fileCache.cacheEntryExists(inputs3)).isTrue();
+
+        fileCache.deleteCacheEntriesExceedingSize(0, FileCache.EvictionPolicy.LEAST_RECENTLY_USED);
+        assertThat(fileCache.cacheEntryExists(inputs1)).isFalse();
+        assertThat(fileCache.cacheEntryExists(inputs3)).isFalse();
+
+        FileCache.CacheStatistics statistics = fileCache.getStatistics();
+        assertThat(statistics.getHits()).isEqualTo(1);
+        assertThat(statistics.getMisses()).isEqualTo(3);
+        assertThat(statistics.getEvictedEntries()).isEqualTo(3);
+        assertThat(statistics.getEvictedBytes()).isAtLeast(3000L);
+
+        // Check that trimming an empty or non-existent cache directory does not throw an exception
+        FileUtils.deletePath(cacheDir);
+        fileCache.deleteCacheEntriesExceedingSize(0, FileCache.EvictionPolicy.LEAST_RECENTLY_USED);
+        assertThat(cacheDir).doesNotExist();
+    }
+
+    @Test
+    public void testDeleteCacheEntriesExceedingSize_LeastFrequentlyUsed() throws Exception {
+        FileCache fileCache = FileCache.getInstanceWithSingleProcessLocking(cacheDir);
+        FileCache.Inputs inputs1 =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo1")
+                        .build();
+        FileCache.Inputs inputs2 =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo2")
+                        .build();
+
+        fileCache.createFileInCacheIfAbsent(
+                inputs1, (outputFile) -> Files.write(new byte[1000], outputFile));
+        fileCache.createFileInCacheIfAbsent(
+                inputs1, (outputFile) -> fail("This statement should not be executed"));
+        Thread.sleep(10);
+        fileCache.createFileInCacheIfAbsent(
+                inputs2, (outputFile) -> Files.write(new byte[1000], outputFile));
+
+        // The second cache entry is the most recently used but the least frequently used one
+        fileCache.deleteCacheEntriesExceedingSize(
+                1500, FileCache.EvictionPolicy.LEAST_FREQUENTLY_USED);
+        assertThat(fileCache.cacheEntryExists(inputs1)).isTrue();
+        assertThat(fileCache.cacheEntryExists(inputs2)).isFalse();
+    }
+
+    @Test
+    public void testDeleteCacheEntriesExceedingSize_MinIdleTime() throws Exception {
+        FileCache fileCache = FileCache.getInstanceWithMultiProcessLocking(cacheDir);
+        FileCache.Inputs inputs =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo")
+                        .build();
+        fileCache.createFileInCacheIfAbsent(
+                inputs, (outputFile) -> Files.write(new byte[1000], outputFile));
+
+        // The cache entry was just accessed, so it may still be used by a build
+        fileCache.deleteCacheEntriesExceedingSize(
+                0, FileCache.EvictionPolicy.LEAST_RECENTLY_USED, Duration.ofHours(1));
+        assertThat(fileCache.cacheEntryExists(inputs)).isTrue();
+        assertThat(fileCache.getStatistics().getEvictedEntries()).isEqualTo(0);
+
+        fileCache.deleteCacheEntriesExceedingSize(
+                0, FileCache.EvictionPolicy.LEAST_RECENTLY_USED, Duration.ZERO);
+        assertThat(fileCache.cacheEntryExists(inputs)).isFalse();
+        assertThat(fileCache.getStatistics().getEvictedEntries()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDeleteCacheEntriesExceedingSize_EntryWithoutMetadata() throws Exception {
+        FileCache fileCache = FileCache.getInstanceWithSingleProcessLocking(cacheDir);
+        FileCache.Inputs inputs =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo")
+                        .build();
+        fileCache.createFileInCacheIfAbsent(
+                inputs, (outputFile) -> Files.write(new byte[1000], outputFile));
+
+        // Cache entries created by older plugin versions do not have a metadata file, their sizes
+        // are then computed from the cache entry directories
+        File cacheEntryDir = fileCache.getFileInCache(inputs).getParentFile();
+        FileUtils.delete(new File(cacheEntryDir, "metadata"));
+
+        fileCache.deleteCacheEntriesExceedingSize(
+                2000, FileCache.EvictionPolicy.LEAST_RECENTLY_USED);
+        assertThat(fileCache.cacheEntryExists(inputs)).isTrue();
+
+        fileCache.deleteCacheEntriesExceedingSize(
+                500, FileCache.EvictionPolicy.LEAST_RECENTLY_USED);
+        assertThat(fileCache.cacheEntryExists(inputs)).isFalse();
+    }
+
     @Test
     public void testDeleteFileCache() throws IOException {
         FileCache fileCache = FileCache.getInstanceWithSingleProcessLocking(cacheDir);
@@ -938,6 +1064,101 @@ public class FileCacheTest {
                 FileCache.getInstanceWithMultiProcessLocking(temporaryFolder.newFolder()));
     }
 
+    @Test
+    public void testCreateFile_MultiThreads_StripedMultiProcessLocking_SameInputDifferentOutputs()
+            throws IOException {
+        testCreateFile_MultiThreads_SameCacheSameInputDifferentOutputs(
+                FileCache.getInstanceWithStripedMultiProcessLocking(
+                        temporaryFolder.newFolder(), 16));
+    }
+
+    @Test
+    public void testCreateFile_MultiThreads_StripedMultiProcessLocking_DifferentCaches()
+            throws IOException {
+        testCreateFile_MultiThreads_DifferentCaches(
+                FileCache.getInstanceWithStripedMultiProcessLocking(
+                        temporaryFolder.newFolder(), 16),
+                FileCache.getInstanceWithStripedMultiProcessLocking(
+                        temporaryFolder.newFolder(), 16));
+    }
+
+    @Test
+    public void testCreateFile_MultiThreads_StripedMultiProcessLocking_SameStripe()
+            throws IOException {
+        // With a single lock stripe, all the cache entries share the same lock
+        FileCache fileCache =
+                FileCache.getInstanceWithStripedMultiProcessLocking(temporaryFolder.newFolder(), 1);
+        FileCache.Inputs[] inputList = {
+            new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                    .putString("file1", "input1")
+                    .build(),
+            new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                    .putString("file2", "input2")
+                    .build(),
+        };
+        File[] outputFiles = {new File(outputDir, "output1"), new File(outputDir, "output2")};
+        String[] fileContents = {"Foo text", "Bar text"};
+
+        ConcurrencyTester<File, Void> tester = new ConcurrencyTester<>();
+        prepareConcurrencyTestForCreateFile(
+                tester,
+                new FileCache[] {fileCache, fileCache},
+                inputList,
+                outputFiles,
+                fileContents);
+
+        // Since the different inputs share the same lock, the actions cannot run concurrently
+        tester.assertThatActionsCannotRunConcurrently();
+
+        assertThat(fileCache.getHits()).isEqualTo(0);
+        assertThat(fileCache.getMisses()).isEqualTo(2);
+        assertThat(outputFiles[0]).hasContents(fileContents[0]);
+        assertThat(outputFiles[1]).hasContents(fileContents[1]);
+    }
+
+    @Test
+    public void testStripedMultiProcessLocking_LockFiles() throws Exception {
+        FileCache fileCache = FileCache.getInstanceWithStripedMultiProcessLocking(cacheDir, 4);
+        for (int i = 0; i < 20; i++) {
+            FileCache.Inputs inputs =
+                    new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                            .putLong("input", i)
+                            .build();
+            fileCache.createFileInCacheIfAbsent(
+                    inputs, (outputFile) -> writeStringToFile("Some text", outputFile));
+            assertThat(fileCache.cacheEntryExists(inputs)).isTrue();
+        }
+
+        // No lock file is created next to the cache entry directories, only the (at most 4) lock
+        // files shared by the cache entries
+        File[] lockFiles = cacheDir.listFiles((dir, name) -> name.endsWith(".lock"));
+        assertThat(checkNotNull(lockFiles).length).isAtMost(4);
+        assertThat(checkNotNull(cacheDir.listFiles(File::isDirectory)).length).isEqualTo(20);
+    }
+
+    @Test
+    public void testStripedMultiProcessLocking_Delete() throws Exception {
+        FileCache fileCache = FileCache.getInstanceWithStripedMultiProcessLocking(cacheDir, 4);
+        FileCache.Inputs inputs =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo")
+                        .build();
+        fileCache.createFileInCacheIfAbsent(
+                inputs, (outputFile) -> writeStringToFile("Some text", outputFile));
+        File[] lockFiles = cacheDir.listFiles((dir, name) -> name.endsWith(".lock"));
+        assertThat(checkNotNull(lockFiles).length).isEqualTo(1);
+
+        // The lock files of the stripes are kept since their locks may still be in use
+        fileCache.delete();
+        assertThat(fileCache.cacheEntryExists(inputs)).isFalse();
+        assertThat(lockFiles[0]).exists();
+
+        // The cache can still be used after it is deleted
+        fileCache.createFileInCacheIfAbsent(
+                inputs, (outputFile) -> writeStringToFile("Some text", outputFile));
+        assertThat(fileCache.cacheEntryExists(inputs)).isTrue();
+    }
+
     private void testCreateFile_MultiThreads_SameCacheSameInputDifferentOutputs(
             @NonNull FileCache fileCache) throws IOException {
         FileCache.Inputs inputs =
@@ -409,6 +409,13 @@ public abstract class BasePlugin<E extends BaseExtension2>
                         if (buildResult.getGradle().getParent() != null) {
                             return;
                         }
+                        if (buildCache != null) {
+                            project.getLogger()
+                                    .info(
+                                            "Build cache statistics for {}: {}",
+                                            project.getPath(),
+                                            buildCache.getStatistics());
+                        }
                         ModelBuilder.clearCaches();
                         Workers.INSTANCE.shutdown();
                         sdkComponents.unload();
@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.build.gradle.options.BooleanOption;
+import com.android.build.gradle.options.IntegerOption;
 import com.android.build.gradle.options.ProjectOptions;
 import com.android.build.gradle.options.StringOption;
 import com.android.builder.model.Version;
@@ -35,9 +36,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 
 /**
  * Class that contains utility methods for working with the build cache.
@@ -71,6 +78,18 @@ public final class BuildCacheUtils {
      */
     private static final long DAYS_BETWEEN_CACHE_EVICTION_RUNS = 1;
 
+    /**
+     * The time since their last access after which cache entries may be deleted to keep the cache
+     * within its size budget. This is longer than a build normally takes, since the files returned
+     * by the cache may be used until the end of the build.
+     */
+    private static final Duration CACHE_ENTRY_MIN_IDLE_TIME = Duration.ofHours(1);
+
+    /** Whether the build cache is being trimmed, see {@link #trimCacheInBackground}. */
+    private static final AtomicBoolean cacheTrimmingInProgress = new AtomicBoolean(false);
+
+    @NonNull private static final Logger LOGGER = Logging.getLogger(BuildCacheUtils.class);
+
     /**
      * The name of an empty marker file inside the current private cache directory whose timestamp
      * indicates the last time cache eviction was run by the current plugin version.
@@ -92,7 +111,8 @@ public final class BuildCacheUtils {
      * user-defined directory, or a default directory if the user-defined directory is not provided.
      *
      * <p>Cache eviction may be performed in this method at regular intervals (see {@link
-     * BuildCacheUtils#DAYS_BETWEEN_CACHE_EVICTION_RUNS}}).
+     * BuildCacheUtils#DAYS_BETWEEN_CACHE_EVICTION_RUNS}}), and the cache may be trimmed to its size
+     * budget in the background (see {@link #trimCacheInBackground}).
      */
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @Nullable
@@ -116,7 +136,8 @@ public final class BuildCacheUtils {
                         projectOptions.get(StringOption.BUILD_CACHE_DIR),
                         project.getRootProject()::file,
                         defaultBuildCacheDirSupplier,
-                        Version.ANDROID_GRADLE_PLUGIN_VERSION);
+                        Version.ANDROID_GRADLE_PLUGIN_VERSION,
+                        projectOptions.get(IntegerOption.BUILD_CACHE_LOCK_STRIPES));
 
         // Get the shared directory containing the build caches for different plugin versions.
         File sharedBuildCacheDir = buildCache.getCacheDirectory().getParentFile();
@@ -165,6 +186,21 @@ public final class BuildCacheUtils {
                     Duration.ofDays(CACHE_DIRECTORY_DAYS_TO_LIVE));
         }
 
+        // Keep the current private cache directory within its size budget, if any. Unlike the
+        // age-based eviction above, this is done with every build since the cache may grow quickly
+        // (it only reads the cache's index, so it is cheap when the cache is within budget). The
+        // cache is trimmed in the background so that it does not delay the configuration of the
+        // project; it may therefore exceed its budget by the entries created during the build
+        // until the next build starts.
+        Integer maxCacheSizeInMb = projectOptions.get(IntegerOption.BUILD_CACHE_MAX_SIZE_IN_MB);
+        if (maxCacheSizeInMb != null) {
+            trimCacheInBackground(
+                    buildCache,
+                    maxCacheSizeInMb * 1024L * 1024L,
+                    parseEvictionPolicy(
+                            projectOptions.get(StringOption.BUILD_CACHE_EVICTION_POLICY)));
+        }
+
         // Mark that the current cache was last used at this point
         updateMarkerFile(new File(buildCache.getCacheDirectory(), CACHE_USE_MARKER_FILE_NAME));
 
@@ -177,15 +213,20 @@ public final class BuildCacheUtils {
             @Nullable String buildCacheDir,
             @NonNull Function<Object, File> pathToFileResolver,
             @NonNull Supplier<File> defaultBuildCacheDirSupplier,
-            @NonNull String pluginVersion) {
+            @NonNull String pluginVersion,
+            @Nullable Integer numberOfLockStripes) {
         File sharedBuildCacheDir =
                 buildCacheDir != null
                         ? pathToFileResolver.apply(buildCacheDir)
                         : defaultBuildCacheDirSupplier.get();
         // The actual build cache directory for a given plugin version is
         // <shared-build-cache-dir>/<plugin-version>
-        return FileCache.getInstanceWithMultiProcessLocking(
-                new File(sharedBuildCacheDir, pluginVersion));
+        File buildCacheDirForPluginVersion = new File(sharedBuildCacheDir, pluginVersion);
+        if (numberOfLockStripes != null) {
+            return FileCache.getInstanceWithStripedMultiProcessLocking(
+                    buildCacheDirForPluginVersion, numberOfLockStripes);
+        }
+        return FileCache.getInstanceWithMultiProcessLocking(buildCacheDirForPluginVersion);
     }
 
     /**
@@ -225,6 +266,75 @@ public final class BuildCacheUtils {
                 System.currentTimeMillis() - cacheEntryLifeTime.toMillis());
     }
 
+    /**
+     * Deletes cache entries from the given cache in the background until its size is at most the
+     * given size, unless it is already being trimmed by this plugin (e.g., for another project of
+     * the same build). The cache statistics are logged once the cache is trimmed.
+     *
+     * <p>The cache may be used by the tasks of this build and by other processes while it is being
+     * trimmed, so only the cache entries that have not been accessed for {@link
+     * #CACHE_ENTRY_MIN_IDLE_TIME} are deleted.
+     *
+     * @return the trimming task, or null if the cache is already being trimmed
+     */
+    @Nullable
+    @VisibleForTesting
+    static Future<?> trimCacheInBackground(
+            @NonNull FileCache buildCache,
+            long maxCacheSizeInBytes,
+            @NonNull FileCache.EvictionPolicy evictionPolicy) {
+        if (!cacheTrimmingInProgress.compareAndSet(false, true)) {
+            return null;
+        }
+        return ForkJoinPool.commonPool()
+                .submit(
+                        () -> {
+                            try {
+                                buildCache.deleteCacheEntriesExceedingSize(
+                                        maxCacheSizeInBytes,
+                                        evictionPolicy,
+                                        CACHE_ENTRY_MIN_IDLE_TIME);
+                                LOGGER.info(
+                                        "Trimmed build cache {} to {} bytes: {}",
+                                        buildCache.getCacheDirectory(),
+                                        maxCacheSizeInBytes,
+                                        buildCache.getStatistics());
+                            } catch (RuntimeException e) {
+                                LOGGER.warn(
+                                        "Unable to trim build cache {}: {}",
+                                        buildCache.getCacheDirectory(),
+                                        e.toString());
+                            } finally {
+                                cacheTrimmingInProgress.set(false);
+                            }
+                        });
+    }
+
+    /**
+     * Returns the {@link FileCache.EvictionPolicy} corresponding to the given value of {@link
+     * StringOption#BUILD_CACHE_EVICTION_POLICY}, defaulting to least-recently-used eviction.
+     */
+    @NonNull
+    @VisibleForTesting
+    static FileCache.EvictionPolicy parseEvictionPolicy(@Nullable String evictionPolicy) {
+        if (evictionPolicy == null) {
+            return FileCache.EvictionPolicy.LEAST_RECENTLY_USED;
+        }
+        switch (evictionPolicy.toLowerCase(Locale.US)) {
+            case "lru":
+                return FileCache.EvictionPolicy.LEAST_RECENTLY_USED;
+            case "lfu":
+                return FileCache.EvictionPolicy.LEAST_FREQUENTLY_USED;
+            default:
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Unknown build cache eviction policy '%1$s' (expected 'lru' or"
+                                        + " 'lfu') set via %2$s",
+                                evictionPolicy,
+                                StringOption.BUILD_CACHE_EVICTION_POLICY.getPropertyName()));
+        }
+    }
+
     /**
      * Deletes all the private cache directories in the given shared cache directory that were
      * created by previous plugin versions and have not been used for the specified life time or
@@ -17,7 +17,11 @@
 package com.android.build.gradle.internal;
 
 import com.android.annotations.NonNull;
+import com.android.builder.core.DefaultManifestParser;
+import com.android.builder.files.ZipCentralDirectoryCache;
 import com.android.builder.model.Version;
+import com.android.builder.symbols.LibrarySymbolTableIndex;
+import com.android.manifmerger.ParsedManifestCache;
 import com.android.utils.JvmWideVariable;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -71,6 +75,9 @@ public final class PluginInitializer {
      *   <li>Notifying the {@link BuildSessionImpl} singleton object that a new build has started,
      *       as required by that class.
      *   <li>Checking that the same plugin version is applied within a build.
+     *   <li>Clearing the {@link ZipCentralDirectoryCache} at the end of the build.
+     *   <li>Clearing the {@link ParsedManifestCache} at the end of the build.
+     *   <li>Clearing the cache of {@link DefaultManifestParser} at the end of the build.
      * </ol>
      *
      * <p>Here, a build refers to the entire Gradle build, which includes included builds in the
@@ -98,6 +105,34 @@ public final class PluginInitializer {
                         "resetPluginVersionCheckVariable",
                         projectToPluginVersionMap::clear);
 
+        // Zip central directories are only cached for the duration of a build.
+        BuildSessionImpl.getSingleton()
+                .executeOnceWhenBuildFinished(
+                        ZipCentralDirectoryCache.class.getName(),
+                        "clearZipCentralDirectoryCache",
+                        ZipCentralDirectoryCache::clear);
+
+        // Library manifests are only cached for the duration of a build.
+        BuildSessionImpl.getSingleton()
+                .executeOnceWhenBuildFinished(
+                        ParsedManifestCache.class.getName(),
+                        "clearParsedManifestCache",
+                        ParsedManifestCache::clear);
+
+        // Manifest attributes are only cached for the duration of a build.
+        BuildSessionImpl.getSingleton()
+                .executeOnceWhenBuildFinished(
+                        DefaultManifestParser.class.getName(),
+                        "clearCache",
+                        DefaultManifestParser::clearCache);
+
+        // Library symbol tables are only indexed for the duration of a build.
+        BuildSessionImpl.getSingleton()
+                .executeOnceWhenBuildFinished(
+                        LibrarySymbolTableIndex.class.getName(),
+                        "clearLibrarySymbolTableIndex",
+                        LibrarySymbolTableIndex::clear);
+
         // Check that the same plugin version is applied (the code is synchronized on the shared map
         // to make the method call thread safe across class loaders)
         synchronized (projectToPluginVersionMap) {
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.build.gradle.internal.api.DefaultAndroidSourceSet;
+import com.android.build.gradle.internal.dsl.CoreProductFlavor;
+import com.android.builder.core.MergedFlavor;
+import com.android.builder.core.VariantType;
+import com.android.builder.errors.EvalIssueReporter;
+import com.android.builder.model.ProductFlavor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.util.List;
+
+/**
+ * The data shared by all the variants of a combination of product flavors: the flavors with their
+ * dimensions and source sets, and the result of merging them with the default config.
+ *
+ * <p>It is shared by the variants of every build type and variant type of the combination, so the
+ * flavors are merged at most once, when the merged flavor is first needed. {@link VariantManager}
+ * merges all the combinations in parallel when none of them can be filtered out. The merged flavor
+ * must not be modified, variants get a copy of it.
+ *
+ * <p>This class is not thread safe, each instance must be used by one thread at a time.
+ */
+public final class ProductFlavorComboData {
+
+    @NonNull private final ImmutableList<ProductFlavorData<CoreProductFlavor>> flavorData;
+    @NonNull private final ImmutableList<CoreProductFlavor> flavors;
+    @NonNull private final ImmutableList<String> dimensionNames;
+    @NonNull private final ImmutableList<DefaultAndroidSourceSet> sourceSets;
+    @NonNull private final CoreProductFlavor defaultConfig;
+    @NonNull private final EvalIssueReporter issueReporter;
+    @Nullable private ProductFlavor mergedFlavor;
+
+    /**
+     * Creates the data of a combination of flavors.
+     *
+     * @param defaultConfig the default config, which has the lowest priority
+     * @param flavorData the data of the flavors of the combination, in order of priority
+     * @param issueReporter the reporter used by the merged flavor
+     */
+    public ProductFlavorComboData(
+            @NonNull CoreProductFlavor defaultConfig,
+            @NonNull List<ProductFlavorData<CoreProductFlavor>> flavorData,
+            @NonNull EvalIssueReporter issueReporter) {
+        this.flavorData = ImmutableList.copyOf(flavorData);
+
+        ImmutableList.Builder<CoreProductFlavor> flavors = ImmutableList.builder();
+        ImmutableList.Builder<String> dimensionNames = ImmutableList.builder();
+        ImmutableList.Builder<DefaultAndroidSourceSet> sourceSets = ImmutableList.builder();
+        for (ProductFlavorData<CoreProductFlavor> data : flavorData) {
+            CoreProductFlavor flavor = data.getProductFlavor();
+            String dimensionName = flavor.getDimension();
+            flavors.add(flavor);
+            dimensionNames.add(dimensionName != null ? dimensionName : "");
+            sourceSets.add(data.getSourceSet());
+        }
+        this.flavors = flavors.build();
+        this.dimensionNames = dimensionNames.build();
+        this.sourceSets = sourceSets.build();
+        this.defaultConfig = defaultConfig;
+        this.issueReporter = issueReporter;
+    }
+
+    /** Returns the flavors, in order of priority. */
+    @NonNull
+    public List<CoreProductFlavor> getFlavors() {
+        return flavors;
+    }
+
+    /** Returns the dimension names of the flavors, or empty strings for flavors without one. */
+    @NonNull
+    public List<String> getDimensionNames() {
+        return dimensionNames;
+    }
+
+    /** Returns the main source sets of the flavors. */
+    @NonNull
+    public List<DefaultAndroidSourceSet> getSourceSets() {
+        return sourceSets;
+    }
+
+    /**
+     * Returns the test source sets of the flavors for the given test variant type, which are null
+     * for the flavors without one.
+     *
+     * @see VariantDimensionData#getTestSourceSet(VariantType)
+     */
+    @NonNull
+    public List<DefaultAndroidSourceSet> getTestSourceSets(@NonNull VariantType type) {
+        List<DefaultAndroidSourceSet> testSourceSets =
+                Lists.newArrayListWithCapacity(flavorData.size());
+        for (ProductFlavorData<CoreProductFlavor> data : flavorData) {
+            testSourceSets.add(data.getTestSourceSet(type));
+        }
+        return testSourceSets;
+    }
+
+    /**
+     * Returns the default config merged with the flavors, which must not be modified. The flavors
+     * are merged the first time this is called.
+     */
+    @NonNull
+    public ProductFlavor getMergedFlavor() {
+        if (mergedFlavor == null) {
+            mergedFlavor = MergedFlavor.mergeFlavors(defaultConfig, flavors, issueReporter);
+        }
+        return mergedFlavor;
+    }
+}
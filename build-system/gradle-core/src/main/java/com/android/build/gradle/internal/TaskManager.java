@@ -2257,6 +2257,12 @@ public abstract class TaskManager {
                                 projectOptions.get(IntegerOption.DEXING_NUMBER_OF_BUCKETS))
                         .setIncludeFeaturesInScope(variantScope.consumesFeatureJars())
                         .setEnableDexingArtifactTransform(enableDexingArtifactTransform)
+                        .setUseMemoryMappedInputs(
+                                projectOptions.get(
+                                        BooleanOption.ENABLE_MEMORY_MAPPED_DEXING_INPUTS))
+                        .setUseClassCache(projectOptions.get(BooleanOption.ENABLE_DEX_CLASS_CACHE))
+                        .setUseClassCacheForJars(
+                                projectOptions.get(BooleanOption.ENABLE_DEX_CLASS_CACHE_FOR_JARS))
                         .createDexArchiveBuilderTransform();
         transformManager.addTransform(taskFactory, variantScope, preDexTransform);
 
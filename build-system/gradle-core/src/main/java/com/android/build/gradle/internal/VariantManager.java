@@ -981,7 +981,7 @@ public class VariantManager implements VariantModel {
 
         if (productFlavors.isEmpty()) {
             configureDependencies();
-            createVariantDataForProductFlavors(Collections.emptyList());
+            createVariantDataForProductFlavors(null);
         } else {
             // ensure that there is always a dimension
             if (flavorDimensionList == null || flavorDimensionList.isEmpty()) {
@@ -1019,20 +1019,54 @@ public class VariantManager implements VariantModel {
                             flavorDimensionList,
                             flavorDsl);
 
-            for (ProductFlavorCombo<CoreProductFlavor>  flavorCombo : flavorComboList) {
-                //noinspection unchecked
-                createVariantDataForProductFlavors(
-                        (List<ProductFlavor>) (List) flavorCombo.getFlavorList());
+            List<ProductFlavorComboData> flavorComboDataList =
+                    Lists.newArrayListWithCapacity(flavorComboList.size());
+            for (ProductFlavorCombo<CoreProductFlavor> flavorCombo : flavorComboList) {
+                flavorComboDataList.add(createProductFlavorComboData(flavorCombo));
+            }
+
+            // The flavors of each combination are merged at most once. Without a variant filter
+            // every combination is used, so they are all merged up front, in parallel. The DSL
+            // objects are no longer modified at this point and merging only reads them. With a
+            // filter, they are merged when the first variant of the combination that is not
+            // filtered out is created.
+            if (extension.getVariantFilter() == null
+                    && projectOptions.get(StringOption.IDE_RESTRICT_VARIANT_PROJECT) == null) {
+                flavorComboDataList
+                        .parallelStream()
+                        .forEach(ProductFlavorComboData::getMergedFlavor);
+            }
+
+            for (ProductFlavorComboData flavorComboData : flavorComboDataList) {
+                createVariantDataForProductFlavors(flavorComboData);
             }
         }
 
         configureVariantArtifactTransforms(variantScopes);
     }
 
+    @NonNull
+    private ProductFlavorComboData createProductFlavorComboData(
+            @NonNull ProductFlavorCombo<CoreProductFlavor> flavorCombo) {
+        List<ProductFlavorData<CoreProductFlavor>> flavorDataList =
+                Lists.newArrayListWithCapacity(flavorCombo.getFlavorList().size());
+        for (CoreProductFlavor flavor : flavorCombo.getFlavorList()) {
+            flavorDataList.add(productFlavors.get(flavor.getName()));
+        }
+        return new ProductFlavorComboData(
+                defaultConfigData.getProductFlavor(),
+                flavorDataList,
+                globalScope.getErrorHandler());
+    }
+
     private BaseVariantData createVariantDataForVariantType(
             @NonNull com.android.builder.model.BuildType buildType,
-            @NonNull List<? extends ProductFlavor> productFlavorList,
+            @Nullable ProductFlavorComboData flavorComboData,
             @NonNull VariantType variantType) {
+        List<? extends ProductFlavor> productFlavorList =
+                flavorComboData != null
+                        ? flavorComboData.getFlavors()
+                        : Collections.emptyList();
         BuildTypeData buildTypeData = buildTypes.get(buildType.getName());
 
         final DefaultAndroidSourceSet sourceSet = defaultConfigData.getSourceSet();
@@ -1063,19 +1097,12 @@ public class VariantManager implements VariantModel {
 
         // We must first add the flavors to the variant config, in order to get the proper
         // variant-specific and multi-flavor name as we add/create the variant providers later.
-        for (ProductFlavor productFlavor : productFlavorList) {
-            ProductFlavorData<CoreProductFlavor> data = productFlavors.get(
-                    productFlavor.getName());
-
-            String dimensionName = productFlavor.getDimension();
-            if (dimensionName == null) {
-                dimensionName = "";
-            }
-
-            variantConfig.addProductFlavor(
-                    data.getProductFlavor(),
-                    data.getSourceSet(),
-                    dimensionName);
+        if (flavorComboData != null) {
+            variantConfig.addProductFlavors(
+                    flavorComboData.getFlavors(),
+                    flavorComboData.getSourceSets(),
+                    flavorComboData.getDimensionNames(),
+                    flavorComboData.getMergedFlavor());
         }
 
         createCompoundSourceSets(productFlavorList, variantConfig, sourceSetManager);
@@ -1102,8 +1129,8 @@ public class VariantManager implements VariantModel {
         }
 
         // 4. the flavors.
-        for (ProductFlavor productFlavor : productFlavorList) {
-            variantSourceSets.add(productFlavors.get(productFlavor.getName()).getSourceSet());
+        if (flavorComboData != null) {
+            variantSourceSets.addAll(flavorComboData.getSourceSets());
         }
 
         // 5. The defaultConfig
@@ -1210,6 +1237,7 @@ public class VariantManager implements VariantModel {
      */
     public TestVariantData createTestVariantData(
             BaseVariantData testedVariantData,
+            @Nullable ProductFlavorComboData flavorComboData,
             VariantType type) {
         CoreBuildType buildType = testedVariantData.getVariantConfiguration().getBuildType();
         BuildTypeData buildTypeData = buildTypes.get(buildType.getName());
@@ -1233,20 +1261,12 @@ public class VariantManager implements VariantModel {
                         this::canParseManifest);
 
 
-        for (CoreProductFlavor productFlavor : productFlavorList) {
-            ProductFlavorData<CoreProductFlavor> data = productFlavors
-                    .get(productFlavor.getName());
-
-            String dimensionName = productFlavor.getDimension();
-            if (dimensionName == null) {
-                dimensionName = "";
-            }
-            // same supress warning here.
-            //noinspection ConstantConditions
-            testVariantConfig.addProductFlavor(
-                    data.getProductFlavor(),
-                    data.getTestSourceSet(type),
-                    dimensionName);
+        if (flavorComboData != null) {
+            testVariantConfig.addProductFlavors(
+                    flavorComboData.getFlavors(),
+                    flavorComboData.getTestSourceSets(type),
+                    flavorComboData.getDimensionNames(),
+                    flavorComboData.getMergedFlavor());
         }
 
         createCompoundSourceSets(productFlavorList, testVariantConfig, sourceSetManager);
@@ -1271,17 +1291,22 @@ public class VariantManager implements VariantModel {
      *
      * This will create VariantData for all build types of the given flavors.
      *
-     * @param productFlavorList the flavor(s) to build.
+     * @param flavorComboData the flavor(s) to build, or null if there are no flavors.
      */
     private void createVariantDataForProductFlavors(
-            @NonNull List<ProductFlavor> productFlavorList) {
+            @Nullable ProductFlavorComboData flavorComboData) {
         for (VariantType variantType : variantFactory.getVariantConfigurationTypes()) {
-            createVariantDataForProductFlavorsAndVariantType(productFlavorList, variantType);
+            createVariantDataForProductFlavorsAndVariantType(flavorComboData, variantType);
         }
     }
 
     private void createVariantDataForProductFlavorsAndVariantType(
-            @NonNull List<ProductFlavor> productFlavorList, @NonNull VariantType variantType) {
+            @Nullable ProductFlavorComboData flavorComboData, @NonNull VariantType variantType) {
+        //noinspection unchecked
+        List<ProductFlavor> productFlavorList =
+                flavorComboData != null
+                        ? (List<ProductFlavor>) (List) flavorComboData.getFlavors()
+                        : Collections.emptyList();
 
         BuildTypeData testBuildTypeData = null;
         if (extension instanceof TestedAndroidConfig) {
@@ -1346,7 +1371,7 @@ public class VariantManager implements VariantModel {
             if (!ignore) {
                 BaseVariantData variantData =
                         createVariantDataForVariantType(
-                                buildTypeData.getBuildType(), productFlavorList, variantType);
+                                buildTypeData.getBuildType(), flavorComboData, variantType);
                 addVariant(variantData);
 
                 GradleVariantConfiguration variantConfig = variantData.getVariantConfiguration();
@@ -1420,7 +1445,7 @@ public class VariantManager implements VariantModel {
                         // there's no point creating the duplicate unit testing variant. This only
                         // causes tests to run twice when running "testDebug".
                         TestVariantData unitTestVariantData =
-                                createTestVariantData(variantData, UNIT_TEST);
+                                createTestVariantData(variantData, flavorComboData, UNIT_TEST);
                         addVariant(unitTestVariantData);
                     }
                 }
@@ -1431,7 +1456,8 @@ public class VariantManager implements VariantModel {
             // TODO: b/34624400
             if (!variantType.isHybrid()) { // BASE_FEATURE/FEATURE
                 TestVariantData androidTestVariantData =
-                        createTestVariantData(variantForAndroidTest, ANDROID_TEST);
+                        createTestVariantData(
+                                variantForAndroidTest, flavorComboData, ANDROID_TEST);
                 addVariant(androidTestVariantData);
             }
         }
@@ -18,11 +18,13 @@ package com.android.build.gradle.internal.aapt
 
 import com.android.build.gradle.internal.res.Aapt2CompileRunnable
 import com.android.build.gradle.internal.res.namespaced.Aapt2ServiceKey
+import com.android.build.gradle.internal.res.namespaced.preWarmAaptDaemons
 import com.android.build.gradle.options.SyncOptions
 import com.android.builder.internal.aapt.v2.Aapt2RenamingConventions
 import com.android.ide.common.resources.CompileResourceRequest
 import com.android.ide.common.resources.ResourceCompilationService
 import com.android.ide.common.workers.WorkerExecutorFacade
+import com.google.common.annotations.VisibleForTesting
 import java.io.File
 
 /** Resource compilation service built on top of a Aapt2Daemon and Gradle Worker Executors. */
@@ -53,15 +55,19 @@ class WorkerExecutorResourceCompilationService(
             return
         }
         val buckets = minOf(requests.size, 8) // Max 8 buckets
+        preWarmAaptDaemons(aapt2ServiceKey, buckets)
 
-        for (bucket in 0 until buckets) {
-            val bucketRequests = requests.filterIndexed { i, _ ->
-                i.rem(buckets) == bucket
-            }
+        for (bucketRequests in splitBySize(requests, buckets)) {
             // b/73804575
             workerExecutor.submit(
                 Aapt2CompileRunnable::class.java,
-                Aapt2CompileRunnable.Params(aapt2ServiceKey, bucketRequests, errorFormatMode, true)
+                Aapt2CompileRunnable.Params(
+                    aapt2ServiceKey,
+                    bucketRequests,
+                    errorFormatMode,
+                    true,
+                    queued = true
+                )
             )
         }
         requests.clear()
@@ -72,3 +78,33 @@ class WorkerExecutorResourceCompilationService(
         workerExecutor.close()
     }
 }
+
+/**
+ * Splits compile requests in [buckets] buckets of similar total input file size, so that the
+ * daemons compiling each bucket take a similar time.
+ *
+ * Requests are assigned from the largest input file to the smallest, each to the bucket with the
+ * smallest total size so far. The order of the requests within each bucket is preserved.
+ */
+@VisibleForTesting
+internal fun splitBySize(
+    requests: List<CompileResourceRequest>,
+    buckets: Int
+): List<List<CompileResourceRequest>> {
+    val fileSizes = requests.map { maxOf(it.inputFile.length(), 1L) }
+    val bucketSizes = LongArray(buckets)
+    val assignments = IntArray(requests.size)
+    for (index in requests.indices.sortedByDescending { fileSizes[it] }) {
+        var bucket = 0
+        for (candidate in 1 until buckets) {
+            if (bucketSizes[candidate] < bucketSizes[bucket]) {
+                bucket = candidate
+            }
+        }
+        bucketSizes[bucket] += fileSizes[index]
+        assignments[index] = bucket
+    }
+    return (0 until buckets).map { bucket ->
+        requests.filterIndexed { index, _ -> assignments[index] == bucket }
+    }
+}
@@ -36,6 +36,7 @@ import com.android.builder.core.ManifestAttributeSupplier;
 import com.android.builder.core.VariantType;
 import com.android.builder.errors.EvalIssueReporter;
 import com.android.builder.model.InstantRun;
+import com.android.builder.model.ProductFlavor;
 import com.android.builder.model.SourceProvider;
 import com.android.sdklib.AndroidVersion;
 import com.google.common.annotations.VisibleForTesting;
@@ -316,6 +317,18 @@ public class GradleVariantConfiguration
         return this;
     }
 
+    @NonNull
+    @Override
+    public VariantConfiguration addProductFlavors(
+            @NonNull List<? extends CoreProductFlavor> productFlavors,
+            @NonNull List<? extends SourceProvider> sourceProviders,
+            @NonNull List<String> dimensionNames,
+            @Nullable ProductFlavor mergedFlavor) {
+        super.addProductFlavors(productFlavors, sourceProviders, dimensionNames, mergedFlavor);
+        mergeOptions();
+        return this;
+    }
+
     @NonNull
     public CoreNdkOptions getNdkConfig() {
         return mergedNdkConfig;
@@ -617,6 +617,51 @@ public class VariantConfiguration<T extends BuildType, D extends ProductFlavor,
         return this;
     }
 
+    /**
+     * Adds all the configured ProductFlavors of the variant at once.
+     *
+     * <p>This is equivalent to calling {@link #addProductFlavor(ProductFlavor, SourceProvider,
+     * String)} for each flavor, in order, but the flavors are only merged once. If the flavors were
+     * already merged, e.g. when several variants share the same flavors, the result can be given
+     * and is copied instead of being merged again.
+     *
+     * @param productFlavors the configured product flavors, in order of priority
+     * @param sourceProviders the source providers for the product flavors
+     * @param dimensionNames the names of the dimensions associated with the flavors
+     * @param mergedFlavor the result of {@link MergedFlavor#mergeFlavors} for the default config
+     *     and the given flavors, or null to merge them here. It is not modified.
+     * @return the config object
+     */
+    @NonNull
+    public VariantConfiguration addProductFlavors(
+            @NonNull List<? extends F> productFlavors,
+            @NonNull List<? extends SourceProvider> sourceProviders,
+            @NonNull List<String> dimensionNames,
+            @Nullable ProductFlavor mergedFlavor) {
+        checkArgument(
+                productFlavors.size() == sourceProviders.size()
+                        && productFlavors.size() == dimensionNames.size(),
+                "Each flavor must have a source provider and a dimension name");
+        checkState(
+                mergedFlavor == null || mFlavors.isEmpty(),
+                "A merged flavor can only be given for all the flavors of the variant");
+
+        mFlavors.addAll(productFlavors);
+        mFlavorSourceProviders.addAll(sourceProviders);
+        mFlavorDimensionNames.addAll(dimensionNames);
+        mMergedFlavor =
+                mergedFlavor != null
+                        ? MergedFlavor.clone(mergedFlavor, mIssueReporter)
+                        : MergedFlavor.mergeFlavors(mDefaultConfig, mFlavors, mIssueReporter);
+        mVariantAttributesProvider.setMergedFlavor(mMergedFlavor);
+        // reset computed names to null so it will be recomputed.
+        mFlavorName = null;
+        mFullName = null;
+        mVariantAttributesProvider.setFullName(getFullName());
+
+        return this;
+    }
+
     /**
      * Sets the variant-specific source provider.
      * @param sourceProvider the source provider for the product flavor
@@ -22,6 +22,7 @@ import com.android.tools.build.apkzlib.zfile.ApkZFileCreatorFactory;
 import com.android.tools.build.apkzlib.zip.ZFileOptions;
 import com.android.tools.build.apkzlib.zip.compress.BestAndDefaultDeflateExecutorCompressor;
 import com.android.tools.build.apkzlib.zip.compress.DeflateExecutionCompressor;
+import com.google.common.base.Preconditions;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -38,9 +39,9 @@ public final class ApkCreatorFactories {
     private static final long BACKGROUND_THREAD_DISCARD_TIME_MS = 100;
 
     /**
-     * Maximum number of compression threads.
+     * Default maximum number of compression threads.
      */
-    private static final int MAXIMUM_COMPRESSION_THREADS = 2;
+    public static final int MAXIMUM_COMPRESSION_THREADS = 2;
 
     /**
      * Utility class: no constructor.
@@ -63,6 +64,28 @@ public final class ApkCreatorFactories {
     @NonNull
     public static ApkCreatorFactory fromProjectProperties(
             boolean keepTimestampsInApk, boolean debuggableBuild) {
+        return fromProjectProperties(
+                keepTimestampsInApk, debuggableBuild, MAXIMUM_COMPRESSION_THREADS);
+    }
+
+    /**
+     * Creates an {@link ApkCreatorFactory} based on the definitions in the project. This is only to
+     * be used with the incremental packager.
+     *
+     * <p>Entries are compressed by up to {@code compressionThreads} background threads while they
+     * are added to the archive, and they are written in the order they were added.
+     *
+     * @param keepTimestampsInApk whether the timestamps should be kept in the apk
+     * @param debuggableBuild whether the {@link ApkCreatorFactory} will be used to create a
+     *     debuggable archive
+     * @param compressionThreads maximum number of threads compressing entries
+     * @return the factory
+     */
+    @NonNull
+    public static ApkCreatorFactory fromProjectProperties(
+            boolean keepTimestampsInApk, boolean debuggableBuild, int compressionThreads) {
+        Preconditions.checkArgument(
+                compressionThreads > 0, "Number of compression threads must be positive");
         ZFileOptions options = new ZFileOptions();
         options.setNoTimestamps(!keepTimestampsInApk);
         options.setCoverEmptySpaceUsingExtraField(true);
@@ -70,7 +93,7 @@ public final class ApkCreatorFactories {
         ThreadPoolExecutor compressionExecutor =
                 new ThreadPoolExecutor(
                         0, /* Number of always alive threads */
-                        MAXIMUM_COMPRESSION_THREADS,
+                        compressionThreads,
                         BACKGROUND_THREAD_DISCARD_TIME_MS,
                         TimeUnit.MILLISECONDS,
                         new LinkedBlockingDeque<>());
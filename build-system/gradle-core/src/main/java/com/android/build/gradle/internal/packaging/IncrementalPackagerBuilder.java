@@ -58,19 +58,21 @@ public class IncrementalPackagerBuilder {
         /** Usual APK format. */
         FILE {
             @Override
-            ApkCreatorFactory factory(boolean keepTimestampsInApk, boolean debuggableBuild) {
+            ApkCreatorFactory factory(
+                    boolean keepTimestampsInApk, boolean debuggableBuild, int compressionThreads) {
                 return ApkCreatorFactories.fromProjectProperties(
-                        keepTimestampsInApk, debuggableBuild);
+                        keepTimestampsInApk, debuggableBuild, compressionThreads);
             }
         },
 
         FILE_WITH_LIST_OF_CHANGES {
             @SuppressWarnings({"OResourceOpenedButNotSafelyClosed", "resource"})
             @Override
-            ApkCreatorFactory factory(boolean keepTimestampsInApk, boolean debuggableBuild) {
+            ApkCreatorFactory factory(
+                    boolean keepTimestampsInApk, boolean debuggableBuild, int compressionThreads) {
                 ApkCreatorFactory apk =
                         ApkCreatorFactories.fromProjectProperties(
-                                keepTimestampsInApk, debuggableBuild);
+                                keepTimestampsInApk, debuggableBuild, compressionThreads);
                 return creationData ->
                         new CapturingChangesApkCreator(creationData, apk.make(creationData));
             }
@@ -80,14 +82,16 @@ public class IncrementalPackagerBuilder {
         DIRECTORY {
             @SuppressWarnings({"OResourceOpenedButNotSafelyClosed", "resource"})
             @Override
-            ApkCreatorFactory factory(boolean keepTimestampsInApk, boolean debuggableBuild) {
+            ApkCreatorFactory factory(
+                    boolean keepTimestampsInApk, boolean debuggableBuild, int compressionThreads) {
                 return creationData ->
                         new CapturingChangesApkCreator(
                                 creationData, new FolderBasedApkCreator(creationData));
             }
         };
 
-        abstract ApkCreatorFactory factory(boolean keepTimestampsInApk, boolean debuggableBuild);
+        abstract ApkCreatorFactory factory(
+                boolean keepTimestampsInApk, boolean debuggableBuild, int compressionThreads);
     }
 
     /**
@@ -157,6 +161,9 @@ public class IncrementalPackagerBuilder {
 
     @NonNull private BuildType buildType;
 
+    /** Maximum number of threads compressing entries of the APK. */
+    private int compressionThreads = ApkCreatorFactories.MAXIMUM_COMPRESSION_THREADS;
+
     /** Creates a new builder. */
     public IncrementalPackagerBuilder(@NonNull ApkFormat apkFormat, @NonNull BuildType buildType) {
         abiFilters = new HashSet<>();
@@ -386,6 +393,20 @@ public class IncrementalPackagerBuilder {
         return this;
     }
 
+    /**
+     * Sets the maximum number of threads compressing the entries of the APK while it is written.
+     *
+     * @param compressionThreads the maximum number of compression threads
+     * @return {@code this} for use with fluent-style notation
+     */
+    @NonNull
+    public IncrementalPackagerBuilder withCompressionThreads(int compressionThreads) {
+        Preconditions.checkArgument(
+                compressionThreads > 0, "Number of compression threads must be positive");
+        this.compressionThreads = compressionThreads;
+        return this;
+    }
+
     /**
      * Sets the set of accepted ABIs.
      *
@@ -444,7 +465,7 @@ public class IncrementalPackagerBuilder {
             return new IncrementalPackager(
                     creationDataBuilder.build(),
                     intermediateDir,
-                    apkFormat.factory(keepTimestampsInApk, debuggableBuild),
+                    apkFormat.factory(keepTimestampsInApk, debuggableBuild, compressionThreads),
                     abiFilters,
                     jniDebuggableBuild);
         } catch (PackagerException|IOException e) {
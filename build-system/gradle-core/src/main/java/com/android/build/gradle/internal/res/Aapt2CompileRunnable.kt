@@ -20,7 +20,6 @@ import com.android.build.gradle.internal.LoggerWrapper
 import com.android.build.gradle.internal.res.namespaced.Aapt2ServiceKey
 import com.android.build.gradle.internal.res.namespaced.useAaptDaemon
 import com.android.build.gradle.options.SyncOptions
-import com.android.builder.internal.aapt.v2.Aapt2Exception
 import com.android.ide.common.resources.CompileResourceRequest
 import org.gradle.api.logging.Logging
 import java.io.Serializable
@@ -32,19 +31,21 @@ class Aapt2CompileRunnable @Inject constructor(
 
     override fun run() {
         val logger = Logging.getLogger(this::class.java)
-        useAaptDaemon(params.aapt2ServiceKey) { daemon ->
-            params.requests.forEach { request ->
-                try {
-                    daemon.compile(request, LoggerWrapper(logger))
-                } catch (exception: Aapt2Exception) {
-                    throw rewriteCompileException(
-                        exception,
-                        request,
-                        params.errorFormatMode,
-                        params.enableBlame,
-                        logger
-                    )
-                }
+        useAaptDaemon(
+            params.aapt2ServiceKey,
+            queued = params.queued
+        ) { daemon ->
+            // All the requests are sent to the daemon at once, and the first failure is reported.
+            val failure =
+                daemon.compile(params.requests, LoggerWrapper(logger)).entries.firstOrNull()
+            if (failure != null) {
+                throw rewriteCompileException(
+                    failure.value,
+                    failure.key,
+                    params.errorFormatMode,
+                    params.enableBlame,
+                    logger
+                )
             }
         }
     }
@@ -53,6 +54,8 @@ class Aapt2CompileRunnable @Inject constructor(
         val aapt2ServiceKey: Aapt2ServiceKey,
         val requests: List<CompileResourceRequest>,
         val errorFormatMode: SyncOptions.ErrorFormatMode,
-        val enableBlame: Boolean = false
+        val enableBlame: Boolean = false,
+        /** Whether the work was announced with preWarmAaptDaemons. */
+        val queued: Boolean = false
     ) : Serializable
 }
@@ -24,13 +24,13 @@ import com.android.builder.internal.aapt.AaptPackageConfig
 import com.android.builder.internal.aapt.v2.Aapt2
 import com.android.builder.internal.aapt.v2.Aapt2Exception
 import com.android.builder.internal.aapt.v2.Aapt2InternalException
+import com.android.builder.symbols.LibrarySymbolTableIndex
 import com.android.builder.symbols.exportToCompiledJava
 import com.android.ide.common.process.ProcessException
 import com.android.ide.common.symbols.RGeneration
 import com.android.ide.common.symbols.SymbolIo
 import com.android.ide.common.symbols.SymbolTable
 import com.android.ide.common.symbols.getPackageNameFromManifest
-import com.android.ide.common.symbols.loadDependenciesSymbolTables
 import com.android.utils.ILogger
 import com.google.common.collect.Iterables
 import org.gradle.api.logging.Logging
@@ -102,9 +102,8 @@ fun processResources(
             SymbolTable.builder().tablePackage(mainPackageName!!).build()
 
         // For each dependency, load its symbol file.
-        var depSymbolTables: Set<SymbolTable> = loadDependenciesSymbolTables(
-            aaptConfig.librarySymbolTableFiles
-        )
+        var depSymbolTables: Set<SymbolTable> =
+            LibrarySymbolTableIndex.load(aaptConfig.librarySymbolTableFiles)
 
         val finalIds = aaptConfig.useFinalIds
         if (rJar != null) { // not yet used, will be used in non-namespaced case
@@ -29,7 +29,10 @@ class Aapt2CompileRunnable @Inject constructor(
     override fun run() {
         val logger = LoggerWrapper(Logging.getLogger(this::class.java))
         useAaptDaemon(params.aapt2ServiceKey) { daemon ->
-            params.requests.forEach { daemon.compile(it, logger) }
+            val failures = daemon.compile(params.requests, logger)
+            if (failures.isNotEmpty()) {
+                throw failures.values.first()
+            }
         }
     }
 
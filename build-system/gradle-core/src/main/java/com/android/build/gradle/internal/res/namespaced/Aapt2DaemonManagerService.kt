@@ -43,6 +43,7 @@ import java.util.concurrent.TimeUnit
 private val daemonTimeouts = Aapt2DaemonTimeouts()
 private val daemonExpiryTimeSeconds = TimeUnit.MINUTES.toSeconds(3)
 private val maintenanceIntervalSeconds = TimeUnit.MINUTES.toSeconds(1)
+private const val maxDaemonResidentSetSize = 2L * 1024 * 1024 * 1024
 
 sealed class Aapt2ServiceKey : WorkerActionServiceRegistry.ServiceKey<Aapt2DaemonManager> {
     final override val type: Class<Aapt2DaemonManager> get() = Aapt2DaemonManager::class.java
@@ -53,6 +54,10 @@ private data class Aapt2FileServiceKey(val file: File) : Aapt2ServiceKey()
 private class RegisteredAaptService(override val service: Aapt2DaemonManager)
     : WorkerActionServiceRegistry.RegisteredService<Aapt2DaemonManager> {
     override fun shutdown() {
+        val stats = service.stats()
+        if (stats.leaseCount > 0) {
+            service.logger.info("%1\$s", stats)
+        }
         service.shutdown()
     }
 }
@@ -62,17 +67,34 @@ private class RegisteredAaptService(override val service: Aapt2DaemonManager)
 fun <T: Any>useAaptDaemon(
     aapt2ServiceKey: Aapt2ServiceKey,
     serviceRegistry: WorkerActionServiceRegistry = WorkerActionServiceRegistry.INSTANCE,
+    queued: Boolean = false,
     block: (Aapt2DaemonManager.LeasedAaptDaemon) -> T) : T {
-    return getAaptDaemon(aapt2ServiceKey, serviceRegistry).use(block)
+    return getAaptDaemon(aapt2ServiceKey, serviceRegistry, queued).use(block)
+}
+
+/**
+ * Announces that [queuedLeases] work items that will each lease an AAPT2 daemon were queued, so
+ * that daemons can be started while the work items are waiting to be executed.
+ *
+ * The work items should lease their daemon with `queued = true`, so that the time they waited is
+ * measured when they run in this process.
+ */
+@JvmOverloads
+fun preWarmAaptDaemons(
+    aapt2ServiceKey: Aapt2ServiceKey,
+    queuedLeases: Int,
+    serviceRegistry: WorkerActionServiceRegistry = WorkerActionServiceRegistry.INSTANCE) {
+    serviceRegistry.getService(aapt2ServiceKey).service.preWarm(queuedLeases)
 }
 
 /** Intended for use from java worker actions. */
 @JvmOverloads
 fun getAaptDaemon(
     aapt2ServiceKey: Aapt2ServiceKey,
-    serviceRegistry: WorkerActionServiceRegistry = WorkerActionServiceRegistry.INSTANCE)
+    serviceRegistry: WorkerActionServiceRegistry = WorkerActionServiceRegistry.INSTANCE,
+    queued: Boolean = false)
         : Aapt2DaemonManager.LeasedAaptDaemon =
-    serviceRegistry.getService(aapt2ServiceKey).service.leaseDaemon()
+    serviceRegistry.getService(aapt2ServiceKey).service.leaseDaemon(queued)
 
 @JvmOverloads
 fun registerAaptService(
@@ -101,7 +123,8 @@ fun registerAaptService(
             },
             expiryTime = daemonExpiryTimeSeconds,
             expiryTimeUnit = TimeUnit.SECONDS,
-            listener = Aapt2DaemonManagerMaintainer())
+            listener = Aapt2DaemonManagerMaintainer(),
+            maxDaemonResidentSetSize = maxDaemonResidentSetSize)
         RegisteredAaptService(manager)
     }
     return key
@@ -172,13 +172,15 @@ abstract class CompileSourceSetResources
             aapt2FromMaven = aapt2FromMaven,
             logger = LoggerWrapper(logger)
         )
+        preWarmAaptDaemons(aapt2ServiceKey, requests.size)
         for (request in requests) {
             workers.submit(
                 Aapt2CompileRunnable::class.java,
                 Aapt2CompileRunnable.Params(
                     aapt2ServiceKey,
                     listOf(request),
-                    errorFormatMode
+                    errorFormatMode,
+                    queued = true
                 )
             )
         }
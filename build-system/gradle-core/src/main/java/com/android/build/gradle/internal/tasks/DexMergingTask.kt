@@ -33,6 +33,7 @@ import com.android.build.gradle.internal.scope.VariantScope
 import com.android.build.gradle.internal.tasks.factory.VariantTaskCreationAction
 import com.android.build.gradle.internal.transforms.DexMergerTransformCallable
 import com.android.build.gradle.options.BooleanOption
+import com.android.build.gradle.options.IntegerOption
 import com.android.build.gradle.options.SyncOptions
 import com.android.builder.dexing.DexMergerTool
 import com.android.builder.dexing.DexingType
@@ -119,6 +120,11 @@ open class DexMergingTask @Inject constructor(workerExecutor: WorkerExecutor) :
     var mergingThreshold: Int = 0
         private set
 
+    @get:Optional
+    @get:Input
+    var maxResidentInputSizeInMb: Int? = null
+        private set
+
     @get:Optional
     @get:InputFiles
     @get:PathSensitive(PathSensitivity.NONE)
@@ -164,7 +170,8 @@ open class DexMergingTask @Inject constructor(workerExecutor: WorkerExecutor) :
                     mainDexListFile?.singleFile(),
                     dexFiles.files,
                     fileDependencyDexFiles?.get()?.asFile,
-                    outputDir
+                    outputDir,
+                    maxResidentInputSizeInMb
                 )
             )
         }
@@ -212,6 +219,8 @@ open class DexMergingTask @Inject constructor(workerExecutor: WorkerExecutor) :
             task.dexMerger = variantScope.dexMerger
             task.minSdkVersion = variantScope.variantConfiguration.minSdkVersionWithTargetDeviceApi.featureLevel
             task.isDebuggable = variantScope.variantConfiguration.buildType.isDebuggable
+            task.maxResidentInputSizeInMb = variantScope.globalScope.projectOptions[
+                    IntegerOption.DEX_MERGING_MAX_RESIDENT_INPUT_SIZE_IN_MB]
             if (variantScope.globalScope.projectOptions[BooleanOption.ENABLE_DUPLICATE_CLASSES_CHECK]) {
                 task.duplicateClassesCheck = variantScope.artifacts.getFinalArtifactFiles(
                     InternalArtifactType.DUPLICATE_CLASSES_CHECK
@@ -440,7 +449,8 @@ class DexMergingTaskRunnable @Inject constructor(
                     forkJoinPool,
                     params.dexMerger,
                     params.minSdkVersion,
-                    params.isDebuggable
+                    params.isDebuggable,
+                    params.maxResidentInputSizeInMb
                 ).call()
             } else {
                 val outputPath =
@@ -494,7 +504,8 @@ data class DexMergingParams(
     val mainDexListFile: File?,
     private val dexFiles: Set<File>,
     private val fileDependencyDexFiles: File?,
-    val outputDir: File
+    val outputDir: File,
+    val maxResidentInputSizeInMb: Int? = null
 ) : Serializable {
     fun getAllDexFiles(): List<File> {
         val allDexFiles = ArrayList<File>(dexFiles)
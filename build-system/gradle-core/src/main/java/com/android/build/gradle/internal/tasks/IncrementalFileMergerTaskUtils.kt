@@ -27,6 +27,7 @@ import com.android.builder.files.IncrementalRelativeFileSets
 import com.android.builder.files.RelativeFile
 import com.android.builder.files.RelativeFiles
 import com.android.builder.files.ZipCentralDirectory
+import com.android.builder.files.ZipCentralDirectoryCache
 import com.android.builder.merge.IncrementalFileMergerInput
 import com.android.builder.merge.LazyIncrementalFileMergerInput
 import com.android.builder.merge.LazyIncrementalFileMergerInputs
@@ -61,7 +62,7 @@ fun toIncrementalInput(
     cacheUpdates: MutableList<Runnable>
 ): IncrementalFileMergerInput {
     if (input.name.endsWith(SdkConstants.DOT_JAR)) {
-        val jarCDR = ZipCentralDirectory(input)
+        val jarCDR by lazy { ZipCentralDirectoryCache.get(input) }
         if (changedInputs.containsKey(input)) {
             cacheUpdates.add(IOExceptionRunnable.asRunnable {
                 if (input.isFile) {
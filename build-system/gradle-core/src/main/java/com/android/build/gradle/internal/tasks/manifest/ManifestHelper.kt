@@ -65,6 +65,7 @@ fun mergeManifestsForApplication(
             .withFeatures(*optionalFeatures.toTypedArray())
             .setMergeReportFile(reportFile)
             .setFeatureName(featureName)
+            .withFeatures(ManifestMerger2.Invoker.Feature.CACHE_LIBRARY_MANIFESTS)
 
         if (mergeType == ManifestMerger2.MergeType.APPLICATION) {
             manifestMergerInvoker.withFeatures(ManifestMerger2.Invoker.Feature.REMOVE_TOOLS_DECLARATIONS)
@@ -20,6 +20,7 @@ import static com.android.builder.desugaring.DesugaringClassAnalyzer.analyze;
 
 import com.android.SdkConstants;
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.build.api.transform.DirectoryInput;
 import com.android.build.api.transform.JarInput;
 import com.android.build.api.transform.QualifiedContent;
@@ -32,16 +33,17 @@ import com.android.builder.desugaring.DesugaringData;
 import com.android.builder.desugaring.DesugaringGraph;
 import com.android.builder.desugaring.DesugaringGraphs;
 import com.android.ide.common.internal.WaitableExecutor;
+import com.android.utils.FileUtils;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
@@ -51,6 +53,12 @@ import java.util.function.Supplier;
  * This helper analyzes the transform inputs, updates the {@link DesugaringGraph} it owns, and its
  * main goal is to provide paths that should also be also considered out of date, in addition to the
  * changed files. See {@link #getAdditionalPaths()} for details.
+ *
+ * <p>The graph is kept in memory between builds, and it is also written to the temporary directory
+ * of the transform, see {@link #saveGraph()}. This allows incremental builds in a new Gradle daemon
+ * to read the graph and update it with the changed paths only, instead of analyzing all inputs.
+ * The persisted graph is deleted as soon as it might get out of date, and it is written again once
+ * the transform succeeds.
  */
 class DesugarIncrementalTransformHelper {
 
@@ -58,6 +66,8 @@ class DesugarIncrementalTransformHelper {
     private static final LoggerWrapper logger =
             LoggerWrapper.getLogger(DesugarIncrementalTransformHelper.class);
 
+    @NonNull private static final String GRAPH_FILE_NAME = "desugaring-graph.bin";
+
     @NonNull private final String projectVariant;
     @NonNull private final TransformInvocation invocation;
     @NonNull private final WaitableExecutor executor;
@@ -67,6 +77,12 @@ class DesugarIncrementalTransformHelper {
 
     @NonNull private final Supplier<DesugaringGraph> desugaringGraph;
 
+    /** File the graph is persisted to, or {@code null} if there is no temporary directory. */
+    @Nullable private final File graphFile;
+
+    /** Graph that was created or updated in this invocation, and should be persisted. */
+    @Nullable private volatile DesugaringGraph graphToSave;
+
     DesugarIncrementalTransformHelper(
             @NonNull String projectVariant,
             @NonNull TransformInvocation invocation,
@@ -74,15 +90,19 @@ class DesugarIncrementalTransformHelper {
         this.projectVariant = projectVariant;
         this.invocation = invocation;
         this.executor = executor;
+        File temporaryDir = invocation.getContext().getTemporaryDir();
+        this.graphFile = temporaryDir != null ? new File(temporaryDir, GRAPH_FILE_NAME) : null;
         DesugaringGraph graph;
         if (!invocation.isIncremental()) {
             DesugaringGraphs.invalidate(projectVariant);
+            deletePersistedGraph();
             graph = null;
         } else {
             graph =
                     DesugaringGraphs.updateVariant(
                             projectVariant, () -> getIncrementalData(changedPaths, executor));
         }
+        graphToSave = graph;
         desugaringGraph =
                 graph != null ? () -> graph : Suppliers.memoize(this::makeDesugaringGraph);
     }
@@ -106,14 +126,11 @@ class DesugarIncrementalTransformHelper {
         Stopwatch stopwatch = Stopwatch.createStarted();
         logger.verbose("Desugaring dependencies incrementally.");
 
-        Set<Path> additionalPaths = new HashSet<>();
-        for (Path changed : changedPaths.get()) {
-            for (Path path : desugaringGraph.get().getDependentPaths(changed)) {
-                if (!changedPaths.get().contains(path)) {
-                    additionalPaths.add(path);
-                }
-            }
+        DesugaringGraph graph = desugaringGraph.get();
+        if (!changedPaths.get().isEmpty()) {
+            deletePersistedGraph();
         }
+        Set<Path> additionalPaths = graph.getDependentPaths(changedPaths.get());
 
         logger.verbose(
                 "Time to calculate desugaring dependencies: %d",
@@ -122,17 +139,55 @@ class DesugarIncrementalTransformHelper {
         return additionalPaths;
     }
 
+    /**
+     * Writes the graph to the temporary directory of the transform, if it was created or updated in
+     * this invocation. This should be invoked once all inputs have been processed successfully, so
+     * the persisted graph matches the inputs Gradle will report changes against in the next build.
+     */
+    void saveGraph() throws IOException {
+        DesugaringGraph graph = graphToSave;
+        if (graphFile == null || graph == null) {
+            return;
+        }
+        if (graphFile.isFile()) {
+            // persisted graph is already up-to-date
+            return;
+        }
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        graph.write(graphFile.toPath());
+        logger.verbose(
+                "Time to write desugaring graph: %d", stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    }
+
+    private void deletePersistedGraph() {
+        if (graphFile == null) {
+            return;
+        }
+        try {
+            FileUtils.deleteIfExists(graphFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to delete desugaring graph", e);
+        }
+    }
+
     @NonNull
     private DesugaringGraph makeDesugaringGraph() {
+        DesugaringGraph graph;
         if (!invocation.isIncremental()) {
             // Rebuild totally the graph whatever the cache status
-            return DesugaringGraphs.forVariant(
-                    projectVariant, getInitalGraphData(invocation, executor));
+            graph =
+                    DesugaringGraphs.forVariant(
+                            projectVariant, getInitalGraphData(invocation, executor));
+        } else {
+            graph =
+                    DesugaringGraphs.forVariant(
+                            projectVariant,
+                            graphFile != null ? graphFile.toPath() : null,
+                            () -> getInitalGraphData(invocation, executor),
+                            () -> getIncrementalData(changedPaths, executor));
         }
-        return DesugaringGraphs.forVariant(
-                projectVariant,
-                () -> getInitalGraphData(invocation, executor),
-                () -> getIncrementalData(changedPaths, executor));
+        graphToSave = graph;
+        return graph;
     }
 
     @NonNull
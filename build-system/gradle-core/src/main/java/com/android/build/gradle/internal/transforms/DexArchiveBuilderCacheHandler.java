@@ -27,6 +27,7 @@ import com.android.builder.core.DexOptions;
 import com.android.builder.dexing.DexerTool;
 import com.android.builder.utils.FileCache;
 import com.android.dx.Version;
+import com.android.utils.FileUtils;
 import com.google.common.base.Joiner;
 import com.google.common.base.Throwables;
 import com.google.common.base.Verify;
@@ -75,6 +76,18 @@ class DexArchiveBuilderCacheHandler {
     // Increase this if we might have generated broken cache entries to invalidate them.
     private static final int CACHE_KEY_VERSION = 4;
 
+    /** Size over which the pack file of the per-class dex cache is cleared. */
+    static final long CLASS_CACHE_MAX_SIZE_IN_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * The names of the directory and the pack file of the per-class dex cache, see {@link
+     * #getClassCachePackFile()}. The directory name must not be a plugin version, so that the
+     * directory is not deleted along with the cache directories of old plugin versions.
+     */
+    private static final String CLASS_CACHE_DIR_NAME = "dex-class-cache";
+
+    private static final String CLASS_CACHE_PACK_FILE_NAME = "classes.pack";
+
     @Nullable private final FileCache userLevelCache;
     @NonNull private final DexOptions dexOptions;
     private final int minSdkVersion;
@@ -198,6 +211,49 @@ class DexArchiveBuilderCacheHandler {
         }
     }
 
+    /**
+     * Returns the pack file of the per-class dex cache (see {@link
+     * com.android.builder.dexing.DexClassCache}), or {@code null} if the user cache is disabled.
+     *
+     * <p>The pack file is appended to while it is in use, so it is not a cache entry of the user
+     * cache, whose entries are immutable once created and may be deleted by another build at any
+     * time. Instead, it is kept in its own directory next to the cache directories of the plugin
+     * versions, under its own lock, and its size is bounded by {@link
+     * #CLASS_CACHE_MAX_SIZE_IN_BYTES} rather than by the size of the user cache. It is shared by
+     * all plugin versions since the keys of the classes include the dexer version (see {@link
+     * #getClassCacheConfiguration(boolean)}).
+     */
+    @Nullable
+    File getClassCachePackFile() {
+        if (userLevelCache == null) {
+            return null;
+        }
+        File classCacheDir =
+                new File(
+                        userLevelCache.getCacheDirectory().getAbsoluteFile().getParentFile(),
+                        CLASS_CACHE_DIR_NAME);
+        FileUtils.mkdirs(classCacheDir);
+        return new File(classCacheDir, CLASS_CACHE_PACK_FILE_NAME);
+    }
+
+    /**
+     * Returns the inputs other than the class itself that affect the dex output of a class, used
+     * to compute the keys of the per-class dex cache.
+     */
+    @NonNull
+    String getClassCacheConfiguration(boolean d8DesugaringEnabled) {
+        return Joiner.on(',')
+                .join(
+                        CACHE_KEY_VERSION,
+                        Version.VERSION,
+                        dexer.name(),
+                        minSdkVersion,
+                        isDebuggable,
+                        isJumboModeEnabledForDx(),
+                        !dexOptions.getAdditionalParameters().contains("--no-optimize"),
+                        d8DesugaringEnabled);
+    }
+
     /** Returns if the qualified content is an external jar. */
     private static boolean isExternalLib(@NonNull QualifiedContent content) {
         return content.getFile().isFile()
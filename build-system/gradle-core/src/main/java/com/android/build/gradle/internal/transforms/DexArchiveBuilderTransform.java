@@ -48,9 +48,11 @@ import com.android.builder.core.DexOptions;
 import com.android.builder.dexing.ClassFileEntry;
 import com.android.builder.dexing.ClassFileInput;
 import com.android.builder.dexing.ClassFileInputs;
+import com.android.builder.dexing.ClassFileReadStatistics;
 import com.android.builder.dexing.DexArchiveBuilder;
 import com.android.builder.dexing.DexArchiveBuilderConfig;
 import com.android.builder.dexing.DexArchiveBuilderException;
+import com.android.builder.dexing.DexClassCache;
 import com.android.builder.dexing.DexerTool;
 import com.android.builder.dexing.r8.ClassFileProviderFactory;
 import com.android.builder.utils.FileCache;
@@ -92,6 +94,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -171,6 +174,42 @@ public class DexArchiveBuilderTransform extends Transform {
         }
     }
 
+    /**
+     * Identifies the {@link ClassFileReadStatistics} shared by all dexing work items of a single
+     * transform invocation.
+     */
+    public static final class ReadStatisticsServiceKey
+            implements WorkerActionServiceRegistry.ServiceKey<ClassFileReadStatistics> {
+        private final long id;
+
+        public ReadStatisticsServiceKey(long id) {
+            this.id = id;
+        }
+
+        @NonNull
+        @Override
+        public Class<ClassFileReadStatistics> getType() {
+            return ClassFileReadStatistics.class;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ReadStatisticsServiceKey that = (ReadStatisticsServiceKey) o;
+            return id == that.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id);
+        }
+    }
+
     private static final LoggerWrapper logger =
             LoggerWrapper.getLogger(DexArchiveBuilderTransform.class);
 
@@ -181,6 +220,8 @@ public class DexArchiveBuilderTransform extends Transform {
     private static final int DEFAULT_NUM_BUCKETS =
             Math.max(Runtime.getRuntime().availableProcessors() / 2, 1);
 
+    private static final AtomicLong nextReadStatisticsId = new AtomicLong();
+
     @NonNull private final FileCollection androidJarClasspath;
     @NonNull private final DexOptions dexOptions;
     @NonNull private final MessageReceiver messageReceiver;
@@ -200,6 +241,11 @@ public class DexArchiveBuilderTransform extends Transform {
 
     private boolean enableDexingArtifactTransform;
     private final boolean needsClasspath;
+    private final boolean useMemoryMappedInputs;
+    private final boolean useClassCache;
+    private final boolean useClassCacheForJars;
+    /** Pack file of the per-class dex cache, resolved when the transform runs. */
+    @Nullable private File classCachePackFile;
 
     DexArchiveBuilderTransform(
             @NonNull FileCollection androidJarClasspath,
@@ -217,7 +263,10 @@ public class DexArchiveBuilderTransform extends Transform {
             @NonNull String projectVariant,
             @Nullable Integer numberOfBuckets,
             boolean includeFeaturesInScopes,
-            boolean enableDexingArtifactTransform) {
+            boolean enableDexingArtifactTransform,
+            boolean useMemoryMappedInputs,
+            boolean enableClassCache,
+            boolean enableClassCacheForJars) {
         this.androidJarClasspath = androidJarClasspath;
         this.dexOptions = dexOptions;
         this.messageReceiver = messageReceiver;
@@ -242,6 +291,13 @@ public class DexArchiveBuilderTransform extends Transform {
         this.needsClasspath =
                 java8LangSupportType == VariantScope.Java8LangSupport.D8
                         && minSdkVersion < AndroidVersion.VersionCodes.N;
+        this.useMemoryMappedInputs = useMemoryMappedInputs;
+        // Classes can be cached individually only if their dex output does not depend on other
+        // classes, which is the case unless D8 needs the classpath for desugaring.
+        this.useClassCache = enableClassCache && !needsClasspath;
+        // The dex archives of jars contain one dex file per bucket, unless they are built from the
+        // per-class dex cache.
+        this.useClassCacheForJars = useClassCache && enableClassCacheForJars;
     }
 
     @NonNull
@@ -362,18 +418,27 @@ public class DexArchiveBuilderTransform extends Transform {
                         .map(Paths::get)
                         .collect(Collectors.toList());
 
+        ClassFileReadStatistics readStatistics = new ClassFileReadStatistics();
+        ReadStatisticsServiceKey readStatisticsServiceKey =
+                new ReadStatisticsServiceKey(nextReadStatisticsId.incrementAndGet());
         ClasspathServiceKey bootclasspathServiceKey = null;
         ClasspathServiceKey classpathServiceKey = null;
         try (ClassFileProviderFactory bootClasspathProvider =
                         new ClassFileProviderFactory(bootclasspath);
                 ClassFileProviderFactory libraryClasspathProvider =
-                        new ClassFileProviderFactory(classpath)) {
+                        new ClassFileProviderFactory(classpath);
+                WorkerActionServiceRegistry.Manager<
+                                ClassFileReadStatistics, ReadStatisticsServiceKey>
+                        ignored =
+                                new WorkerActionServiceRegistry.Manager<>(
+                                        readStatistics, readStatisticsServiceKey)) {
             bootclasspathServiceKey = new ClasspathServiceKey(bootClasspathProvider.getId());
             classpathServiceKey = new ClasspathServiceKey(libraryClasspathProvider.getId());
             INSTANCE.registerService(
                     bootclasspathServiceKey, () -> new ClasspathService(bootClasspathProvider));
             INSTANCE.registerService(
                     classpathServiceKey, () -> new ClasspathService(libraryClasspathProvider));
+            classCachePackFile = useClassCache ? cacheHandler.getClassCachePackFile() : null;
 
             for (TransformInput input : transformInvocation.getInputs()) {
 
@@ -386,6 +451,7 @@ public class DexArchiveBuilderTransform extends Transform {
                             isIncremental,
                             bootclasspathServiceKey,
                             classpathServiceKey,
+                            readStatisticsServiceKey,
                             additionalPaths);
                 }
 
@@ -407,6 +473,7 @@ public class DexArchiveBuilderTransform extends Transform {
                                     outputProvider,
                                     bootclasspathServiceKey,
                                     classpathServiceKey,
+                                    readStatisticsServiceKey,
                                     additionalPaths,
                                     cacheInfo);
                     if (cacheInfo != D8DesugaringCacheInfo.DONT_CACHE && !dexArchives.isEmpty()) {
@@ -437,8 +504,25 @@ public class DexArchiveBuilderTransform extends Transform {
             if (!cacheableItems.isEmpty()) {
                 cacheHandler.populateCache(cacheableItems);
             }
+            if (desugarIncrementalTransformHelper != null) {
+                desugarIncrementalTransformHelper.saveGraph();
+            }
 
             logger.verbose("Done with all dex archive conversions");
+            logger.verbose(
+                    "Read %1$d class files (%2$d bytes) for dexing, %3$d from memory-mapped jars"
+                            + " without decompression, %4$d inflated from memory-mapped jars",
+                    readStatistics.getClassesRead(),
+                    readStatistics.getBytesAllocated(),
+                    readStatistics.getMappedClassesRead(),
+                    readStatistics.getInflatedClassesRead());
+            if (classCachePackFile != null) {
+                logger.verbose(
+                        "Per-class dex cache: %s",
+                        DexClassCache.getInstance(
+                                classCachePackFile,
+                                DexArchiveBuilderCacheHandler.CLASS_CACHE_MAX_SIZE_IN_BYTES));
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new TransformException(e);
@@ -539,6 +623,7 @@ public class DexArchiveBuilderTransform extends Transform {
             @NonNull TransformOutputProvider transformOutputProvider,
             @NonNull ClasspathServiceKey bootclasspath,
             @NonNull ClasspathServiceKey classpath,
+            @NonNull ReadStatisticsServiceKey readStatistics,
             @NonNull Set<File> additionalPaths,
             @NonNull D8DesugaringCacheInfo cacheInfo)
             throws Exception {
@@ -554,6 +639,7 @@ public class DexArchiveBuilderTransform extends Transform {
                     transformOutputProvider,
                     bootclasspath,
                     classpath,
+                    readStatistics,
                     cacheInfo);
         } else if (jarInput.getStatus() != Status.NOTCHANGED
                 || additionalPaths.contains(jarInput.getFile())) {
@@ -581,6 +667,7 @@ public class DexArchiveBuilderTransform extends Transform {
                         transformOutputProvider,
                         bootclasspath,
                         classpath,
+                        readStatistics,
                         cacheInfo);
             }
         }
@@ -593,6 +680,7 @@ public class DexArchiveBuilderTransform extends Transform {
             @NonNull TransformOutputProvider transformOutputProvider,
             @NonNull ClasspathServiceKey bootclasspath,
             @NonNull ClasspathServiceKey classpath,
+            @NonNull ReadStatisticsServiceKey readStatistics,
             @NonNull D8DesugaringCacheInfo cacheInfo)
             throws Exception {
 
@@ -617,6 +705,7 @@ public class DexArchiveBuilderTransform extends Transform {
                 false,
                 bootclasspath,
                 classpath,
+                readStatistics,
                 ImmutableSet.of());
     }
 
@@ -624,6 +713,7 @@ public class DexArchiveBuilderTransform extends Transform {
         private final QualifiedContent input;
         private final ClasspathServiceKey bootClasspath;
         private final ClasspathServiceKey classpath;
+        private final ReadStatisticsServiceKey readStatistics;
         private final String output;
         private final int numberOfBuckets;
         private final int buckedId;
@@ -637,11 +727,15 @@ public class DexArchiveBuilderTransform extends Transform {
         private final VariantScope.Java8LangSupport java8LangSupportType;
         @NonNull private final Set<File> additionalPaths;
         @Nonnull private final SyncOptions.ErrorFormatMode errorFormatMode;
+        private final boolean useMemoryMappedInputs;
+        @Nullable private final File classCachePackFile;
+        @Nullable private final String classCacheConfiguration;
 
         public DexConversionParameters(
                 @NonNull QualifiedContent input,
                 @NonNull ClasspathServiceKey bootClasspath,
                 @NonNull ClasspathServiceKey classpath,
+                @NonNull ReadStatisticsServiceKey readStatistics,
                 @NonNull File output,
                 int numberOfBuckets,
                 int buckedId,
@@ -654,10 +748,14 @@ public class DexArchiveBuilderTransform extends Transform {
                 boolean isIncremental,
                 @NonNull VariantScope.Java8LangSupport java8LangSupportType,
                 @NonNull Set<File> additionalPaths,
-                @Nonnull SyncOptions.ErrorFormatMode errorFormatMode) {
+                @Nonnull SyncOptions.ErrorFormatMode errorFormatMode,
+                boolean useMemoryMappedInputs,
+                @Nullable File classCachePackFile,
+                @Nullable String classCacheConfiguration) {
             this.input = input;
             this.bootClasspath = bootClasspath;
             this.classpath = classpath;
+            this.readStatistics = readStatistics;
             this.numberOfBuckets = numberOfBuckets;
             this.buckedId = buckedId;
             this.output = output.toURI().toString();
@@ -671,6 +769,9 @@ public class DexArchiveBuilderTransform extends Transform {
             this.java8LangSupportType = java8LangSupportType;
             this.additionalPaths = additionalPaths;
             this.errorFormatMode = errorFormatMode;
+            this.useMemoryMappedInputs = useMemoryMappedInputs;
+            this.classCachePackFile = classCachePackFile;
+            this.classCacheConfiguration = classCacheConfiguration;
         }
 
         public boolean belongsToThisBucket(String path) {
@@ -771,6 +872,14 @@ public class DexArchiveBuilderTransform extends Transform {
         return dexArchiveBuilder;
     }
 
+    /**
+     * Returns whether the per-class dex cache is used for the given input. The dex archives of
+     * directories already contain one dex file per class, so the cache does not change them.
+     */
+    private boolean useClassCacheFor(@NonNull QualifiedContent input) {
+        return input instanceof DirectoryInput ? useClassCache : useClassCacheForJars;
+    }
+
     private List<File> convertToDexArchive(
             @NonNull Context context,
             @NonNull QualifiedContent input,
@@ -778,6 +887,7 @@ public class DexArchiveBuilderTransform extends Transform {
             boolean isIncremental,
             @NonNull ClasspathServiceKey bootClasspath,
             @NonNull ClasspathServiceKey classpath,
+            @NonNull ReadStatisticsServiceKey readStatistics,
             @NonNull Set<File> additionalPaths) {
 
         logger.verbose("Dexing %s", input.getFile().getAbsolutePath());
@@ -794,11 +904,13 @@ public class DexArchiveBuilderTransform extends Transform {
             }
 
             dexArchives.add(preDexOutputFile);
+            File packFile = useClassCacheFor(input) ? classCachePackFile : null;
             DexConversionParameters parameters =
                     new DexConversionParameters(
                             input,
                             bootClasspath,
                             classpath,
+                            readStatistics,
                             preDexOutputFile,
                             numberOfBuckets,
                             bucketId,
@@ -811,7 +923,14 @@ public class DexArchiveBuilderTransform extends Transform {
                             isIncremental,
                             java8LangSupportType,
                             additionalPaths,
-                            errorFormatMode);
+                            errorFormatMode,
+                            useMemoryMappedInputs,
+                            packFile,
+                            packFile != null
+                                    ? cacheHandler.getClassCacheConfiguration(
+                                            java8LangSupportType
+                                                    == VariantScope.Java8LangSupport.D8)
+                                    : null);
 
             if (useGradleWorkers) {
                 context.getWorkerExecutor()
@@ -875,6 +994,20 @@ public class DexArchiveBuilderTransform extends Transform {
                         errStream,
                         receiver);
 
+        if (dexConversionParameters.classCachePackFile != null
+                && dexConversionParameters.classCacheConfiguration != null) {
+            // The directory of the pack file may have been deleted since the transform started,
+            // e.g. if the user deleted the cache directory, in which case the pack starts empty
+            FileUtils.mkdirs(dexConversionParameters.classCachePackFile.getParentFile());
+            dexArchiveBuilder =
+                    DexArchiveBuilder.createClassCachingDexBuilder(
+                            dexArchiveBuilder,
+                            DexClassCache.getInstance(
+                                    dexConversionParameters.classCachePackFile,
+                                    DexArchiveBuilderCacheHandler.CLASS_CACHE_MAX_SIZE_IN_BYTES),
+                            dexConversionParameters.classCacheConfiguration);
+        }
+
         Path inputPath = dexConversionParameters.input.getFile().toPath();
         Predicate<String> bucketFilter = dexConversionParameters::belongsToThisBucket;
 
@@ -900,7 +1033,13 @@ public class DexArchiveBuilderTransform extends Transform {
 
         logger.verbose("Dexing '" + inputPath + "' to '" + dexConversionParameters.output + "'");
 
-        try (ClassFileInput input = ClassFileInputs.fromPath(inputPath);
+        ClassFileReadStatistics readStatistics =
+                INSTANCE.getService(dexConversionParameters.readStatistics).getService();
+        try (ClassFileInput input =
+                        ClassFileInputs.fromPath(
+                                inputPath,
+                                dexConversionParameters.useMemoryMappedInputs,
+                                readStatistics);
                 Stream<ClassFileEntry> entries = input.entries(bucketFilter)) {
             dexArchiveBuilder.convert(
                     entries,
@@ -44,6 +44,9 @@ public class DexArchiveBuilderTransformBuilder {
     private Integer numberOfBuckets;
     private boolean includeFeaturesInScopes;
     private boolean enableDexingArtifactTransform;
+    private boolean useMemoryMappedInputs;
+    private boolean useClassCache;
+    private boolean useClassCacheForJars;
 
     @NonNull
     public DexArchiveBuilderTransformBuilder setAndroidJarClasspath(
@@ -147,6 +150,26 @@ public class DexArchiveBuilderTransformBuilder {
         return this;
     }
 
+    @NonNull
+    public DexArchiveBuilderTransformBuilder setUseMemoryMappedInputs(
+            boolean useMemoryMappedInputs) {
+        this.useMemoryMappedInputs = useMemoryMappedInputs;
+        return this;
+    }
+
+    @NonNull
+    public DexArchiveBuilderTransformBuilder setUseClassCache(boolean useClassCache) {
+        this.useClassCache = useClassCache;
+        return this;
+    }
+
+    @NonNull
+    public DexArchiveBuilderTransformBuilder setUseClassCacheForJars(
+            boolean useClassCacheForJars) {
+        this.useClassCacheForJars = useClassCacheForJars;
+        return this;
+    }
+
     @NonNull
     public DexArchiveBuilderTransform createDexArchiveBuilderTransform() {
         Preconditions.checkNotNull(androidJarClasspath);
@@ -172,6 +195,9 @@ public class DexArchiveBuilderTransformBuilder {
                 projectVariant,
                 numberOfBuckets,
                 includeFeaturesInScopes,
-                enableDexingArtifactTransform);
+                enableDexingArtifactTransform,
+                useMemoryMappedInputs,
+                useClassCache,
+                useClassCacheForJars);
     }
 }
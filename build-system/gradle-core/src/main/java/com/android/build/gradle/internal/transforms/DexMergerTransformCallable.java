@@ -46,6 +46,7 @@ public class DexMergerTransformCallable implements Callable<Void> {
     @NonNull private final DexMergerTool dexMerger;
     private final int minSdkVersion;
     private final boolean isDebuggable;
+    @Nullable private final Integer maxResidentInputSizeInMb;
 
     public DexMergerTransformCallable(
             @NonNull MessageReceiver messageReceiver,
@@ -58,6 +59,36 @@ public class DexMergerTransformCallable implements Callable<Void> {
             @NonNull DexMergerTool dexMerger,
             int minSdkVersion,
             boolean isDebuggable) {
+        this(
+                messageReceiver,
+                dexingType,
+                processOutput,
+                dexOutputDir,
+                dexArchives,
+                mainDexList,
+                forkJoinPool,
+                dexMerger,
+                minSdkVersion,
+                isDebuggable,
+                null);
+    }
+
+    /**
+     * @param maxResidentInputSizeInMb if set, D8 merges native multidex in parallel buckets, and
+     *     this is the maximum size of the dex files loaded in memory at the same time
+     */
+    public DexMergerTransformCallable(
+            @NonNull MessageReceiver messageReceiver,
+            @NonNull DexingType dexingType,
+            @NonNull ProcessOutput processOutput,
+            @NonNull File dexOutputDir,
+            @NonNull Iterator<Path> dexArchives,
+            @Nullable Path mainDexList,
+            @NonNull ForkJoinPool forkJoinPool,
+            @NonNull DexMergerTool dexMerger,
+            int minSdkVersion,
+            boolean isDebuggable,
+            @Nullable Integer maxResidentInputSizeInMb) {
         this.messageReceiver = messageReceiver;
         this.dexingType = dexingType;
         this.processOutput = processOutput;
@@ -68,6 +99,7 @@ public class DexMergerTransformCallable implements Callable<Void> {
         this.dexMerger = dexMerger;
         this.minSdkVersion = minSdkVersion;
         this.isDebuggable = isDebuggable;
+        this.maxResidentInputSizeInMb = maxResidentInputSizeInMb;
     }
 
     @Override
@@ -91,9 +123,19 @@ public class DexMergerTransformCallable implements Callable<Void> {
                     // sdk version to 21.
                     d8MinSdkVersion = 21;
                 }
-                merger =
-                        DexArchiveMerger.createD8DexMerger(
-                                messageReceiver, d8MinSdkVersion, isDebuggable, forkJoinPool);
+                if (maxResidentInputSizeInMb != null) {
+                    merger =
+                            DexArchiveMerger.createStreamingD8DexMerger(
+                                    messageReceiver,
+                                    d8MinSdkVersion,
+                                    isDebuggable,
+                                    forkJoinPool,
+                                    maxResidentInputSizeInMb * 1024L * 1024L);
+                } else {
+                    merger =
+                            DexArchiveMerger.createD8DexMerger(
+                                    messageReceiver, d8MinSdkVersion, isDebuggable, forkJoinPool);
+                }
                 break;
             default:
                 throw new AssertionError("Unknown dex merger " + dexMerger.name());
@@ -36,6 +36,7 @@ import com.android.build.gradle.internal.packaging.ParsedPackagingOptions;
 import com.android.build.gradle.internal.pipeline.ExtendedContentType;
 import com.android.build.gradle.internal.pipeline.IncrementalFileMergerTransformUtils;
 import com.android.build.gradle.internal.scope.VariantScope;
+import com.android.build.gradle.options.BooleanOption;
 import com.android.builder.files.FileCacheByPath;
 import com.android.builder.merge.DelegateIncrementalFileMergerOutput;
 import com.android.builder.merge.FilterIncrementalFileMergerInput;
@@ -44,6 +45,7 @@ import com.android.builder.merge.IncrementalFileMergerInput;
 import com.android.builder.merge.IncrementalFileMergerOutput;
 import com.android.builder.merge.IncrementalFileMergerOutputs;
 import com.android.builder.merge.IncrementalFileMergerState;
+import com.android.builder.merge.MergeOutputWriter;
 import com.android.builder.merge.MergeOutputWriters;
 import com.android.builder.merge.RenameIncrementalFileMergerInput;
 import com.android.builder.merge.StreamMergeAlgorithm;
@@ -65,6 +67,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -97,6 +100,11 @@ public class MergeJavaResourcesTransform extends Transform {
     private final Predicate<String> acceptedPathsPredicate;
     @NonNull private final File cacheDir;
 
+    /**
+     * Shared pool used to merge files in parallel, {@code null} if files are merged sequentially.
+     */
+    @Nullable private final ForkJoinPool forkJoinPool;
+
     public MergeJavaResourcesTransform(
             @NonNull PackagingOptions packagingOptions,
             @NonNull Set<? super Scope> mergeScopes,
@@ -112,6 +120,15 @@ public class MergeJavaResourcesTransform extends Transform {
 
         cacheDir = new File(intermediateDir, "zip-cache");
 
+        if (variantScope
+                .getGlobalScope()
+                .getProjectOptions()
+                .get(BooleanOption.ENABLE_PARALLEL_JAVA_RES_MERGING)) {
+            forkJoinPool = ForkJoinPool.commonPool();
+        } else {
+            forkJoinPool = null;
+        }
+
         if (mergedType == QualifiedContent.DefaultContentType.RESOURCES) {
             acceptedPathsPredicate =
                     path -> !path.endsWith(SdkConstants.DOT_CLASS)
@@ -342,23 +359,30 @@ public class MergeJavaResourcesTransform extends Transform {
          * expected on Windows if the file names end with "." (bug 65337573), or if there is an
          * uppercase/lowercase conflict. To work around this issue, we copy these resources to a
          * jar file.
+         *
+         * If enabled, files are merged in parallel, but they are still written in the same order.
          */
-        IncrementalFileMergerOutput baseOutput;
+        MergeOutputWriter writer;
         if (mergedType == QualifiedContent.DefaultContentType.RESOURCES) {
             File outputLocation =
                     outputProvider.getContentLocation(
                             "resources", getOutputTypes(), getScopes(), Format.JAR);
-            baseOutput =
-                    IncrementalFileMergerOutputs.fromAlgorithmAndWriter(
-                            mergeTransformAlgorithm, MergeOutputWriters.toZip(outputLocation));
+            writer = MergeOutputWriters.toZip(outputLocation);
         } else {
             File outputLocation =
                     outputProvider.getContentLocation(
                             "resources", getOutputTypes(), getScopes(), Format.DIRECTORY);
+            writer = MergeOutputWriters.toDirectory(outputLocation);
+        }
+        IncrementalFileMergerOutput baseOutput;
+        if (forkJoinPool != null) {
+            baseOutput =
+                    IncrementalFileMergerOutputs.fromAlgorithmAndWriter(
+                            mergeTransformAlgorithm, writer, forkJoinPool);
+        } else {
             baseOutput =
                     IncrementalFileMergerOutputs.fromAlgorithmAndWriter(
-                            mergeTransformAlgorithm,
-                            MergeOutputWriters.toDirectory(outputLocation));
+                            mergeTransformAlgorithm, writer);
         }
 
         /*
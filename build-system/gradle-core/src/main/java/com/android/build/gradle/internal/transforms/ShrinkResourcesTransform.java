@@ -62,6 +62,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import javax.inject.Inject;
 import javax.xml.parsers.ParserConfigurationException;
 import org.gradle.api.file.Directory;
@@ -271,6 +272,7 @@ public class ShrinkResourcesTransform extends Transform {
                                             buildInput,
                                             mergedManifestsOutputs,
                                             classes,
+                                            invocation.getContext().getTemporaryDir(),
                                             this))
                     .into(InternalArtifactType.SHRUNK_PROCESSED_RES, compressedResources);
         }
@@ -322,6 +324,8 @@ public class ShrinkResourcesTransform extends Transform {
             try {
                 analyzer.setVerbose(params.isInfoLoggingEnabled);
                 analyzer.setDebug(params.isDebugLoggingEnabled);
+                analyzer.setClassScanningPool(ForkJoinPool.commonPool());
+                analyzer.setClassUsagesCache(params.classUsagesCache);
                 try {
                     analyzer.analyze();
                 } catch (IOException | ParserConfigurationException | SAXException e) {
@@ -386,6 +390,7 @@ public class ShrinkResourcesTransform extends Transform {
         @Nullable private final BuildOutput mergedManifest;
         @NonNull private final List<File> classes;
         @Nullable private final File mappingFile;
+        @NonNull private final File classUsagesCache;
         private final String buildTypeName;
         private final File sourceDir;
         private final File resourceDir;
@@ -397,6 +402,7 @@ public class ShrinkResourcesTransform extends Transform {
                 @NonNull File uncompressedResourceFile,
                 @NonNull BuildElements mergedManifests,
                 @NonNull List<File> classes,
+                @NonNull File temporaryDir,
                 ShrinkResourcesTransform transform) {
             this.uncompressedResourceFile = uncompressedResourceFile;
             this.mergedManifest = mergedManifests.element(apkInfo);
@@ -409,6 +415,9 @@ public class ShrinkResourcesTransform extends Transform {
                     transform.mappingFileSrc != null
                             ? BuildableArtifactUtil.singleFile(transform.mappingFileSrc)
                             : null;
+            // Resource references found in classes, reused by the next build of this split.
+            classUsagesCache =
+                    new File(temporaryDir, "class-usages-" + apkInfo.getFullName() + ".bin");
             buildTypeName =
                     transform.variantData.getVariantConfiguration().getBuildType().getName();
             sourceDir = transform.sourceDir.get().getAsFile();
@@ -83,6 +83,11 @@ enum class BooleanOption(
     USE_NON_FINAL_RES_IDS("android.nonFinalResIds", false),
     ENABLE_SIDE_BY_SIDE_NDK("android.enableSideBySideNdk", true),
     PRECOMPILE_REMOTE_RESOURCES("android.precompileRemoteResources", false),
+    ENABLE_MEMORY_MAPPED_DEXING_INPUTS("android.dexing.useMemoryMappedInputs", false),
+    ENABLE_DEX_CLASS_CACHE("android.dexing.enableClassCache", false),
+    ENABLE_DEX_CLASS_CACHE_FOR_JARS("android.dexing.enableClassCacheForJars", false),
+    ENABLE_PARALLEL_JAVA_RES_MERGING("android.enableParallelJavaResMerging", false),
+    ENABLE_PARALLEL_RESOURCE_PARSING("android.enableParallelResourceParsing", false),
     // Flag added to work around b/130596259.
     FORCE_JACOCO_OUT_OF_PROCESS("android.forceJacocoOutOfProcess", false, status = Option.Status.STABLE),
 
@@ -58,6 +58,18 @@ enum class IntegerOption(
     DEXING_WRITE_BUFFER_SIZE("android.dexingWriteBuffer.size"),
     DEXING_NUMBER_OF_BUCKETS("android.dexingNumberOfBuckets"),
 
+    /**
+     * When set, D8 merges native multidex in parallel buckets, and this is the maximum size in
+     * megabytes of the dex archive entries loaded in memory at the same time.
+     */
+    DEX_MERGING_MAX_RESIDENT_INPUT_SIZE_IN_MB("android.dexMerging.maxResidentInputSizeInMb"),
+
+    /**
+     * Number of threads used to compress the entries of the APK while it is being written. When
+     * not set, at most 2 threads are used.
+     */
+    PACKAGING_COMPRESSION_THREADS("android.packaging.compressionThreads"),
+
     /**
      * Maximum number of dynamic features that can be allocated before Oreo platforms.
      */
@@ -66,7 +78,21 @@ enum class IntegerOption(
     /**
      * Override the thread pool size dedicated to AAPT2 work units when not running with WorkerAPI.
      */
-    AAPT2_THREAD_POOL_SIZE("android.aapt2ThreadPoolSize")
+    AAPT2_THREAD_POOL_SIZE("android.aapt2ThreadPoolSize"),
+
+    /**
+     * Maximum size in megabytes of the build cache directory for the current plugin version. When
+     * the cache grows beyond this size, its cache entries are evicted according to {@link
+     * StringOption#BUILD_CACHE_EVICTION_POLICY}.
+     */
+    BUILD_CACHE_MAX_SIZE_IN_MB("android.buildCacheMaxSizeInMb"),
+
+    /**
+     * Number of lock files shared by the cache entries of the build cache. When set, each cache
+     * entry is guarded by one of these lock files instead of its own lock file. All the builds
+     * sharing the build cache must use the same value.
+     */
+    BUILD_CACHE_LOCK_STRIPES("android.buildCacheLockStripes"),
     ;
 
     override fun parse(value: Any): Int {
@@ -25,6 +25,8 @@ enum class StringOption(
     override val status: Option.Status = EXPERIMENTAL
 ) : Option<String> {
     BUILD_CACHE_DIR("android.buildCacheDir", status = STABLE),
+    // Either "lru" (default) or "lfu", see IntegerOption.BUILD_CACHE_MAX_SIZE_IN_MB
+    BUILD_CACHE_EVICTION_POLICY("android.buildCacheEvictionPolicy"),
 
     IDE_BUILD_TARGET_DENSITY(AndroidProject.PROPERTY_BUILD_DENSITY, status = STABLE),
     IDE_BUILD_TARGET_ABI(AndroidProject.PROPERTY_BUILD_ABI, status = STABLE),
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.tasks;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Possible resource references found in a class or dex file by {@link ResourceUsageAnalyzer}:
+ * integer constants, static fields read, strings, and calls to methods looking up resources
+ * dynamically.
+ *
+ * <p>References are recorded as found in the code, before resolving them to resources, so they do
+ * not depend on the resources of the app. They can therefore be written to a file with {@link
+ * #write(Path, Collection)} and reused by later analyses for classes that did not change, even if
+ * the resources changed.
+ */
+final class ClassResourceUsages {
+
+    /** Contexts of integer constants, which are only used for debugging output. */
+    static final String LDC = "ldc";
+    static final String FIELD = "field";
+    static final String ANNOTATION = "annotation";
+    static final String DEX = "dex";
+
+    private static final List<String> CONTEXTS = ImmutableList.of(LDC, FIELD, ANNOTATION, DEX);
+
+    /** Marks static field references in the files written by {@link #write(Path, Collection)}. */
+    private static final int STATIC_FIELD = -1;
+
+    /** Magic number and version of the files written by {@link #write(Path, Collection)}. */
+    private static final int MAGIC = 0x52555347;
+
+    private static final int VERSION = 1;
+
+    /** Key of the content of the class, or null if the usages are not persisted. */
+    @Nullable private final HashCode key;
+
+    /** Integer constants and static fields read, in the order they are found. */
+    @NonNull private final List<Reference> references = new ArrayList<>();
+
+    @NonNull private final List<String> strings = new ArrayList<>();
+    @NonNull private final List<String> getIdentifierCallers = new ArrayList<>();
+    private boolean loadsWebContent;
+
+    ClassResourceUsages(@Nullable HashCode key) {
+        this.key = key;
+    }
+
+    @Nullable
+    HashCode getKey() {
+        return key;
+    }
+
+    /** Records an integer constant, which may be a resource id. */
+    void addInt(@NonNull String context, int value) {
+        references.add(new Reference(context, value, null, null));
+    }
+
+    /** Records a read of a static field, which may be a field of an R class. */
+    void addStaticField(@NonNull String owner, @NonNull String name) {
+        references.add(new Reference(null, 0, owner, name));
+    }
+
+    /** Records a string which may be used to look up resources. */
+    void addString(@NonNull String string) {
+        strings.add(string);
+    }
+
+    /** Records a call to {@code Resources#getIdentifier} from the given class. */
+    void addGetIdentifierCaller(@NonNull String caller) {
+        getIdentifierCallers.add(caller);
+    }
+
+    /** Records a call to a method loading web content. */
+    void setLoadsWebContent() {
+        loadsWebContent = true;
+    }
+
+    @NonNull
+    List<Reference> getReferences() {
+        return references;
+    }
+
+    @NonNull
+    List<String> getStrings() {
+        return strings;
+    }
+
+    @NonNull
+    List<String> getGetIdentifierCallers() {
+        return getIdentifierCallers;
+    }
+
+    boolean loadsWebContent() {
+        return loadsWebContent;
+    }
+
+    /**
+     * Writes usages to a file, replacing it. All usages must have a key.
+     *
+     * @param file the file to write
+     * @param allUsages the usages to write
+     * @throws IOException failed to write the file
+     */
+    static void write(@NonNull Path file, @NonNull Collection<ClassResourceUsages> allUsages)
+            throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), null);
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(allUsages.size());
+                for (ClassResourceUsages usages : allUsages) {
+                    usages.write(out);
+                }
+            }
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private void write(@NonNull DataOutputStream out) throws IOException {
+        if (key == null) {
+            throw new IllegalStateException("Usages without a key cannot be written");
+        }
+        byte[] keyBytes = key.asBytes();
+        out.writeShort(keyBytes.length);
+        out.write(keyBytes);
+
+        out.writeInt(references.size());
+        for (Reference reference : references) {
+            if (reference.isStaticField()) {
+                out.writeByte(STATIC_FIELD);
+                out.writeUTF(reference.getOwner());
+                out.writeUTF(reference.getName());
+            } else {
+                out.writeByte(CONTEXTS.indexOf(reference.getContext()));
+                out.writeInt(reference.getValue());
+            }
+        }
+        writeStrings(out, strings);
+        writeStrings(out, getIdentifierCallers);
+        out.writeBoolean(loadsWebContent);
+    }
+
+    /**
+     * Reads usages written by {@link #write(Path, Collection)}. Returns {@code null} if the file
+     * does not exist or it cannot be read.
+     *
+     * @param file the file to read
+     * @return the usages, by key
+     */
+    @Nullable
+    static Map<HashCode, ClassResourceUsages> read(@NonNull Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            int count = in.readInt();
+            Map<HashCode, ClassResourceUsages> allUsages = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                ClassResourceUsages usages = read(in);
+                allUsages.put(usages.getKey(), usages);
+            }
+            return allUsages;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    private static ClassResourceUsages read(@NonNull DataInputStream in) throws IOException {
+        byte[] keyBytes = new byte[in.readUnsignedShort()];
+        in.readFully(keyBytes);
+        ClassResourceUsages usages = new ClassResourceUsages(HashCode.fromBytes(keyBytes));
+
+        int referenceCount = in.readInt();
+        for (int i = 0; i < referenceCount; i++) {
+            int context = in.readByte();
+            if (context == STATIC_FIELD) {
+                usages.addStaticField(in.readUTF(), in.readUTF());
+            } else {
+                usages.addInt(CONTEXTS.get(context), in.readInt());
+            }
+        }
+        usages.strings.addAll(readStrings(in));
+        usages.getIdentifierCallers.addAll(readStrings(in));
+        usages.loadsWebContent = in.readBoolean();
+        return usages;
+    }
+
+    private static void writeStrings(@NonNull DataOutputStream out, @NonNull List<String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    @NonNull
+    private static List<String> readStrings(@NonNull DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    /** An integer constant or a static field read, which may reference a resource. */
+    static final class Reference {
+        @Nullable private final String context;
+        private final int value;
+        @Nullable private final String owner;
+        @Nullable private final String name;
+
+        private Reference(
+                @Nullable String context,
+                int value,
+                @Nullable String owner,
+                @Nullable String name) {
+            this.context = context;
+            this.value = value;
+            this.owner = owner;
+            this.name = name;
+        }
+
+        /** Returns whether this is a static field read rather than an integer constant. */
+        boolean isStaticField() {
+            return owner != null;
+        }
+
+        @NonNull
+        String getContext() {
+            assert context != null;
+            return context;
+        }
+
+        int getValue() {
+            return value;
+        }
+
+        @NonNull
+        String getOwner() {
+            assert owner != null;
+            return owner;
+        }
+
+        @NonNull
+        String getName() {
+            assert name != null;
+            return name;
+        }
+    }
+}
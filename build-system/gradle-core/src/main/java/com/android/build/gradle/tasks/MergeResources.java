@@ -70,6 +70,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
@@ -146,6 +147,9 @@ public abstract class MergeResources extends ResourceAwareTask {
 
     private boolean precompileRemoteResources;
 
+    /** Whether to parse resource files in parallel. Does not change the outputs. */
+    private boolean parallelResourceParsing;
+
     private ImmutableSet<Flag> flags;
 
     @NonNull
@@ -235,7 +239,12 @@ public abstract class MergeResources extends ResourceAwareTask {
                     GradleBuildProfileSpan.ExecutionType.TASK_EXECUTION_PHASE_1,
                     () -> {
                         for (ResourceSet resourceSet : resourceSets) {
-                            resourceSet.loadFromFiles(new LoggerWrapper(getLogger()));
+                            if (parallelResourceParsing) {
+                                resourceSet.loadFromFiles(
+                                        new LoggerWrapper(getLogger()), ForkJoinPool.commonPool());
+                            } else {
+                                resourceSet.loadFromFiles(new LoggerWrapper(getLogger()));
+                            }
                             merger.addDataSet(resourceSet);
                         }
                     });
@@ -779,6 +788,11 @@ public abstract class MergeResources extends ResourceAwareTask {
             task.precompileRemoteResources =
                     globalScope.getProjectOptions().get(BooleanOption.PRECOMPILE_REMOTE_RESOURCES);
 
+            task.parallelResourceParsing =
+                    globalScope
+                            .getProjectOptions()
+                            .get(BooleanOption.ENABLE_PARALLEL_RESOURCE_PARSING);
+
             task.dependsOn(variantScope.getTaskContainer().getResourceGenTask());
 
         }
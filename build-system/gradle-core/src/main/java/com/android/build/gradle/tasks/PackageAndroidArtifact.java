@@ -27,6 +27,7 @@ import com.android.build.FilterData;
 import com.android.build.OutputFile;
 import com.android.build.VariantOutput;
 import com.android.build.api.artifact.BuildableArtifact;
+import com.android.build.gradle.internal.LoggerWrapper;
 import com.android.build.gradle.internal.core.Abi;
 import com.android.build.gradle.internal.core.GradleVariantConfiguration;
 import com.android.build.gradle.internal.dsl.AbiSplitOptions;
@@ -64,6 +65,7 @@ import com.android.builder.files.RelativeFile;
 import com.android.builder.files.SerializableChange;
 import com.android.builder.files.ZipCentralDirectory;
 import com.android.builder.internal.packaging.IncrementalPackager;
+import com.android.builder.internal.packaging.PackagingStatistics;
 import com.android.builder.packaging.PackagingUtils;
 import com.android.builder.utils.FileCache;
 import com.android.builder.utils.ZipEntryUtils;
@@ -242,6 +244,15 @@ public abstract class PackageAndroidArtifact extends NewIncrementalTask {
         return targetApi;
     }
 
+    @Nullable protected Integer compressionThreads;
+
+    /** Maximum number of threads compressing APK entries. This does not change the output. */
+    @Nullable
+    @Internal
+    public Integer getCompressionThreads() {
+        return compressionThreads;
+    }
+
     @Input
     public boolean getKeepTimestampsInApk() {
         return keepTimestampsInApk;
@@ -505,6 +516,7 @@ public abstract class PackageAndroidArtifact extends NewIncrementalTask {
         protected final boolean isJniDebuggableBuild;
         protected final boolean keepTimestampsInApk;
         @Nullable protected final Integer targetApi;
+        @Nullable protected final Integer compressionThreads;
         @NonNull protected final IncrementalPackagerBuilder.BuildType packagerMode;
 
         SplitterParams(
@@ -561,6 +573,7 @@ public abstract class PackageAndroidArtifact extends NewIncrementalTask {
             isJniDebuggableBuild = task.getJniDebugBuild();
             keepTimestampsInApk = task.getKeepTimestampsInApk();
             targetApi = task.getTargetApi();
+            compressionThreads = task.getCompressionThreads();
             packagerMode =
                     changes.isIncremental()
                             ? IncrementalPackagerBuilder.BuildType.INCREMENTAL
@@ -666,8 +679,14 @@ public abstract class PackageAndroidArtifact extends NewIncrementalTask {
         ManifestAttributeSupplier manifest =
                 new DefaultManifestParser(manifestForSplit.getOutputFile(), () -> true, null);
 
+        IncrementalPackagerBuilder packagerBuilder =
+                new IncrementalPackagerBuilder(params.apkFormat, params.packagerMode);
+        if (params.compressionThreads != null) {
+            packagerBuilder.withCompressionThreads(params.compressionThreads);
+        }
+        PackagingStatistics statistics;
         try (IncrementalPackager packager =
-                new IncrementalPackagerBuilder(params.apkFormat, params.packagerMode)
+                packagerBuilder
                         .withOutputFile(outputFile)
                         .withSigning(
                                 SigningConfigMetadata.Companion.load(params.signingConfig),
@@ -694,7 +713,10 @@ public abstract class PackageAndroidArtifact extends NewIncrementalTask {
             packager.updateAssets(changedAssets);
             packager.updateAndroidResources(changedAndroidResources);
             packager.updateNativeLibraries(changedNLibs);
+            statistics = packager.getStatistics();
         }
+        LoggerWrapper.getLogger(PackageAndroidArtifact.class)
+                .verbose("Packaged %1$s: %2$s", outputFile, statistics);
 
         /*
          * Save all used zips in the cache.
@@ -949,6 +971,8 @@ public abstract class PackageAndroidArtifact extends NewIncrementalTask {
 
             packageAndroidArtifact.targetApi =
                     projectOptions.get(IntegerOption.IDE_TARGET_DEVICE_API);
+            packageAndroidArtifact.compressionThreads =
+                    projectOptions.get(IntegerOption.PACKAGING_COMPRESSION_THREADS);
             packageAndroidArtifact.getCreatedBy().set(globalScope.getCreatedBy());
             finalConfigure(packageAndroidArtifact);
         }
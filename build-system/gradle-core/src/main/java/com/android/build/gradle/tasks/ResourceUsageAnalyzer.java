@@ -48,10 +48,15 @@ import com.android.utils.XmlUtils;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
 import com.google.common.io.Files;
@@ -65,13 +70,20 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
@@ -215,6 +227,30 @@ public class ResourceUsageAnalyzer {
     private boolean mDebug;
     private boolean mDryRun;
 
+    /** Pool scanning classes for resource usages, or null to scan them sequentially. */
+    @Nullable private ForkJoinPool mClassScanningPool;
+
+    /** Classes being scanned by {@link #mClassScanningPool}, in the order they were found. */
+    private final Deque<PendingClassUsages> mPendingClassUsages = new ArrayDeque<>();
+
+    /**
+     * File where the possible resource references of classes are kept between analyses, or null
+     * to scan all classes on every analysis.
+     */
+    @Nullable private File mClassUsagesCache;
+
+    /** References of the classes found by the previous analysis, by content key. */
+    @NonNull private Map<HashCode, ClassResourceUsages> mCachedClassUsages = ImmutableMap.of();
+
+    /** References of the classes found by this analysis, by content key. */
+    @NonNull private final Map<HashCode, ClassResourceUsages> mClassUsages = new LinkedHashMap<>();
+
+    /** Key of the R classes, which decide which classes of dex files are scanned. */
+    @NonNull private HashCode mResourceClassesKey = HashCode.fromInt(0);
+
+    /** Number of classes and dex files scanned, rather than reused from the previous analysis. */
+    @NonNull private final AtomicInteger mScannedClassCount = new AtomicInteger();
+
     /** The computed set of unused resources */
     private List<Resource> mUnused;
 
@@ -299,9 +335,16 @@ public class ResourceUsageAnalyzer {
         gatherResourceValues(mResourceClasseseSource);
         recordMapping(mProguardMapping);
 
+        if (mClassUsagesCache != null) {
+            readClassUsagesCache(mClassUsagesCache);
+        }
         for (File jarOrDir : mClasses) {
             recordClassUsages(jarOrDir);
         }
+        recordPendingClassUsages(0);
+        if (mClassUsagesCache != null) {
+            ClassResourceUsages.write(mClassUsagesCache.toPath(), mClassUsages.values());
+        }
         recordManifestUsages(mMergedManifest);
         recordResources(mResourceDirs);
         keepPossiblyReferencedResources();
@@ -335,6 +378,31 @@ public class ResourceUsageAnalyzer {
         mDebug = verbose;
     }
 
+    /**
+     * Sets a pool used to scan classes for resource usages in parallel. Usages found in each class
+     * are still recorded in the order the classes are found, so the result of the analysis (and
+     * its report) does not depend on the pool.
+     */
+    public void setClassScanningPool(@Nullable ForkJoinPool classScanningPool) {
+        mClassScanningPool = classScanningPool;
+    }
+
+    /**
+     * Sets a file where the possible resource references found in classes are kept between
+     * analyses. Classes and dex files whose content did not change since the previous analysis
+     * using the same file are not scanned again; their references are resolved against the
+     * current resources, and reachability is computed again.
+     */
+    public void setClassUsagesCache(@Nullable File classUsagesCache) {
+        mClassUsagesCache = classUsagesCache;
+    }
+
+    /** Returns the number of classes and dex files scanned by the analysis. */
+    @VisibleForTesting
+    int getScannedClassCount() {
+        return mScannedClassCount.get();
+    }
+
     // A 1x1 pixel PNG of type BufferedImage.TYPE_BYTE_GRAY
     public static final byte[] TINY_PNG = new byte[] {
             (byte)-119, (byte)  80, (byte)  78, (byte)  71, (byte)  13, (byte)  10,
@@ -946,6 +1014,7 @@ public class ResourceUsageAnalyzer {
                 shortest = length;
             }
         }
+        ResourceNameIndex index = new ResourceNameIndex(mModel.getResources());
 
         for (String string : mStrings) {
             if (string.length() < shortest) {
@@ -1021,14 +1090,12 @@ public class ResourceUsageAnalyzer {
 
                 // Check for a simple prefix match, e.g. as in
                 // getResources().getIdentifier("ic_video_codec_" + codecName, "drawable", ...)
-                for (Resource resource : mModel.getResources()) {
-                    if (resource.name.startsWith(name)) {
-                        if (mDebugPrinter != null) {
-                            mDebugPrinter.println("Marking " + resource + " used because its "
-                                    + "prefix matches string pool constant " + string);
-                        }
-                        ResourceUsageModel.markReachable(resource);
+                for (Resource resource : index.getResourcesWithPrefix(name)) {
+                    if (mDebugPrinter != null) {
+                        mDebugPrinter.println("Marking " + resource + " used because its "
+                                + "prefix matches string pool constant " + string);
                     }
+                    ResourceUsageModel.markReachable(resource);
                 }
             } else if (!haveSlash) {
                 if (formatting) {
@@ -1038,7 +1105,10 @@ public class ResourceUsageAnalyzer {
 
                     try {
                         Pattern pattern = Pattern.compile(convertFormatStringToRegexp(string));
-                        for (Resource resource : mModel.getResources()) {
+                        // The text before the first % is matched literally, so only names
+                        // starting with it can match
+                        String prefix = string.substring(0, string.indexOf('%'));
+                        for (Resource resource : index.getResourcesWithPrefix(prefix)) {
                             if (pattern.matcher(resource.name).matches()) {
                                 if (mDebugPrinter != null) {
                                     mDebugPrinter.println("Marking " + resource + " used because "
@@ -1399,11 +1469,18 @@ public class ResourceUsageAnalyzer {
     private boolean mFoundWebContent;
 
     private void referencedString(@NonNull String string) {
+        if (isPossibleResourceReference(string)) {
+            recordReferencedString(string);
+        }
+    }
+
+    /** Returns whether a string referenced from code may be used to look up resources. */
+    private static boolean isPossibleResourceReference(@NonNull String string) {
         // See if the string is at all eligible; ignore strings that aren't
         // identifiers (has java identifier chars and nothing but .:/), or are empty or too long
         // We also allow "%", used for formatting strings.
         if (string.isEmpty() || string.length() > 80) {
-            return;
+            return false;
         }
         boolean haveIdentifierChar = false;
         for (int i = 0, n = string.length(); i < n; i++) {
@@ -1412,15 +1489,15 @@ public class ResourceUsageAnalyzer {
             if (!identifierChar && c != '.' && c != ':' && c != '/' && c != '%') {
                 // .:/ are for the fully qualified resource names, or for resource URLs or
                 // relative file names
-                return;
+                return false;
             } else if (identifierChar) {
                 haveIdentifierChar = true;
             }
         }
-        if (!haveIdentifierChar) {
-            return;
-        }
+        return haveIdentifierChar;
+    }
 
+    private void recordReferencedString(@NonNull String string) {
         if (mStrings == null) {
             mStrings = Sets.newHashSetWithExpectedSize(300);
         }
@@ -1479,10 +1556,126 @@ public class ResourceUsageAnalyzer {
         }
     }
 
+    private void readClassUsagesCache(@NonNull File classUsagesCache) {
+        Map<HashCode, ClassResourceUsages> cachedClassUsages =
+                ClassResourceUsages.read(classUsagesCache.toPath());
+        if (cachedClassUsages != null) {
+            mCachedClassUsages = cachedClassUsages;
+        }
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String name : Ordering.natural().sortedCopy(mResourceObfuscation.keySet())) {
+            hasher.putString(name, UTF_8);
+            hasher.putByte((byte) 0);
+        }
+        mResourceClassesKey = hasher.hash();
+    }
+
     private void recordClassUsages(File file, String name, byte[] bytes) {
+        if (mClassScanningPool == null) {
+            recordClassUsages(file, name, getClassUsages(file, name, bytes));
+            return;
+        }
+
+        ForkJoinTask<ClassResourceUsages> usages =
+                mClassScanningPool.submit(() -> getClassUsages(file, name, bytes));
+        mPendingClassUsages.add(new PendingClassUsages(file, name, usages));
+        // bound the number of classes held in memory
+        recordPendingClassUsages(2 * mClassScanningPool.getParallelism());
+    }
+
+    /**
+     * Records the usages of classes scanned in parallel, in order, until at most {@code
+     * maxPending} classes are pending.
+     */
+    private void recordPendingClassUsages(int maxPending) {
+        while (mPendingClassUsages.size() > maxPending) {
+            PendingClassUsages pending = mPendingClassUsages.remove();
+            recordClassUsages(pending.file, pending.name, pending.usages.join());
+        }
+    }
+
+    /** Records the usages found in a class, marking the referenced resources as reachable. */
+    private void recordClassUsages(
+            @NonNull File file, @NonNull String name, @NonNull ClassResourceUsages usages) {
+        for (ClassResourceUsages.Reference reference : usages.getReferences()) {
+            if (reference.isStaticField()) {
+                Resource resource =
+                        getResourceFromCode(reference.getOwner(), reference.getName());
+                if (resource != null) {
+                    ResourceUsageModel.markReachable(resource);
+                }
+                continue;
+            }
+            Resource resource = mModel.getResource(reference.getValue());
+            if (resource != null && ResourceUsageModel.markReachable(resource) && mDebug) {
+                assert mDebugPrinter != null : "mDebug is true, but mDebugPrinter is null.";
+                mDebugPrinter.println(
+                        "Marking "
+                                + resource
+                                + " reachable: referenced from "
+                                + reference.getContext()
+                                + " in "
+                                + file
+                                + ":"
+                                + name);
+            }
+        }
+        for (String string : usages.getStrings()) {
+            recordReferencedString(string);
+        }
+        for (String caller : usages.getGetIdentifierCallers()) {
+            // "benign" usages: don't trigger reflection mode just because
+            // the user has included appcompat
+            if (!caller.equals(mResourcesWrapper) && !caller.equals(mSuggestionsAdapter)) {
+                mFoundGetIdentifier = true;
+            }
+        }
+        mFoundWebContent |= usages.loadsWebContent();
+
+        if (usages.getKey() != null) {
+            mClassUsages.put(usages.getKey(), usages);
+        }
+    }
+
+    /**
+     * Returns the possible resource references of a class or dex file, scanning it unless its
+     * references were found by a previous analysis. This does not modify the analyzer, so it can
+     * be called from multiple threads.
+     */
+    @NonNull
+    private ClassResourceUsages getClassUsages(
+            @NonNull File file, @NonNull String name, @NonNull byte[] bytes) {
+        if (mClassUsagesCache == null) {
+            return scanClass(file, name, bytes, null);
+        }
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putBytes(bytes);
+        if (name.endsWith(DOT_DEX)) {
+            // which classes of a dex file are scanned depends on the R classes
+            hasher.putBytes(mResourceClassesKey.asBytes());
+        }
+        HashCode key = hasher.hash();
+        ClassResourceUsages usages = mCachedClassUsages.get(key);
+        if (usages != null) {
+            return usages;
+        }
+        return scanClass(file, name, bytes, key);
+    }
+
+    /** Scans a class or dex file for possible resource references. */
+    @NonNull
+    private ClassResourceUsages scanClass(
+            @NonNull File file,
+            @NonNull String name,
+            @NonNull byte[] bytes,
+            @Nullable HashCode key) {
+        mScannedClassCount.incrementAndGet();
+        ClassResourceUsages usages = new ClassResourceUsages(key);
         if (name.endsWith(DOT_CLASS)) {
             ClassReader classReader = new ClassReader(bytes);
-            classReader.accept(new UsageVisitor(file, name), SKIP_DEBUG | SKIP_FRAMES);
+            classReader.accept(new UsageVisitor(name, usages), SKIP_DEBUG | SKIP_FRAMES);
         } else {
             assert name.endsWith(DOT_DEX);
             AnalysisCallback callback =
@@ -1494,21 +1687,18 @@ public class ResourceUsageAnalyzer {
 
                         @Override
                         public void referencedInt(int value) {
-                            ResourceUsageAnalyzer.this.referencedInt("dex", value, file, name);
+                            usages.addInt(ClassResourceUsages.DEX, value);
                         }
 
                         @Override
                         public void referencedString(@NonNull String value) {
-                            ResourceUsageAnalyzer.this.referencedString(value);
+                            ResourceUsageAnalyzer.referencedString(usages, value);
                         }
 
                         @Override
                         public void referencedStaticField(
                                 @NonNull String internalName, @NonNull String fieldName) {
-                            Resource resource = getResourceFromCode(internalName, fieldName);
-                            if (resource != null) {
-                                ResourceUsageModel.markReachable(resource);
-                            }
+                            usages.addStaticField(internalName, fieldName);
                         }
 
                         @Override
@@ -1516,7 +1706,8 @@ public class ResourceUsageAnalyzer {
                                 @NonNull String internalName,
                                 @NonNull String methodName,
                                 @NonNull String methodDescriptor) {
-                            ResourceUsageAnalyzer.this.referencedMethodInvocation(
+                            referencedMethodInvocation(
+                                    usages,
                                     internalName,
                                     methodName,
                                     methodDescriptor,
@@ -1525,6 +1716,7 @@ public class ResourceUsageAnalyzer {
                     };
             R8ResourceShrinker.runResourceShrinkerAnalysis(bytes, file, callback);
         }
+        return usages;
     }
 
     /** Returns whether the given class file name points to an aapt-generated compiled R class */
@@ -1768,13 +1960,13 @@ public class ResourceUsageAnalyzer {
      * calls and recording string literals, used to handle dynamic lookup of resources.
      */
     private class UsageVisitor extends ClassVisitor {
-        private final File mJarFile;
         private final String mCurrentClass;
+        private final ClassResourceUsages mUsages;
 
-        public UsageVisitor(File jarFile, String name) {
+        public UsageVisitor(String name, ClassResourceUsages usages) {
             super(Opcodes.ASM5);
-            mJarFile = jarFile;
             mCurrentClass = name;
+            mUsages = usages;
         }
 
         @Override
@@ -1783,16 +1975,13 @@ public class ResourceUsageAnalyzer {
             return new MethodVisitor(Opcodes.ASM5) {
                 @Override
                 public void visitLdcInsn(Object cst) {
-                    handleCodeConstant(cst, "ldc");
+                    handleCodeConstant(cst, ClassResourceUsages.LDC);
                 }
 
                 @Override
                 public void visitFieldInsn(int opcode, String owner, String name, String desc) {
                     if (opcode == Opcodes.GETSTATIC) {
-                        Resource resource = getResourceFromCode(owner, name);
-                        if (resource != null) {
-                            ResourceUsageModel.markReachable(resource);
-                        }
+                        mUsages.addStaticField(owner, name);
                     }
                 }
 
@@ -1800,7 +1989,7 @@ public class ResourceUsageAnalyzer {
                 public void visitMethodInsn(
                         int opcode, String owner, String name, String desc, boolean itf) {
                     super.visitMethodInsn(opcode, owner, name, desc, itf);
-                    referencedMethodInvocation(owner, name, desc, mCurrentClass);
+                    referencedMethodInvocation(mUsages, owner, name, desc, mCurrentClass);
                 }
 
                 @Override
@@ -1829,7 +2018,7 @@ public class ResourceUsageAnalyzer {
         @Override
         public FieldVisitor visitField(int access, String name, String desc, String signature,
                 Object value) {
-            handleCodeConstant(value, "field");
+            handleCodeConstant(value, ClassResourceUsages.FIELD);
             return new FieldVisitor(Opcodes.ASM5) {
                 @Override
                 public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
@@ -1855,7 +2044,7 @@ public class ResourceUsageAnalyzer {
 
             @Override
             public void visit(String name, Object value) {
-                handleCodeConstant(value, "annotation");
+                handleCodeConstant(value, ClassResourceUsages.ANNOTATION);
                 super.visit(name, value);
             }
         }
@@ -1864,36 +2053,28 @@ public class ResourceUsageAnalyzer {
         private void handleCodeConstant(@Nullable Object cst, @NonNull String context) {
             if (cst instanceof Integer) {
                 Integer value = (Integer) cst;
-                referencedInt(context, value, mJarFile, mCurrentClass);
+                mUsages.addInt(context, value);
             } else if (cst instanceof int[]) {
                 int[] values = (int[]) cst;
                 for (int value : values) {
-                    referencedInt(context, value, mJarFile, mCurrentClass);
+                    mUsages.addInt(context, value);
                 }
             } else if (cst instanceof String) {
                 String string = (String) cst;
-                referencedString(string);
+                referencedString(mUsages, string);
             }
         }
     }
 
-    private void referencedInt(@NonNull String context, int value, File file, String currentClass) {
-        Resource resource = mModel.getResource(value);
-        if (ResourceUsageModel.markReachable(resource) && mDebug) {
-            assert mDebugPrinter != null : "mDebug is true, but mDebugPrinter is null.";
-            mDebugPrinter.println(
-                    "Marking "
-                            + resource
-                            + " reachable: referenced from "
-                            + context
-                            + " in "
-                            + file
-                            + ":"
-                            + currentClass);
+    private static void referencedString(
+            @NonNull ClassResourceUsages usages, @NonNull String string) {
+        if (isPossibleResourceReference(string)) {
+            usages.addString(string);
         }
     }
 
-    private void referencedMethodInvocation(
+    private static void referencedMethodInvocation(
+            @NonNull ClassResourceUsages usages,
             @NonNull String owner,
             @NonNull String name,
             @NonNull String desc,
@@ -1901,21 +2082,63 @@ public class ResourceUsageAnalyzer {
         if (owner.equals("android/content/res/Resources")
                 && name.equals("getIdentifier")
                 && desc.equals("(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)I")) {
-
-            if (currentClass.equals(mResourcesWrapper)
-                    || currentClass.equals(mSuggestionsAdapter)) {
-                // "benign" usages: don't trigger reflection mode just because
-                // the user has included appcompat
-                return;
-            }
-
-            mFoundGetIdentifier = true;
+            usages.addGetIdentifierCaller(currentClass);
             // TODO: Check previous instruction and see if we can find a literal
             // String; if so, we can more accurately dispatch the resource here
             // rather than having to check the whole string pool!
         }
         if (owner.equals("android/webkit/WebView") && name.startsWith("load")) {
-            mFoundWebContent = true;
+            usages.setLoadsWebContent();
+        }
+    }
+
+    /** A class or dex file being scanned by {@link #mClassScanningPool}. */
+    private static final class PendingClassUsages {
+        @NonNull private final File file;
+        @NonNull private final String name;
+        @NonNull private final ForkJoinTask<ClassResourceUsages> usages;
+
+        PendingClassUsages(
+                @NonNull File file,
+                @NonNull String name,
+                @NonNull ForkJoinTask<ClassResourceUsages> usages) {
+            this.file = file;
+            this.name = name;
+            this.usages = usages;
+        }
+    }
+
+    /**
+     * Index of resources sorted by name, used to find the resources with a given name prefix
+     * without comparing the prefix with the name of every resource.
+     */
+    private static final class ResourceNameIndex {
+        @NonNull private final List<Resource> resources;
+
+        ResourceNameIndex(@NonNull List<Resource> resources) {
+            this.resources = new ArrayList<>(resources);
+            this.resources.sort(Comparator.comparing(resource -> resource.name));
+        }
+
+        /** Returns the resources whose name starts with the given prefix, sorted by name. */
+        @NonNull
+        List<Resource> getResourcesWithPrefix(@NonNull String prefix) {
+            // binary search for the first name not smaller than the prefix
+            int from = 0;
+            int to = resources.size();
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (resources.get(middle).name.compareTo(prefix) < 0) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            int end = from;
+            while (end < resources.size() && resources.get(end).name.startsWith(prefix)) {
+                end++;
+            }
+            return resources.subList(from, end);
         }
     }
 
@@ -24,6 +24,7 @@ import static org.junit.Assert.fail;
 import com.android.annotations.NonNull;
 import com.android.builder.model.Version;
 import com.android.builder.utils.FileCache;
+import com.android.builder.utils.SynchronizedFile;
 import com.android.testutils.TestUtils;
 import com.android.utils.FileUtils;
 import java.io.File;
@@ -66,7 +67,8 @@ public class BuildCacheUtilsTest {
                         buildCacheDir.getPath(),
                         pathToFileResolver,
                         defaultBuildCacheDirSupplier,
-                        fakePluginVersion);
+                        fakePluginVersion,
+                        null);
         assertThat(buildCache.getCacheDirectory())
                 .isEqualTo(new File(buildCacheDir, fakePluginVersion));
     }
@@ -83,11 +85,38 @@ public class BuildCacheUtilsTest {
 
         FileCache buildCache =
                 BuildCacheUtils.createBuildCache(
-                        null, pathToFileResolver, defaultBuildCacheDirSupplier, fakePluginVersion);
+                        null,
+                        pathToFileResolver,
+                        defaultBuildCacheDirSupplier,
+                        fakePluginVersion,
+                        null);
         assertThat(buildCache.getCacheDirectory())
                 .isEqualTo(new File(defaultBuildCacheDir, fakePluginVersion));
     }
 
+    @Test
+    public void testCreateBuildCache_LockStripes() throws Exception {
+        File buildCacheDir = testDir.newFolder();
+        FileCache buildCache =
+                BuildCacheUtils.createBuildCache(
+                        buildCacheDir.getPath(),
+                        (path) -> new File(path.toString()),
+                        () -> buildCacheDir,
+                        fakePluginVersion,
+                        4);
+        FileCache.Inputs inputs =
+                new FileCache.Inputs.Builder(FileCache.Command.TEST)
+                        .putString("input", "foo")
+                        .build();
+        buildCache.createFileInCacheIfAbsent(inputs, (outputFile) -> {});
+
+        // The cache entry is guarded by a lock file of the stripes, not by its own lock file
+        File cacheEntryDir = buildCache.getFileInCache(inputs).getParentFile();
+        assertThat(SynchronizedFile.getLockFile(cacheEntryDir)).doesNotExist();
+        assertThat(buildCache.getCacheDirectory().list((dir, name) -> name.startsWith(".stripe-")))
+                .hasLength(1);
+    }
+
     @Test
     public void testShouldRunCacheEviction() throws Exception {
         File cacheDir = testDir.newFolder();
@@ -110,6 +139,22 @@ public class BuildCacheUtilsTest {
                 .isTrue();
     }
 
+    @Test
+    public void testParseEvictionPolicy() {
+        assertThat(BuildCacheUtils.parseEvictionPolicy(null))
+                .isEqualTo(FileCache.EvictionPolicy.LEAST_RECENTLY_USED);
+        assertThat(BuildCacheUtils.parseEvictionPolicy("lru"))
+                .isEqualTo(FileCache.EvictionPolicy.LEAST_RECENTLY_USED);
+        assertThat(BuildCacheUtils.parseEvictionPolicy("LFU"))
+                .isEqualTo(FileCache.EvictionPolicy.LEAST_FREQUENTLY_USED);
+        try {
+            BuildCacheUtils.parseEvictionPolicy("fifo");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("fifo");
+        }
+    }
+
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @Test
     public void testDeleteOldCacheEntries() throws Exception {
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.build.gradle.internal.aapt
+
+import com.android.ide.common.resources.CompileResourceRequest
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class WorkerExecutorResourceCompilationServiceTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    @Test
+    fun splitBySizeBalancesBuckets() {
+        val requests = listOf(
+            request("a.xml", 100),
+            request("b.xml", 10),
+            request("c.png", 60),
+            request("d.xml", 40),
+            request("e.xml", 10)
+        )
+
+        val buckets = splitBySize(requests, 2)
+
+        assertThat(buckets.map { bucket -> bucket.map { it.inputFile.name } })
+            .containsExactly(listOf("a.xml", "b.xml"), listOf("c.png", "d.xml", "e.xml"))
+            .inOrder()
+        assertThat(buckets.map { bucket -> bucket.map { it.inputFile.length() }.sum() })
+            .containsExactly(110L, 110L)
+            .inOrder()
+    }
+
+    @Test
+    fun splitBySizeKeepsEveryRequest() {
+        val requests = (1..20).map { request("file$it.xml", it * 7 % 13) }
+
+        val buckets = splitBySize(requests, 8)
+
+        assertThat(buckets).hasSize(8)
+        assertThat(buckets.flatten()).containsExactlyElementsIn(requests)
+        assertThat(buckets.none { it.isEmpty() }).isTrue()
+    }
+
+    private fun request(name: String, size: Int): CompileResourceRequest {
+        val file = File(temporaryFolder.root, name)
+        file.writeBytes(ByteArray(size))
+        return CompileResourceRequest(
+            inputFile = file,
+            outputDirectory = temporaryFolder.root,
+            inputDirectoryName = "values"
+        )
+    }
+}
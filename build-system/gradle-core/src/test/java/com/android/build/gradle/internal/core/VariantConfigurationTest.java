@@ -23,12 +23,15 @@ import com.android.build.gradle.internal.fixtures.FakeEvalIssueReporter;
 import com.android.builder.core.DefaultApiVersion;
 import com.android.builder.core.DefaultBuildType;
 import com.android.builder.core.DefaultProductFlavor;
+import com.android.builder.core.MergedFlavor;
 import com.android.builder.core.VariantTypeImpl;
 import com.android.builder.errors.EvalIssueReporter;
 import com.android.builder.model.ApiVersion;
+import com.android.builder.model.ProductFlavor;
 import com.android.builder.model.SigningConfig;
 import com.android.builder.signing.DefaultSigningConfig;
 import com.android.sdklib.AndroidVersion;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import java.io.File;
 import java.io.IOException;
@@ -175,28 +178,70 @@ public class VariantConfigurationTest {
                 .isEqualTo(DefaultApiVersion.create(new Integer(-1)));
     }
 
+    @Test
+    public void testAddProductFlavorsWithMergedFlavor() {
+        mDefaultConfig.setApplicationId("foo.bar");
+        mFlavorConfig.setApplicationIdSuffix("flavor");
+        mFlavorConfig.setVersionName("1.0");
+        DefaultProductFlavor otherFlavor = new DefaultProductFlavor("other");
+        otherFlavor.setApplicationIdSuffix("other");
+        otherFlavor.setVersionName("2.0");
+        otherFlavor.setMinSdkVersion(DefaultApiVersion.create(new Integer(21)));
+        List<DefaultProductFlavor> flavors = ImmutableList.of(mFlavorConfig, otherFlavor);
+
+        VariantConfiguration<DefaultBuildType, DefaultProductFlavor, DefaultProductFlavor>
+                expected = createVariant(null /*signingOverride*/);
+        expected.addProductFlavor(mFlavorConfig, new MockSourceProvider("flavor"), "one");
+        expected.addProductFlavor(otherFlavor, new MockSourceProvider("other"), "two");
+
+        ProductFlavor mergedFlavor =
+                MergedFlavor.mergeFlavors(mDefaultConfig, flavors, mIssueReporter);
+        VariantConfiguration<DefaultBuildType, DefaultProductFlavor, DefaultProductFlavor>
+                variant = createVariant(null /*signingOverride*/);
+        variant.addProductFlavors(
+                flavors,
+                ImmutableList.of(new MockSourceProvider("flavor"), new MockSourceProvider("other")),
+                ImmutableList.of("one", "two"),
+                mergedFlavor);
+
+        assertThat(variant.getFullName()).isEqualTo(expected.getFullName());
+        assertThat(variant.getFlavorNamesWithDimensionNames())
+                .isEqualTo(expected.getFlavorNamesWithDimensionNames());
+        assertThat(variant.getIdOverride()).isEqualTo("foo.bar.flavor.other");
+        assertThat(variant.getIdOverride()).isEqualTo(expected.getIdOverride());
+        assertThat(variant.getVersionName()).isEqualTo("1.0");
+        assertThat(variant.getMinSdkVersion()).isEqualTo(expected.getMinSdkVersion());
+        // The variant has its own copy of the merged flavor.
+        assertThat(variant.getMergedFlavor()).isNotSameAs(mergedFlavor);
+    }
+
     private VariantConfiguration getVariant() {
         return getVariant(null /*signingOverride*/);
     }
 
     private VariantConfiguration getVariant(SigningConfig signingOverride) {
         VariantConfiguration<DefaultBuildType, DefaultProductFlavor, DefaultProductFlavor> variant =
-                new VariantConfiguration<>(
-                        mDefaultConfig,
-                        new MockSourceProvider("main"),
-                        null,
-                        mBuildType,
-                        new MockSourceProvider("debug"),
-                        VariantTypeImpl.BASE_APK,
-                        signingOverride,
-                        mIssueReporter,
-                        () -> true);
+                createVariant(signingOverride);
 
         variant.addProductFlavor(mFlavorConfig, new MockSourceProvider("custom"), "");
 
         return variant;
     }
 
+    private VariantConfiguration<DefaultBuildType, DefaultProductFlavor, DefaultProductFlavor>
+            createVariant(SigningConfig signingOverride) {
+        return new VariantConfiguration<>(
+                mDefaultConfig,
+                new MockSourceProvider("main"),
+                null,
+                mBuildType,
+                new MockSourceProvider("debug"),
+                VariantTypeImpl.BASE_APK,
+                signingOverride,
+                mIssueReporter,
+                () -> true);
+    }
+
     private VariantConfiguration<DefaultBuildType, DefaultProductFlavor, DefaultProductFlavor>
             getVariantWithTempFolderSourceProviders() {
         VariantConfiguration<DefaultBuildType, DefaultProductFlavor, DefaultProductFlavor> variant =
@@ -18,9 +18,13 @@ package com.android.build.gradle.internal.packaging
 
 import com.android.build.gradle.internal.LoggerWrapper
 import com.android.build.gradle.internal.fixtures.FakeLogger
+import com.android.builder.files.RelativeFile
+import com.android.builder.internal.packaging.PackagingStatistics
 import com.android.builder.model.SigningConfig
+import com.android.ide.common.resources.FileStatus
 import com.android.ide.common.signing.KeystoreHelper
 import com.android.testutils.TestResources
+import com.google.common.truth.Truth.assertThat
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Before
@@ -30,8 +34,13 @@ import org.junit.rules.TemporaryFolder
 import shadow.bundletool.com.android.apksig.ApkVerifier
 import java.io.File
 import java.security.KeyStore
+import java.util.Random
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
 
 private const val KEY_ALIAS = "key0"
+private const val FILE_COUNT = 50
+private const val FILE_SIZE = 16 * 1024
 
 class IncrementalPackagerBuilderTest {
 
@@ -104,6 +113,75 @@ class IncrementalPackagerBuilderTest {
         assertTrue(result.isVerifiedUsingV2Scheme)
     }
 
+    @Test
+    fun testOutputDoesNotDependOnCompressionThreads() {
+        val random = Random(42)
+        val resources = mutableMapOf<RelativeFile, FileStatus>()
+        val resourcesDir = tmp.newFolder("res")
+        for (i in 0 until FILE_COUNT) {
+            val relativePath = "res/raw/file$i.bin"
+            val file = resourcesDir.resolve(relativePath)
+            file.parentFile.mkdirs()
+            file.writeBytes(createContent(random))
+            resources[RelativeFile.fileInDirectory(relativePath, file)] = FileStatus.NEW
+        }
+        val javaResources = mutableMapOf<RelativeFile, FileStatus>()
+        val jar = tmp.root.resolve("java-resources.jar")
+        ZipOutputStream(jar.outputStream().buffered()).use { out ->
+            for (i in 0 until FILE_COUNT) {
+                val relativePath = "com/example/resource$i.txt"
+                out.putNextEntry(ZipEntry(relativePath))
+                out.write(createContent(random))
+                out.closeEntry()
+                javaResources[RelativeFile(jar, relativePath)] = FileStatus.NEW
+            }
+        }
+
+        val apk = tmp.root.resolve("single-thread.apk")
+        val statistics = packageApk(apk, 1, resources, javaResources)
+        assertThat(statistics.filesWritten).isEqualTo(FILE_COUNT)
+        assertThat(statistics.bytesWritten).isEqualTo(FILE_COUNT.toLong() * FILE_SIZE)
+        assertThat(statistics.archivesMerged).isEqualTo(1)
+        assertThat(statistics.archiveBytes).isEqualTo(FILE_COUNT.toLong() * FILE_SIZE)
+
+        val parallelApk = tmp.root.resolve("parallel.apk")
+        packageApk(parallelApk, 4, resources, javaResources)
+        assertThat(parallelApk.readBytes()).isEqualTo(apk.readBytes())
+    }
+
+    private fun packageApk(
+        apk: File,
+        compressionThreads: Int,
+        resources: Map<RelativeFile, FileStatus>,
+        javaResources: Map<RelativeFile, FileStatus>
+    ): PackagingStatistics {
+        val packager = IncrementalPackagerBuilder(
+            IncrementalPackagerBuilder.ApkFormat.FILE,
+            IncrementalPackagerBuilder.BuildType.CLEAN
+        )
+            .withOutputFile(apk)
+            .withIntermediateDir(tmp.newFolder())
+            .withKeepTimestampsInApk(false)
+            .withCompressionThreads(compressionThreads)
+            .build()
+        packager.use {
+            it.updateAndroidResources(resources)
+            it.updateJavaResources(javaResources)
+        }
+        return packager.statistics
+    }
+
+    /** Returns content that compresses roughly like real APK contents. */
+    private fun createContent(random: Random): ByteArray {
+        val content = ByteArray(FILE_SIZE)
+        for (i in content.indices) {
+            val value =
+                if (random.nextBoolean()) 'a'.toInt() + random.nextInt(4) else random.nextInt()
+            content[i] = value.toByte()
+        }
+        return content
+    }
+
     private fun sign(outputFile: File, minSdk: Int) {
         val intermediateDir = tmp.newFolder("intermediateDir")
         // Signs during the .close()
@@ -16,9 +16,11 @@
 
 package com.android.build.gradle.internal.transforms;
 
+import static com.android.testutils.truth.FileSubject.assertThat;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.android.annotations.NonNull;
+import com.android.build.api.transform.Context;
 import com.android.build.api.transform.Status;
 import com.android.build.api.transform.TransformInput;
 import com.android.build.api.transform.TransformInvocation;
@@ -27,11 +29,13 @@ import com.android.build.gradle.internal.transforms.testdata.CarbonForm;
 import com.android.build.gradle.internal.transforms.testdata.Cat;
 import com.android.build.gradle.internal.transforms.testdata.Tiger;
 import com.android.build.gradle.internal.transforms.testdata.Toy;
+import com.android.builder.desugaring.DesugaringGraphs;
 import com.android.ide.common.internal.WaitableExecutor;
 import com.android.testutils.TestInputsGenerator;
 import com.google.common.collect.ImmutableList;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -43,6 +47,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
 
 public class DesugarIncrementalTransformHelperTest {
 
@@ -401,6 +406,57 @@ public class DesugarIncrementalTransformHelperTest {
         assertThat(getDesugarIncrementalTransformHelper(invocation).getAdditionalPaths()).isEmpty();
     }
 
+    @Test
+    public void testIncremental_persistedGraph() throws IOException, InterruptedException {
+        Path input = tmpDir.getRoot().toPath().resolve("input");
+        TestInputsGenerator.pathWithClasses(
+                input,
+                ImmutableList.of(
+                        Animal.class, CarbonForm.class, Cat.class, Toy.class, Tiger.class));
+        Context context = Mockito.mock(Context.class);
+        File temporaryDir = tmpDir.newFolder("tmp");
+        Mockito.when(context.getTemporaryDir()).thenReturn(temporaryDir);
+        File graphFile = new File(temporaryDir, "desugaring-graph.bin");
+
+        TransformInvocation invocation =
+                TransformTestHelper.invocationBuilder()
+                        .addInput(TransformTestHelper.directoryBuilder(input.toFile()).build())
+                        .setContext(context)
+                        .setIncremental(false)
+                        .build();
+        DesugarIncrementalTransformHelper helper =
+                getDesugarIncrementalTransformHelper(invocation);
+        assertThat(helper.getAdditionalPaths()).isEmpty();
+        helper.getDependenciesPaths(getPaths(input, Tiger.class).iterator().next());
+        helper.saveGraph();
+        assertThat(graphFile).isFile();
+
+        // Simulate a new daemon. Also remove the classes depending on the changed one, so they
+        // can only be found in the persisted graph, and not by analyzing the inputs again.
+        DesugaringGraphs.invalidate(PROJECT_VARIANT);
+        for (Path path : getPaths(input, Animal.class, Cat.class, Tiger.class)) {
+            Files.delete(path);
+        }
+
+        invocation =
+                TransformTestHelper.invocationBuilder()
+                        .addInput(
+                                TransformTestHelper.directoryBuilder(input.toFile())
+                                        .putChangedFiles(
+                                                getChangedStatusMap(input, CarbonForm.class))
+                                        .build())
+                        .setContext(context)
+                        .setIncremental(true)
+                        .build();
+        helper = getDesugarIncrementalTransformHelper(invocation);
+        assertThat(helper.getAdditionalPaths())
+                .containsExactlyElementsIn(getPaths(input, Animal.class, Cat.class, Tiger.class));
+        // persisted graph is out of date until the transform completes
+        assertThat(graphFile).doesNotExist();
+        helper.saveGraph();
+        assertThat(graphFile).isFile();
+    }
+
     private static void initializeGraph(@NonNull Path input)
             throws IOException, InterruptedException {
         TestInputsGenerator.pathWithClasses(
@@ -28,13 +28,20 @@ import com.android.build.api.transform.TransformInvocation;
 import com.android.build.gradle.internal.InternalScope;
 import com.android.build.gradle.internal.dsl.PackagingOptions;
 import com.android.build.gradle.internal.pipeline.TransformManager;
+import com.android.build.gradle.internal.scope.GlobalScope;
 import com.android.build.gradle.internal.scope.VariantScope;
+import com.android.build.gradle.options.BooleanOption;
+import com.android.build.gradle.options.ProjectOptions;
 import com.android.builder.merge.DuplicateRelativeFileException;
+import com.android.tools.build.apkzlib.zip.StoredEntry;
 import com.android.tools.build.apkzlib.zip.ZFile;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.truth.Truth;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,6 +55,7 @@ public class MergeJavaResourcesTransformTest {
     @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
 
     @Mock VariantScope variantScope;
+    @Mock GlobalScope globalScope;
 
     private File outputDir;
 
@@ -59,6 +67,8 @@ public class MergeJavaResourcesTransformTest {
 
         File incrementalDir = tmpDir.newFolder("incremental");
         when(variantScope.getIncrementalDir(any())).thenReturn(incrementalDir);
+        when(variantScope.getGlobalScope()).thenReturn(globalScope);
+        when(globalScope.getProjectOptions()).thenReturn(new ProjectOptions(ImmutableMap.of()));
         outputDir = tmpDir.newFolder("outputDir");
         outputProvider = new TestTransformOutputProvider(outputDir.toPath());
     }
@@ -101,6 +111,65 @@ public class MergeJavaResourcesTransformTest {
         assertThat(new File(outputDir, "resources/fileNotEndingWithDot")).doesNotExist();
     }
 
+    @Test
+    public void testMergeResourcesInParallel() throws Exception {
+        when(globalScope.getProjectOptions())
+                .thenReturn(
+                        new ProjectOptions(
+                                ImmutableMap.of(
+                                        BooleanOption.ENABLE_PARALLEL_JAVA_RES_MERGING
+                                                .getPropertyName(),
+                                        true)));
+
+        // Create jar files with resources, including a file to merge
+        File fooJar = new File(tmpDir.getRoot(), "foo.jar");
+        try (ZFile zf = new ZFile(fooJar)) {
+            zf.add("foo.txt", new ByteArrayInputStream(bytes("foo")));
+            zf.add("META-INF/services/Service", new ByteArrayInputStream(bytes("FooService")));
+        }
+        File barJar = new File(tmpDir.getRoot(), "bar.jar");
+        try (ZFile zf = new ZFile(barJar)) {
+            zf.add("bar.txt", new ByteArrayInputStream(bytes("bar")));
+            zf.add("META-INF/services/Service", new ByteArrayInputStream(bytes("BarService")));
+        }
+
+        MergeJavaResourcesTransform transform =
+                new MergeJavaResourcesTransform(
+                        new PackagingOptions(),
+                        TransformManager.SCOPE_FULL_PROJECT,
+                        QualifiedContent.DefaultContentType.RESOURCES,
+                        "mergeJavaRes",
+                        variantScope);
+        TransformInput jarTransformInput =
+                TransformTestHelper.inputBuilder()
+                        .addInput(
+                                TransformTestHelper.jarBuilder(fooJar)
+                                        .setStatus(Status.ADDED)
+                                        .setScopes(QualifiedContent.Scope.PROJECT)
+                                        .build())
+                        .addInput(
+                                TransformTestHelper.jarBuilder(barJar)
+                                        .setStatus(Status.ADDED)
+                                        .setScopes(QualifiedContent.Scope.EXTERNAL_LIBRARIES)
+                                        .build())
+                        .build();
+        TransformInvocation invocation =
+                TransformTestHelper.invocationBuilder()
+                        .setInputs(ImmutableSet.of(jarTransformInput))
+                        .addReferenceInput(jarTransformInput)
+                        .setTransformOutputProvider(outputProvider)
+                        .build();
+
+        transform.transform(invocation);
+
+        try (ZFile zf = ZFile.openReadOnly(new File(outputDir, "resources.jar"))) {
+            Truth.assertThat(read(zf, "foo.txt")).isEqualTo("foo");
+            Truth.assertThat(read(zf, "bar.txt")).isEqualTo("bar");
+            Truth.assertThat(read(zf, "META-INF/services/Service"))
+                    .isEqualTo("FooService\nBarService");
+        }
+    }
+
     @Test(expected = DuplicateRelativeFileException.class)
     public void testErrorWhenDuplicateJavaResInFeature() throws Exception {
         // Create a jar file containing resources
@@ -138,4 +207,14 @@ public class MergeJavaResourcesTransformTest {
                         .build();
         transform.transform(invocation);
     }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(ZFile zf, String path) throws IOException {
+        StoredEntry entry = zf.get(path);
+        Truth.assertThat(entry).named(path).isNotNull();
+        return new String(entry.read(), StandardCharsets.UTF_8);
+    }
 }
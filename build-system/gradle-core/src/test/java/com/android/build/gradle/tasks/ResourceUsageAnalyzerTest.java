@@ -44,6 +44,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -52,6 +53,9 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 /** TODO: Test Resources#getIdentifier() handling */
 @SuppressWarnings("SpellCheckingInspection")
@@ -108,6 +112,124 @@ public class ResourceUsageAnalyzerTest {
         check(CodeInput.R8, false);
     }
 
+    @Test
+    public void testObfuscatedInParallel() throws Exception {
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        try {
+            check(CodeInput.PROGUARD, false, forkJoinPool);
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoProGuardInParallel() throws Exception {
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        try {
+            check(CodeInput.NO_SHRINKER, false, forkJoinPool);
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testStringReferencesWithGetIdentifier() throws Exception {
+        File dir = sTemporaryFolder.newFolder();
+
+        File classes = createUnproguardedClasses(dir);
+        File lookupClasses = createGetIdentifierClasses(dir);
+        File rDir = createResourceSources(dir);
+        File mergedManifest = createMergedManifest(dir);
+        File resources = createResourceFolder(dir);
+
+        ResourceUsageAnalyzer analyzer =
+                new ResourceUsageAnalyzer(
+                        rDir,
+                        Arrays.asList(classes, lookupClasses),
+                        mergedManifest,
+                        null,
+                        resources,
+                        null,
+                        ResourceUsageAnalyzer.ApkFormat.BINARY);
+        analyzer.analyze();
+        checkState(analyzer);
+
+        // prefix of a name
+        assertTrue(analyzer.getModel().getResource(ResourceType.DRAWABLE, "unused").isReachable());
+        // format string
+        assertTrue(
+                analyzer.getModel()
+                        .getResource(ResourceType.RAW, "my_used_raw_drawable")
+                        .isReachable());
+        assertFalse(analyzer.getModel().getResource(ResourceType.RAW, "my_js").isReachable());
+        assertFalse(
+                analyzer.getModel()
+                        .getResource(ResourceType.DRAWABLE, "avd_heart_fill")
+                        .isReachable());
+    }
+
+    @Test
+    public void testClassUsagesCache() throws Exception {
+        File dir = sTemporaryFolder.newFolder();
+
+        File classes = createProguardedClasses(dir);
+        File lookupClasses = createGetIdentifierClasses(dir);
+        File mapping = createMappingFile(dir);
+        File rDir = createResourceSources(dir);
+        File mergedManifest = createMergedManifest(dir);
+        File resources = createResourceFolder(dir);
+        File cache = new File(dir, "class-usages.bin");
+
+        ResourceUsageAnalyzer analyzer =
+                new ResourceUsageAnalyzer(
+                        rDir,
+                        Collections.singleton(classes),
+                        mergedManifest,
+                        mapping,
+                        resources,
+                        null,
+                        ResourceUsageAnalyzer.ApkFormat.BINARY);
+        analyzer.setClassUsagesCache(cache);
+        analyzer.analyze();
+        int scannedClassCount = analyzer.getScannedClassCount();
+        String model = analyzer.getModel().dumpResourceModel();
+        assertTrue(scannedClassCount > 0);
+        assertTrue(cache.isFile());
+        assertFalse(analyzer.getModel().getResource(ResourceType.DRAWABLE, "unused").isReachable());
+
+        // unchanged classes are not scanned again
+        analyzer =
+                new ResourceUsageAnalyzer(
+                        rDir,
+                        Collections.singleton(classes),
+                        mergedManifest,
+                        mapping,
+                        resources,
+                        null,
+                        ResourceUsageAnalyzer.ApkFormat.BINARY);
+        analyzer.setClassUsagesCache(cache);
+        analyzer.analyze();
+        checkState(analyzer);
+        assertEquals(0, analyzer.getScannedClassCount());
+        assertEquals(model, analyzer.getModel().dumpResourceModel());
+
+        // only new classes are scanned, and reachability is computed again
+        analyzer =
+                new ResourceUsageAnalyzer(
+                        rDir,
+                        Arrays.asList(classes, lookupClasses),
+                        mergedManifest,
+                        mapping,
+                        resources,
+                        null,
+                        ResourceUsageAnalyzer.ApkFormat.BINARY);
+        analyzer.setClassUsagesCache(cache);
+        analyzer.analyze();
+        checkState(analyzer);
+        assertEquals(1, analyzer.getScannedClassCount());
+        assertTrue(analyzer.getModel().getResource(ResourceType.DRAWABLE, "unused").isReachable());
+    }
+
     @Test
     public void testConfigOutput() throws Exception {
         File dir = sTemporaryFolder.newFolder();
@@ -167,6 +289,12 @@ public class ResourceUsageAnalyzerTest {
     }
 
     private void check(CodeInput codeInput, boolean inPlace) throws Exception {
+        check(codeInput, inPlace, null);
+    }
+
+    private void check(
+            CodeInput codeInput, boolean inPlace, @Nullable ForkJoinPool classScanningPool)
+            throws Exception {
         File dir = sTemporaryFolder.newFolder();
 
         File mapping;
@@ -201,6 +329,7 @@ public class ResourceUsageAnalyzerTest {
                         resources,
                         null,
                         ResourceUsageAnalyzer.ApkFormat.BINARY);
+        analyzer.setClassScanningPool(classScanningPool);
         analyzer.analyze();
         checkState(analyzer);
         assertEquals(""
@@ -1097,6 +1226,52 @@ public class ResourceUsageAnalyzerTest {
         return createFile(dir, "app/build/intermediates/classes/debug/classes.jar", bytecode);
     }
 
+    /**
+     * Creates a class calling {@code Resources#getIdentifier} and referencing strings matching
+     * resource names.
+     */
+    private static File createGetIdentifierClasses(File dir) throws IOException {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(
+                Opcodes.V1_8,
+                Opcodes.ACC_PUBLIC,
+                "com/example/shrinkunittest/app/Lookup",
+                null,
+                "java/lang/Object",
+                null);
+        MethodVisitor mv =
+                cw.visitMethod(
+                        Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+                        "lookup",
+                        "(Landroid/content/res/Resources;)I",
+                        null,
+                        null);
+        mv.visitCode();
+        mv.visitLdcInsn("my_used_%s_drawable");
+        mv.visitInsn(Opcodes.POP);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitLdcInsn("unus");
+        mv.visitLdcInsn("drawable");
+        mv.visitLdcInsn("com.example.shrinkunittest.app");
+        mv.visitMethodInsn(
+                Opcodes.INVOKEVIRTUAL,
+                "android/content/res/Resources",
+                "getIdentifier",
+                "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)I",
+                false);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(4, 1);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        File classesDir = new File(dir, "app/build/intermediates/classes/lookup");
+        createFile(
+                classesDir,
+                "com/example/shrinkunittest/app/Lookup.class",
+                cw.toByteArray());
+        return classesDir;
+    }
+
     private static File createR8Dex(File dir) throws IOException {
         /*
          Dex file contain the activity below, it has been produced with R8 with minSdkVersion 25.
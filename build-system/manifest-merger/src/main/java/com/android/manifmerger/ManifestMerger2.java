@@ -25,6 +25,7 @@ import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.annotations.concurrency.Immutable;
+import com.android.ide.common.blame.SourceFile;
 import com.android.ide.common.xml.XmlFormatPreferences;
 import com.android.ide.common.xml.XmlFormatStyle;
 import com.android.ide.common.xml.XmlPrettyPrinter;
@@ -40,6 +41,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -1202,17 +1204,35 @@ public class ManifestMerger2 {
             XmlDocument libraryDocument;
             try {
                 InputStream inputStream = mFileStreamProvider.getInputStream(xmlFile);
-                libraryDocument =
-                        XmlLoader.load(
-                                selectors,
-                                mSystemPropertyResolver,
-                                manifestInfo.mName,
-                                xmlFile,
-                                inputStream,
-                                XmlDocument.Type.LIBRARY,
-                                Optional.absent(), /* mainManifestPackageName */
-                                mModel,
-                                false);
+                if (mOptionalFeatures.contains(Invoker.Feature.CACHE_LIBRARY_MANIFESTS)) {
+                    byte[] content;
+                    try {
+                        content = ByteStreams.toByteArray(inputStream);
+                    } finally {
+                        inputStream.close();
+                    }
+                    libraryDocument =
+                            XmlLoader.load(
+                                    selectors,
+                                    mSystemPropertyResolver,
+                                    new SourceFile(xmlFile, manifestInfo.mName),
+                                    ParsedManifestCache.parse(content),
+                                    XmlDocument.Type.LIBRARY,
+                                    Optional.absent(), /* mainManifestPackageName */
+                                    mModel);
+                } else {
+                    libraryDocument =
+                            XmlLoader.load(
+                                    selectors,
+                                    mSystemPropertyResolver,
+                                    manifestInfo.mName,
+                                    xmlFile,
+                                    inputStream,
+                                    XmlDocument.Type.LIBRARY,
+                                    Optional.absent(), /* mainManifestPackageName */
+                                    mModel,
+                                    false);
+                }
             } catch (Exception e) {
                 throw new MergeFailureException(e);
             }
@@ -1595,6 +1615,13 @@ public class ManifestMerger2 {
 
             /** Enforce that dependencies manifests don't have duplicated package names. */
             ENFORCE_UNIQUE_PACKAGE_NAME,
+
+            /**
+             * Parse library manifests through the {@link ParsedManifestCache}, so library
+             * manifests merged by several merges are only parsed once. The cache must be cleared
+             * by the client.
+             */
+            CACHE_LIBRARY_MANIFESTS,
         }
 
         /**
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.manifmerger;
+
+import com.android.annotations.NonNull;
+import com.android.utils.PositionXmlParser;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Cache of parsed library manifests, so that the manifests of dependencies are only parsed once
+ * when they are merged in several variants or modules of a build.
+ *
+ * <p>Documents are keyed by a hash of the content of the manifests, so a manifest that changes is
+ * parsed again, and identical manifests at different locations are parsed once. Callers get a copy
+ * of the cached document, as merging modifies documents. Entries are evicted in
+ * least-recently-used order once the total size of the cached manifests exceeds a bound, and are
+ * softly referenced so they can also be collected when memory is low. The cache is meant to be
+ * cleared at the end of every build.
+ */
+public final class ParsedManifestCache {
+
+    /** Maximum total size of the cached manifests, in bytes. */
+    private static final long MAX_CONTENT_SIZE = 32 * 1024 * 1024;
+
+    @NonNull
+    private static final Cache<HashCode, ParsedManifest> cache =
+            CacheBuilder.newBuilder()
+                    .maximumWeight(MAX_CONTENT_SIZE)
+                    .weigher((HashCode key, ParsedManifest manifest) -> manifest.size)
+                    .softValues()
+                    .recordStats()
+                    .build();
+
+    private ParsedManifestCache() {}
+
+    /**
+     * Parses a manifest, or copies the document of a manifest with the same content parsed
+     * before.
+     *
+     * @param content the content of the manifest
+     * @return a document which is not shared, so it can be modified by the caller
+     * @throws IOException if the manifest cannot be read
+     * @throws SAXException if the manifest is not valid xml
+     * @throws ParserConfigurationException if the xml parser cannot be configured
+     */
+    @NonNull
+    public static Document parse(@NonNull byte[] content)
+            throws IOException, SAXException, ParserConfigurationException {
+        HashCode key = Hashing.sha256().hashBytes(content);
+        ParsedManifest manifest;
+        try {
+            manifest =
+                    cache.get(
+                            key,
+                            () ->
+                                    new ParsedManifest(
+                                            PositionXmlParser.parse(content), content.length));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof ParserConfigurationException) {
+                throw (ParserConfigurationException) cause;
+            }
+            throw new IOException(cause);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        // DOM implementations are not thread-safe, even for reading.
+        synchronized (manifest) {
+            return PositionXmlParser.cloneDocument(manifest.document);
+        }
+    }
+
+    /** Removes all documents from the cache. */
+    public static void clear() {
+        cache.invalidateAll();
+    }
+
+    /** Returns the statistics of the cache since it was created. */
+    @NonNull
+    public static CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @VisibleForTesting
+    static long size() {
+        cache.cleanUp();
+        return cache.size();
+    }
+
+    /** A parsed manifest in the cache. */
+    private static final class ParsedManifest {
+
+        @NonNull private final Document document;
+        private final int size;
+
+        ParsedManifest(@NonNull Document document, int size) {
+            this.document = document;
+            this.size = size;
+        }
+    }
+}
@@ -96,6 +96,34 @@ public final class XmlLoader {
             @NonNull DocumentModel<ManifestModel.NodeTypes> model)
             throws IOException, SAXException, ParserConfigurationException {
         Document domDocument = PositionXmlParser.parse(xml);
+        return load(
+                selectors,
+                systemPropertyResolver,
+                sourceFile,
+                domDocument,
+                type,
+                mainManifestPackageName,
+                model);
+    }
+
+    /**
+     * Creates a {@link com.android.manifmerger.XmlDocument} from an already parsed document,
+     * without doing xml validation. The document becomes owned by the returned {@link
+     * XmlDocument}.
+     *
+     * @param sourceFile the source location to use for logging and record collection.
+     * @param domDocument the parsed xml.
+     * @return the initialized {@link com.android.manifmerger.XmlDocument}
+     */
+    @NonNull
+    public static XmlDocument load(
+            @NonNull KeyResolver<String> selectors,
+            @NonNull KeyBasedValueResolver<ManifestSystemProperty> systemPropertyResolver,
+            @NonNull SourceFile sourceFile,
+            @NonNull Document domDocument,
+            @NonNull XmlDocument.Type type,
+            @NonNull Optional<String> mainManifestPackageName,
+            @NonNull DocumentModel<ManifestModel.NodeTypes> model) {
         return new XmlDocument(
                 sourceFile,
                 selectors,
@@ -970,6 +970,59 @@ public class ManifestMerger2SmallTest {
                 .isNull();
     }
 
+    @Test
+    public void testCachedLibraryManifests() throws Exception {
+        String input =
+                ""
+                        + "<manifest\n"
+                        + "    package=\"com.foo.bar\""
+                        + "    xmlns:android=\"http://schemas.android.com/apk/res/android\">\n"
+                        + "    <application android:label=\"${label}\"/>\n"
+                        + "</manifest>";
+
+        String library =
+                ""
+                        + "<manifest\n"
+                        + "    package=\"com.foo.baz\""
+                        + "    xmlns:android=\"http://schemas.android.com/apk/res/android\">\n"
+                        + "    <!-- permission of the application -->\n"
+                        + "    <permission android:name=\"${applicationId}.permission\"/>\n"
+                        + "    <application>\n"
+                        + "        <activity android:name=\"com.foo.baz.Activity\"/>\n"
+                        + "    </application>\n"
+                        + "</manifest>";
+
+        File inputFile = TestUtils.inputAsFile("testCachedLibraryManifestsInput", input);
+        File libraryFile = TestUtils.inputAsFile("testCachedLibraryManifestsLibrary", library);
+
+        // merge the same library with different placeholders, as different variants would
+        for (String applicationId : new String[] {"com.foo.bar", "com.foo.bar.debug"}) {
+            Map<String, Object> placeholders =
+                    ImmutableMap.of("label", "Foo", "applicationId", applicationId);
+            MergingReport mergingReport =
+                    ManifestMerger2.newMerger(
+                                    inputFile, new MockLog(), ManifestMerger2.MergeType.APPLICATION)
+                            .addLibraryManifest(libraryFile)
+                            .setPlaceHolderValues(placeholders)
+                            .merge();
+            MergingReport cachedMergingReport =
+                    ManifestMerger2.newMerger(
+                                    inputFile, new MockLog(), ManifestMerger2.MergeType.APPLICATION)
+                            .addLibraryManifest(libraryFile)
+                            .setPlaceHolderValues(placeholders)
+                            .withFeatures(ManifestMerger2.Invoker.Feature.CACHE_LIBRARY_MANIFESTS)
+                            .merge();
+
+            assertTrue(cachedMergingReport.getResult().isSuccess());
+            String merged = cachedMergingReport.getMergedDocument(MergedManifestKind.MERGED);
+            assertThat(merged).contains(applicationId + ".permission");
+            assertEquals(mergingReport.getMergedDocument(MergedManifestKind.MERGED), merged);
+            assertEquals(
+                    mergingReport.getMergedDocument(MergedManifestKind.BLAME),
+                    cachedMergingReport.getMergedDocument(MergedManifestKind.BLAME));
+        }
+    }
+
     /** dist:module should be merged from an overlay module. */
     @Test
     public void testThatDistModuleFromOverlayIsMerged() throws Exception {
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.manifmerger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.android.utils.PositionXmlParser;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+/** Tests for {@link ParsedManifestCache}. */
+public class ParsedManifestCacheTest {
+
+    private static final byte[] MANIFEST =
+            (""
+                            + "<manifest\n"
+                            + "    package=\"com.foo.baz\""
+                            + "    xmlns:android=\"http://schemas.android.com/apk/res/android\">\n"
+                            + "    <application android:label=\"Baz\"/>\n"
+                            + "</manifest>")
+                    .getBytes(StandardCharsets.UTF_8);
+
+    @After
+    public void clearCache() {
+        ParsedManifestCache.clear();
+    }
+
+    @Test
+    public void testSameContentIsParsedOnce() throws Exception {
+        Document document = ParsedManifestCache.parse(MANIFEST);
+        Document otherDocument = ParsedManifestCache.parse(MANIFEST.clone());
+
+        assertThat(ParsedManifestCache.size()).isEqualTo(1);
+        assertThat(otherDocument).isNotSameAs(document);
+        assertThat(otherDocument.getDocumentElement().getAttribute("package"))
+                .isEqualTo("com.foo.baz");
+    }
+
+    @Test
+    public void testDocumentsAreNotShared() throws Exception {
+        Document document = ParsedManifestCache.parse(MANIFEST);
+        Element application = (Element) document.getElementsByTagName("application").item(0);
+        application.setAttribute("android:label", "Other");
+
+        Document otherDocument = ParsedManifestCache.parse(MANIFEST);
+        Element otherApplication =
+                (Element) otherDocument.getElementsByTagName("application").item(0);
+        assertThat(otherApplication.getAttribute("android:label")).isEqualTo("Baz");
+        assertThat(PositionXmlParser.getPosition(otherApplication))
+                .isEqualTo(PositionXmlParser.getPosition(application));
+    }
+
+    @Test
+    public void testInvalidManifestIsNotCached() throws Exception {
+        byte[] invalid = "<manifest>".getBytes(StandardCharsets.UTF_8);
+        try {
+            ParsedManifestCache.parse(invalid);
+            fail("Expected SAXException");
+        } catch (SAXException expected) {
+        }
+        assertThat(ParsedManifestCache.size()).isEqualTo(0);
+    }
+}
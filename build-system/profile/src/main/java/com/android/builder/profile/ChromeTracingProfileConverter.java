@@ -20,7 +20,9 @@ import com.android.annotations.NonNull;
 import com.android.tools.build.gradle.internal.profile.GradleTaskExecutionType;
 import com.android.tools.build.gradle.internal.profile.GradleTransformExecutionType;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Streams;
 import com.google.gson.stream.JsonWriter;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.wireless.android.sdk.stats.GradleBuildMemorySample;
@@ -29,6 +31,7 @@ import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
 import com.google.wireless.android.sdk.stats.GradleBuildProject;
 import com.google.wireless.android.sdk.stats.GradleBuildVariant;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -44,6 +47,10 @@ import java.util.stream.Collectors;
  * Utility for converting profile data to chrome tracing format.
  *
  * Produced files can be opened in chrome://tracing
+ *
+ * <p>Both build profiles and span logs written by {@link SpanLogWriter} can be converted. Span logs
+ * are converted without loading all their spans in memory, but have no memory samples nor project
+ * details.
  */
 public class ChromeTracingProfileConverter {
 
@@ -64,13 +71,15 @@ public class ChromeTracingProfileConverter {
             }
             System.err.println();
             System.err.println("Usage:  ChromeTracingProfileConverter <proto_file>");
+            System.err.println("        ChromeTracingProfileConverter <span_log_file>");
             System.err.println("        ChromeTracingProfileConverter <directory>");
             System.err.println();
-            System.err.println("Given a proto file, outputs a corresponding json file");
-            System.err.println("in the same directory that can be opened in chrome://tracing.");
+            System.err.println("Given a proto file or a '.spans' span log, outputs a");
+            System.err.println("corresponding json file in the same directory that can be");
+            System.err.println("opened in chrome://tracing.");
             System.err.println();
             System.err.println("Given a directory, walks the directory and converts all the");
-            System.err.println("files not ending in '.json'.");
+            System.err.println("files ending in '.rawproto' or '.spans'.");
             System.exit(1);
         }
     }
@@ -87,7 +96,9 @@ public class ChromeTracingProfileConverter {
                         @Override
                         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
                                 throws IOException {
-                            if (file.getFileName().toString().endsWith(".rawproto")) {
+                            String fileName = file.getFileName().toString();
+                            if (fileName.endsWith(".rawproto")
+                                    || fileName.endsWith(SpanLogReader.EXTENSION)) {
                                 toJson(file);
                                 System.out.format(
                                         Locale.US, "Converted %1$s\n", path.relativize(file));
@@ -114,6 +125,19 @@ public class ChromeTracingProfileConverter {
     }
 
     public static void toJson(@NonNull Path protoFile) throws IOException, AbnormalExitException {
+        if (protoFile.getFileName().toString().endsWith(SpanLogReader.EXTENSION)) {
+            try (SpanLogReader reader = new SpanLogReader(protoFile)) {
+                toJson(getJsonOutFile(protoFile), ImmutableList.of(), ImmutableList.of(), reader);
+            } catch (UncheckedIOException e) {
+                throw new AbnormalExitException(
+                        String.format(
+                                Locale.US,
+                                "Could not read span log: %1$s '%2$s'",
+                                e.getCause().getMessage(),
+                                protoFile));
+            }
+            return;
+        }
         GradleBuildProfile profile;
         try {
             profile = GradleBuildProfile
@@ -126,10 +150,29 @@ public class ChromeTracingProfileConverter {
                             e.getMessage(),
                             protoFile));
         }
-        Path out = getJsonOutFile(protoFile);
+        toJson(
+                getJsonOutFile(protoFile),
+                profile.getMemorySampleList(),
+                profile.getProjectList(),
+                profile.getSpanList());
+    }
 
+    /**
+     * Writes profile data in chrome tracing format.
+     *
+     * @param out the json file to write
+     * @param memorySamples the memory samples of the build
+     * @param buildProjects the projects of the build
+     * @param spans the spans of the build, which are iterated several times
+     */
+    private static void toJson(
+            @NonNull Path out,
+            @NonNull Iterable<GradleBuildMemorySample> memorySamples,
+            @NonNull Iterable<GradleBuildProject> buildProjects,
+            @NonNull Iterable<GradleBuildProfileSpan> spans)
+            throws IOException {
         Map<Long, ProjectHolder> projects =
-                profile.getProjectList().stream()
+                Streams.stream(buildProjects)
                         .collect(Collectors.toMap(GradleBuildProject::getId, ProjectHolder::new));
 
         try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(out))) {
@@ -137,7 +180,7 @@ public class ChromeTracingProfileConverter {
             writer.name("traceEvents");
             writer.beginArray();
             long previousTime = 0;
-            for (GradleBuildMemorySample memorySample : profile.getMemorySampleList()) {
+            for (GradleBuildMemorySample memorySample : memorySamples) {
                 long timestamp = memorySample.getTimestamp() * 1000;
                 if (timestamp == previousTime) {
                     timestamp += 1;
@@ -158,14 +201,13 @@ public class ChromeTracingProfileConverter {
             }
 
             Map<Long, String> taskList =
-                    profile.getSpanList()
-                            .stream()
+                    Streams.stream(spans)
                             .filter(it -> it.getParentId() == 0)
                             .collect(
                                     Collectors.toMap(
                                             GradleBuildProfileSpan::getId,
                                             ChromeTracingProfileConverter::getSpanName));
-            for (GradleBuildProfileSpan span : profile.getSpanList()) {
+            for (GradleBuildProfileSpan span : spans) {
                 writer
                         .beginObject()
                         .name("pid").value(1)
@@ -229,7 +271,7 @@ public class ChromeTracingProfileConverter {
                         .endObject();
             }
             writer.endArray();
-            writeStackFrames(writer, profile);
+            writeStackFrames(writer, spans);
             writer.endObject();
         }
     }
@@ -257,10 +299,11 @@ public class ChromeTracingProfileConverter {
         }
     }
 
-    static void writeStackFrames(JsonWriter writer, GradleBuildProfile profile) throws IOException {
+    static void writeStackFrames(JsonWriter writer, Iterable<GradleBuildProfileSpan> spans)
+            throws IOException {
         writer.name("stackFrames");
         writer.beginObject();
-        for (GradleBuildProfileSpan span : profile.getSpanList()) {
+        for (GradleBuildProfileSpan span : spans) {
             writer.name(String.valueOf(span.getId()));
             writer.beginObject().name("name").value(getSpanName(span));
             if (span.getParentId() != 0) {
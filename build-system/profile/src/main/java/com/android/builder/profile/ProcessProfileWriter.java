@@ -46,7 +46,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Records profile information for a build.
@@ -77,6 +80,16 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
 
     private final AtomicLong lastRecordId = new AtomicLong(1);
 
+    /**
+     * Spans are appended to a temporary span log as they complete, so they are only loaded in
+     * memory when the build finishes. The spans that could not be logged are kept in {@link
+     * #spans}.
+     */
+    @Nullable private final SpanLogWriter spanLog;
+
+    /** Whether a failure to write the span log was logged, so that it is only logged once. */
+    private final AtomicBoolean spanLogFailureLogged = new AtomicBoolean(false);
+
     private final ConcurrentLinkedQueue<GradleBuildProfileSpan> spans;
 
     private final List<java.util.function.Supplier<String>> applicationIdSuppliers =
@@ -100,6 +113,15 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
         mStartMemoryStats = createAndRecordMemorySample();
         mProjects = CacheBuilder.newBuilder().build(new ProjectCacheLoader(mNameAnonymizer));
         spans = new ConcurrentLinkedQueue<>();
+
+        SpanLogWriter log = null;
+        try {
+            log = SpanLogWriter.createTemporary();
+        } catch (IOException e) {
+            // Keep the spans in memory.
+            logSpanLogFailure("Could not create the span log, keeping spans in memory", e);
+        }
+        spanLog = log;
     }
 
     /** Append a span record to the build profile. Thread safe. */
@@ -112,11 +134,11 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
 
         executionRecord.setProject(mNameAnonymizer.anonymizeProjectPath(project));
         executionRecord.setVariant(mNameAnonymizer.anonymizeVariant(project, variant));
-        spans.add(executionRecord.build());
+        addSpan(executionRecord.build());
         if (!taskExecutionPhases.isEmpty()) {
             GradleBuildProfileSpan firstPhase = taskExecutionPhases.get(0);
             // add the gradle snapshot calculation span.
-            spans.add(
+            addSpan(
                     GradleBuildProfileSpan.newBuilder()
                             .setType(GradleBuildProfileSpan.ExecutionType.GRADLE_PRE_TASK_SPAN)
                             .setParentId(executionRecord.getId())
@@ -127,7 +149,28 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
                                             - executionRecord.getStartTimeInMs())
                             .build());
         }
-        spans.addAll(taskExecutionPhases);
+        for (GradleBuildProfileSpan phase : taskExecutionPhases) {
+            addSpan(phase);
+        }
+    }
+
+    private void addSpan(@NonNull GradleBuildProfileSpan span) {
+        if (spanLog != null) {
+            try {
+                spanLog.append(span);
+                return;
+            } catch (IOException e) {
+                // Keep the span in memory.
+                logSpanLogFailure("Could not write to the span log, keeping spans in memory", e);
+            }
+        }
+        spans.add(span);
+    }
+
+    private void logSpanLogFailure(@NonNull String message, @NonNull Exception e) {
+        if (spanLogFailureLogged.compareAndSet(false, true)) {
+            Logger.getLogger(ProcessProfileWriter.class.getName()).log(Level.WARNING, message, e);
+        }
     }
 
     /** Appends a generic event (e.g. test execution record) to be uploaded. */
@@ -140,13 +183,16 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
      * Finishes processing the outstanding {@link GradleBuildProfileSpan} publication and shuts down
      * the processing queue. Write the final output file to the given path.
      *
-     * <p>If chrome tracing output is enabled, this method will also create a second file, with a
-     * {@code .json} extension, in the same directory.
+     * <p>The spans are also written to a span log, with a {@code .spans} extension, in the same
+     * directory. See {@link ChromeTracingProfileConverter} to convert it to chrome tracing format.
+     *
+     * <p>If chrome tracing output is enabled, this method will also create a file, with a {@code
+     * .json} extension, in the same directory.
      *
      * <p>Either finishAndWrite or finish() should be called exactly once
      */
     synchronized void finishAndWrite(@NonNull Path outputFile) {
-        finish();
+        finish(getSpanLogOutFile(outputFile));
 
         // Write benchmark file into build directory
         try {
@@ -172,12 +218,14 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
      * <p>Either finishAndWrite or finish() should be called exactly once
      */
     synchronized void finish() {
+        finish(null);
+    }
+
+    private synchronized void finish(@Nullable Path spanLogOutFile) {
         checkState(!finished, "Already finished");
         finished = true;
 
-        // This will not throw ConcurrentModificationException if writeRecord() calls are still
-        // happening. ConcurrentLinkedQueue iterators are instead weakly consistent.
-        mBuild.addAllSpan(spans);
+        addSpans(spanLogOutFile);
         GradleBuildMemorySample memoryStats = createAndRecordMemorySample();
         mBuild.setBuildTime(
                 memoryStats.getTimestamp() - mStartMemoryStats.getTimestamp());
@@ -211,6 +259,45 @@ public final class ProcessProfileWriter implements ProfileRecordWriter {
         }
     }
 
+    /**
+     * Adds the spans of the span log to the build profile, which must hold all of them to be
+     * logged, followed by the spans kept in memory. Spans written after this are dropped.
+     *
+     * @param spanLogOutFile where to keep a copy of the span log, or null to only delete it
+     */
+    private void addSpans(@Nullable Path spanLogOutFile) {
+        if (spanLog != null) {
+            try (SpanLogReader reader = spanLog.closeForReading()) {
+                for (GradleBuildProfileSpan span : reader) {
+                    mBuild.addSpan(span);
+                }
+                if (spanLogOutFile != null) {
+                    try {
+                        Files.createDirectories(spanLogOutFile.getParent());
+                        reader.copyTo(spanLogOutFile);
+                    } catch (IOException e) {
+                        logSpanLogFailure("Could not write " + spanLogOutFile, e);
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                // The spans of the log are lost, but the rest of the profile can still be used.
+                logSpanLogFailure("Could not read the span log, its spans are lost", e);
+            }
+        }
+        // This will not throw ConcurrentModificationException if writeRecord() calls are still
+        // happening. ConcurrentLinkedQueue iterators are instead weakly consistent.
+        mBuild.addAllSpan(spans);
+    }
+
+    @NonNull
+    private static Path getSpanLogOutFile(@NonNull Path outputFile) {
+        String fileName = outputFile.getFileName().toString();
+        if (fileName.endsWith(".rawproto")) {
+            fileName = fileName.substring(0, fileName.length() - ".rawproto".length());
+        }
+        return outputFile.resolveSibling(fileName + SpanLogReader.EXTENSION);
+    }
+
     @NonNull
     private synchronized List<String> getApplicationIds() {
         HashSet<String> applicationIds = new HashSet<>(applicationIdSuppliers.size());
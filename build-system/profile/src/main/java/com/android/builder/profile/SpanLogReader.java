@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the spans of a span log written by {@link SpanLogWriter}.
+ *
+ * <p>The spans are read lazily, block after block, and every call to {@link #iterator()} reads the
+ * file again, so that large logs can be processed in several passes without loading them in
+ * memory. The iterators share the file of the reader, which must be closed once done.
+ */
+final class SpanLogReader implements Iterable<GradleBuildProfileSpan>, Closeable {
+
+    /** Extension of span log files. */
+    static final String EXTENSION = ".spans";
+
+    @NonNull private final FileChannel channel;
+
+    SpanLogReader(@NonNull Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    SpanLogReader(@NonNull FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /** Reads all the spans of a span log. */
+    @NonNull
+    static List<GradleBuildProfileSpan> readAll(@NonNull Path file) throws IOException {
+        List<GradleBuildProfileSpan> spans = new ArrayList<>();
+        try (SpanLogReader reader = new SpanLogReader(file)) {
+            reader.forEach(spans::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return spans;
+    }
+
+    /**
+     * Returns an iterator over the spans of the log.
+     *
+     * @throws UncheckedIOException if the log cannot be read
+     */
+    @NonNull
+    @Override
+    public Iterator<GradleBuildProfileSpan> iterator() {
+        try {
+            return new SpanIterator(channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Copies the span log to a file, replacing it if it exists. This works for the logs of {@link
+     * SpanLogWriter#createTemporary()} too, which may no longer have a path.
+     */
+    void copyTo(@NonNull Path file) throws IOException {
+        try (FileChannel out =
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static final class SpanIterator implements Iterator<GradleBuildProfileSpan> {
+
+        @NonNull private final DataInputStream in;
+        private byte[] record = new byte[64];
+        // Bytes left in the current block.
+        private int blockRemaining = 0;
+        private long previousId = 0;
+        private long previousStartTime = 0;
+        @Nullable private GradleBuildProfileSpan next;
+
+        SpanIterator(@NonNull FileChannel channel) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel)));
+            if (in.readInt() != SpanLogWriter.MAGIC) {
+                throw new IOException("Not a span log");
+            }
+            int version = in.readInt();
+            if (version != SpanLogWriter.VERSION) {
+                throw new IOException("Unsupported span log version " + version);
+            }
+            next = readNext();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public GradleBuildProfileSpan next() {
+            GradleBuildProfileSpan span = next;
+            if (span == null) {
+                throw new NoSuchElementException();
+            }
+            try {
+                next = readNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return span;
+        }
+
+        /** Reads the next span, returning null at the end of the log. */
+        @Nullable
+        private GradleBuildProfileSpan readNext() throws IOException {
+            if (blockRemaining == 0 && !readBlockHeader()) {
+                return null;
+            }
+            int length = readLength();
+            if (length > blockRemaining) {
+                throw new IOException("Malformed span log record length");
+            }
+            if (record.length < length) {
+                record = new byte[Math.max(length, record.length * 2)];
+            }
+            in.readFully(record, 0, length);
+            blockRemaining -= length;
+            Decoder decoder = new Decoder(record, length);
+
+            int fields = (int) decoder.readVarint();
+            long id = 0;
+            if ((fields & SpanLogWriter.HAS_ID) != 0) {
+                id = previousId + decoder.readSignedVarint();
+                previousId = id;
+            }
+            long parentId = readIf(decoder, fields, SpanLogWriter.HAS_PARENT_ID);
+            long threadId = readIf(decoder, fields, SpanLogWriter.HAS_THREAD_ID);
+            int type = (int) readIf(decoder, fields, SpanLogWriter.HAS_TYPE);
+            long startTime = 0;
+            if ((fields & SpanLogWriter.HAS_START_TIME) != 0) {
+                startTime = previousStartTime + decoder.readSignedVarint();
+                previousStartTime = startTime;
+            }
+            long duration = readIf(decoder, fields, SpanLogWriter.HAS_DURATION);
+            long project = readIf(decoder, fields, SpanLogWriter.HAS_PROJECT);
+            long variant = readIf(decoder, fields, SpanLogWriter.HAS_VARIANT);
+            int otherFieldsSize = (int) decoder.readVarint();
+
+            GradleBuildProfileSpan.Builder span = GradleBuildProfileSpan.newBuilder();
+            if (otherFieldsSize > 0) {
+                span.mergeFrom(record, decoder.position, otherFieldsSize);
+            }
+            // Only set the fields that were set, so read spans are equal to the written ones.
+            if ((fields & SpanLogWriter.HAS_ID) != 0) {
+                span.setId(id);
+            }
+            if ((fields & SpanLogWriter.HAS_PARENT_ID) != 0) {
+                span.setParentId(parentId);
+            }
+            if ((fields & SpanLogWriter.HAS_THREAD_ID) != 0) {
+                span.setThreadId(threadId);
+            }
+            if ((fields & SpanLogWriter.HAS_TYPE) != 0) {
+                GradleBuildProfileSpan.ExecutionType executionType =
+                        GradleBuildProfileSpan.ExecutionType.forNumber(type);
+                if (executionType == null) {
+                    throw new IOException("Unknown span type " + type);
+                }
+                span.setType(executionType);
+            }
+            if ((fields & SpanLogWriter.HAS_START_TIME) != 0) {
+                span.setStartTimeInMs(startTime);
+            }
+            if ((fields & SpanLogWriter.HAS_DURATION) != 0) {
+                span.setDurationInMs(duration);
+            }
+            if ((fields & SpanLogWriter.HAS_PROJECT) != 0) {
+                span.setProject(project);
+            }
+            if ((fields & SpanLogWriter.HAS_VARIANT) != 0) {
+                span.setVariant(variant);
+            }
+            return span.build();
+        }
+
+        private static long readIf(@NonNull Decoder decoder, int fields, int field)
+                throws IOException {
+            return (fields & field) != 0 ? decoder.readVarint() : 0;
+        }
+
+        /**
+         * Reads the header of the next block, and returns false at the end of the log. The ids and
+         * start times of the spans are relative to the start of their block.
+         */
+        private boolean readBlockHeader() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            if (length == 0) {
+                return false;
+            }
+            if (length <= SpanLogWriter.BLOCK_HEADER_SIZE) {
+                throw new IOException("Malformed span log block length");
+            }
+            blockRemaining = length - SpanLogWriter.BLOCK_HEADER_SIZE;
+            previousId = 0;
+            previousStartTime = 0;
+            return true;
+        }
+
+        /** Returns the length of the next record of the block. */
+        private int readLength() throws IOException {
+            int length = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (blockRemaining == 0) {
+                    throw new IOException("Malformed span log record length");
+                }
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("Truncated span log");
+                }
+                blockRemaining--;
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return length;
+                }
+            }
+            throw new IOException("Malformed span log record length");
+        }
+    }
+
+    /** Reads a file channel from its start, without changing the position of the channel. */
+    private static final class ChannelInputStream extends InputStream {
+
+        @NonNull private final FileChannel channel;
+        private long position = 0;
+
+        ChannelInputStream(@NonNull FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+    }
+
+    private static final class Decoder {
+        @NonNull private final byte[] bytes;
+        private final int limit;
+        private int position = 0;
+
+        Decoder(@NonNull byte[] bytes, int limit) {
+            this.bytes = bytes;
+            this.limit = limit;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("Malformed span log record");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed span log varint");
+        }
+
+        long readSignedVarint() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
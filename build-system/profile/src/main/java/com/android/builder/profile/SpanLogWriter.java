@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.concurrency.GuardedBy;
+import com.google.protobuf.CodedOutputStream;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends {@link GradleBuildProfileSpan}s to a span log file as they complete, so they do not have
+ * to be kept on the heap until the end of the build.
+ *
+ * <p>Each thread appends its spans to a block of its own, so appending does not contend with the
+ * other threads. Full blocks are written to the file at a position reserved by atomically
+ * advancing the end of the log. A span log starts with a header ({@link #MAGIC} and {@link
+ * #VERSION}), followed by the blocks. A block is its length as an int, including the length
+ * itself, followed by one record per span. A record is the varint encoded length of its content,
+ * followed by:
+ *
+ * <ul>
+ *   <li>a varint bit set of the frequent fields set in the span, followed by the fields set:
+ *   <li>the id, as a zigzag varint delta from the previous id in the block,
+ *   <li>the parent id, thread id and type, as varints,
+ *   <li>the start time, as a zigzag varint delta from the previous start time in the block,
+ *   <li>the duration, project and variant, as varints,
+ *   <li>the length of the serialized span with the frequent fields cleared, followed by it. This
+ *       is empty for most spans, and keeps the other fields (task, transform, ...)
+ * </ul>
+ *
+ * <p>A block length of zero marks the end of the log.
+ *
+ * <p>See {@link SpanLogReader} to read span logs.
+ */
+final class SpanLogWriter implements Closeable {
+
+    static final int MAGIC = 0x47425053;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final int BLOCK_HEADER_SIZE = 4;
+
+    static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+
+    // Bits of the frequent fields set in a span.
+    static final int HAS_ID = 1;
+    static final int HAS_PARENT_ID = 1 << 1;
+    static final int HAS_THREAD_ID = 1 << 2;
+    static final int HAS_TYPE = 1 << 3;
+    static final int HAS_START_TIME = 1 << 4;
+    static final int HAS_DURATION = 1 << 5;
+    static final int HAS_PROJECT = 1 << 6;
+    static final int HAS_VARIANT = 1 << 7;
+
+    @NonNull private final FileChannel channel;
+    private final int blockSize;
+
+    // End of the log, where the next block is written.
+    private final AtomicLong end = new AtomicLong(HEADER_SIZE);
+
+    @NonNull private final ThreadLocal<Block> threadBlock = new ThreadLocal<>();
+
+    // Blocks of all the threads, so they can be written when the log is closed.
+    @NonNull private final Queue<Block> blocks = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed = false;
+
+    SpanLogWriter(@NonNull Path file) throws IOException {
+        this(file, DEFAULT_BLOCK_SIZE);
+    }
+
+    SpanLogWriter(@NonNull Path file, int blockSize) throws IOException {
+        this(
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE),
+                blockSize);
+    }
+
+    private SpanLogWriter(@NonNull FileChannel channel, int blockSize) throws IOException {
+        this.channel = channel;
+        this.blockSize = blockSize;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.flip();
+            write(header, 0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a span log in a temporary file, which is deleted once the log is closed. Where the
+     * file system allows it, the file is unlinked as soon as it is opened, so it does not outlive
+     * the process either.
+     *
+     * <p>Use {@link #closeForReading()} to read the spans back.
+     */
+    @NonNull
+    static SpanLogWriter createTemporary() throws IOException {
+        Path file = Files.createTempFile("profile", SpanLogReader.EXTENSION);
+        FileChannel channel;
+        try {
+            OpenOption[] options = {
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE
+            };
+            channel = FileChannel.open(file, options);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new SpanLogWriter(channel, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Appends a span to the log. Spans appended once the log is closed are dropped.
+     *
+     * @param span the span to append
+     * @throws IOException if the log could not be written
+     */
+    void append(@NonNull GradleBuildProfileSpan span) throws IOException {
+        if (closed) {
+            return;
+        }
+        Block block = threadBlock.get();
+        if (block == null) {
+            block = new Block();
+            threadBlock.set(block);
+            blocks.add(block);
+        }
+        block.append(span);
+    }
+
+    /**
+     * Closes the log, writing the spans appended by all the threads.
+     *
+     * <p>Spans appended while the log is being closed may be dropped.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flushAll();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes the log and returns a reader of its spans. The reader owns the file from then on, and
+     * closing it deletes the file of a temporary log.
+     */
+    @NonNull
+    synchronized SpanLogReader closeForReading() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Span log already closed");
+        }
+        try {
+            flushAll();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new SpanLogReader(channel);
+    }
+
+    @GuardedBy("this")
+    private void flushAll() throws IOException {
+        closed = true;
+        for (Block block : blocks) {
+            block.close();
+        }
+    }
+
+    private void write(@NonNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /** The spans appended by one thread, which are written to the log once the block is full. */
+    private final class Block {
+
+        @GuardedBy("this")
+        @NonNull
+        private byte[] bytes;
+
+        @GuardedBy("this")
+        private int length = BLOCK_HEADER_SIZE;
+
+        @GuardedBy("this")
+        private long previousId = 0;
+
+        @GuardedBy("this")
+        private long previousStartTime = 0;
+
+        @GuardedBy("this")
+        private boolean blockClosed = false;
+
+        Block() {
+            bytes = new byte[Math.max(blockSize, 64)];
+        }
+
+        synchronized void append(@NonNull GradleBuildProfileSpan span) throws IOException {
+            // Only the thread closing the log contends for the block.
+            if (blockClosed) {
+                return;
+            }
+            int recordStart = length;
+            // Leave room for the record length, which is at most 5 bytes.
+            length += 5;
+            int fields =
+                    (span.hasId() ? HAS_ID : 0)
+                            | (span.hasParentId() ? HAS_PARENT_ID : 0)
+                            | (span.hasThreadId() ? HAS_THREAD_ID : 0)
+                            | (span.hasType() ? HAS_TYPE : 0)
+                            | (span.hasStartTimeInMs() ? HAS_START_TIME : 0)
+                            | (span.hasDurationInMs() ? HAS_DURATION : 0)
+                            | (span.hasProject() ? HAS_PROJECT : 0)
+                            | (span.hasVariant() ? HAS_VARIANT : 0);
+            writeVarint(fields);
+            if (span.hasId()) {
+                writeSignedVarint(span.getId() - previousId);
+                previousId = span.getId();
+            }
+            if (span.hasParentId()) {
+                writeVarint(span.getParentId());
+            }
+            if (span.hasThreadId()) {
+                writeVarint(span.getThreadId());
+            }
+            if (span.hasType()) {
+                writeVarint(span.getType().getNumber());
+            }
+            if (span.hasStartTimeInMs()) {
+                writeSignedVarint(span.getStartTimeInMs() - previousStartTime);
+                previousStartTime = span.getStartTimeInMs();
+            }
+            if (span.hasDurationInMs()) {
+                writeVarint(span.getDurationInMs());
+            }
+            if (span.hasProject()) {
+                writeVarint(span.getProject());
+            }
+            if (span.hasVariant()) {
+                writeVarint(span.getVariant());
+            }
+            GradleBuildProfileSpan otherFields =
+                    span.toBuilder()
+                            .clearId()
+                            .clearParentId()
+                            .clearThreadId()
+                            .clearType()
+                            .clearStartTimeInMs()
+                            .clearDurationInMs()
+                            .clearProject()
+                            .clearVariant()
+                            .build();
+            int otherFieldsSize = otherFields.getSerializedSize();
+            writeVarint(otherFieldsSize);
+            if (otherFieldsSize > 0) {
+                ensureCapacity(otherFieldsSize);
+                otherFields.writeTo(CodedOutputStream.newInstance(bytes, length, otherFieldsSize));
+                length += otherFieldsSize;
+            }
+
+            // Move the content of the record right after its length.
+            int contentStart = recordStart + 5;
+            int contentLength = length - contentStart;
+            int lengthSize = putVarint(bytes, recordStart, contentLength);
+            System.arraycopy(bytes, contentStart, bytes, recordStart + lengthSize, contentLength);
+            length = recordStart + lengthSize + contentLength;
+
+            if (length >= blockSize) {
+                flush();
+            }
+        }
+
+        synchronized void close() throws IOException {
+            blockClosed = true;
+            flush();
+        }
+
+        @GuardedBy("this")
+        private void flush() throws IOException {
+            if (length == BLOCK_HEADER_SIZE) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+            buffer.putInt(0, length);
+            try {
+                write(buffer, end.getAndAdd(length));
+            } finally {
+                // The spans of the block are dropped if they could not be written.
+                length = BLOCK_HEADER_SIZE;
+                previousId = 0;
+                previousStartTime = 0;
+            }
+        }
+
+        @GuardedBy("this")
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        @GuardedBy("this")
+        private void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        @GuardedBy("this")
+        private void ensureCapacity(int size) {
+            if (length + size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + size));
+            }
+        }
+    }
+
+    /** Writes a varint at the given offset, and returns its size. */
+    private static int putVarint(@NonNull byte[] bytes, int offset, int value) {
+        int size = 0;
+        while ((value & ~0x7F) != 0) {
+            bytes[offset + size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset + size++] = (byte) value;
+        return size;
+    }
+}
@@ -19,6 +19,7 @@ package com.android.builder.tasks;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
@@ -26,23 +27,64 @@ import java.util.concurrent.ExecutionException;
 /**
  * Definition of a queued job. A job has a title, a task to execute, a latch to signal its
  * completion and a boolean result for success or failure.
+ *
+ * <p>A job can also carry scheduling hints for the {@link WorkQueue}: a priority, where jobs with
+ * a higher priority are run first, and an estimated cost in arbitrary units (e.g. the size of the
+ * input file), used to spread the work evenly between the worker threads.
  */
 public class Job<T> {
 
+    /** Priority of jobs that do not specify one. */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    /** Cost of jobs that do not specify one. */
+    public static final long DEFAULT_COST = 1;
+
     private final String jobTitle;
     private final Task<T> task;
     private final ListenableFuture<?> resultFuture;
+    private final int priority;
+    private final long cost;
 
     public Job(String jobTile, Task<T> task, ListenableFuture<?> resultFuture) {
+        this(jobTile, task, resultFuture, DEFAULT_PRIORITY, DEFAULT_COST);
+    }
+
+    /**
+     * Creates a job with scheduling hints.
+     *
+     * @param jobTile the job title
+     * @param task the task to execute
+     * @param resultFuture the future signaling the completion of the task
+     * @param priority the priority of the job, higher priority jobs are run first
+     * @param cost the estimated cost of the job, must not be negative
+     */
+    public Job(
+            String jobTile,
+            Task<T> task,
+            ListenableFuture<?> resultFuture,
+            int priority,
+            long cost) {
+        Preconditions.checkArgument(cost >= 0, "Negative job cost: %s", cost);
         this.jobTitle = jobTile;
         this.task = task;
         this.resultFuture = resultFuture;
+        this.priority = priority;
+        this.cost = cost;
     }
 
     public String getJobTitle() {
         return jobTitle;
     }
 
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getCost() {
+        return cost;
+    }
+
     public void runTask(@NonNull JobContext<T> jobContext) throws IOException {
         task.run(this, jobContext);
     }
@@ -75,6 +117,8 @@ public class Job<T> {
         return MoreObjects.toStringHelper(this)
                 .add("\ntitle", jobTitle)
                 .add("\ntask", task)
+                .add("\npriority", priority)
+                .add("\ncost", cost)
                 .add("\nfuture", resultFuture)
                 .toString();
     }
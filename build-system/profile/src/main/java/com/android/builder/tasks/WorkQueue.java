@@ -19,17 +19,41 @@ package com.android.builder.tasks;
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
 import com.android.annotations.concurrency.GuardedBy;
+import com.android.builder.profile.Recorder;
+import com.android.builder.profile.ThreadRecorder;
 import com.android.utils.ILogger;
 import com.google.common.base.Preconditions;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
- * A work queue that accepts jobs and treat them in order.
+ * A work queue that accepts jobs and treat them in order of priority.
+ *
+ * <p>Each worker thread has its own queue of jobs, ordered by priority. Jobs are pushed to the
+ * worker with the least outstanding work, based on the cost hints of the jobs. A worker runs the
+ * first job of its own queue, unless another worker has a job of higher priority waiting, in which
+ * case it steals that job, so that jobs are run in order of priority across all the workers. This
+ * also prevents a few long jobs from holding up the short jobs queued behind them.
+ *
+ * <p>The number of jobs waiting to be scheduled can be bounded, in which case {@link #push(Job)}
+ * blocks until there is room in the queue. Jobs pushed by the worker threads of the queue are never
+ * blocked, as they would wait for themselves.
+ *
+ * <p>The execution of every job is recorded with the {@link Recorder} of the queue, and the queue
+ * keeps statistics of the time jobs spent waiting and running, see {@link #getStats()}.
  *
  * @author jedo@google.com (Jerome Dochez)
  */
@@ -42,52 +66,116 @@ public class WorkQueue<T> implements Runnable {
     // queue name as human would understand.
     private final String mName;
 
-    // the user throttling has already happened before so I am using a potentially
-    // infinite linked list of request.
-    private final LinkedBlockingQueue<QueueTask<T>> mPendingJobs =
-            new LinkedBlockingQueue<>();
+    // Guards changes to the workforce.
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    // Guards the sleep of idle workers, which are woken up when jobs are pushed or when the queue
+    // is shutting down.
+    private final ReentrantLock mIdleLock = new ReentrantLock();
+    private final Condition mNotEmpty = mIdleLock.newCondition();
+
+    // Number of workers waiting for jobs, so that pushing a job only takes the idle lock if needed.
+    private final AtomicInteger mIdleWorkerCount = new AtomicInteger(0);
 
-    // List of working threads pumping from this queue.
-    @GuardedBy("this")
-    private final List<Thread> mWorkThreads = new ArrayList<>();
+    // List of workers pumping from this queue, including the ones whose thread died.
+    private final List<Worker<T>> mWorkers = new CopyOnWriteArrayList<>();
 
-    @GuardedBy("this")
+    // Number of jobs waiting to be scheduled, across all workers.
+    private final AtomicInteger mPendingJobCount = new AtomicInteger(0);
+
+    // Room left in the queue for jobs pushed by threads other than the workers.
+    private final Semaphore mFreeSlots;
+
+    private volatile boolean mShuttingDown = false;
+
+    @GuardedBy("mLock")
     private int mServerFailure = 0;
 
     private final float mGrowthTriggerRatio;
     private final int mMWorkforceIncrement;
     private final AtomicInteger mThreadId = new AtomicInteger(0);
+    private final AtomicLong mSequence = new AtomicLong(0);
     private final QueueThreadContext<T> mQueueThreadContext;
+    @Nullable private final Recorder mRecorder;
+
+    // Statistics of the jobs processed by this queue.
+    private final LongAdder mJobCount = new LongAdder();
+    private final LongAdder mWaitNanoSeconds = new LongAdder();
+    private final AtomicLong mMaxWaitNanoSeconds = new AtomicLong(0);
+    private final LongAdder mRunNanoSeconds = new LongAdder();
+    private final LongAdder mStealCount = new LongAdder();
 
     // we could base this on the number of processors this machine has, etc...
     private static final int MAX_WORKFORCE_SIZE = 20;
 
+    // The project path of the recorded job executions. The queue may run the jobs of any project,
+    // so they are recorded as part of the root project.
+    private static final String PROJECT_PATH = ":";
+
+    // How often a push blocked on a full queue checks that there are still workers to empty it.
+    private static final long WORKFORCE_CHECK_INTERVAL_MS = 1000;
+
+    /** Orders the jobs of a worker, highest priority first, then in the order they were pushed. */
+    private static final Comparator<QueueTask<?>> TASK_ORDER =
+            Comparator.comparingInt((QueueTask<?> task) -> task.job.getPriority())
+                    .reversed()
+                    .thenComparingLong(task -> task.sequence);
 
     /**
      * Private queue structure to store queue items.
      */
     private static class QueueTask<T> {
 
-        enum ActionType { Death, Normal }
-        final ActionType actionType;
-        @Nullable final Job<T> job;
+        @NonNull final Job<T> job;
+        final long sequence;
+        final long enqueueNanos;
+        // Whether the task holds one of the free slots of the queue.
+        final boolean holdsSlot;
 
-        private QueueTask(ActionType actionType, @Nullable Job<T> job) {
-            Preconditions.checkState(
-                    job != null || actionType == ActionType.Death,
-                    "Job cannot be null for action type NORMAL");
-            this.actionType = actionType;
+        private QueueTask(
+                @NonNull Job<T> job, long sequence, long enqueueNanos, boolean holdsSlot) {
             this.job = job;
+            this.sequence = sequence;
+            this.enqueueNanos = enqueueNanos;
+            this.holdsSlot = holdsSlot;
         }
 
         @Override
         public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append("QueueTask of type ");
-            sb.append(actionType.name());
-            sb.append(" with job ");
-            sb.append(job == null ? "null" : job.toString());
-            return sb.toString();
+            return "QueueTask " + sequence + " with job " + job;
+        }
+    }
+
+    /** A worker thread and the jobs pushed to it, which other workers can steal. */
+    private static class Worker<T> {
+
+        @NonNull final Thread thread;
+
+        final PriorityBlockingQueue<QueueTask<T>> tasks =
+                new PriorityBlockingQueue<>(11, TASK_ORDER);
+
+        // Total cost of the pending jobs of this worker, and of the job it is running.
+        final AtomicLong outstandingCost = new AtomicLong(0);
+
+        // Only accessed by the worker thread.
+        long runningCost = 0;
+
+        private Worker(@NonNull Thread thread) {
+            this.thread = thread;
+        }
+
+        void add(@NonNull QueueTask<T> task) {
+            outstandingCost.addAndGet(task.job.getCost());
+            tasks.add(task);
+        }
+
+        @Nullable
+        QueueTask<T> poll() {
+            QueueTask<T> task = tasks.poll();
+            if (task != null) {
+                outstandingCost.addAndGet(-task.job.getCost());
+            }
+            return task;
         }
     }
 
@@ -124,58 +212,150 @@ public class WorkQueue<T> implements Runnable {
             @NonNull String queueName,
             int workforce,
             float growthTriggerRatio) {
+        this(
+                logger,
+                queueThreadContext,
+                queueName,
+                workforce,
+                growthTriggerRatio,
+                Integer.MAX_VALUE,
+                null);
+    }
 
+    /**
+     * Creates a new queue, with a number of dedicated threads to process the queue's jobs and a
+     * bound on the number of jobs waiting to be scheduled.
+     *
+     * @param logger to log messages
+     * @param queueName a meaningful descriptive name.
+     * @param workforce the number of dedicated threads for this queue.
+     * @param growthTriggerRatio the ratio between outstanding requests and worker threads that
+     *     should trigger a growth in worker threads; if {@code 0} no growth will happen beyond the
+     *     initial thread creation
+     * @param maxPendingJobs the maximum number of jobs waiting to be scheduled, {@link
+     *     #push(Job)} blocks while the queue is full.
+     * @param recorder the recorder of the job executions, or null to use the recorder of the
+     *     build, see {@link ThreadRecorder#get()}.
+     */
+    public WorkQueue(
+            @NonNull ILogger logger,
+            @NonNull QueueThreadContext<T> queueThreadContext,
+            @NonNull String queueName,
+            int workforce,
+            float growthTriggerRatio,
+            int maxPendingJobs,
+            @Nullable Recorder recorder) {
+        Preconditions.checkArgument(workforce > 0, "Workforce must be positive: %s", workforce);
+        Preconditions.checkArgument(
+                maxPendingJobs > 0, "Maximum pending jobs must be positive: %s", maxPendingJobs);
         this.mLogger = logger;
         this.mName = queueName;
         this.mGrowthTriggerRatio = growthTriggerRatio;
         this.mMWorkforceIncrement = workforce;
+        this.mFreeSlots = new Semaphore(maxPendingJobs);
         this.mQueueThreadContext = queueThreadContext;
+        this.mRecorder = recorder;
     }
 
-    public synchronized void push(Job<T> job) throws InterruptedException {
-        _push(new QueueTask<>(QueueTask.ActionType.Normal, job));
+    /**
+     * Pushes a job to the queue, blocking while the queue is full unless the job is pushed by a
+     * worker thread of this queue.
+     *
+     * @param job the job to schedule
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public void push(@NonNull Job<T> job) throws InterruptedException {
+        // Make sure there are workers to make room in the queue before waiting for it.
         checkWorkforce();
+        boolean holdsSlot = findWorker(Thread.currentThread()) == null;
+        if (holdsSlot) {
+            while (!mFreeSlots.tryAcquire(WORKFORCE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                // The workers may have died while the queue was full.
+                checkWorkforce();
+                if (getLivingWorkers().isEmpty()) {
+                    throw new RuntimeException("No slave process to process jobs, aborting");
+                }
+            }
+        }
+        Worker<T> worker = getLeastLoadedWorker();
+        if (worker == null) {
+            // The queue was shut down since the workforce was checked.
+            if (holdsSlot) {
+                mFreeSlots.release();
+            }
+            throw new RuntimeException("No slave process to process jobs, aborting");
+        }
+        mPendingJobCount.incrementAndGet();
+        QueueTask<T> task =
+                new QueueTask<>(job, mSequence.getAndIncrement(), System.nanoTime(), holdsSlot);
+        worker.add(task);
+
+        // A worker going idle registers itself before looking for jobs one last time, so either
+        // it finds this job or it is woken up here.
+        if (mIdleWorkerCount.get() > 0) {
+            mIdleLock.lock();
+            try {
+                mNotEmpty.signal();
+            } finally {
+                mIdleLock.unlock();
+            }
+        }
     }
 
-    private void _push(QueueTask<T> task) throws InterruptedException {
-        // at this point, I am not trying to limit the number of pending jobs.
-        // eventually we would want to put some limit to the size of the pending jobs
-        // queue so it does not grow out of control.
-        mPendingJobs.put(task);
+    /** Returns the worker to push a job to, or null if the queue has no workers. */
+    @Nullable
+    private Worker<T> getLeastLoadedWorker() {
+        Worker<T> leastLoaded = null;
+        Worker<T> last = null;
+        for (Worker<T> worker : mWorkers) {
+            if (worker.thread.isAlive()
+                    && (leastLoaded == null
+                            || worker.outstandingCost.get()
+                                    < leastLoaded.outstandingCost.get())) {
+                leastLoaded = worker;
+            }
+            last = worker;
+        }
+        // If no thread is alive, any worker will do as the job can be stolen.
+        return leastLoaded != null ? leastLoaded : last;
     }
 
-    private synchronized void checkWorkforce() {
-        List<Thread> livingThreads =
-                mWorkThreads.stream().filter(Thread::isAlive).collect(Collectors.toList());
+    private void checkWorkforce() {
+        mLock.lock();
+        try {
+            List<Worker<T>> livingWorkers = getLivingWorkers();
 
-        if (livingThreads.isEmpty()
-                || ((mPendingJobs.size() / livingThreads.size() > mGrowthTriggerRatio)
-                        && mGrowthTriggerRatio > 0)) {
-            mLogger.verbose(
-                    "Request to incrementing alive workforce from %1$d. "
-                            + "Current workforce (dead or alive) %2$d",
-                    livingThreads.size(), mWorkThreads.size());
+            if (livingWorkers.isEmpty()
+                    || ((mPendingJobCount.get() / livingWorkers.size() > mGrowthTriggerRatio)
+                            && mGrowthTriggerRatio > 0)) {
+                mLogger.verbose(
+                        "Request to incrementing alive workforce from %1$d. "
+                                + "Current workforce (dead or alive) %2$d",
+                        livingWorkers.size(), mWorkers.size());
 
-            if (mWorkThreads.size() >= MAX_WORKFORCE_SIZE) {
-                verbose("Already at max workforce %1$d, denied.", MAX_WORKFORCE_SIZE);
-                return;
-            }
-            for (int i = 0; i < mMWorkforceIncrement; i++) {
-                Thread t = new Thread(this, mName + "_" + mThreadId.incrementAndGet());
-                t.setDaemon(true);
-                mWorkThreads.add(t);
-                t.start();
+                if (mWorkers.size() >= MAX_WORKFORCE_SIZE) {
+                    verbose("Already at max workforce %1$d, denied.", MAX_WORKFORCE_SIZE);
+                    return;
+                }
+                for (int i = 0; i < mMWorkforceIncrement; i++) {
+                    Thread t = new Thread(this, mName + "_" + mThreadId.incrementAndGet());
+                    t.setDaemon(true);
+                    // The worker must be registered before the thread looks it up.
+                    mWorkers.add(new Worker<>(t));
+                    t.start();
+                }
+                mLogger.verbose("thread-pool size=%1$d", mWorkers.size());
             }
-            mLogger.verbose("thread-pool size=%1$d", mWorkThreads.size());
+        } finally {
+            mLock.unlock();
         }
     }
 
-    private synchronized void reduceWorkforce() throws InterruptedException {
-        verbose("Decrementing workforce from " + mWorkThreads.size());
-        // push a the right number of kiss of death tasks to shutdown threads.
-        for (int i = 0; i < mMWorkforceIncrement; i++) {
-           _push(new QueueTask<>(QueueTask.ActionType.Death, null));
-        }
+    @NonNull
+    private List<Worker<T>> getLivingWorkers() {
+        return mWorkers.stream()
+                .filter(worker -> worker.thread.isAlive())
+                .collect(Collectors.toList());
     }
 
     /**
@@ -184,35 +364,50 @@ public class WorkQueue<T> implements Runnable {
      * to the queue once the shutdown process has started....
      * @throws InterruptedException if the shutdown sequence is interrupted
      */
-    public synchronized void shutdown() throws InterruptedException {
-
-        List<Thread> livingThreads =
-                mWorkThreads.stream().filter(Thread::isAlive).collect(Collectors.toList());
-
-        if (livingThreads.isEmpty() && !mPendingJobs.isEmpty()) {
-            // all of our threads died without processing all the jobs, this is not good.
-            mLogger.verbose("Shutdown called on the work queue, but there are still jobs pending.");
-            mLogger.verbose("Pending jobs:");
-            for (QueueTask<T> job : mPendingJobs) {
-                mLogger.verbose(job.toString());
+    public void shutdown() throws InterruptedException {
+        List<Thread> threads;
+        mLock.lock();
+        try {
+            if (getLivingWorkers().isEmpty() && mPendingJobCount.get() > 0) {
+                // all of our threads died without processing all the jobs, this is not good.
+                mLogger.verbose(
+                        "Shutdown called on the work queue, but there are still jobs pending.");
+                mLogger.verbose("Pending jobs:");
+                for (Worker<T> worker : mWorkers) {
+                    for (QueueTask<T> task : worker.tasks) {
+                        mLogger.verbose(task.toString());
+                    }
+                }
+                throw new RuntimeException("No slave process to process jobs, aborting");
             }
-            throw new RuntimeException("No slave process to process jobs, aborting");
-        }
 
-        // push as many death pills as necessary
-        for (Thread t : mWorkThreads) {
-            _push(new QueueTask<>(QueueTask.ActionType.Death, null));
+            // Workers exit once there are no more jobs to run or to steal.
+            mShuttingDown = true;
+            threads = mWorkers.stream().map(worker -> worker.thread).collect(Collectors.toList());
+        } finally {
+            mLock.unlock();
         }
+        mIdleLock.lock();
+        try {
+            mNotEmpty.signalAll();
+        } finally {
+            mIdleLock.unlock();
+        }
+
         // we could use a latch.
-        for (Thread t : mWorkThreads) {
+        for (Thread t : threads) {
             t.join();
         }
-        // All threads should have joined in the previous loop, so clear the list.
-        mWorkThreads.clear();
-        // In case we pushed too many DEATH jobs, clear all the pending jobs list. We can't have any
-        // other jobs pending at this point, since we checked that the list was empty in the first
-        // 'if' statement of this synchronized method.
-        mPendingJobs.clear();
+
+        mLock.lock();
+        try {
+            // All threads should have joined in the previous loop, so clear the list.
+            mWorkers.removeIf(worker -> threads.contains(worker.thread));
+            mShuttingDown = false;
+        } finally {
+            mLock.unlock();
+        }
+        mLogger.info("%1$s: %2$s", mName, getStats());
         // Finish.
         mQueueThreadContext.shutdown();
     }
@@ -233,17 +428,28 @@ public class WorkQueue<T> implements Runnable {
      * @return the size of the queue.
      */
     public int size() {
-        return mPendingJobs.size();
+        return mPendingJobCount.get();
     }
 
+    /** Returns the statistics of the jobs processed by this queue since it was created. */
+    @NonNull
+    public Stats getStats() {
+        return new Stats(
+                mJobCount.sum(),
+                mWaitNanoSeconds.sum(),
+                mMaxWaitNanoSeconds.get(),
+                mRunNanoSeconds.sum(),
+                mStealCount.sum());
+    }
 
     /**
-     * each thread in the mWorkThreads will run this single infinite processing loop until a
-     * death action is received.
+     * each thread in the mWorkers will run this single processing loop until the queue is shut
+     * down and there are no more jobs to process.
      */
     @Override
     public void run() {
         final String threadName = Thread.currentThread().getName();
+        final Worker<T> worker = getCurrentWorker();
         try {
             try {
                 verbose("Creating a new working thread %1$s", threadName);
@@ -264,29 +470,40 @@ public class WorkQueue<T> implements Runnable {
                 return;
             }
             while(true) {
-                final QueueTask<T> queueTask = mPendingJobs.take();
-                if (queueTask.actionType== QueueTask.ActionType.Death) {
+                final QueueTask<T> queueTask = take(worker);
+                if (queueTask == null) {
                     mLogger.verbose("Thread(%1$s): Death requested", threadName);
                     // we are done.
                     return;
                 }
                 final Job<T> job = queueTask.job;
-                if (job == null) {
-                    // this clearly should not happen.
-                    mLogger.error(null, "I got a null pending job out of the priority queue");
-                    return;
-                }
                 verbose("Thread(%1$s): scheduling %2$s", threadName, job.getJobTitle());
 
-                try {
-                    mQueueThreadContext.runTask(job);
-                } catch (Throwable e) {
-                    mLogger.warning("Exception while processing task %1$s", e);
-                    job.error(e);
+                long startNanos = System.nanoTime();
+                recordWait(startNanos - queueTask.enqueueNanos);
+                Recorder recorder = mRecorder != null ? mRecorder : ThreadRecorder.get();
+                Throwable failure =
+                        recorder.record(
+                                ExecutionType.THREAD_EXECUTION,
+                                PROJECT_PATH,
+                                null,
+                                () -> {
+                                    try {
+                                        mQueueThreadContext.runTask(job);
+                                        return null;
+                                    } catch (Throwable e) {
+                                        return e;
+                                    }
+                                });
+                if (failure != null) {
+                    mLogger.warning("Exception while processing task %1$s", failure);
+                    job.error(failure);
                     return;
                 }
                 // wait for the job completion.
                 boolean result = job.await();
+                mJobCount.increment();
+                mRunNanoSeconds.add(System.nanoTime() - startNanos);
                 verbose("Thread(%1$s): job %2$s finished, result=%3$b",
                         threadName, job.getJobTitle(), result);
 
@@ -294,7 +511,7 @@ public class WorkQueue<T> implements Runnable {
                 // queuing comparatively to the number of worker threads but at this point, the
                 // overall process (gradle activity) is fairly short lived so skipping at this
                 // point.
-                verbose("Thread(%1$s): queue size %2$d", threadName, mPendingJobs.size());
+                verbose("Thread(%1$s): queue size %2$d", threadName, size());
             }
         } catch (InterruptedException e) {
             mLogger.error(e, "Thread(%1$s): Interrupted", threadName);
@@ -309,19 +526,142 @@ public class WorkQueue<T> implements Runnable {
         }
     }
 
+    @NonNull
+    private Worker<T> getCurrentWorker() {
+        Worker<T> worker = findWorker(Thread.currentThread());
+        if (worker == null) {
+            throw new IllegalStateException(
+                    "Thread " + Thread.currentThread().getName() + " is not a worker of " + mName);
+        }
+        return worker;
+    }
+
+    @Nullable
+    private Worker<T> findWorker(@NonNull Thread thread) {
+        for (Worker<T> worker : mWorkers) {
+            if (worker.thread == thread) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the next job of the given worker, or the job of another worker if it has a higher
+     * priority. Blocks until there is a job to run, or returns null once the queue is shutting
+     * down and there are no more jobs.
+     */
+    @Nullable
+    private QueueTask<T> take(@NonNull Worker<T> worker) throws InterruptedException {
+        worker.outstandingCost.addAndGet(-worker.runningCost);
+        worker.runningCost = 0;
+        while (true) {
+            QueueTask<T> task = poll(worker);
+            if (task == null) {
+                mIdleLock.lockInterruptibly();
+                try {
+                    mIdleWorkerCount.incrementAndGet();
+                    try {
+                        task = poll(worker);
+                        if (task == null) {
+                            if (mShuttingDown) {
+                                return null;
+                            }
+                            mNotEmpty.await();
+                            continue;
+                        }
+                    } finally {
+                        mIdleWorkerCount.decrementAndGet();
+                    }
+                } finally {
+                    mIdleLock.unlock();
+                }
+            }
+            mPendingJobCount.decrementAndGet();
+            if (task.holdsSlot) {
+                mFreeSlots.release();
+            }
+            worker.runningCost = task.job.getCost();
+            worker.outstandingCost.addAndGet(worker.runningCost);
+            return task;
+        }
+    }
+
+    /**
+     * Polls the first job of the given worker, unless another worker has a job of higher priority,
+     * in which case the highest priority job is stolen. A worker without jobs of its own steals
+     * the highest priority job of the other workers.
+     */
+    @Nullable
+    private QueueTask<T> poll(@NonNull Worker<T> thief) {
+        while (true) {
+            QueueTask<T> own = thief.tasks.peek();
+            Worker<T> victim = null;
+            QueueTask<T> best = own;
+            for (Worker<T> worker : mWorkers) {
+                if (worker == thief) {
+                    continue;
+                }
+                QueueTask<T> head = worker.tasks.peek();
+                if (head != null
+                        && (best == null
+                                || (best == own
+                                        ? head.job.getPriority() > own.job.getPriority()
+                                        : TASK_ORDER.compare(head, best) < 0))) {
+                    victim = worker;
+                    best = head;
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            QueueTask<T> task = victim == null ? thief.poll() : victim.poll();
+            if (task == null) {
+                // Another worker took the job first, look again.
+                continue;
+            }
+            if (victim != null) {
+                mStealCount.increment();
+                verbose(
+                        "Thread(%1$s): stealing from %2$s",
+                        thief.thread.getName(), victim.thread.getName());
+            }
+            return task;
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        mWaitNanoSeconds.add(waitNanos);
+        mMaxWaitNanoSeconds.accumulateAndGet(waitNanos, Math::max);
+    }
+
     /*
      * Check how many servers failed so far. If all of them failed, fail all pending jobs.
      */
-    private synchronized void checkFailedServers() {
-        mServerFailure++;
-        // if all the threads have failed to start, pick up jobs and fail them all.
-        if (mServerFailure >= mWorkThreads.size()) {
-            for (QueueTask<T> task : mPendingJobs) {
-                task.job.error(
-                        new RuntimeException(
-                                "No server to serve request. Check logs for details."));
+    private void checkFailedServers() {
+        List<Job<T>> failedJobs = new ArrayList<>();
+        mLock.lock();
+        try {
+            mServerFailure++;
+            // if all the threads have failed to start, pick up jobs and fail them all.
+            if (mServerFailure >= mWorkers.size()) {
+                for (Worker<T> worker : mWorkers) {
+                    QueueTask<T> task;
+                    while ((task = worker.poll()) != null) {
+                        mPendingJobCount.decrementAndGet();
+                        if (task.holdsSlot) {
+                            mFreeSlots.release();
+                        }
+                        failedJobs.add(task.job);
+                    }
+                }
+                mServerFailure = 0;
             }
-            mServerFailure = 0;
+        } finally {
+            mLock.unlock();
+        }
+        for (Job<T> job : failedJobs) {
+            job.error(new RuntimeException("No server to serve request. Check logs for details."));
         }
     }
 
@@ -330,4 +670,62 @@ public class WorkQueue<T> implements Runnable {
             mLogger.verbose(format, args);
         }
     }
+
+    /** Statistics of the jobs processed by a {@link WorkQueue}. */
+    public static final class Stats {
+        private final long jobCount;
+        private final long waitNanoSeconds;
+        private final long maxWaitNanoSeconds;
+        private final long runNanoSeconds;
+        private final long stealCount;
+
+        Stats(
+                long jobCount,
+                long waitNanoSeconds,
+                long maxWaitNanoSeconds,
+                long runNanoSeconds,
+                long stealCount) {
+            this.jobCount = jobCount;
+            this.waitNanoSeconds = waitNanoSeconds;
+            this.maxWaitNanoSeconds = maxWaitNanoSeconds;
+            this.runNanoSeconds = runNanoSeconds;
+            this.stealCount = stealCount;
+        }
+
+        /** Returns the number of jobs that completed. */
+        public long getJobCount() {
+            return jobCount;
+        }
+
+        /** Returns the total time jobs waited in the queue before being scheduled. */
+        public long getWaitNanoSeconds() {
+            return waitNanoSeconds;
+        }
+
+        /** Returns the longest time a job waited in the queue before being scheduled. */
+        public long getMaxWaitNanoSeconds() {
+            return maxWaitNanoSeconds;
+        }
+
+        /** Returns the total time spent running jobs, until their completion. */
+        public long getRunNanoSeconds() {
+            return runNanoSeconds;
+        }
+
+        /** Returns the number of jobs a worker took from the queue of another worker. */
+        public long getStealCount() {
+            return stealCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%1$d jobs, waited %2$dms (max %3$dms), ran %4$dms, %5$d stolen",
+                    jobCount,
+                    TimeUnit.NANOSECONDS.toMillis(waitNanoSeconds),
+                    TimeUnit.NANOSECONDS.toMillis(maxWaitNanoSeconds),
+                    TimeUnit.NANOSECONDS.toMillis(runNanoSeconds),
+                    stealCount);
+        }
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Measures the per-span overhead of recording spans in a {@link SpanLogWriter}, compared to keeping
+ * them in memory as {@link ProcessProfileWriter} used to: the time to record a span, the heap
+ * retained per span, and the size of a span in the log.
+ *
+ * <p>This is not a unit test. Run it manually with the profile test classpath, e.g.:
+ *
+ * <pre>
+ * java com.android.builder.profile.SpanLogBenchmark [spanCount]
+ * </pre>
+ */
+public final class SpanLogBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int spanCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path file = Files.createTempFile("benchmark", SpanLogReader.EXTENSION);
+        try {
+            for (int i = 0; i < 3; i++) {
+                measureInMemory(spanCount);
+                measureSpanLog(file, spanCount);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void measureInMemory(int spanCount) {
+        long heapBefore = usedHeap();
+        ConcurrentLinkedQueue<GradleBuildProfileSpan> spans = new ConcurrentLinkedQueue<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < spanCount; i++) {
+            spans.add(createSpan(i));
+        }
+        long nanos = System.nanoTime() - start;
+        long heap = usedHeap() - heapBefore;
+        report("in memory", spanCount, nanos, heap, 0);
+        if (spans.isEmpty()) {
+            throw new AssertionError();
+        }
+    }
+
+    private static void measureSpanLog(Path file, int spanCount) throws IOException {
+        long heapBefore = usedHeap();
+        long nanos;
+        long heap;
+        try (SpanLogWriter writer = new SpanLogWriter(file)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < spanCount; i++) {
+                writer.append(createSpan(i));
+            }
+            nanos = System.nanoTime() - start;
+            heap = usedHeap() - heapBefore;
+        }
+        report("span log", spanCount, nanos, heap, Files.size(file));
+    }
+
+    private static GradleBuildProfileSpan createSpan(int i) {
+        return GradleBuildProfileSpan.newBuilder()
+                .setId(i + 2)
+                .setParentId(i % 10 == 0 ? 0 : i - i % 10 + 2)
+                .setThreadId(100 + i % 8)
+                .setType(ExecutionType.SOME_RANDOM_PROCESSING)
+                .setStartTimeInMs(1_500_000_000_000L + i)
+                .setDurationInMs(i % 100)
+                .setProject(1 + i % 3)
+                .setVariant(i % 5)
+                .build();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String name, int spanCount, long nanos, long heap, long size) {
+        System.out.format(
+                Locale.US,
+                "%1$-10s %2$6.1f ns/span, %3$6.1f heap bytes/span, %4$5.1f file bytes/span%n",
+                name,
+                (double) nanos / spanCount,
+                (double) Math.max(heap, 0) / spanCount,
+                (double) size / spanCount);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.profile;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
+import com.google.wireless.android.sdk.stats.GradleTaskExecution;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests for {@link SpanLogWriter} and {@link SpanLogReader}. */
+public class SpanLogTest {
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path file = temporaryFolder.getRoot().toPath().resolve("profile.spans");
+        List<GradleBuildProfileSpan> spans = createSpans(10);
+        // Spans may complete out of order, and not set all fields.
+        spans.add(
+                GradleBuildProfileSpan.newBuilder()
+                        .setId(3)
+                        .setType(ExecutionType.THREAD_EXECUTION)
+                        .setStartTimeInMs(1_500_000_000_000L)
+                        .build());
+        spans.add(GradleBuildProfileSpan.newBuilder().build());
+
+        try (SpanLogWriter writer = new SpanLogWriter(file)) {
+            for (GradleBuildProfileSpan span : spans) {
+                writer.append(span);
+            }
+        }
+
+        assertThat(SpanLogReader.readAll(file)).containsExactlyElementsIn(spans).inOrder();
+    }
+
+    @Test
+    public void testBlocks() throws IOException {
+        Path file = temporaryFolder.getRoot().toPath().resolve("profile.spans");
+        List<GradleBuildProfileSpan> spans = createSpans(1000);
+
+        try (SpanLogWriter writer = new SpanLogWriter(file, 64)) {
+            for (GradleBuildProfileSpan span : spans) {
+                writer.append(span);
+            }
+        }
+
+        assertThat(SpanLogReader.readAll(file)).containsExactlyElementsIn(spans).inOrder();
+        // Read the log again, as it can be iterated several times.
+        try (SpanLogReader reader = new SpanLogReader(file)) {
+            assertThat(reader).containsExactlyElementsIn(spans).inOrder();
+            assertThat(reader).containsExactlyElementsIn(spans).inOrder();
+        }
+    }
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("profile.spans");
+        List<GradleBuildProfileSpan> spans = createSpans(4000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (SpanLogWriter writer = new SpanLogWriter(file, 256)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                List<GradleBuildProfileSpan> threadSpans =
+                        spans.subList(thread * 1000, (thread + 1) * 1000);
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    for (GradleBuildProfileSpan span : threadSpans) {
+                                        writer.append(span);
+                                    }
+                                    return null;
+                                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // The spans of different threads are interleaved by blocks.
+        assertThat(SpanLogReader.readAll(file)).containsExactlyElementsIn(spans);
+    }
+
+    @Test
+    public void testTemporaryLog() throws IOException {
+        List<GradleBuildProfileSpan> spans = createSpans(100);
+
+        SpanLogWriter writer = SpanLogWriter.createTemporary();
+        for (GradleBuildProfileSpan span : spans) {
+            writer.append(span);
+        }
+        Path copy = temporaryFolder.getRoot().toPath().resolve("profile.spans");
+        try (SpanLogReader reader = writer.closeForReading()) {
+            assertThat(reader).containsExactlyElementsIn(spans).inOrder();
+            reader.copyTo(copy);
+        }
+        // The reader owns the file.
+        writer.close();
+
+        assertThat(SpanLogReader.readAll(copy)).containsExactlyElementsIn(spans).inOrder();
+    }
+
+    @Test
+    public void testAppendAfterClose() throws IOException {
+        Path file = temporaryFolder.getRoot().toPath().resolve("profile.spans");
+        List<GradleBuildProfileSpan> spans = createSpans(2);
+
+        SpanLogWriter writer = new SpanLogWriter(file);
+        writer.append(spans.get(0));
+        writer.close();
+        writer.append(spans.get(1));
+
+        assertThat(SpanLogReader.readAll(file)).containsExactly(spans.get(0));
+    }
+
+    @Test
+    public void testReadInvalidFile() throws IOException {
+        Path file = temporaryFolder.getRoot().toPath().resolve("profile.spans");
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        try {
+            SpanLogReader.readAll(file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).startsWith("Not a span log");
+        }
+    }
+
+    private static List<GradleBuildProfileSpan> createSpans(int count) {
+        List<GradleBuildProfileSpan> spans = new ArrayList<>(count);
+        long startTime = 1_500_000_000_000L;
+        for (int i = 1; i <= count; i++) {
+            GradleBuildProfileSpan.Builder span =
+                    GradleBuildProfileSpan.newBuilder()
+                            .setId(i)
+                            .setThreadId(i % 4 + 100)
+                            .setStartTimeInMs(startTime + i * 7)
+                            .setDurationInMs(i * 3)
+                            .setProject(1)
+                            .setVariant(i % 3);
+            if (i % 5 == 0) {
+                span.setType(ExecutionType.TASK_EXECUTION)
+                        .setTask(GradleTaskExecution.newBuilder().setType(i).setDidWork(true));
+            } else {
+                span.setType(ExecutionType.SOME_RANDOM_PROCESSING).setParentId(i - 1);
+            }
+            spans.add(span.build());
+        }
+        return spans;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.builder.tasks;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.profile.Recorder;
+import com.android.utils.NullLogger;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.wireless.android.sdk.stats.GradleBuildProfileSpan.ExecutionType;
+import com.google.wireless.android.sdk.stats.GradleTransformExecution;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+/** Tests for {@link WorkQueue}. */
+public class WorkQueueTest {
+
+    @Rule public Timeout timeout = Timeout.seconds(60);
+
+    private final CountingRecorder recorder = new CountingRecorder();
+    private final List<String> executed = new CopyOnWriteArrayList<>();
+    private final List<String> executingThreads = new CopyOnWriteArrayList<>();
+
+    @Nullable private WorkQueue<Void> queue;
+
+    @After
+    public void shutdownQueue() throws InterruptedException {
+        if (queue != null) {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    public void testJobsRunInOrderOfPriority() throws Exception {
+        queue = createQueue(1, Integer.MAX_VALUE);
+        Gate gate = new Gate();
+        queue.push(newJob("gate", Job.DEFAULT_PRIORITY, 1, gate));
+        gate.awaitStarted();
+
+        queue.push(newJob("low", -1, 1, null));
+        queue.push(newJob("normal1", Job.DEFAULT_PRIORITY, 1, null));
+        queue.push(newJob("high", 1, 1, null));
+        queue.push(newJob("normal2", Job.DEFAULT_PRIORITY, 1, null));
+        assertThat(queue.size()).isEqualTo(4);
+        gate.open();
+        queue.shutdown();
+        queue = null;
+
+        assertThat(executed).containsExactly("gate", "high", "normal1", "normal2", "low").inOrder();
+        assertThat(recorder.count.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void testIdleWorkerStealsJobs() throws Exception {
+        queue = createQueue(2, Integer.MAX_VALUE);
+        Gate heavyGate = new Gate();
+        queue.push(newJob("heavy", Job.DEFAULT_PRIORITY, 10, heavyGate));
+        heavyGate.awaitStarted();
+        Gate lightGate = new Gate();
+        queue.push(newJob("light", Job.DEFAULT_PRIORITY, 1, lightGate));
+        lightGate.awaitStarted();
+
+        // Pushed to the worker running the light job, which is the least loaded.
+        queue.push(newJob("stolen", Job.DEFAULT_PRIORITY, 1, null));
+        heavyGate.open();
+        String heavyThread = executingThreads.get(executed.indexOf("heavy"));
+        while (!executed.contains("stolen")) {
+            Thread.sleep(10);
+        }
+        assertThat(executingThreads.get(executed.indexOf("stolen"))).isEqualTo(heavyThread);
+        lightGate.open();
+        queue.shutdown();
+
+        WorkQueue.Stats stats = queue.getStats();
+        queue = null;
+        assertThat(stats.getJobCount()).isEqualTo(3);
+        // The heavy job itself may have been stolen before its worker thread started.
+        assertThat(stats.getStealCount()).isAtLeast(1L);
+        assertThat(stats.getRunNanoSeconds()).isGreaterThan(0L);
+        assertThat(stats.getMaxWaitNanoSeconds()).isAtMost(stats.getWaitNanoSeconds());
+        assertThat(recorder.count.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testPushBlocksWhenQueueIsFull() throws Exception {
+        queue = createQueue(1, 1);
+        Gate gate = new Gate();
+        queue.push(newJob("gate", Job.DEFAULT_PRIORITY, 1, gate));
+        gate.awaitStarted();
+        queue.push(newJob("pending", Job.DEFAULT_PRIORITY, 1, null));
+
+        CountDownLatch pushed = new CountDownLatch(1);
+        WorkQueue<Void> fullQueue = queue;
+        Thread producer =
+                new Thread(
+                        () -> {
+                            try {
+                                fullQueue.push(newJob("blocked", Job.DEFAULT_PRIORITY, 1, null));
+                                pushed.countDown();
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+        producer.start();
+        assertThat(pushed.await(100, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(queue.size()).isEqualTo(1);
+
+        gate.open();
+        pushed.await();
+        producer.join();
+        queue.shutdown();
+        queue = null;
+        assertThat(executed).containsExactly("gate", "pending", "blocked").inOrder();
+    }
+
+    @Test
+    public void testIdleWorkerStealsHighestPriorityJob() throws Exception {
+        queue = createQueue(2, Integer.MAX_VALUE);
+        Gate firstGate = new Gate();
+        queue.push(newJob("first", Job.DEFAULT_PRIORITY, 1, firstGate));
+        firstGate.awaitStarted();
+        Gate secondGate = new Gate();
+        queue.push(newJob("second", Job.DEFAULT_PRIORITY, 1, secondGate));
+        secondGate.awaitStarted();
+
+        // Both workers are busy, so the jobs are spread between their queues.
+        queue.push(newJob("low", -1, 1, null));
+        queue.push(newJob("normal", Job.DEFAULT_PRIORITY, 1, null));
+        queue.push(newJob("high", 1, 1, null));
+        firstGate.open();
+        while (executed.size() < 3) {
+            Thread.sleep(10);
+        }
+        assertThat(executed.get(2)).isEqualTo("high");
+        secondGate.open();
+        queue.shutdown();
+        queue = null;
+        assertThat(executed).containsExactly("first", "second", "high", "normal", "low");
+    }
+
+    @Test
+    public void testWorkerPushDoesNotBlockWhenQueueIsFull() throws Exception {
+        queue = createQueue(1, 1);
+        WorkQueue<Void> fullQueue = queue;
+        SettableFuture<Void> result = SettableFuture.create();
+        Task<Void> task =
+                new Task<Void>() {
+                    @Override
+                    public void run(@NonNull Job<Void> job, @NonNull JobContext<Void> context) {
+                        executed.add("outer");
+                        try {
+                            // The second job would wait for the only worker, which is this one.
+                            fullQueue.push(newJob("inner1", Job.DEFAULT_PRIORITY, 1, null));
+                            fullQueue.push(newJob("inner2", Job.DEFAULT_PRIORITY, 1, null));
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+
+                    @Override
+                    public void finished() {
+                        result.set(null);
+                    }
+
+                    @Override
+                    public void error(Throwable e) {
+                        result.setException(e);
+                    }
+                };
+        queue.push(new Job<>("outer", task, result));
+        queue.shutdown();
+        queue = null;
+        assertThat(executed).containsExactly("outer", "inner1", "inner2").inOrder();
+    }
+
+    @NonNull
+    private WorkQueue<Void> createQueue(int workforce, int maxPendingJobs) {
+        return new WorkQueue<>(
+                new NullLogger(),
+                new QueueThreadContextAdapter<Void>() {
+                    @Override
+                    public void runTask(@NonNull Job<Void> job) throws Exception {
+                        job.runTask(new JobContext<>(null));
+                        job.finished();
+                    }
+                },
+                "test",
+                workforce,
+                0,
+                maxPendingJobs,
+                recorder);
+    }
+
+    @NonNull
+    private Job<Void> newJob(
+            @NonNull String title, int priority, long cost, @Nullable Gate gate) {
+        SettableFuture<Void> result = SettableFuture.create();
+        Task<Void> task =
+                new Task<Void>() {
+                    @Override
+                    public void run(@NonNull Job<Void> job, @NonNull JobContext<Void> context) {
+                        executingThreads.add(Thread.currentThread().getName());
+                        executed.add(title);
+                        if (gate != null) {
+                            gate.pass();
+                        }
+                    }
+
+                    @Override
+                    public void finished() {
+                        result.set(null);
+                    }
+
+                    @Override
+                    public void error(Throwable e) {
+                        result.setException(e);
+                    }
+                };
+        return new Job<>(title, task, result, priority, cost);
+    }
+
+    /** Blocks a job until the test opens it. */
+    private static final class Gate {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch opened = new CountDownLatch(1);
+
+        void pass() {
+            started.countDown();
+            try {
+                opened.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void awaitStarted() throws InterruptedException {
+            started.await();
+        }
+
+        void open() {
+            opened.countDown();
+        }
+    }
+
+    /** Counts the recorded job executions. */
+    private static final class CountingRecorder implements Recorder {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Nullable
+        @Override
+        public <T> T record(
+                @NonNull ExecutionType executionType,
+                @NonNull String projectPath,
+                @Nullable String variant,
+                @NonNull Block<T> block) {
+            return record(executionType, null, projectPath, variant, block);
+        }
+
+        @Override
+        public void record(
+                @NonNull ExecutionType executionType,
+                @NonNull String projectPath,
+                @Nullable String variant,
+                @NonNull VoidBlock block) {
+            count.incrementAndGet();
+            try {
+                block.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Nullable
+        @Override
+        public <T> T record(
+                @NonNull ExecutionType executionType,
+                @Nullable GradleTransformExecution transform,
+                @NonNull String projectPath,
+                @Nullable String variant,
+                @NonNull Block<T> block) {
+            assertThat(executionType).isEqualTo(ExecutionType.THREAD_EXECUTION);
+            count.incrementAndGet();
+            try {
+                return block.call();
+            } catch (Exception e) {
+                block.handleException(e);
+                return null;
+            }
+        }
+    }
+}
@@ -326,6 +326,38 @@ public class PositionXmlParser {
         return xml;
     }
 
+    /**
+     * Creates a deep copy of a document created by this parser, including the position
+     * information of its nodes, which {@link Node#cloneNode(boolean)} does not copy.
+     *
+     * <p>The copy can be modified without affecting the original document. The original document
+     * is not modified, but it must not be copied from multiple threads at the same time.
+     *
+     * @param document the document to copy
+     * @return the copy of the document
+     */
+    @NonNull
+    public static Document cloneDocument(@NonNull Document document) {
+        Document clone = (Document) document.cloneNode(true);
+        clone.setUserData(CONTENT_KEY, document.getUserData(CONTENT_KEY), null);
+        copyPositions(document, clone);
+        return clone;
+    }
+
+    private static void copyPositions(@NonNull Node from, @NonNull Node to) {
+        Object position = from.getUserData(POS_KEY);
+        if (position != null) {
+            to.setUserData(POS_KEY, position, null);
+        }
+        Node fromChild = from.getFirstChild();
+        Node toChild = to.getFirstChild();
+        while (fromChild != null && toChild != null) {
+            copyPositions(fromChild, toChild);
+            fromChild = fromChild.getNextSibling();
+            toChild = toChild.getNextSibling();
+        }
+    }
+
     /**
      * Returns the position for the given node. This is the start position. The
      * end position can be obtained via {@link Position#getEnd()}.
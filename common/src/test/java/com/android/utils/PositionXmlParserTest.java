@@ -588,4 +588,37 @@ public class PositionXmlParserTest extends TestCase {
         // Ok (earlier this would throw networking errors attempting to load schemas.android.com)
         PositionXmlParser.parse(new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8)));
     }
+
+    public void testCloneDocument() throws Exception {
+        String xml =
+                "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+                        + "<manifest package=\"com.example\">\n"
+                        + "    <!-- comment -->\n"
+                        + "    <application android:name=\"App\"\n"
+                        + "        xmlns:android=\"http://schemas.android.com/apk/res/android\"/>\n"
+                        + "</manifest>\n";
+        Document document = PositionXmlParser.parse(xml);
+        Document clone = PositionXmlParser.cloneDocument(document);
+        assertNotSame(document, clone);
+
+        Element application = (Element) document.getElementsByTagName("application").item(0);
+        Element clonedApplication = (Element) clone.getElementsByTagName("application").item(0);
+        assertNotSame(application, clonedApplication);
+        assertEquals(
+                PositionXmlParser.getPosition(application),
+                PositionXmlParser.getPosition(clonedApplication));
+        assertEquals(
+                PositionXmlParser.getPosition(application.getAttributeNode("android:name")),
+                PositionXmlParser.getPosition(clonedApplication.getAttributeNode("android:name")));
+        Node comment = application.getPreviousSibling().getPreviousSibling();
+        Node clonedComment = clonedApplication.getPreviousSibling().getPreviousSibling();
+        assertEquals(Node.COMMENT_NODE, clonedComment.getNodeType());
+        assertEquals(
+                PositionXmlParser.getPosition(comment),
+                PositionXmlParser.getPosition(clonedComment));
+
+        // modifying the clone does not modify the original document
+        clonedApplication.setAttribute("android:name", "Other");
+        assertEquals("App", application.getAttribute("android:name"));
+    }
 }
@@ -16,6 +16,7 @@
 package com.android.tools.perflib.captures;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.tools.perflib.analyzer.Capture;
 
 import java.nio.ByteOrder;
@@ -52,4 +53,14 @@ public interface DataBuffer {
     boolean hasRemaining();
 
     long remaining();
+
+    /**
+     * Returns a new buffer over the same data with its own position, which can be read on another
+     * thread concurrently with this one, or null if the buffer does not support concurrent reads.
+     * Disposing either buffer releases the data of both.
+     */
+    @Nullable
+    default DataBuffer duplicate() {
+        return null;
+    }
 }
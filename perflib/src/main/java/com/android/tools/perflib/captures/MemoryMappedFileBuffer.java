@@ -85,6 +85,18 @@ public class MemoryMappedFileBuffer implements DataBuffer {
         this(f, DEFAULT_SIZE, DEFAULT_PADDING);
     }
 
+    private MemoryMappedFileBuffer(@NonNull MemoryMappedFileBuffer other) {
+        mBufferSize = other.mBufferSize;
+        mPadding = other.mPadding;
+        mLength = other.mLength;
+        mByteBuffers = new ByteBuffer[other.mByteBuffers.length];
+        for (int i = 0; i < mByteBuffers.length; i++) {
+            mByteBuffers[i] = other.mByteBuffers[i].duplicate();
+            mByteBuffers[i].order(HPROF_BYTE_ORDER);
+        }
+        mCurrentPosition = other.mCurrentPosition;
+    }
+
     /**
      * Attempts to unmap the buffer. It is the caller's responsibility to ensure there are no other
      * accesses to this buffer, otherwise this can result in a crash and kill the JVM.
@@ -219,6 +231,15 @@ public class MemoryMappedFileBuffer implements DataBuffer {
         return mLength - mCurrentPosition;
     }
 
+    /**
+     * Returns a buffer sharing the memory mappings of this one, with its own position.
+     */
+    @NonNull
+    @Override
+    public DataBuffer duplicate() {
+        return new MemoryMappedFileBuffer(this);
+    }
+
     private int getIndex() {
         return (int) (mCurrentPosition / mBufferSize);
     }
@@ -94,6 +94,17 @@ public class ClassObj extends Instance implements Comparable<ClassObj> {
         heapData.mShallowSize += instance.getSize();
     }
 
+    /**
+     * Sets all the instances of this class in a heap at once, for the instances of a columnar
+     * snapshot.
+     */
+    final void setHeapInstances(int heapId, @NonNull List<Instance> instances, int shallowSize) {
+        HeapData heapData = new HeapData();
+        heapData.mInstances = instances;
+        heapData.mShallowSize = shallowSize;
+        mHeapData.put(heapId, heapData);
+    }
+
     public final void setSuperClassId(long superClass) {
         mSuperClassId = superClass;
     }
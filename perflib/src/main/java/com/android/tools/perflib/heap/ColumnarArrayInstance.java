@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.util.ArrayList;
+
+/**
+ * View of an array of a columnar snapshot, which reads its references and the results of the
+ * dominator computation from the {@link InstanceColumns}.
+ */
+final class ColumnarArrayInstance extends ArrayInstance {
+
+    @NonNull private final InstanceColumns mColumns;
+
+    private final int mIndex;
+
+    private boolean mHasForwardReferences;
+
+    private boolean mHasReverseReferences;
+
+    ColumnarArrayInstance(
+            @NonNull InstanceColumns columns, int index, long id, @NonNull StackTrace stack,
+            @NonNull Type type, int length, long valuesOffset) {
+        super(id, stack, type, length, valuesOffset);
+        mColumns = columns;
+        mIndex = index;
+    }
+
+    @NonNull
+    InstanceColumns getColumns() {
+        return mColumns;
+    }
+
+    int getIndex() {
+        return mIndex;
+    }
+
+    @Override
+    public long getNativeSize() {
+        return mColumns.getNativeSize(mIndex);
+    }
+
+    @Override
+    public void setNativeSize(long nativeSize) {
+        mColumns.setNativeSize(mIndex, nativeSize);
+    }
+
+    @Override
+    public int getTopologicalOrder() {
+        return mColumns.getTopologicalOrder(mIndex);
+    }
+
+    @Nullable
+    @Override
+    public Instance getImmediateDominator() {
+        return mColumns.getImmediateDominator(mIndex);
+    }
+
+    @Override
+    public int getDistanceToGcRoot() {
+        return mColumns.getDistanceToGcRoot(mIndex);
+    }
+
+    @Nullable
+    @Override
+    public Instance getNextInstanceToGcRoot() {
+        return mColumns.getNextInstanceToGcRoot(mIndex);
+    }
+
+    @Override
+    public boolean isReachable() {
+        return getDistanceToGcRoot() != Integer.MAX_VALUE;
+    }
+
+    @Override
+    public long getRetainedSize(int heapIndex) {
+        return mColumns.getRetainedSize(mIndex, heapIndex);
+    }
+
+    @Override
+    public long getTotalRetainedSize() {
+        return mColumns.getTotalRetainedSize(mIndex);
+    }
+
+    @NonNull
+    @Override
+    public ArrayList<Instance> getHardForwardReferences() {
+        ArrayList<Instance> references = super.getHardForwardReferences();
+        if (!mHasForwardReferences) {
+            mColumns.addHardForwardReferences(mIndex, references);
+            mHasForwardReferences = true;
+        }
+        return references;
+    }
+
+    @NonNull
+    @Override
+    public ArrayList<Instance> getHardReverseReferences() {
+        ArrayList<Instance> references = super.getHardReverseReferences();
+        if (!mHasReverseReferences) {
+            mColumns.addHardReverseReferences(mIndex, references);
+            mHasReverseReferences = true;
+        }
+        return references;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ColumnarArrayInstance
+                && ((ColumnarArrayInstance) other).mColumns == mColumns
+                && ((ColumnarArrayInstance) other).mIndex == mIndex;
+    }
+
+    @Override
+    public int hashCode() {
+        return mIndex;
+    }
+}
@@ -79,6 +79,21 @@ public class Heap {
         return mInstances.get(id);
     }
 
+    /**
+     * Moves the instances of a heap of a partial snapshot, parsed on another thread, to this heap.
+     */
+    final void addInstances(@NonNull Heap heap) {
+        mInstances.ensureCapacity(heap.mInstances.size());
+        heap.mInstances.forEachValue(new TObjectProcedure<Instance>() {
+            @Override
+            public boolean execute(Instance instance) {
+                mInstances.put(instance.getId(), instance);
+                instance.setHeap(Heap.this);
+                return true;
+            }
+        });
+    }
+
     public final void addClass(long id, @NonNull ClassObj theClass) {
         mClassesById.put(id, theClass);
         mClassesByName.put(theClass.mClassName, theClass);
@@ -146,10 +161,18 @@ public class Heap {
     }
 
     public void forEachInstance(@NonNull TObjectProcedure<Instance> procedure) {
-        mInstances.forEachValue(procedure);
+        InstanceColumns columns = mSnapshot != null ? mSnapshot.getColumns() : null;
+        if (mInstances.forEachValue(procedure) && columns != null) {
+            columns.forEachInstance(mSnapshot.getHeapIndex(this), procedure);
+        }
     }
 
     public int getInstancesCount() {
-        return mInstances.size();
+        InstanceColumns columns = mSnapshot != null ? mSnapshot.getColumns() : null;
+        int count = mInstances.size();
+        if (columns != null) {
+            count += columns.getInstanceCount(mSnapshot.getHeapIndex(this));
+        }
+        return count;
     }
 }
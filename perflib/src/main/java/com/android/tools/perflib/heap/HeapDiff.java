@@ -0,0 +1,834 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.perflib.captures.DataBuffer;
+import com.android.tools.proguard.ProguardMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compares the instances of two columnar snapshots of the same process, and reports the
+ * differences class by class, in order of class name, to a {@link Listener}.
+ *
+ * <p>Classes are matched by name, so that classes loaded by several class loaders are reported
+ * together. Instances of a class are matched by id, unless their contents differ, in case the id
+ * was reused by another instance. The remaining instances of strings and primitive arrays are
+ * then matched by their contents, since a moving garbage collector changes the ids of instances
+ * which survive it. Contents are first compared by a 64-bit hash, and then byte by byte.
+ *
+ * <p>Only the columns of the snapshots are read, and no view of an instance is created. {@link
+ * #diff(File, File, ProguardMap, Listener)} reads the columns of the baseline in place from its
+ * {@link SnapshotIndex}, with {@link MappedColumns}, so that only the current snapshot is held in
+ * memory.
+ */
+public final class HeapDiff {
+
+    private static final String STRING_CLASS_NAME = "java.lang.String";
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /** Receives the differences of each class, as soon as they are computed. */
+    public interface Listener {
+
+        void onClassDiff(@NonNull ClassDiff diff);
+    }
+
+    /** The differences between the instances of a class in the two snapshots. */
+    public static final class ClassDiff {
+
+        @NonNull private final String mClassName;
+
+        private final int mBaselineCount;
+
+        private final int mCurrentCount;
+
+        private final long mBaselineShallowSize;
+
+        private final long mCurrentShallowSize;
+
+        private final long mBaselineRetainedSize;
+
+        private final long mCurrentRetainedSize;
+
+        private final int mMatchedByIdCount;
+
+        private final int mMatchedBySignatureCount;
+
+        ClassDiff(
+                @NonNull String className,
+                @NonNull Side baseline,
+                @NonNull Side current,
+                int matchedByIdCount,
+                int matchedBySignatureCount) {
+            mClassName = className;
+            mBaselineCount = baseline.mGroupSize;
+            mCurrentCount = current.mGroupSize;
+            mBaselineShallowSize = baseline.mShallowSize;
+            mCurrentShallowSize = current.mShallowSize;
+            mBaselineRetainedSize = baseline.mRetainedSize;
+            mCurrentRetainedSize = current.mRetainedSize;
+            mMatchedByIdCount = matchedByIdCount;
+            mMatchedBySignatureCount = matchedBySignatureCount;
+        }
+
+        @NonNull
+        public String getClassName() {
+            return mClassName;
+        }
+
+        public int getBaselineCount() {
+            return mBaselineCount;
+        }
+
+        public int getCurrentCount() {
+            return mCurrentCount;
+        }
+
+        public int getCountDelta() {
+            return mCurrentCount - mBaselineCount;
+        }
+
+        public long getShallowSizeDelta() {
+            return mCurrentShallowSize - mBaselineShallowSize;
+        }
+
+        /**
+         * Returns the difference of the sizes retained by the instances of the class. The size
+         * retained by the instances of a class is the sum of the retained sizes of those which
+         * are not immediately dominated by another instance of the class, and is zero if the
+         * dominators of a snapshot were not computed.
+         */
+        public long getRetainedSizeDelta() {
+            return mCurrentRetainedSize - mBaselineRetainedSize;
+        }
+
+        /** Returns the number of instances of both snapshots with the same id and contents. */
+        public int getMatchedByIdCount() {
+            return mMatchedByIdCount;
+        }
+
+        /**
+         * Returns the number of strings or primitive arrays of both snapshots which have the same
+         * contents but not the same id.
+         */
+        public int getMatchedBySignatureCount() {
+            return mMatchedBySignatureCount;
+        }
+
+        /** Returns the number of instances of the current snapshot not in the baseline. */
+        public int getAddedCount() {
+            return mCurrentCount - mMatchedByIdCount - mMatchedBySignatureCount;
+        }
+
+        /** Returns the number of instances of the baseline not in the current snapshot. */
+        public int getRemovedCount() {
+            return mBaselineCount - mMatchedByIdCount - mMatchedBySignatureCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%1$s: %2$+d instances (%3$d added, %4$d removed), %5$+d bytes shallow,"
+                            + " %6$+d bytes retained",
+                    mClassName,
+                    getCountDelta(),
+                    getAddedCount(),
+                    getRemovedCount(),
+                    getShallowSizeDelta(),
+                    getRetainedSizeDelta());
+        }
+    }
+
+    @NonNull private final Side mBaseline;
+
+    @NonNull private final Side mCurrent;
+
+    public HeapDiff(@NonNull Snapshot baseline, @NonNull Snapshot current) {
+        this(new ColumnsSide(baseline), new ColumnsSide(current));
+    }
+
+    private HeapDiff(@NonNull Side baseline, @NonNull Side current) {
+        mBaseline = baseline;
+        mCurrent = current;
+    }
+
+    /**
+     * Compares two heap dump files. The baseline is read in place from its index, which is written
+     * first if needed, and the current heap dump is opened as a columnar snapshot.
+     */
+    public static void diff(
+            @NonNull File baseline,
+            @NonNull File current,
+            @NonNull ProguardMap map,
+            @NonNull Listener listener)
+            throws IOException {
+        MappedColumns baselineColumns = Snapshot.openMappedColumns(baseline, map);
+        Snapshot baselineSnapshot = null;
+        if (baselineColumns == null) {
+            baselineSnapshot = Snapshot.openColumnarSnapshot(baseline, map, true);
+            baselineColumns = Snapshot.openMappedColumns(baseline, map);
+            if (baselineColumns != null) {
+                baselineSnapshot.dispose();
+                baselineSnapshot = null;
+            }
+            // Otherwise the index could not be written, and the baseline stays in memory.
+        }
+        try {
+            Snapshot currentSnapshot = Snapshot.openColumnarSnapshot(current, map, true);
+            try {
+                Side baselineSide =
+                        baselineColumns != null
+                                ? new MappedSide(baselineColumns)
+                                : new ColumnsSide(baselineSnapshot);
+                new HeapDiff(baselineSide, new ColumnsSide(currentSnapshot)).diff(listener);
+            } finally {
+                currentSnapshot.dispose();
+            }
+        } finally {
+            if (baselineColumns != null) {
+                baselineColumns.dispose();
+            }
+            if (baselineSnapshot != null) {
+                baselineSnapshot.dispose();
+            }
+        }
+    }
+
+    /**
+     * Compares the snapshots, and calls the listener with the differences of each class which has
+     * instances in either snapshot, in order of class name.
+     */
+    public void diff(@NonNull Listener listener) {
+        mBaseline.groupByClass();
+        mCurrent.groupByClass();
+
+        int baselineClass = 0;
+        int currentClass = 0;
+        while (baselineClass < mBaseline.mClassCount || currentClass < mCurrent.mClassCount) {
+            String className;
+            if (baselineClass == mBaseline.mClassCount) {
+                className = mCurrent.getClassName(currentClass);
+            } else if (currentClass == mCurrent.mClassCount) {
+                className = mBaseline.getClassName(baselineClass);
+            } else {
+                String baselineName = mBaseline.getClassName(baselineClass);
+                String currentName = mCurrent.getClassName(currentClass);
+                className = baselineName.compareTo(currentName) <= 0 ? baselineName : currentName;
+            }
+            baselineClass = mBaseline.selectGroup(baselineClass, className);
+            currentClass = mCurrent.selectGroup(currentClass, className);
+            if (mBaseline.mGroupSize > 0 || mCurrent.mGroupSize > 0) {
+                listener.onClassDiff(diffGroups(className));
+            }
+        }
+
+        mBaseline.release();
+        mCurrent.release();
+    }
+
+    @NonNull
+    private ClassDiff diffGroups(@NonNull String className) {
+        boolean hasContents =
+                STRING_CLASS_NAME.equals(className)
+                        || (mBaseline.mGroupSize > 0
+                                && mBaseline.isPrimitiveArray(mBaseline.mGroup[0]))
+                        || (mCurrent.mGroupSize > 0
+                                && mCurrent.isPrimitiveArray(mCurrent.mGroup[0]));
+
+        // Match instances by id, both groups being sorted by id.
+        boolean[] baselineMatched = new boolean[mBaseline.mGroupSize];
+        boolean[] currentMatched = new boolean[mCurrent.mGroupSize];
+        int matchedById = 0;
+        for (int i = 0; i < mCurrent.mGroupSize; i++) {
+            int currentNode = mCurrent.mGroup[i];
+            int node = mBaseline.findInstanceIndex(mCurrent.getId(currentNode));
+            int position =
+                    node >= 0 ? Arrays.binarySearch(mBaseline.mGroup, 0, mBaseline.mGroupSize, node)
+                            : -1;
+            if (position >= 0
+                    && (!hasContents || haveSameContents(node, currentNode))) {
+                baselineMatched[position] = true;
+                currentMatched[i] = true;
+                matchedById++;
+            }
+        }
+
+        // Match the remaining instances by their contents, sorting them by signature first.
+        int matchedBySignature = 0;
+        if (hasContents) {
+            int[] baselineUnmatched = mBaseline.getUnmatchedBySignature(baselineMatched);
+            int[] currentUnmatched = mCurrent.getUnmatchedBySignature(currentMatched);
+            int b = 0;
+            int c = 0;
+            while (b < baselineUnmatched.length && c < currentUnmatched.length) {
+                long baselineSignature = mBaseline.mSignatures[baselineUnmatched[b]];
+                long currentSignature = mCurrent.mSignatures[currentUnmatched[c]];
+                if (baselineSignature < currentSignature) {
+                    b++;
+                } else if (baselineSignature > currentSignature) {
+                    c++;
+                } else {
+                    int baselineEnd = b;
+                    while (baselineEnd < baselineUnmatched.length
+                            && mBaseline.mSignatures[baselineUnmatched[baselineEnd]]
+                                    == baselineSignature) {
+                        baselineEnd++;
+                    }
+                    int currentEnd = c;
+                    while (currentEnd < currentUnmatched.length
+                            && mCurrent.mSignatures[currentUnmatched[currentEnd]]
+                                    == currentSignature) {
+                        currentEnd++;
+                    }
+                    matchedBySignature +=
+                            matchContents(baselineUnmatched, b, baselineEnd, currentUnmatched, c,
+                                    currentEnd);
+                    b = baselineEnd;
+                    c = currentEnd;
+                }
+            }
+        }
+
+        return new ClassDiff(className, mBaseline, mCurrent, matchedById, matchedBySignature);
+    }
+
+    /**
+     * Matches the instances of the baseline and current snapshot with the same signature, at
+     * positions {@code baselineStart} to {@code baselineEnd} and {@code currentStart} to {@code
+     * currentEnd} of the unmatched instances, which have the same contents unless their signatures
+     * collide. Returns the number of matches.
+     */
+    private int matchContents(
+            @NonNull int[] baselineUnmatched,
+            int baselineStart,
+            int baselineEnd,
+            @NonNull int[] currentUnmatched,
+            int currentStart,
+            int currentEnd) {
+        int matched = 0;
+        boolean[] baselineMatched = new boolean[baselineEnd - baselineStart];
+        // The first baseline instance which is not matched yet.
+        int first = 0;
+        for (int c = currentStart; c < currentEnd && first < baselineMatched.length; c++) {
+            int currentNode = mCurrent.mGroup[currentUnmatched[c]];
+            for (int b = first; b < baselineMatched.length; b++) {
+                if (!baselineMatched[b]
+                        && haveSameContents(
+                                mBaseline.mGroup[baselineUnmatched[baselineStart + b]],
+                                currentNode)) {
+                    baselineMatched[b] = true;
+                    matched++;
+                    break;
+                }
+            }
+            while (first < baselineMatched.length && baselineMatched[first]) {
+                first++;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Returns whether an instance of the baseline and one of the current snapshot have the same
+     * contents. Instances whose contents cannot be read only match if they have the same id.
+     */
+    private boolean haveSameContents(int baselineNode, int currentNode) {
+        boolean baselineHasContents = mBaseline.findContents(baselineNode);
+        boolean currentHasContents = mCurrent.findContents(currentNode);
+        if (!baselineHasContents || !currentHasContents) {
+            return !baselineHasContents
+                    && !currentHasContents
+                    && mBaseline.getId(baselineNode) == mCurrent.getId(currentNode);
+        }
+        if (mBaseline.mContentsType != mCurrent.mContentsType
+                || mBaseline.mContentsLength != mCurrent.mContentsLength) {
+            return false;
+        }
+        long length = mBaseline.mContentsLength;
+        for (long start = 0; start < length; start += CHUNK_SIZE) {
+            int count = (int) Math.min(CHUNK_SIZE, length - start);
+            if (!Arrays.equals(
+                    mBaseline.readContents(start, count), mCurrent.readContents(start, count))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The instances of one of the snapshots, and those of the class being compared. The columns
+     * are either those of a columnar snapshot, or read in place from an index.
+     */
+    private abstract static class Side {
+
+        @NonNull private final Snapshot mSnapshot;
+
+        final int mClassCount;
+
+        //  The class indices, sorted by class name.
+        @Nullable private int[] mClassesByName;
+
+        //  The instances grouped by class index.
+        @Nullable private int[] mStarts;
+
+        @Nullable private int[] mInstances;
+
+        @Nullable private byte[] mChunk;
+
+        //  The instances of the classes with the current name, sorted by node, and their sizes.
+        @NonNull int[] mGroup = new int[0];
+
+        int mGroupSize;
+
+        long mShallowSize;
+
+        long mRetainedSize;
+
+        //  The signatures of the unmatched instances of the group, by position in the group.
+        @NonNull long[] mSignatures = new long[0];
+
+        //  The contents found by the last call to findContents.
+        byte mContentsType;
+
+        long mContentsOffset;
+
+        long mContentsLength;
+
+        //  The offsets of the fields of the last string class, or -1 for missing fields.
+        @Nullable private ClassObj mStringClass;
+
+        private int mValueOffset;
+
+        private int mCountOffset;
+
+        private int mOffsetOffset;
+
+        Side(@NonNull Snapshot snapshot, int classCount) {
+            mSnapshot = snapshot;
+            mClassCount = classCount;
+        }
+
+        abstract int size();
+
+        @NonNull
+        abstract ClassObj getClassObj(int classIndex);
+
+        abstract long getId(int node);
+
+        abstract long getValuesOffset(int node);
+
+        abstract int getLength(int node);
+
+        abstract byte getArrayType(int node);
+
+        abstract int getClassIndex(int node);
+
+        abstract int getImmediateDominatorNode(int node);
+
+        abstract long getTotalRetainedSize(int node);
+
+        abstract int findInstanceIndex(long id);
+
+        void groupByClass() {
+            int size = size();
+            int[] starts = new int[mClassCount + 1];
+            for (int i = 0; i < size; i++) {
+                int classIndex = getClassIndex(i);
+                if (classIndex != InstanceColumns.NO_INDEX) {
+                    starts[classIndex + 1]++;
+                }
+            }
+            for (int i = 1; i < starts.length; i++) {
+                starts[i] += starts[i - 1];
+            }
+            int[] instances = new int[starts[mClassCount]];
+            int[] next = Arrays.copyOf(starts, mClassCount);
+            for (int i = 0; i < size; i++) {
+                int classIndex = getClassIndex(i);
+                if (classIndex != InstanceColumns.NO_INDEX) {
+                    instances[next[classIndex]++] = i;
+                }
+            }
+            mStarts = starts;
+            mInstances = instances;
+            mChunk = new byte[CHUNK_SIZE];
+
+            Integer[] classes = new Integer[mClassCount];
+            for (int i = 0; i < mClassCount; i++) {
+                classes[i] = i;
+            }
+            Arrays.sort(classes, (first, second) -> getName(first).compareTo(getName(second)));
+            mClassesByName = new int[mClassCount];
+            for (int i = 0; i < mClassCount; i++) {
+                mClassesByName[i] = classes[i];
+            }
+        }
+
+        void release() {
+            mClassesByName = null;
+            mStarts = null;
+            mInstances = null;
+            mChunk = null;
+            mGroup = new int[0];
+            mSignatures = new long[0];
+            mStringClass = null;
+        }
+
+        @NonNull
+        private String getName(int classIndex) {
+            return getClassObj(classIndex).getClassName();
+        }
+
+        /** Returns the name of the class at a position in order of class name. */
+        @NonNull
+        String getClassName(int position) {
+            assert mClassesByName != null;
+            return getName(mClassesByName[position]);
+        }
+
+        /**
+         * Selects the instances of the classes with the given name, which are at the given
+         * position in order of class name if there are any, and returns the position after them.
+         */
+        int selectGroup(int position, @NonNull String className) {
+            assert mClassesByName != null && mStarts != null && mInstances != null;
+            int end = position;
+            int size = 0;
+            while (end < mClassCount && getClassName(end).equals(className)) {
+                int classIndex = mClassesByName[end];
+                size += mStarts[classIndex + 1] - mStarts[classIndex];
+                end++;
+            }
+
+            if (mGroup.length < size) {
+                mGroup = new int[size];
+                mSignatures = new long[size];
+            }
+            mGroupSize = 0;
+            for (int i = position; i < end; i++) {
+                int classIndex = mClassesByName[i];
+                int count = mStarts[classIndex + 1] - mStarts[classIndex];
+                System.arraycopy(mInstances, mStarts[classIndex], mGroup, mGroupSize, count);
+                mGroupSize += count;
+            }
+            if (end - position > 1) {
+                Arrays.sort(mGroup, 0, mGroupSize);
+            }
+
+            mShallowSize = 0;
+            mRetainedSize = 0;
+            for (int i = 0; i < mGroupSize; i++) {
+                int node = mGroup[i];
+                mShallowSize += getSize(node);
+                int dominator = getImmediateDominatorNode(node);
+                if (dominator < 0 || Arrays.binarySearch(mGroup, 0, mGroupSize, dominator) < 0) {
+                    mRetainedSize += getTotalRetainedSize(node);
+                }
+            }
+            return end;
+        }
+
+        /** Returns the shallow size of an instance. */
+        private long getSize(int node) {
+            byte arrayType = getArrayType(node);
+            if (arrayType == InstanceColumns.NO_ARRAY_TYPE) {
+                int classIndex = getClassIndex(node);
+                return classIndex != InstanceColumns.NO_INDEX
+                        ? getClassObj(classIndex).getInstanceSize()
+                        : 0;
+            }
+            return (long) getLength(node) * mSnapshot.getTypeSize(Type.getType(arrayType));
+        }
+
+        /** Returns whether an instance is an array of primitive values. */
+        boolean isPrimitiveArray(int node) {
+            byte arrayType = getArrayType(node);
+            return arrayType != InstanceColumns.NO_ARRAY_TYPE
+                    && arrayType != Type.OBJECT.getTypeId();
+        }
+
+        /**
+         * Finds the contents of an instance in the heap dump, which are the values of a primitive
+         * array, or those of the value of a string, and returns whether they were found.
+         */
+        boolean findContents(int node) {
+            if (isPrimitiveArray(node)) {
+                setContents(node, 0, getLength(node));
+                return true;
+            }
+            int classIndex = getClassIndex(node);
+            if (getArrayType(node) != InstanceColumns.NO_ARRAY_TYPE
+                    || classIndex == InstanceColumns.NO_INDEX) {
+                return false;
+            }
+            ClassObj classObj = getClassObj(classIndex);
+            if (classObj != mStringClass) {
+                findStringFields(classObj);
+            }
+            if (mValueOffset < 0) {
+                return false;
+            }
+
+            DataBuffer buffer = mSnapshot.getBuffer();
+            long valuesOffset = getValuesOffset(node);
+            buffer.setPosition(valuesOffset + mValueOffset);
+            int valueNode = findInstanceIndex(readId(buffer, mSnapshot.getTypeSize(Type.OBJECT)));
+            if (valueNode == InstanceColumns.NO_INDEX || !isPrimitiveArray(valueNode)) {
+                return false;
+            }
+            int length = getLength(valueNode);
+            int start = 0;
+            if (mOffsetOffset >= 0) {
+                buffer.setPosition(valuesOffset + mOffsetOffset);
+                start = Math.min(Math.max(buffer.readInt(), 0), length);
+            }
+            int count = length - start;
+            if (mCountOffset >= 0) {
+                buffer.setPosition(valuesOffset + mCountOffset);
+                int stringCount = buffer.readInt();
+                count = stringCount >= 0 ? Math.min(stringCount, count) : count;
+            }
+            setContents(valueNode, start, count);
+            return true;
+        }
+
+        /** Sets the contents to {@code count} values of an array, from index {@code start}. */
+        private void setContents(int arrayNode, int start, int count) {
+            byte arrayType = getArrayType(arrayNode);
+            int typeSize = mSnapshot.getTypeSize(Type.getType(arrayType));
+            mContentsType = arrayType;
+            mContentsOffset = getValuesOffset(arrayNode) + (long) start * typeSize;
+            mContentsLength = (long) count * typeSize;
+        }
+
+        /** Finds the offsets of the value, count and offset fields of a string class. */
+        private void findStringFields(@NonNull ClassObj classObj) {
+            mStringClass = classObj;
+            mValueOffset = -1;
+            mCountOffset = -1;
+            mOffsetOffset = -1;
+            int offset = 0;
+            for (ClassObj clazz = classObj; clazz != null; clazz = clazz.getSuperClassObj()) {
+                for (Field field : clazz.getFields()) {
+                    if (field.getType() == Type.OBJECT && "value".equals(field.getName())) {
+                        mValueOffset = mValueOffset < 0 ? offset : mValueOffset;
+                    } else if (field.getType() == Type.INT && "count".equals(field.getName())) {
+                        mCountOffset = offset;
+                    } else if (field.getType() == Type.INT && "offset".equals(field.getName())) {
+                        mOffsetOffset = offset;
+                    }
+                    offset += mSnapshot.getTypeSize(field.getType());
+                }
+            }
+        }
+
+        /** Reads {@code count} bytes of the contents found last, from {@code start}. */
+        @NonNull
+        byte[] readContents(long start, int count) {
+            assert mChunk != null;
+            byte[] bytes = count == mChunk.length ? mChunk : new byte[count];
+            DataBuffer buffer = mSnapshot.getBuffer();
+            buffer.setPosition(mContentsOffset + start);
+            buffer.read(bytes);
+            return bytes;
+        }
+
+        /**
+         * Returns the positions in the group of the instances which are not matched and whose
+         * contents can be read, sorted by the signatures of their contents, which are set in
+         * {@link #mSignatures}.
+         */
+        @NonNull
+        int[] getUnmatchedBySignature(@NonNull boolean[] matched) {
+            int[] positions = new int[mGroupSize];
+            int count = 0;
+            for (int i = 0; i < mGroupSize; i++) {
+                if (!matched[i] && findContents(mGroup[i])) {
+                    mSignatures[i] = computeSignature();
+                    positions[count++] = i;
+                }
+            }
+            positions = Arrays.copyOf(positions, count);
+            InstanceColumns.sortIndices(positions, mSignatures);
+            return positions;
+        }
+
+        /** Returns a 64-bit FNV-1a hash of the contents found last. */
+        private long computeSignature() {
+            long hash = 0xcbf29ce484222325L ^ mContentsType;
+            for (long start = 0; start < mContentsLength; start += CHUNK_SIZE) {
+                int count = (int) Math.min(CHUNK_SIZE, mContentsLength - start);
+                for (byte value : readContents(start, count)) {
+                    hash = (hash ^ (value & 0xff)) * 0x100000001b3L;
+                }
+            }
+            return hash;
+        }
+
+        private static long readId(@NonNull DataBuffer buffer, int idSize) {
+            // As long as we don't interpret IDs, reading signed values here is fine.
+            switch (idSize) {
+                case 1:
+                    return buffer.readByte();
+                case 2:
+                    return buffer.readShort();
+                case 4:
+                    return buffer.readInt();
+                case 8:
+                    return buffer.readLong();
+            }
+            throw new IllegalArgumentException("ID Length must be 1, 2, 4, or 8");
+        }
+    }
+
+    /** The instances of a columnar snapshot. */
+    private static final class ColumnsSide extends Side {
+
+        @NonNull private final InstanceColumns mColumns;
+
+        ColumnsSide(@NonNull Snapshot snapshot) {
+            super(snapshot, getColumns(snapshot).getClassCount());
+            mColumns = getColumns(snapshot);
+        }
+
+        @NonNull
+        private static InstanceColumns getColumns(@NonNull Snapshot snapshot) {
+            InstanceColumns columns = snapshot.getColumns();
+            if (columns == null) {
+                throw new IllegalArgumentException("Only columnar snapshots can be compared");
+            }
+            return columns;
+        }
+
+        @Override
+        int size() {
+            return mColumns.size();
+        }
+
+        @NonNull
+        @Override
+        ClassObj getClassObj(int classIndex) {
+            return mColumns.getClassObj(classIndex);
+        }
+
+        @Override
+        long getId(int node) {
+            return mColumns.getId(node);
+        }
+
+        @Override
+        long getValuesOffset(int node) {
+            return mColumns.getValuesOffset(node);
+        }
+
+        @Override
+        int getLength(int node) {
+            return mColumns.getLength(node);
+        }
+
+        @Override
+        byte getArrayType(int node) {
+            return mColumns.getArrayType(node);
+        }
+
+        @Override
+        int getClassIndex(int node) {
+            return mColumns.getClassIndex(node);
+        }
+
+        @Override
+        int getImmediateDominatorNode(int node) {
+            return mColumns.getImmediateDominatorNode(node);
+        }
+
+        @Override
+        long getTotalRetainedSize(int node) {
+            return mColumns.getTotalRetainedSize(node);
+        }
+
+        @Override
+        int findInstanceIndex(long id) {
+            return mColumns.findInstanceIndex(id);
+        }
+    }
+
+    /** The instances of a heap dump, read in place from its index. */
+    private static final class MappedSide extends Side {
+
+        @NonNull private final MappedColumns mColumns;
+
+        MappedSide(@NonNull MappedColumns columns) {
+            super(columns.getSnapshot(), columns.getClassCount());
+            mColumns = columns;
+        }
+
+        @Override
+        int size() {
+            return mColumns.size();
+        }
+
+        @NonNull
+        @Override
+        ClassObj getClassObj(int classIndex) {
+            return mColumns.getClassObj(classIndex);
+        }
+
+        @Override
+        long getId(int node) {
+            return mColumns.getId(node);
+        }
+
+        @Override
+        long getValuesOffset(int node) {
+            return mColumns.getValuesOffset(node);
+        }
+
+        @Override
+        int getLength(int node) {
+            return mColumns.getLength(node);
+        }
+
+        @Override
+        byte getArrayType(int node) {
+            return mColumns.getArrayType(node);
+        }
+
+        @Override
+        int getClassIndex(int node) {
+            return mColumns.getClassIndex(node);
+        }
+
+        @Override
+        int getImmediateDominatorNode(int node) {
+            return mColumns.getImmediateDominatorNode(node);
+        }
+
+        @Override
+        long getTotalRetainedSize(int node) {
+            return mColumns.getTotalRetainedSize(node);
+        }
+
+        @Override
+        int findInstanceIndex(long id) {
+            return mColumns.findInstanceIndex(id);
+        }
+    }
+}
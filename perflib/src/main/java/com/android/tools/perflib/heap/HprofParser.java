@@ -17,6 +17,7 @@
 package com.android.tools.perflib.heap;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.tools.perflib.captures.DataBuffer;
 import com.android.tools.proguard.ProguardMap;
 import com.google.common.primitives.UnsignedBytes;
@@ -25,6 +26,14 @@ import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TLongObjectHashMap;
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 class HprofParser {
 
@@ -119,6 +128,14 @@ class HprofParser {
 
     private static final int PRIMITIVE_ARRAY_NODATA = 0xc3;
 
+    /**
+     * Minimum number of bytes of heap dump records decoded by each thread. Android writes heap
+     * dumps in many small segments, which are grouped in batches of at least this size.
+     */
+    private static final long MIN_BATCH_SIZE = 1 << 20;
+
+    private static final int NO_STACK_DEPTH = -1;
+
     @NonNull
     private final DataBuffer mInput;
 
@@ -142,14 +159,43 @@ class HprofParser {
     @NonNull
     TIntObjectHashMap<String> mClassNamesBySerial = new TIntObjectHashMap<String>();
 
-    static void parseBuffer(@NonNull Snapshot snapshot, @NonNull DataBuffer buffer, @NonNull ProguardMap map) {
-        new HprofParser(snapshot, buffer, map).parse();
+    //  The number of threads decoding heap dump records.
+    private final int mParallelism;
+
+    //  Offsets and lengths of the heap dump records, which are decoded after all the other records.
+    @NonNull
+    private long[] mHeapDumpOffsets = new long[16];
+
+    @NonNull
+    private long[] mHeapDumpLengths = new long[16];
+
+    private int mHeapDumpCount;
+
+    //  GC roots on the stacks of threads, when decoding part of the heap dump records.
+    @Nullable
+    private List<ThreadRoot> mThreadRoots;
+
+    /**
+     * Parses a heap dump, decoding its heap dump records on up to {@code parallelism} threads if
+     * the buffer supports concurrent reads.
+     */
+    static void parseBuffer(
+            @NonNull Snapshot snapshot,
+            @NonNull DataBuffer buffer,
+            @NonNull ProguardMap map,
+            int parallelism) {
+        new HprofParser(snapshot, buffer, map, parallelism).parse();
     }
 
-    private HprofParser(@NonNull Snapshot snapshot, @NonNull DataBuffer buffer, @NonNull ProguardMap map) {
+    private HprofParser(
+            @NonNull Snapshot snapshot,
+            @NonNull DataBuffer buffer,
+            @NonNull ProguardMap map,
+            int parallelism) {
         mInput = buffer;
         mSnapshot = snapshot;
         mProguardMap = map;
+        mParallelism = parallelism;
     }
 
     private void parse() {
@@ -186,13 +232,9 @@ class HprofParser {
                             break;
 
                         case HEAP_DUMP:
-                            loadHeapDump(length);
-                            mSnapshot.setToDefaultHeap();
-                            break;
-
                         case HEAP_DUMP_SEGMENT:
-                            loadHeapDump(length);
-                            mSnapshot.setToDefaultHeap();
+                            addHeapDump(mInput.position(), length);
+                            skipFully(length);
                             break;
 
                         default:
@@ -202,11 +244,18 @@ class HprofParser {
                 }
             } catch (EOFException eof) {
                 //  this is fine
+            } finally {
+                // Decode the heap dump records found even if the rest of the file is truncated or
+                // corrupt, as a single pass would have decoded them before reaching that point.
+                loadHeapDumps();
             }
             mSnapshot.resolveClasses();
             mSnapshot.identifySoftReferences();
             // TODO: enable this after the dominators computation is also optimized.
             // mSnapshot.computeRetainedSizes();
+        } catch (SnapshotIndex.StaleIndexException e) {
+            // The snapshot is parsed again without its index.
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -216,6 +265,170 @@ class HprofParser {
         mStrings.clear();
     }
 
+    private void addHeapDump(long offset, long length) {
+        if (mHeapDumpCount == mHeapDumpOffsets.length) {
+            mHeapDumpOffsets = Arrays.copyOf(mHeapDumpOffsets, mHeapDumpCount * 2);
+            mHeapDumpLengths = Arrays.copyOf(mHeapDumpLengths, mHeapDumpCount * 2);
+        }
+        mHeapDumpOffsets[mHeapDumpCount] = offset;
+        mHeapDumpLengths[mHeapDumpCount] = length;
+        mHeapDumpCount++;
+    }
+
+    /**
+     * Decodes the heap dump records. Each heap dump record is self-contained except for the
+     * threads of GC roots on thread stacks, so batches of records are decoded in parallel into
+     * partial snapshots, which are then merged into the snapshot in the order of the file.
+     *
+     * <p>Batches are decoded on the common fork join pool, with at most {@link #mParallelism}
+     * batches submitted ahead of the one being merged.
+     */
+    private void loadHeapDumps() throws IOException, InterruptedException {
+        List<int[]> batches = getHeapDumpBatches();
+        if (batches.size() < 2 || mInput.duplicate() == null) {
+            loadHeapDumps(0, mHeapDumpCount);
+            return;
+        }
+
+        ExecutorService executor = ForkJoinPool.commonPool();
+        int window = Math.min(mParallelism, batches.size());
+        List<Future<HprofParser>> parsers = new ArrayList<Future<HprofParser>>();
+        try {
+            for (int i = 0; i < window; i++) {
+                parsers.add(submitBatch(executor, batches.get(i)));
+            }
+            for (int i = 0; i < batches.size(); i++) {
+                HprofParser parser = parsers.get(i).get();
+                parsers.set(i, null); // Let the partial snapshot be collected once merged.
+                if (i + window < batches.size()) {
+                    parsers.add(submitBatch(executor, batches.get(i + window)));
+                }
+                merge(parser);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<HprofParser> parser : parsers) {
+                if (parser != null) {
+                    parser.cancel(false);
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private Future<HprofParser> submitBatch(
+            @NonNull ExecutorService executor, @NonNull final int[] batch) {
+        return executor.submit(new Callable<HprofParser>() {
+            @Override
+            public HprofParser call() throws Exception {
+                return loadPartialHeapDumps(batch[0], batch[1]);
+            }
+        });
+    }
+
+    /**
+     * Groups consecutive heap dump records in batches, with several batches per thread so that
+     * threads stay busy when batches take different times to decode.
+     */
+    @NonNull
+    private List<int[]> getHeapDumpBatches() {
+        List<int[]> batches = new ArrayList<int[]>();
+        if (mParallelism < 2) {
+            batches.add(new int[] {0, mHeapDumpCount});
+            return batches;
+        }
+
+        long totalLength = 0;
+        for (int i = 0; i < mHeapDumpCount; i++) {
+            totalLength += mHeapDumpLengths[i];
+        }
+        long batchSize = Math.max(MIN_BATCH_SIZE, totalLength / (mParallelism * 4L));
+        int start = 0;
+        long length = 0;
+        for (int i = 0; i < mHeapDumpCount; i++) {
+            length += mHeapDumpLengths[i];
+            if (length >= batchSize) {
+                batches.add(new int[] {start, i + 1});
+                start = i + 1;
+                length = 0;
+            }
+        }
+        if (start < mHeapDumpCount) {
+            batches.add(new int[] {start, mHeapDumpCount});
+        }
+        return batches;
+    }
+
+    private void loadHeapDumps(int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            mInput.setPosition(mHeapDumpOffsets[i]);
+            loadHeapDump(mHeapDumpLengths[i]);
+            mSnapshot.setToDefaultHeap();
+        }
+    }
+
+    /**
+     * Decodes a batch of heap dump records into a partial snapshot, on a buffer of its own. The
+     * tables of strings, class names and stack traces are only read, so they are shared.
+     */
+    @NonNull
+    private HprofParser loadPartialHeapDumps(int start, int end) throws IOException {
+        DataBuffer buffer = mInput.duplicate();
+        assert buffer != null;
+        HprofParser parser =
+                new HprofParser(mSnapshot.createPartialSnapshot(buffer), buffer, mProguardMap, 1);
+        parser.mIdSize = mIdSize;
+        parser.mStrings = mStrings;
+        parser.mClassNamesById = mClassNamesById;
+        parser.mHeapDumpOffsets = mHeapDumpOffsets;
+        parser.mHeapDumpLengths = mHeapDumpLengths;
+        parser.mThreadRoots = new ArrayList<ThreadRoot>();
+        parser.loadHeapDumps(start, end);
+        return parser;
+    }
+
+    /** Moves the contents of a partial snapshot into the snapshot. */
+    private void merge(@NonNull HprofParser parser) {
+        Snapshot partial = parser.mSnapshot;
+        for (Heap heap : partial.mHeaps) {
+            Heap target = mSnapshot.setHeapTo(heap.getId(), heap.getName());
+            for (ClassObj classObj : heap.getClasses()) {
+                mSnapshot.addClass(classObj.getId(), classObj);
+            }
+            target.addInstances(heap);
+            for (int serialNumber : heap.mThreads.keys()) {
+                target.addThread(heap.mThreads.get(serialNumber), serialNumber);
+            }
+        }
+
+        InstanceColumns columns = mSnapshot.getColumns();
+        InstanceColumns partialColumns = partial.getColumns();
+        if (columns != null && partialColumns != null) {
+            columns.append(partialColumns);
+        }
+
+        for (RootObj root : partial.mRoots) {
+            Heap heap = root.getHeap();
+            mSnapshot.setHeapTo(heap.getId(), heap.getName());
+            mSnapshot.addRoot(root);
+        }
+        assert parser.mThreadRoots != null;
+        for (ThreadRoot root : parser.mThreadRoots) {
+            mSnapshot.setHeapTo(root.mHeapId, root.mHeapName);
+            addThreadRoot(root.mType, root.mId, root.mThreadSerialNumber, root.mStackDepth);
+        }
+        mSnapshot.setToDefaultHeap();
+    }
+
     @NonNull
     private String readNullTerminatedString() throws IOException {
         StringBuilder s = new StringBuilder();
@@ -428,11 +641,7 @@ class HprofParser {
         long id = readId();
         int threadSerialNumber = mInput.readInt();
         int stackFrameNumber = mInput.readInt();
-        ThreadObj thread = mSnapshot.getThread(threadSerialNumber);
-        StackTrace trace = mSnapshot.getStackTraceAtDepth(thread.mStackTrace, stackFrameNumber);
-        RootObj root = new RootObj(RootType.NATIVE_LOCAL, id, threadSerialNumber, trace);
-
-        mSnapshot.addRoot(root);
+        addThreadRoot(RootType.NATIVE_LOCAL, id, threadSerialNumber, stackFrameNumber);
 
         return mIdSize + 4 + 4;
     }
@@ -441,11 +650,7 @@ class HprofParser {
         long id = readId();
         int threadSerialNumber = mInput.readInt();
         int stackFrameNumber = mInput.readInt();
-        ThreadObj thread = mSnapshot.getThread(threadSerialNumber);
-        StackTrace trace = mSnapshot.getStackTraceAtDepth(thread.mStackTrace, stackFrameNumber);
-        RootObj root = new RootObj(RootType.JAVA_LOCAL, id, threadSerialNumber, trace);
-
-        mSnapshot.addRoot(root);
+        addThreadRoot(RootType.JAVA_LOCAL, id, threadSerialNumber, stackFrameNumber);
 
         return mIdSize + 4 + 4;
     }
@@ -453,11 +658,7 @@ class HprofParser {
     private int loadNativeStack() throws IOException {
         long id = readId();
         int threadSerialNumber = mInput.readInt();
-        ThreadObj thread = mSnapshot.getThread(threadSerialNumber);
-        StackTrace trace = mSnapshot.getStackTrace(thread.mStackTrace);
-        RootObj root = new RootObj(RootType.NATIVE_STACK, id, threadSerialNumber, trace);
-
-        mSnapshot.addRoot(root);
+        addThreadRoot(RootType.NATIVE_STACK, id, threadSerialNumber, NO_STACK_DEPTH);
 
         return mIdSize + 4;
     }
@@ -474,11 +675,7 @@ class HprofParser {
     private int loadThreadBlock() throws IOException {
         long id = readId();
         int threadSerialNumber = mInput.readInt();
-        ThreadObj thread = mSnapshot.getThread(threadSerialNumber);
-        StackTrace stack = mSnapshot.getStackTrace(thread.mStackTrace);
-        RootObj root = new RootObj(RootType.THREAD_BLOCK, id, threadSerialNumber, stack);
-
-        mSnapshot.addRoot(root);
+        addThreadRoot(RootType.THREAD_BLOCK, id, threadSerialNumber, NO_STACK_DEPTH);
 
         return mIdSize + 4;
     }
@@ -574,9 +771,14 @@ class HprofParser {
         int remaining = mInput.readInt();
 
         long position = mInput.position();
-        ClassInstance instance = new ClassInstance(id, stack, position);
-        instance.setClassId(classId);
-        mSnapshot.addInstance(id, instance);
+        InstanceColumns columns = mSnapshot.getColumns();
+        if (columns != null) {
+            columns.addClassInstance(id, stackId, classId, position);
+        } else {
+            ClassInstance instance = new ClassInstance(id, stack, position);
+            instance.setClassId(classId);
+            mSnapshot.addInstance(id, instance);
+        }
 
         skipFully(remaining);
         return mIdSize + 4 + mIdSize + 4 + remaining;
@@ -588,10 +790,16 @@ class HprofParser {
         StackTrace stack = mSnapshot.getStackTrace(stackId);
         int numElements = mInput.readInt();
         long classId = readId();
-        ArrayInstance array =
-                new ArrayInstance(id, stack, Type.OBJECT, numElements, mInput.position());
-        array.setClassId(classId);
-        mSnapshot.addInstance(id, array);
+        InstanceColumns columns = mSnapshot.getColumns();
+        if (columns != null) {
+            columns.addArrayInstance(
+                    id, stackId, classId, Type.OBJECT, numElements, mInput.position());
+        } else {
+            ArrayInstance array =
+                    new ArrayInstance(id, stack, Type.OBJECT, numElements, mInput.position());
+            array.setClassId(classId);
+            mSnapshot.addInstance(id, array);
+        }
 
         int remaining = numElements * mIdSize;
         skipFully(remaining);
@@ -605,8 +813,14 @@ class HprofParser {
         int numElements = mInput.readInt();
         Type type = Type.getType(readUnsignedByte());
         int size = mSnapshot.getTypeSize(type);
-        ArrayInstance array = new ArrayInstance(id, stack, type, numElements, mInput.position());
-        mSnapshot.addInstance(id, array);
+        InstanceColumns columns = mSnapshot.getColumns();
+        if (columns != null) {
+            columns.addArrayInstance(id, stackId, 0, type, numElements, mInput.position());
+        } else {
+            ArrayInstance array =
+                    new ArrayInstance(id, stack, type, numElements, mInput.position());
+            mSnapshot.addInstance(id, array);
+        }
 
         int remaining = numElements * size;
         skipFully(remaining);
@@ -617,15 +831,35 @@ class HprofParser {
         long id = readId();
         int threadSerialNumber = mInput.readInt();
         int stackDepth = mInput.readInt();
-        ThreadObj thread = mSnapshot.getThread(threadSerialNumber);
-        StackTrace trace = mSnapshot.getStackTraceAtDepth(thread.mStackTrace, stackDepth);
-        RootObj root = new RootObj(RootType.NATIVE_MONITOR, id, threadSerialNumber, trace);
-
-        mSnapshot.addRoot(root);
+        addThreadRoot(RootType.NATIVE_MONITOR, id, threadSerialNumber, stackDepth);
 
         return mIdSize + 4 + 4;
     }
 
+    /**
+     * Adds a GC root on the stack of a thread, at the given depth or with the whole stack trace
+     * of the thread. When decoding part of the heap dump records the thread may be in another
+     * part, so the root is only added when the parts are merged.
+     */
+    private void addThreadRoot(
+            @NonNull RootType type, long id, int threadSerialNumber, int stackDepth) {
+        if (mThreadRoots != null) {
+            Heap heap = mSnapshot.mCurrentHeap;
+            mThreadRoots.add(
+                    new ThreadRoot(
+                            heap.getId(), heap.getName(), type, id, threadSerialNumber,
+                            stackDepth));
+            return;
+        }
+
+        ThreadObj thread = mSnapshot.getThread(threadSerialNumber);
+        StackTrace trace =
+                stackDepth == NO_STACK_DEPTH
+                        ? mSnapshot.getStackTrace(thread.mStackTrace)
+                        : mSnapshot.getStackTraceAtDepth(thread.mStackTrace, stackDepth);
+        mSnapshot.addRoot(new RootObj(type, id, threadSerialNumber, trace));
+    }
+
     private int skipValue() throws IOException {
         Type type = Type.getType(readUnsignedByte());
         int size = mSnapshot.getTypeSize(type);
@@ -638,4 +872,32 @@ class HprofParser {
     private void skipFully(long numBytes) throws IOException {
         mInput.setPosition(mInput.position() + numBytes);
     }
+
+    /** A GC root on the stack of a thread, added once the thread is known. */
+    private static final class ThreadRoot {
+
+        private final int mHeapId;
+
+        @NonNull
+        private final String mHeapName;
+
+        @NonNull
+        private final RootType mType;
+
+        private final long mId;
+
+        private final int mThreadSerialNumber;
+
+        private final int mStackDepth;
+
+        private ThreadRoot(int heapId, @NonNull String heapName, @NonNull RootType type, long id,
+                int threadSerialNumber, int stackDepth) {
+            mHeapId = heapId;
+            mHeapName = heapName;
+            mType = type;
+            mId = id;
+            mThreadSerialNumber = threadSerialNumber;
+            mStackDepth = stackDepth;
+        }
+    }
 }
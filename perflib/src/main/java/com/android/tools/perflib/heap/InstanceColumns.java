@@ -0,0 +1,1280 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.perflib.captures.DataBuffer;
+import com.android.tools.perflib.heap.analysis.ComputationProgress;
+import com.android.tools.perflib.heap.analysis.CsrDominators;
+import gnu.trove.TObjectProcedure;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar model of the instances of a {@link Snapshot}.
+ *
+ * <p>Instead of one {@link ClassInstance} or {@link ArrayInstance} object per instance, each with
+ * lists of references and fields for the results of the dominator computation, the instances are
+ * rows of primitive arrays addressed by an index: id, class, offset of the values in the hprof
+ * buffer, heap, and so on. The references between instances are kept in compressed sparse row
+ * format, and the immediate dominators, distances to the GC roots and retained sizes as one column
+ * each. This makes the model of a heap dump several times smaller than the hprof file rather than
+ * several times larger.
+ *
+ * <p>Instances are exposed through the existing {@link Instance} API by lightweight views which are
+ * created on demand and read the columns. Views of the same instance are equal, but not identical.
+ *
+ * <p>Class objects are few, so they are still kept as {@link ClassObj} objects. In the reference
+ * graph they are numbered after the instances, and the results of the dominator computation are
+ * copied to them. Soft references are not tracked.
+ */
+public final class InstanceColumns {
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    /** The type of class instances, which are not arrays. */
+    static final byte NO_ARRAY_TYPE = 0;
+
+    static final int NO_INDEX = -1;
+
+    @NonNull private final Snapshot mSnapshot;
+
+    @NonNull private final ComputationProgress mProgress =
+            new ComputationProgress("Calculating dominators...", 0);
+
+    @Nullable private Heap mCurrentHeap;
+
+    private byte mCurrentHeapIndex;
+
+    /** The number of instances. */
+    private int mSize;
+
+    /** Whether the instances are sorted by id, which they are once classes are resolved. */
+    private boolean mSorted;
+
+    /**
+     * Whether the columns were read from a {@link SnapshotIndex}, in which case the instances
+     * decoded by the parser are ignored.
+     */
+    private boolean mIndexed;
+
+    //  The heaps and classes of the snapshot the index was written from, until classes are
+    //  resolved.
+    @Nullable private int[] mIndexedHeapIds;
+
+    @Nullable private String[] mIndexedHeapNames;
+
+    @Nullable private long[] mIndexedClassIds;
+
+    //  Columns of the instances, filled by the parser.
+    @NonNull private long[] mIds = new long[INITIAL_CAPACITY];
+
+    @NonNull private long[] mValuesOffsets = new long[INITIAL_CAPACITY];
+
+    @NonNull private int[] mLengths = new int[INITIAL_CAPACITY];
+
+    @NonNull private byte[] mArrayTypes = new byte[INITIAL_CAPACITY];
+
+    @NonNull private byte[] mHeapIndices = new byte[INITIAL_CAPACITY];
+
+    @NonNull private int[] mStackSerials = new int[INITIAL_CAPACITY];
+
+    //  Ids of the classes of the instances, replaced by mClassIndices once classes are resolved.
+    @Nullable private long[] mClassIds = new long[INITIAL_CAPACITY];
+
+    @Nullable private int[] mClassIndices;
+
+    @Nullable private long[] mNativeSizes;
+
+    //  The number of instances of each heap, by heap index.
+    @NonNull private int[] mHeapCounts = new int[0];
+
+    //  The classes, sorted by id.
+    @NonNull private ClassObj[] mClasses = new ClassObj[0];
+
+    @NonNull private long[] mClassObjIds = new long[0];
+
+    //  The reference graph, over the instances followed by the classes and the sentinel root.
+    @Nullable private int[] mForwardStarts;
+
+    @Nullable private int[] mForwardReferences;
+
+    @Nullable private int[] mReverseStarts;
+
+    @Nullable private int[] mReverseReferences;
+
+    //  The results of the analysis, for the instances followed by the classes.
+    @Nullable private int[] mDistances;
+
+    @Nullable private int[] mNextNodesToGcRoot;
+
+    @Nullable private int[] mImmediateDominators;
+
+    @Nullable private int[] mDepthFirstOrder;
+
+    @Nullable private int[] mTopologicalOrdering;
+
+    //  The retained sizes, indexed by heap index and then by node.
+    @Nullable private long[][] mRetainedSizes;
+
+    //  The dominator computation, until the retained sizes are computed.
+    @Nullable private volatile CsrDominators mDominators;
+
+    InstanceColumns(@NonNull Snapshot snapshot) {
+        mSnapshot = snapshot;
+    }
+
+    void addClassInstance(long id, int stackSerial, long classId, long valuesOffset) {
+        add(id, stackSerial, classId, NO_ARRAY_TYPE, 0, valuesOffset);
+    }
+
+    void addArrayInstance(
+            long id, int stackSerial, long classId, @NonNull Type type, int length,
+            long valuesOffset) {
+        add(id, stackSerial, classId, (byte) type.getTypeId(), length, valuesOffset);
+    }
+
+    private void add(
+            long id, int stackSerial, long classId, byte arrayType, int length,
+            long valuesOffset) {
+        if (mIndexed) {
+            return;
+        }
+        assert mClassIds != null : "Instances cannot be added once classes are resolved";
+        if (mSize == mIds.length) {
+            grow(mSize + (mSize >> 1));
+        }
+        if (mCurrentHeap != mSnapshot.mCurrentHeap) {
+            mCurrentHeap = mSnapshot.mCurrentHeap;
+            mCurrentHeapIndex = (byte) mSnapshot.getHeapIndex(mCurrentHeap);
+        }
+        mIds[mSize] = id;
+        mStackSerials[mSize] = stackSerial;
+        mClassIds[mSize] = classId;
+        mArrayTypes[mSize] = arrayType;
+        mLengths[mSize] = length;
+        mValuesOffsets[mSize] = valuesOffset;
+        mHeapIndices[mSize] = mCurrentHeapIndex;
+        mSize++;
+    }
+
+    /**
+     * Appends the instances of the columns of a partial snapshot, decoded on another thread. The
+     * heaps of the partial snapshot must have been added to the snapshot.
+     */
+    void append(@NonNull InstanceColumns other) {
+        if (mIndexed) {
+            return;
+        }
+        assert mClassIds != null && other.mClassIds != null;
+        List<Heap> otherHeaps = other.mSnapshot.mHeaps;
+        byte[] heapIndices = new byte[otherHeaps.size()];
+        for (int i = 0; i < heapIndices.length; i++) {
+            Heap heap = mSnapshot.getHeap(otherHeaps.get(i).getId());
+            assert heap != null;
+            heapIndices[i] = (byte) mSnapshot.getHeapIndex(heap);
+        }
+
+        int size = other.mSize;
+        if (mSize + size > mIds.length) {
+            grow(Math.max(mSize + size, mSize + (mSize >> 1)));
+        }
+        System.arraycopy(other.mIds, 0, mIds, mSize, size);
+        System.arraycopy(other.mStackSerials, 0, mStackSerials, mSize, size);
+        System.arraycopy(other.mClassIds, 0, mClassIds, mSize, size);
+        System.arraycopy(other.mArrayTypes, 0, mArrayTypes, mSize, size);
+        System.arraycopy(other.mLengths, 0, mLengths, mSize, size);
+        System.arraycopy(other.mValuesOffsets, 0, mValuesOffsets, mSize, size);
+        for (int i = 0; i < size; i++) {
+            mHeapIndices[mSize + i] = heapIndices[other.mHeapIndices[i]];
+        }
+        mSize += size;
+    }
+
+    /** Returns whether the columns were read from an index rather than decoded by the parser. */
+    boolean isIndexed() {
+        return mIndexed;
+    }
+
+    /** Returns empty columns for a partial snapshot, which ignore instances if these do. */
+    @NonNull
+    InstanceColumns createPartialColumns(@NonNull Snapshot partial) {
+        InstanceColumns columns = new InstanceColumns(partial);
+        columns.mIndexed = mIndexed;
+        return columns;
+    }
+
+    private void grow(int capacity) {
+        mIds = Arrays.copyOf(mIds, capacity);
+        mStackSerials = Arrays.copyOf(mStackSerials, capacity);
+        mClassIds = Arrays.copyOf(mClassIds, capacity);
+        mArrayTypes = Arrays.copyOf(mArrayTypes, capacity);
+        mLengths = Arrays.copyOf(mLengths, capacity);
+        mValuesOffsets = Arrays.copyOf(mValuesOffsets, capacity);
+        mHeapIndices = Arrays.copyOf(mHeapIndices, capacity);
+    }
+
+    /** Returns the number of instances. */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Sorts the instances by id, resolves their classes and adds them to the instances of their
+     * classes. Called once all the instances and classes have been added.
+     */
+    void resolveClasses() {
+        if (!mIndexed) {
+            sortById();
+        }
+
+        List<ClassObj> classes = new ArrayList<ClassObj>();
+        for (Heap heap : mSnapshot.getHeaps()) {
+            classes.addAll(heap.getClasses());
+        }
+        ClassObj[] sortedClasses = classes.toArray(new ClassObj[classes.size()]);
+        Arrays.sort(sortedClasses, (first, second) -> Long.compare(first.getId(), second.getId()));
+        mClasses = sortedClasses;
+        mClassObjIds = new long[mClasses.length];
+        for (int i = 0; i < mClasses.length; i++) {
+            mClassObjIds[i] = mClasses[i].getId();
+        }
+
+        if (mIndexed) {
+            resolveIndexedHeaps();
+        } else {
+            resolveClassIndices();
+        }
+
+        mHeapCounts = new int[mSnapshot.mHeaps.size()];
+        for (int i = 0; i < mSize; i++) {
+            mHeapCounts[mHeapIndices[i]]++;
+        }
+
+        addInstancesToClasses();
+        if (mRetainedSizes != null) {
+            for (int i = 0; i < mClasses.length; i++) {
+                copyResultsToClass(mSize + i);
+            }
+        }
+    }
+
+    private void resolveClassIndices() {
+        int[] primitiveArrayClasses = new int[Type.LONG.getTypeId() + 1];
+        for (Type type : Type.values()) {
+            if (type != Type.OBJECT) {
+                ClassObj classObj = mSnapshot.findClass(type.getClassNameOfPrimitiveArray(false));
+                if (classObj == null) {
+                    classObj = mSnapshot.findClass(type.getClassNameOfPrimitiveArray(true));
+                }
+                primitiveArrayClasses[type.getTypeId()] =
+                        classObj != null ? findClassIndex(classObj.getId()) : NO_INDEX;
+            }
+        }
+
+        assert mClassIds != null;
+        int[] classIndices = new int[mSize];
+        for (int i = 0; i < mSize; i++) {
+            byte arrayType = mArrayTypes[i];
+            classIndices[i] =
+                    arrayType == NO_ARRAY_TYPE || arrayType == Type.OBJECT.getTypeId()
+                            ? findClassIndex(mClassIds[i])
+                            : primitiveArrayClasses[arrayType];
+        }
+        mClassIndices = classIndices;
+        mClassIds = null;
+    }
+
+    /**
+     * Checks that the classes of the snapshot are those of the index, and maps the heap indices of
+     * the index to those of the snapshot, in case heaps were created in a different order.
+     */
+    private void resolveIndexedHeaps() {
+        assert mIndexedHeapIds != null && mIndexedHeapNames != null && mIndexedClassIds != null;
+        if (!Arrays.equals(mIndexedClassIds, mClassObjIds)) {
+            throw new SnapshotIndex.StaleIndexException("The classes of the heap dump changed");
+        }
+        mIndexedClassIds = null;
+
+        boolean identity = mIndexedHeapIds.length == mSnapshot.mHeaps.size();
+        byte[] heapIndices = new byte[mIndexedHeapIds.length];
+        for (int i = 0; i < heapIndices.length; i++) {
+            Heap heap = mSnapshot.getHeap(mIndexedHeapIds[i]);
+            if (heap == null) {
+                heap = mSnapshot.setHeapTo(mIndexedHeapIds[i], mIndexedHeapNames[i]);
+                mSnapshot.setToDefaultHeap();
+            }
+            heapIndices[i] = (byte) mSnapshot.getHeapIndex(heap);
+            identity &= heapIndices[i] == i;
+        }
+        mIndexedHeapIds = null;
+        mIndexedHeapNames = null;
+        if (identity) {
+            return;
+        }
+
+        for (int i = 0; i < mSize; i++) {
+            mHeapIndices[i] = heapIndices[mHeapIndices[i]];
+        }
+        if (mRetainedSizes != null) {
+            long[][] retainedSizes = new long[mSnapshot.mHeaps.size()][];
+            for (int i = 0; i < mRetainedSizes.length; i++) {
+                retainedSizes[heapIndices[i]] = mRetainedSizes[i];
+            }
+            mRetainedSizes = retainedSizes;
+        }
+    }
+
+    /** Sorts the columns by id, so that instances can be found by binary search. */
+    private void sortById() {
+        boolean sorted = true;
+        for (int i = 1; i < mSize && sorted; i++) {
+            sorted = mIds[i - 1] <= mIds[i];
+        }
+
+        if (!sorted) {
+            int[] order = new int[mSize];
+            for (int i = 0; i < mSize; i++) {
+                order[i] = i;
+            }
+            sortIndices(order, mIds);
+
+            long[] ids = new long[mSize];
+            long[] valuesOffsets = new long[mSize];
+            int[] lengths = new int[mSize];
+            byte[] arrayTypes = new byte[mSize];
+            byte[] heapIndices = new byte[mSize];
+            int[] stackSerials = new int[mSize];
+            long[] classIds = new long[mSize];
+            assert mClassIds != null;
+            for (int i = 0; i < mSize; i++) {
+                int from = order[i];
+                ids[i] = mIds[from];
+                valuesOffsets[i] = mValuesOffsets[from];
+                lengths[i] = mLengths[from];
+                arrayTypes[i] = mArrayTypes[from];
+                heapIndices[i] = mHeapIndices[from];
+                stackSerials[i] = mStackSerials[from];
+                classIds[i] = mClassIds[from];
+            }
+            mIds = ids;
+            mValuesOffsets = valuesOffsets;
+            mLengths = lengths;
+            mArrayTypes = arrayTypes;
+            mHeapIndices = heapIndices;
+            mStackSerials = stackSerials;
+            mClassIds = classIds;
+        } else {
+            mIds = Arrays.copyOf(mIds, mSize);
+            mValuesOffsets = Arrays.copyOf(mValuesOffsets, mSize);
+            mLengths = Arrays.copyOf(mLengths, mSize);
+            mArrayTypes = Arrays.copyOf(mArrayTypes, mSize);
+            mHeapIndices = Arrays.copyOf(mHeapIndices, mSize);
+            mStackSerials = Arrays.copyOf(mStackSerials, mSize);
+            mClassIds = Arrays.copyOf(mClassIds, mSize);
+        }
+        mSorted = true;
+    }
+
+    /** Sorts indices by their keys, with a bottom-up merge sort which does not box them. */
+    static void sortIndices(@NonNull int[] indices, @NonNull long[] keys) {
+        int[] source = indices;
+        int[] target = new int[indices.length];
+        for (int width = 1; width < indices.length; width *= 2) {
+            for (int start = 0; start < indices.length; start += 2 * width) {
+                int middle = Math.min(start + width, indices.length);
+                int end = Math.min(start + 2 * width, indices.length);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    if (left < middle
+                            && (right >= end || keys[source[left]] <= keys[source[right]])) {
+                        target[i] = source[left++];
+                    } else {
+                        target[i] = source[right++];
+                    }
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != indices) {
+            System.arraycopy(source, 0, indices, 0, indices.length);
+        }
+    }
+
+    /** Groups the instances by class and heap, and exposes them as the instances of the classes. */
+    private void addInstancesToClasses() {
+        assert mClassIndices != null;
+        int heapCount = mSnapshot.mHeaps.size();
+        int[] starts = new int[mClasses.length * heapCount + 1];
+        for (int i = 0; i < mSize; i++) {
+            int classIndex = mClassIndices[i];
+            if (classIndex != NO_INDEX) {
+                starts[classIndex * heapCount + mHeapIndices[i] + 1]++;
+            }
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+
+        int[] instances = new int[starts[starts.length - 1]];
+        int[] next = Arrays.copyOf(starts, starts.length - 1);
+        for (int i = 0; i < mSize; i++) {
+            int classIndex = mClassIndices[i];
+            if (classIndex != NO_INDEX) {
+                instances[next[classIndex * heapCount + mHeapIndices[i]]++] = i;
+            }
+        }
+
+        for (int classIndex = 0; classIndex < mClasses.length; classIndex++) {
+            for (int heapIndex = 0; heapIndex < heapCount; heapIndex++) {
+                int group = classIndex * heapCount + heapIndex;
+                if (starts[group] == starts[group + 1]) {
+                    continue;
+                }
+                int shallowSize = 0;
+                for (int i = starts[group]; i < starts[group + 1]; i++) {
+                    shallowSize += getSize(instances[i]);
+                }
+                mClasses[classIndex].setHeapInstances(
+                        mSnapshot.mHeaps.get(heapIndex).getId(),
+                        new NodeList(instances, starts[group], starts[group + 1]),
+                        shallowSize);
+            }
+        }
+    }
+
+    /** Returns the index of the class with the given id, or {@code NO_INDEX}. */
+    private int findClassIndex(long id) {
+        int index = Arrays.binarySearch(mClassObjIds, id);
+        return index >= 0 ? index : NO_INDEX;
+    }
+
+    /** Returns the index of the instance with the given id, or {@code NO_INDEX}. */
+    int findInstanceIndex(long id) {
+        if (!mSorted) {
+            return NO_INDEX;
+        }
+        int index = Arrays.binarySearch(mIds, 0, mSize, id);
+        return index >= 0 ? index : NO_INDEX;
+    }
+
+    /** Returns the node of the instance or class with the given id, or {@code NO_INDEX}. */
+    private int findNode(long id) {
+        int index = findInstanceIndex(id);
+        if (index != NO_INDEX) {
+            return index;
+        }
+        index = findClassIndex(id);
+        return index != NO_INDEX ? mSize + index : NO_INDEX;
+    }
+
+    /** Returns the node of an instance of this snapshot, or {@code NO_INDEX}. */
+    private int getNode(@Nullable Instance instance) {
+        if (instance instanceof ColumnarClassInstance
+                && ((ColumnarClassInstance) instance).getColumns() == this) {
+            return ((ColumnarClassInstance) instance).getIndex();
+        } else if (instance instanceof ColumnarArrayInstance
+                && ((ColumnarArrayInstance) instance).getColumns() == this) {
+            return ((ColumnarArrayInstance) instance).getIndex();
+        } else if (instance instanceof ClassObj) {
+            int index = findClassIndex(instance.getId());
+            return index != NO_INDEX ? mSize + index : NO_INDEX;
+        }
+        return NO_INDEX;
+    }
+
+    /** Returns a view of the instance with the given id, or null if there is none. */
+    @Nullable
+    Instance findInstance(long id) {
+        int index = findInstanceIndex(id);
+        return index != NO_INDEX ? getInstance(index) : null;
+    }
+
+    /**
+     * Returns the instance or class of a node: a new view of an instance, or a class object.
+     */
+    @NonNull
+    Instance getInstance(int node) {
+        if (node >= mSize) {
+            return mClasses[node - mSize];
+        }
+
+        assert mClassIndices != null;
+        int classIndex = mClassIndices[node];
+        StackTrace stack = mSnapshot.getStackTrace(mStackSerials[node]);
+        Instance instance;
+        if (mArrayTypes[node] == NO_ARRAY_TYPE) {
+            instance =
+                    new ColumnarClassInstance(
+                            this, node, mIds[node], stack, mValuesOffsets[node]);
+            instance.setSize(classIndex != NO_INDEX ? mClasses[classIndex].getInstanceSize() : 0);
+        } else {
+            Type type = Type.getType(mArrayTypes[node]);
+            instance =
+                    new ColumnarArrayInstance(
+                            this, node, mIds[node], stack, type, mLengths[node],
+                            mValuesOffsets[node]);
+        }
+        // Like the parser, only class instances and object arrays have a class id.
+        if (classIndex != NO_INDEX
+                && (mArrayTypes[node] == NO_ARRAY_TYPE
+                        || mArrayTypes[node] == Type.OBJECT.getTypeId())) {
+            instance.setClassId(mClasses[classIndex].getId());
+        }
+        instance.setHeap(mSnapshot.mHeaps.get(mHeapIndices[node]));
+        return instance;
+    }
+
+    /** Calls the procedure with a view of each instance of a heap, until it returns false. */
+    boolean forEachInstance(int heapIndex, @NonNull TObjectProcedure<Instance> procedure) {
+        if (getInstanceCount(heapIndex) == 0) {
+            return true;
+        }
+        for (int i = 0; i < mSize; i++) {
+            if (mHeapIndices[i] == heapIndex && !procedure.execute(getInstance(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the number of instances of a heap. */
+    int getInstanceCount(int heapIndex) {
+        // Instances are only visible once their classes are resolved.
+        return heapIndex < mHeapCounts.length ? mHeapCounts[heapIndex] : 0;
+    }
+
+    /** Returns the shallow size of a node. */
+    private long getSize(int node) {
+        if (node >= mSize) {
+            return mClasses[node - mSize].getSize();
+        }
+        byte arrayType = mArrayTypes[node];
+        if (arrayType == NO_ARRAY_TYPE) {
+            assert mClassIndices != null;
+            int classIndex = mClassIndices[node];
+            return classIndex != NO_INDEX ? mClasses[classIndex].getInstanceSize() : 0;
+        }
+        return (long) mLengths[node] * mSnapshot.getTypeSize(Type.getType(arrayType));
+    }
+
+    long getId(int node) {
+        return mIds[node];
+    }
+
+    long getValuesOffset(int node) {
+        return mValuesOffsets[node];
+    }
+
+    int getLength(int node) {
+        return mLengths[node];
+    }
+
+    /** Returns the type id of the values of an array, or {@code NO_ARRAY_TYPE}. */
+    byte getArrayType(int node) {
+        return mArrayTypes[node];
+    }
+
+    /** Returns the index of the class of an instance, or {@code NO_INDEX}. */
+    int getClassIndex(int node) {
+        assert mClassIndices != null;
+        return mClassIndices[node];
+    }
+
+    int getClassCount() {
+        return mClasses.length;
+    }
+
+    /** Returns a class by index, the classes being sorted by id. */
+    @NonNull
+    ClassObj getClassObj(int classIndex) {
+        return mClasses[classIndex];
+    }
+
+    /**
+     * Returns the immediate dominator of a node, which is {@code NO_INDEX} for the sentinel root or
+     * before dominators are computed.
+     */
+    int getImmediateDominatorNode(int node) {
+        if (mImmediateDominators == null) {
+            return NO_INDEX;
+        }
+        int dominator = mImmediateDominators[node];
+        return dominator == mSize + mClasses.length ? NO_INDEX : dominator;
+    }
+
+    long getNativeSize(int node) {
+        return mNativeSizes != null ? mNativeSizes[node] : 0;
+    }
+
+    void setNativeSize(int node, long nativeSize) {
+        if (mNativeSizes == null) {
+            mNativeSizes = new long[mSize];
+        }
+        mNativeSizes[node] = nativeSize;
+    }
+
+    /**
+     * Builds the reference graph: the hard references of the instances, read from their values,
+     * the static references of the classes, and the references of the sentinel root to the
+     * instances and classes referred to by GC roots.
+     */
+    void resolveReferences() {
+        if (mForwardStarts != null) {
+            return;
+        }
+
+        int nodeCount = mSize + mClasses.length;
+        int sentinel = nodeCount;
+        int[] starts = new int[nodeCount + 2];
+        IntArray references = new IntArray(Math.max(mSize, 16));
+
+        DataBuffer buffer = mSnapshot.getBuffer();
+        int idSize = mSnapshot.getTypeSize(Type.OBJECT);
+        int[][] referenceOffsets = new int[mClasses.length][];
+        assert mClassIndices != null;
+        for (int i = 0; i < mSize; i++) {
+            starts[i] = references.size();
+            byte arrayType = mArrayTypes[i];
+            if (arrayType == NO_ARRAY_TYPE) {
+                int classIndex = mClassIndices[i];
+                if (classIndex == NO_INDEX) {
+                    continue;
+                }
+                int[] offsets = referenceOffsets[classIndex];
+                if (offsets == null) {
+                    offsets = getReferenceOffsets(mClasses[classIndex]);
+                    referenceOffsets[classIndex] = offsets;
+                }
+                for (int offset : offsets) {
+                    buffer.setPosition(mValuesOffsets[i] + offset);
+                    addReference(references, readId(buffer, idSize));
+                }
+            } else if (arrayType == Type.OBJECT.getTypeId()) {
+                buffer.setPosition(mValuesOffsets[i]);
+                for (int j = 0; j < mLengths[i]; j++) {
+                    addReference(references, readId(buffer, idSize));
+                }
+            }
+        }
+
+        for (int i = 0; i < mClasses.length; i++) {
+            starts[mSize + i] = references.size();
+            for (Object value : mClasses[i].getStaticFieldValues().values()) {
+                if (value instanceof Instance) {
+                    int node = getNode((Instance) value);
+                    if (node != NO_INDEX) {
+                        references.add(node);
+                    }
+                }
+            }
+        }
+
+        starts[sentinel] = references.size();
+        boolean[] isRoot = new boolean[nodeCount];
+        for (RootObj root : mSnapshot.getGCRoots()) {
+            int node = getNode(root.getReferredInstance());
+            if (node != NO_INDEX && !isRoot[node]) {
+                isRoot[node] = true;
+                references.add(node);
+            }
+        }
+        starts[sentinel + 1] = references.size();
+
+        mForwardStarts = starts;
+        mForwardReferences = references.toArray();
+        buildReverseReferences();
+    }
+
+    private void addReference(@NonNull IntArray references, long id) {
+        if (id != 0) {
+            int node = findNode(id);
+            if (node != NO_INDEX) {
+                references.add(node);
+            }
+        }
+    }
+
+    /**
+     * Returns the offsets, relative to the start of the values of an instance of the class, of the
+     * fields which hold hard references.
+     */
+    @NonNull
+    private int[] getReferenceOffsets(@NonNull ClassObj classObj) {
+        IntArray offsets = new IntArray(8);
+        int offset = 0;
+        boolean isSoftReference = classObj.getIsSoftReference();
+        for (ClassObj clazz = classObj; clazz != null; clazz = clazz.getSuperClassObj()) {
+            for (Field field : clazz.getFields()) {
+                if (field.getType() == Type.OBJECT
+                        && !(isSoftReference && "referent".equals(field.getName()))) {
+                    offsets.add(offset);
+                }
+                offset += mSnapshot.getTypeSize(field.getType());
+            }
+        }
+        return offsets.toArray();
+    }
+
+    private static long readId(@NonNull DataBuffer buffer, int idSize) {
+        // As long as we don't interpret IDs, reading signed values here is fine.
+        switch (idSize) {
+            case 1:
+                return buffer.readByte();
+            case 2:
+                return buffer.readShort();
+            case 4:
+                return buffer.readInt();
+            case 8:
+                return buffer.readLong();
+        }
+        throw new IllegalArgumentException("ID Length must be 1, 2, 4, or 8");
+    }
+
+    private void buildReverseReferences() {
+        assert mForwardStarts != null && mForwardReferences != null;
+        int nodeCount = mForwardStarts.length - 1;
+        int[] starts = new int[nodeCount + 1];
+        for (int reference : mForwardReferences) {
+            starts[reference + 1]++;
+        }
+        for (int i = 1; i <= nodeCount; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] references = new int[mForwardReferences.length];
+        int[] next = Arrays.copyOf(starts, nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            for (int i = mForwardStarts[node]; i < mForwardStarts[node + 1]; i++) {
+                references[next[mForwardReferences[i]]++] = node;
+            }
+        }
+        mReverseStarts = starts;
+        mReverseReferences = references;
+    }
+
+    /** Computes the distance of every node to the GC roots, with a breadth-first search. */
+    void computeShortestDistances() {
+        if (mDistances != null) {
+            return;
+        }
+        resolveReferences();
+        assert mForwardStarts != null && mForwardReferences != null;
+        int nodeCount = mSize + mClasses.length;
+        int sentinel = nodeCount;
+        int[] distances = new int[nodeCount];
+        int[] nextNodes = new int[nodeCount];
+        Arrays.fill(distances, Integer.MAX_VALUE);
+        Arrays.fill(nextNodes, NO_INDEX);
+
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for (int i = mForwardStarts[sentinel]; i < mForwardStarts[sentinel + 1]; i++) {
+            int root = mForwardReferences[i];
+            distances[root] = 0;
+            queue[tail++] = root;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = mForwardStarts[node]; i < mForwardStarts[node + 1]; i++) {
+                int child = mForwardReferences[i];
+                if (distances[child] == Integer.MAX_VALUE) {
+                    distances[child] = distances[node] + 1;
+                    nextNodes[child] = node;
+                    queue[tail++] = child;
+                }
+            }
+        }
+        mDistances = distances;
+        mNextNodesToGcRoot = nextNodes;
+    }
+
+    /**
+     * Computes the immediate dominators of the nodes reachable from the sentinel root, and their
+     * depth-first and topological order, on up to {@code parallelism} threads.
+     */
+    void computeDominators(int parallelism) {
+        if (mImmediateDominators != null) {
+            return;
+        }
+        resolveReferences();
+        assert mForwardStarts != null && mForwardReferences != null;
+        assert mReverseStarts != null && mReverseReferences != null;
+        int nodeCount = mSize + mClasses.length;
+        int sentinel = nodeCount;
+
+        CsrDominators dominators =
+                new CsrDominators(
+                        mForwardStarts, mForwardReferences, mReverseStarts, mReverseReferences,
+                        sentinel, parallelism);
+        mDominators = dominators;
+        dominators.computeDominators();
+
+        // Nodes in decreasing order of their finishing time, without the sentinel root.
+        int[] postorder = dominators.getPostorder();
+        int[] topologicalOrdering = new int[postorder.length - 1];
+        for (int i = 0; i < topologicalOrdering.length; i++) {
+            topologicalOrdering[i] = postorder[postorder.length - 2 - i];
+        }
+
+        mImmediateDominators = Arrays.copyOf(dominators.getImmediateDominators(), nodeCount);
+        mDepthFirstOrder = Arrays.copyOf(dominators.getDepthFirstNumbers(), nodeCount);
+        mTopologicalOrdering = topologicalOrdering;
+    }
+
+    /**
+     * Computes the retained sizes of the nodes, per heap, and copies the results of the analysis
+     * to the class objects.
+     */
+    void computeRetainedSizes() {
+        if (mRetainedSizes != null) {
+            return;
+        }
+        assert mDominators != null;
+        int nodeCount = mSize + mClasses.length;
+        int heapCount = mSnapshot.mHeaps.size();
+        long[][] retainedSizes = new long[heapCount][];
+        for (int node = 0; node < nodeCount; node++) {
+            int heapIndex = getHeapIndex(node);
+            if (heapIndex < 0) {
+                continue;
+            }
+            if (retainedSizes[heapIndex] == null) {
+                retainedSizes[heapIndex] = new long[nodeCount];
+            }
+            retainedSizes[heapIndex][node] = getSize(node) + getNodeNativeSize(node);
+        }
+
+        mDominators.computeRetainedSizes(retainedSizes);
+        mDominators = null;
+        mRetainedSizes = retainedSizes;
+
+        for (int i = 0; i < mClasses.length; i++) {
+            copyResultsToClass(mSize + i);
+        }
+    }
+
+    private int getHeapIndex(int node) {
+        return node < mSize
+                ? mHeapIndices[node]
+                : mSnapshot.getHeapIndex(mClasses[node - mSize].getHeap());
+    }
+
+    private long getNodeNativeSize(int node) {
+        return node < mSize ? getNativeSize(node) : mClasses[node - mSize].getNativeSize();
+    }
+
+    private void copyResultsToClass(int node) {
+        ClassObj classObj = mClasses[node - mSize];
+        if (mDistances != null && mDistances[node] != Integer.MAX_VALUE) {
+            classObj.setDistanceToGcRoot(mDistances[node]);
+            Instance next = getNextInstanceToGcRoot(node);
+            if (next != null) {
+                classObj.setNextInstanceToGcRoot(next);
+            }
+        }
+        Instance dominator = getImmediateDominator(node);
+        if (dominator != null) {
+            classObj.setImmediateDominator(dominator);
+            classObj.setTopologicalOrder(getTopologicalOrder(node));
+        }
+        classObj.resetRetainedSize();
+        for (int heapIndex = 0; heapIndex < mSnapshot.mHeaps.size(); heapIndex++) {
+            long retainedSize = getRetainedSize(node, heapIndex);
+            classObj.addRetainedSize(heapIndex, retainedSize - classObj.getRetainedSize(heapIndex));
+        }
+    }
+
+    @NonNull
+    ComputationProgress getComputationProgress() {
+        CsrDominators dominators = mDominators;
+        return dominators != null ? dominators.getComputationProgress() : mProgress;
+    }
+
+    @Nullable
+    Instance getImmediateDominator(int node) {
+        if (mImmediateDominators == null) {
+            return null;
+        }
+        int dominator = mImmediateDominators[node];
+        if (dominator == NO_INDEX) {
+            return null;
+        }
+        return dominator == mSize + mClasses.length
+                ? Snapshot.SENTINEL_ROOT
+                : getInstance(dominator);
+    }
+
+    int getDistanceToGcRoot(int node) {
+        return mDistances != null ? mDistances[node] : Integer.MAX_VALUE;
+    }
+
+    @Nullable
+    Instance getNextInstanceToGcRoot(int node) {
+        if (mNextNodesToGcRoot == null || mNextNodesToGcRoot[node] == NO_INDEX) {
+            return null;
+        }
+        return getInstance(mNextNodesToGcRoot[node]);
+    }
+
+    int getTopologicalOrder(int node) {
+        return mDepthFirstOrder != null && mDepthFirstOrder[node] != NO_INDEX
+                ? mDepthFirstOrder[node]
+                : 0;
+    }
+
+    long getRetainedSize(int node, int heapIndex) {
+        if (mRetainedSizes == null || heapIndex >= mRetainedSizes.length) {
+            return 0;
+        }
+        long[] retainedSizes = mRetainedSizes[heapIndex];
+        return retainedSizes != null ? retainedSizes[node] : 0;
+    }
+
+    long getTotalRetainedSize(int node) {
+        long total = 0;
+        if (mRetainedSizes != null) {
+            for (long[] retainedSizes : mRetainedSizes) {
+                if (retainedSizes != null) {
+                    total += retainedSizes[node];
+                }
+            }
+        }
+        return total;
+    }
+
+    /** Adds the instances a node holds hard references to, in the order of its fields. */
+    void addHardForwardReferences(int node, @NonNull List<Instance> references) {
+        resolveReferences();
+        assert mForwardStarts != null && mForwardReferences != null;
+        for (int i = mForwardStarts[node]; i < mForwardStarts[node + 1]; i++) {
+            references.add(getInstance(mForwardReferences[i]));
+        }
+    }
+
+    /** Adds the instances holding hard references to a node, without duplicates. */
+    void addHardReverseReferences(int node, @NonNull List<Instance> references) {
+        resolveReferences();
+        assert mReverseStarts != null && mReverseReferences != null;
+        int sentinel = mSize + mClasses.length;
+        int previous = NO_INDEX;
+        for (int i = mReverseStarts[node]; i < mReverseStarts[node + 1]; i++) {
+            // References of a node are added in order, so duplicates are adjacent.
+            int reference = mReverseReferences[i];
+            if (reference != sentinel && reference != node && reference != previous) {
+                references.add(getInstance(reference));
+            }
+            previous = reference;
+        }
+    }
+
+    /** Writes the columns to an index, once their dominators and retained sizes are computed. */
+    void writeIndex(@NonNull SnapshotIndex.Writer writer) throws IOException {
+        if (mRetainedSizes == null) {
+            throw new IllegalStateException("Dominators must be computed to write an index");
+        }
+        List<Heap> heaps = mSnapshot.mHeaps;
+        writer.writeInt(heaps.size());
+        for (Heap heap : heaps) {
+            writer.writeInt(heap.getId());
+            writer.writeString(heap.getName());
+        }
+        writer.writeLongs(mClassObjIds, -1);
+
+        writer.writeInt(mSize);
+        writer.writeLongs(mIds, mSize);
+        writer.writeLongs(mValuesOffsets, mSize);
+        writer.writeInts(mLengths, mSize);
+        writer.writeBytes(mArrayTypes, mSize);
+        writer.writeBytes(mHeapIndices, mSize);
+        writer.writeInts(mStackSerials, mSize);
+        writer.writeInts(mClassIndices, mSize);
+
+        writer.writeInts(mForwardStarts, -1);
+        writer.writeInts(mForwardReferences, -1);
+        writer.writeInts(mReverseStarts, -1);
+        writer.writeInts(mReverseReferences, -1);
+
+        writer.writeInts(mDistances, -1);
+        writer.writeInts(mNextNodesToGcRoot, -1);
+        writer.writeInts(mImmediateDominators, -1);
+        writer.writeInts(mDepthFirstOrder, -1);
+        writer.writeInts(mTopologicalOrdering, -1);
+        writer.writeInt(mRetainedSizes.length);
+        for (long[] retainedSizes : mRetainedSizes) {
+            writer.writeLongs(retainedSizes, -1);
+        }
+    }
+
+    /**
+     * Reads the columns from an index, before the heap dump is parsed. The instances decoded by
+     * the parser are then ignored, and the classes of the index are checked against those of the
+     * heap dump when classes are resolved.
+     */
+    void readIndex(@NonNull SnapshotIndex.Reader reader) {
+        readIndexedHeapsAndClasses(reader);
+
+        mSize = reader.readInt();
+        mIds = reader.readLongs();
+        mValuesOffsets = reader.readLongs();
+        mLengths = reader.readInts();
+        mArrayTypes = reader.readBytes();
+        mHeapIndices = reader.readBytes();
+        mStackSerials = reader.readInts();
+        mClassIndices = reader.readInts();
+        mClassIds = null;
+        mSorted = true;
+
+        mForwardStarts = reader.readInts();
+        mForwardReferences = reader.readInts();
+        mReverseStarts = reader.readInts();
+        mReverseReferences = reader.readInts();
+
+        mDistances = reader.readInts();
+        mNextNodesToGcRoot = reader.readInts();
+        mImmediateDominators = reader.readInts();
+        mDepthFirstOrder = reader.readInts();
+        mTopologicalOrdering = reader.readInts();
+        mRetainedSizes = new long[reader.readCount()][];
+        for (int i = 0; i < mRetainedSizes.length; i++) {
+            mRetainedSizes[i] = reader.readLongs();
+        }
+        if (!isValidIndex(reader.getHeapDumpLength())) {
+            throw new SnapshotIndex.StaleIndexException("Corrupt index");
+        }
+        mIndexed = true;
+    }
+
+    /**
+     * Reads only the heaps and classes of an index, before the heap dump is parsed, leaving the
+     * reader at the start of the instance columns. The columns then have no instances, and the
+     * instances decoded by the parser are ignored.
+     */
+    void readIndexedClasses(@NonNull SnapshotIndex.Reader reader) {
+        readIndexedHeapsAndClasses(reader);
+        if (mIndexedClassIds == null) {
+            throw new SnapshotIndex.StaleIndexException("Corrupt index");
+        }
+        mSize = 0;
+        mClassIndices = new int[0];
+        mClassIds = null;
+        mSorted = true;
+        mIndexed = true;
+    }
+
+    private void readIndexedHeapsAndClasses(@NonNull SnapshotIndex.Reader reader) {
+        int heapCount = reader.readCount();
+        mIndexedHeapIds = new int[heapCount];
+        mIndexedHeapNames = new String[heapCount];
+        for (int i = 0; i < heapCount; i++) {
+            mIndexedHeapIds[i] = reader.readInt();
+            mIndexedHeapNames[i] = reader.readString();
+        }
+        mIndexedClassIds = reader.readLongs();
+    }
+
+    /**
+     * Returns whether the lengths and values of the columns read from an index are consistent, so
+     * that a corrupt index is rebuilt rather than failing when the columns are used.
+     */
+    private boolean isValidIndex(long heapDumpLength) {
+        if (mIndexedClassIds == null || mSize < 0) {
+            return false;
+        }
+        int heapCount = mIndexedHeapIds != null ? mIndexedHeapIds.length : 0;
+        int nodeCount = mSize + mIndexedClassIds.length;
+        int sentinel = nodeCount;
+        if (!hasLength(mIds, mSize)
+                || !hasLength(mValuesOffsets, mSize)
+                || !hasLength(mLengths, mSize)
+                || !hasLength(mArrayTypes, mSize)
+                || !hasLength(mHeapIndices, mSize)
+                || !hasLength(mStackSerials, mSize)
+                || !hasLength(mClassIndices, mSize)) {
+            return false;
+        }
+        for (int i = 0; i < mSize; i++) {
+            byte arrayType = mArrayTypes[i];
+            long valuesOffset = mValuesOffsets[i];
+            if ((i > 0 && mIds[i - 1] > mIds[i])
+                    || valuesOffset < 0
+                    || valuesOffset > heapDumpLength
+                    || mLengths[i] < 0
+                    || mLengths[i] > heapDumpLength - valuesOffset
+                    || (arrayType != NO_ARRAY_TYPE && Type.getType(arrayType) == null)
+                    || mHeapIndices[i] < 0
+                    || mHeapIndices[i] >= heapCount
+                    || mClassIndices[i] < NO_INDEX
+                    || mClassIndices[i] >= mIndexedClassIds.length) {
+                return false;
+            }
+        }
+
+        if (!isValidGraph(mForwardStarts, mForwardReferences, nodeCount, nodeCount - 1)
+                || !isValidGraph(mReverseStarts, mReverseReferences, nodeCount, sentinel)) {
+            return false;
+        }
+
+        if (mDistances != null) {
+            if (mDistances.length != nodeCount || !isInRange(mDistances, 0, Integer.MAX_VALUE)) {
+                return false;
+            }
+        }
+        if (mNextNodesToGcRoot != null) {
+            if (mNextNodesToGcRoot.length != nodeCount
+                    || !isInRange(mNextNodesToGcRoot, NO_INDEX, nodeCount - 1)) {
+                return false;
+            }
+        }
+        if (mImmediateDominators != null) {
+            if (mImmediateDominators.length != nodeCount
+                    || !isInRange(mImmediateDominators, NO_INDEX, sentinel)) {
+                return false;
+            }
+        }
+        if (mDepthFirstOrder != null) {
+            if (mDepthFirstOrder.length != nodeCount
+                    || !isInRange(mDepthFirstOrder, NO_INDEX, nodeCount)) {
+                return false;
+            }
+        }
+        if (mTopologicalOrdering != null) {
+            if (mTopologicalOrdering.length > nodeCount
+                    || !isInRange(mTopologicalOrdering, 0, nodeCount - 1)) {
+                return false;
+            }
+        }
+
+        if (mRetainedSizes == null || mRetainedSizes.length != heapCount) {
+            return false;
+        }
+        for (long[] retainedSizes : mRetainedSizes) {
+            if (retainedSizes != null && retainedSizes.length != nodeCount) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a reference graph in compressed sparse row format has the starts of the
+     * nodes and of the sentinel root, in order, and references to nodes up to {@code maxNode}.
+     */
+    private static boolean isValidGraph(
+            @Nullable int[] starts, @Nullable int[] references, int nodeCount, int maxNode) {
+        if (starts == null || references == null || starts.length != nodeCount + 2) {
+            return false;
+        }
+        if (starts[0] != 0 || starts[starts.length - 1] != references.length) {
+            return false;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            if (starts[i - 1] > starts[i]) {
+                return false;
+            }
+        }
+        return isInRange(references, 0, maxNode);
+    }
+
+    private static boolean hasLength(@Nullable Object array, int length) {
+        return array != null && Array.getLength(array) == length;
+    }
+
+    private static boolean isInRange(@NonNull int[] values, int min, int max) {
+        for (int value : values) {
+            if (value < min || value > max) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns views of the instances reachable from the GC roots, in topological order. The list
+     * is empty until dominators are computed.
+     */
+    @NonNull
+    List<Instance> getTopologicalOrdering() {
+        int[] ordering = mTopologicalOrdering != null ? mTopologicalOrdering : new int[0];
+        return new NodeList(ordering, 0, ordering.length);
+    }
+
+    /** An immutable list of views of the nodes of a range of an array. */
+    private final class NodeList extends AbstractList<Instance> {
+
+        @NonNull private final int[] mNodes;
+
+        private final int mStart;
+
+        private final int mEnd;
+
+        NodeList(@NonNull int[] nodes, int start, int end) {
+            mNodes = nodes;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public Instance get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            return getInstance(mNodes[mStart + index]);
+        }
+
+        @Override
+        public int size() {
+            return mEnd - mStart;
+        }
+    }
+
+    /** A growable array of ints. */
+    private static final class IntArray {
+
+        @NonNull private int[] mValues;
+
+        private int mSize;
+
+        IntArray(int capacity) {
+            mValues = new int[capacity];
+        }
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize + (mSize >> 1) + 1);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        @NonNull
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
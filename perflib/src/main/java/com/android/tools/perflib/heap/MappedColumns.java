@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.annotations.NonNull;
+
+/**
+ * The instance columns of a {@link SnapshotIndex}, read in place from the mapped index rather than
+ * copied into arrays, so that they take no memory beyond the pages of the index being read.
+ *
+ * <p>Only the columns needed to compare snapshots are read: the ids, classes, array types, lengths
+ * and values offsets of the instances, their immediate dominators and their retained sizes. The
+ * classes are those of a snapshot of the heap dump with no instances, see {@link
+ * Snapshot#openMappedColumns}.
+ */
+final class MappedColumns {
+
+    private static final long NULL_POSITION = -1;
+
+    @NonNull private final Snapshot mSnapshot;
+
+    @NonNull private final SnapshotIndex.Reader mIndex;
+
+    private final int mSize;
+
+    private final int mClassCount;
+
+    //  The positions of the columns in the index.
+    private final long mIds;
+
+    private final long mValuesOffsets;
+
+    private final long mLengths;
+
+    private final long mArrayTypes;
+
+    private final long mClassIndices;
+
+    private final long mImmediateDominators;
+
+    @NonNull private final long[] mRetainedSizes;
+
+    /**
+     * Reads the positions of the columns of an index whose heaps and classes were read into the
+     * columns of the snapshot, and checks their values.
+     *
+     * @throws SnapshotIndex.StaleIndexException if the index is corrupt
+     */
+    MappedColumns(@NonNull Snapshot snapshot, @NonNull SnapshotIndex.Reader index) {
+        InstanceColumns columns = snapshot.getColumns();
+        assert columns != null;
+        mSnapshot = snapshot;
+        mIndex = index;
+        mClassCount = columns.getClassCount();
+
+        // The columns are in the order of InstanceColumns#writeIndex.
+        mSize = index.readInt();
+        if (mSize < 0) {
+            throw new SnapshotIndex.StaleIndexException("Corrupt index");
+        }
+        int nodeCount = mSize + mClassCount;
+        mIds = mapColumn(8, mSize, false);
+        mValuesOffsets = mapColumn(8, mSize, false);
+        mLengths = mapColumn(4, mSize, false);
+        mArrayTypes = mapColumn(1, mSize, false);
+        mapColumn(1, mSize, false); // Heap indices.
+        mapColumn(4, mSize, false); // Stack serials.
+        mClassIndices = mapColumn(4, mSize, false);
+
+        // The reference graph, distances to the GC roots and next nodes to them.
+        for (int i = 0; i < 6; i++) {
+            mapColumn(4, -1, true);
+        }
+        mImmediateDominators = mapColumn(4, nodeCount, true);
+        // The depth-first and topological orders.
+        mapColumn(4, -1, true);
+        mapColumn(4, -1, true);
+        mRetainedSizes = new long[index.readCount()];
+        for (int i = 0; i < mRetainedSizes.length; i++) {
+            mRetainedSizes[i] = mapColumn(8, nodeCount, true);
+        }
+
+        if (!isValid(index.getHeapDumpLength())) {
+            throw new SnapshotIndex.StaleIndexException("Corrupt index");
+        }
+    }
+
+    /**
+     * Returns the position of the values of the next column of the index, and skips them, or
+     * {@code NULL_POSITION} for a null column.
+     *
+     * @param length the length of the column, or -1 for any length
+     */
+    private long mapColumn(int valueSize, int length, boolean nullable) {
+        int actualLength = mIndex.readLength(valueSize);
+        if (actualLength == SnapshotIndex.NULL_LENGTH) {
+            if (!nullable) {
+                throw new SnapshotIndex.StaleIndexException("Corrupt index");
+            }
+            return NULL_POSITION;
+        }
+        if (length >= 0 && actualLength != length) {
+            throw new SnapshotIndex.StaleIndexException("Corrupt index");
+        }
+        long position = mIndex.position();
+        mIndex.skip((long) actualLength * valueSize);
+        return position;
+    }
+
+    /**
+     * Returns whether the values of the columns are in range, so that a corrupt index is ignored
+     * rather than failing while snapshots are compared.
+     */
+    private boolean isValid(long heapDumpLength) {
+        int sentinel = mSize + mClassCount;
+        for (int node = 0; node < mSize; node++) {
+            long valuesOffset = getValuesOffset(node);
+            int length = getLength(node);
+            byte arrayType = getArrayType(node);
+            int classIndex = getClassIndex(node);
+            if ((node > 0 && getId(node - 1) > getId(node))
+                    || valuesOffset < 0
+                    || valuesOffset > heapDumpLength
+                    || length < 0
+                    || length > heapDumpLength - valuesOffset
+                    || (arrayType != InstanceColumns.NO_ARRAY_TYPE
+                            && Type.getType(arrayType) == null)
+                    || classIndex < InstanceColumns.NO_INDEX
+                    || classIndex >= mClassCount) {
+                return false;
+            }
+            if (mImmediateDominators != NULL_POSITION) {
+                int dominator = mIndex.getInt(mImmediateDominators + node * 4L);
+                if (dominator < InstanceColumns.NO_INDEX || dominator > sentinel) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Returns the snapshot of the classes of the heap dump, which has no instances. */
+    @NonNull
+    Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /** Returns the number of instances. */
+    int size() {
+        return mSize;
+    }
+
+    int getClassCount() {
+        return mClassCount;
+    }
+
+    /** Returns a class by index, the classes being sorted by id. */
+    @NonNull
+    ClassObj getClassObj(int classIndex) {
+        InstanceColumns columns = mSnapshot.getColumns();
+        assert columns != null;
+        return columns.getClassObj(classIndex);
+    }
+
+    long getId(int node) {
+        return mIndex.getLong(mIds + node * 8L);
+    }
+
+    long getValuesOffset(int node) {
+        return mIndex.getLong(mValuesOffsets + node * 8L);
+    }
+
+    int getLength(int node) {
+        return mIndex.getInt(mLengths + node * 4L);
+    }
+
+    /** Returns the type id of the values of an array, or {@code NO_ARRAY_TYPE}. */
+    byte getArrayType(int node) {
+        return mIndex.getByte(mArrayTypes + node);
+    }
+
+    /** Returns the index of the class of an instance, or {@code NO_INDEX}. */
+    int getClassIndex(int node) {
+        return mIndex.getInt(mClassIndices + node * 4L);
+    }
+
+    /**
+     * Returns the immediate dominator of a node, which is {@code NO_INDEX} for the sentinel root or
+     * if dominators were not computed.
+     */
+    int getImmediateDominatorNode(int node) {
+        if (mImmediateDominators == NULL_POSITION) {
+            return InstanceColumns.NO_INDEX;
+        }
+        int dominator = mIndex.getInt(mImmediateDominators + node * 4L);
+        return dominator == mSize + mClassCount ? InstanceColumns.NO_INDEX : dominator;
+    }
+
+    long getTotalRetainedSize(int node) {
+        long total = 0;
+        for (long retainedSizes : mRetainedSizes) {
+            if (retainedSizes != NULL_POSITION) {
+                total += mIndex.getLong(retainedSizes + node * 8L);
+            }
+        }
+        return total;
+    }
+
+    /** Returns the index of the instance with the given id, or {@code NO_INDEX}. */
+    int findInstanceIndex(long id) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = getId(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return InstanceColumns.NO_INDEX;
+    }
+
+    void dispose() {
+        mIndex.dispose();
+        mSnapshot.dispose();
+    }
+}
@@ -21,6 +21,7 @@ import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
 import com.android.tools.perflib.analyzer.Capture;
 import com.android.tools.perflib.captures.DataBuffer;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
 import com.android.tools.perflib.heap.analysis.*;
 import com.android.tools.perflib.heap.ext.NativeRegistryPostProcessor;
 import com.android.tools.perflib.heap.ext.SnapshotPostProcessor;
@@ -29,9 +30,12 @@ import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TLongObjectHashMap;
 import gnu.trove.TObjectProcedure;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /*
@@ -112,6 +116,10 @@ public class Snapshot extends Capture {
 
     private DominatorsBase mDominators;
 
+    //  Instances of a columnar snapshot, which are not kept in the heaps.
+    @Nullable
+    private InstanceColumns mColumns;
+
     private volatile DominatorComputationStage mDominatorComputationStage
             = DominatorComputationStage.INITIALIZING;
 
@@ -137,16 +145,184 @@ public class Snapshot extends Capture {
             @NonNull DataBuffer buffer,
             @NonNull ProguardMap map,
             @NonNull List<SnapshotPostProcessor> postProcessors) {
+        return createSnapshot(buffer, map, postProcessors, 1);
+    }
+
+    /**
+     * Creates a snapshot, decoding the heap dump records of the buffer on up to {@code
+     * parallelism} threads of the common fork join pool.
+     */
+    @NonNull
+    public static Snapshot createSnapshot(
+            @NonNull DataBuffer buffer,
+            @NonNull ProguardMap map,
+            @NonNull List<SnapshotPostProcessor> postProcessors,
+            int parallelism) {
+        return createSnapshot(buffer, map, postProcessors, false, parallelism);
+    }
+
+    /**
+     * Creates a snapshot which keeps its instances in {@link InstanceColumns} rather than as
+     * objects, to analyze heap dumps which are too large for the regular model.
+     */
+    @NonNull
+    public static Snapshot createColumnarSnapshot(@NonNull DataBuffer buffer) {
+        return createColumnarSnapshot(buffer, new ProguardMap());
+    }
+
+    @NonNull
+    public static Snapshot createColumnarSnapshot(
+            @NonNull DataBuffer buffer, @NonNull ProguardMap map) {
+        return createColumnarSnapshot(
+                buffer, map, Arrays.asList(new NativeRegistryPostProcessor()));
+    }
+
+    @NonNull
+    public static Snapshot createColumnarSnapshot(
+            @NonNull DataBuffer buffer,
+            @NonNull ProguardMap map,
+            @NonNull List<SnapshotPostProcessor> postProcessors) {
+        return createColumnarSnapshot(buffer, map, postProcessors, 1);
+    }
+
+    /**
+     * Creates a columnar snapshot, decoding the heap dump records of the buffer on up to {@code
+     * parallelism} threads of the common fork join pool.
+     */
+    @NonNull
+    public static Snapshot createColumnarSnapshot(
+            @NonNull DataBuffer buffer,
+            @NonNull ProguardMap map,
+            @NonNull List<SnapshotPostProcessor> postProcessors,
+            int parallelism) {
+        return createSnapshot(buffer, map, postProcessors, true, parallelism);
+    }
+
+    /**
+     * Creates a snapshot, decoding the heap dump records of the buffer on up to {@code
+     * parallelism} threads.
+     */
+    @VisibleForTesting
+    @NonNull
+    static Snapshot createSnapshot(
+            @NonNull DataBuffer buffer,
+            @NonNull ProguardMap map,
+            @NonNull List<SnapshotPostProcessor> postProcessors,
+            boolean columnar,
+            int parallelism) {
+        Snapshot snapshot = new Snapshot(buffer);
+        if (columnar) {
+            snapshot.mColumns = new InstanceColumns(snapshot);
+        }
+        snapshot.parse(map, postProcessors, parallelism);
+        return snapshot;
+    }
+
+    /**
+     * Opens a heap dump file as a columnar snapshot. If an up to date {@link SnapshotIndex} of the
+     * heap dump is next to it, the instances, their references and the results of the dominator
+     * computation are read from the index rather than decoded and computed again. Otherwise, if
+     * {@code writeIndex} is true, dominators are computed and an index is written for later opens.
+     */
+    @NonNull
+    public static Snapshot openColumnarSnapshot(
+            @NonNull File file, @NonNull ProguardMap map, boolean writeIndex) throws IOException {
+        return openColumnarSnapshot(
+                file,
+                map,
+                Arrays.asList(new NativeRegistryPostProcessor()),
+                writeIndex,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static Snapshot openColumnarSnapshot(
+            @NonNull File file,
+            @NonNull ProguardMap map,
+            @NonNull List<SnapshotPostProcessor> postProcessors,
+            boolean writeIndex,
+            int parallelism)
+            throws IOException {
+        SnapshotIndex.Reader index = SnapshotIndex.open(file);
+        if (index != null) {
+            Snapshot snapshot = new Snapshot(new MemoryMappedFileBuffer(file));
+            snapshot.mColumns = new InstanceColumns(snapshot);
+            boolean read = false;
+            try {
+                snapshot.mColumns.readIndex(index);
+                read = true;
+            } catch (RuntimeException e) {
+                // The index is truncated or corrupt, and is written again below.
+                snapshot.dispose();
+            } finally {
+                index.dispose();
+            }
+            if (read) {
+                try {
+                    snapshot.parse(map, postProcessors, parallelism);
+                    return snapshot;
+                } catch (SnapshotIndex.StaleIndexException e) {
+                    // The heap dump changed without changing its length or modification time.
+                }
+            }
+        }
+
+        Snapshot snapshot =
+                createSnapshot(
+                        new MemoryMappedFileBuffer(file), map, postProcessors, true, parallelism);
+        if (writeIndex) {
+            snapshot.computeDominators(parallelism);
+            try {
+                SnapshotIndex.write(snapshot, file);
+            } catch (IOException e) {
+                // The index only saves time on later opens, e.g. the directory may be read-only.
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Opens a heap dump file with an up to date {@link SnapshotIndex} next to it, decoding only
+     * its classes, and reading the instance columns in place from the index. Returns null if there
+     * is no such index, or if it turns out to be corrupt or stale.
+     */
+    @Nullable
+    static MappedColumns openMappedColumns(@NonNull File file, @NonNull ProguardMap map)
+            throws IOException {
+        SnapshotIndex.Reader index = SnapshotIndex.open(file);
+        if (index == null) {
+            return null;
+        }
+        Snapshot snapshot = new Snapshot(new MemoryMappedFileBuffer(file));
+        snapshot.mColumns = new InstanceColumns(snapshot);
         try {
-            Snapshot snapshot = new Snapshot(buffer);
-            HprofParser.parseBuffer(snapshot, buffer, map);
+            snapshot.mColumns.readIndexedClasses(index);
+            snapshot.parse(map, Collections.<SnapshotPostProcessor>emptyList(), 1);
+            return new MappedColumns(snapshot, index);
+        } catch (RuntimeException e) {
+            // The index is truncated, corrupt or stale.
+            index.dispose();
+            snapshot.dispose();
+            return null;
+        }
+    }
+
+    /**
+     * Parses the heap dump, decoding its heap dump records on up to {@code parallelism} threads,
+     * and post-processes the snapshot. The buffer is disposed if parsing fails.
+     */
+    private void parse(
+            @NonNull ProguardMap map,
+            @NonNull List<SnapshotPostProcessor> postProcessors,
+            int parallelism) {
+        try {
+            HprofParser.parseBuffer(this, mBuffer, map, parallelism);
             for (SnapshotPostProcessor processor : postProcessors) {
-                processor.postProcess(snapshot);
+                processor.postProcess(this);
             }
-
-            return snapshot;
         } catch (RuntimeException e) {
-            buffer.dispose();
+            mBuffer.dispose();
             throw e;
         }
     }
@@ -157,6 +333,23 @@ public class Snapshot extends Capture {
         setToDefaultHeap();
     }
 
+    /**
+     * Creates an empty snapshot for decoding part of the heap dump records on another thread,
+     * which shares the stack traces of this snapshot.
+     */
+    @NonNull
+    Snapshot createPartialSnapshot(@NonNull DataBuffer buffer) {
+        Snapshot partial = new Snapshot(buffer);
+        partial.mTraces = mTraces;
+        partial.mFrames = mFrames;
+        partial.mTypeSizes = mTypeSizes;
+        partial.mIdSizeMask = mIdSizeMask;
+        if (mColumns != null) {
+            partial.mColumns = mColumns.createPartialColumns(partial);
+        }
+        return partial;
+    }
+
     public void dispose() {
         mBuffer.dispose();
     }
@@ -186,6 +379,15 @@ public class Snapshot extends Capture {
         return mCurrentHeap;
     }
 
+    /**
+     * Returns the columns holding the instances of a columnar snapshot, or null if the instances
+     * are kept in the heaps.
+     */
+    @Nullable
+    public InstanceColumns getColumns() {
+        return mColumns;
+    }
+
     public int getHeapIndex(@NonNull Heap heap) {
         return mHeaps.indexOf(heap);
     }
@@ -307,6 +509,13 @@ public class Snapshot extends Capture {
             }
         }
 
+        if (mColumns != null) {
+            Instance instance = mColumns.findInstance(id);
+            if (instance != null) {
+                return instance;
+            }
+        }
+
         //  Couldn't find an instance of a class, look for a class object
         return findClass(id);
     }
@@ -395,6 +604,10 @@ public class Snapshot extends Capture {
                 }
             });
         }
+
+        if (mColumns != null) {
+            mColumns.resolveClasses();
+        }
     }
 
     public void identifySoftReferences() {
@@ -407,6 +620,11 @@ public class Snapshot extends Capture {
     }
 
     public void resolveReferences() {
+        if (mColumns != null) {
+            mColumns.resolveReferences();
+            return;
+        }
+
         for (Heap heap : getHeaps()) {
             for (ClassObj clazz : heap.getClasses()) {
                 clazz.resolveReferences();
@@ -444,16 +662,44 @@ public class Snapshot extends Capture {
     }
 
     public void computeDominators() {
+        if (mColumns != null) {
+            computeColumnarDominators(Runtime.getRuntime().availableProcessors());
+            return;
+        }
+
         prepareDominatorComputation();
         doComputeDominators(new LinkEvalDominators(this));
     }
 
+    /**
+     * Computes dominators and retained sizes with {@link ParallelDominators}, on up to {@code
+     * parallelism} threads.
+     */
+    public void computeDominators(int parallelism) {
+        if (mColumns != null) {
+            computeColumnarDominators(parallelism);
+            return;
+        }
+
+        prepareDominatorComputation();
+        doComputeDominators(new ParallelDominators(this, parallelism));
+    }
+
     @VisibleForTesting
     public void prepareDominatorComputation() {
         if (mDominators != null) {
             return;
         }
 
+        if (mColumns != null) {
+            // The depth-first order of the instances is computed along with their dominators.
+            mDominatorComputationStage = DominatorComputationStage.RESOLVING_REFERENCES;
+            mColumns.resolveReferences();
+            mDominatorComputationStage = DominatorComputationStage.COMPUTING_SHORTEST_DISTANCE;
+            mColumns.computeShortestDistances();
+            return;
+        }
+
         mDominatorComputationStage = DominatorComputationStage.RESOLVING_REFERENCES;
         resolveReferences();
         compactMemory();
@@ -474,6 +720,10 @@ public class Snapshot extends Capture {
         if (mDominators != null) {
             return;
         }
+        if (mColumns != null) {
+            throw new IllegalStateException(
+                    "Dominators of a columnar snapshot are computed by computeDominators()");
+        }
 
         mDominators = computable;
         mDominatorComputationStage = DominatorComputationStage.COMPUTING_DOMINATORS;
@@ -483,9 +733,23 @@ public class Snapshot extends Capture {
         mDominators.computeRetainedSizes();
     }
 
+    private void computeColumnarDominators(int parallelism) {
+        assert mColumns != null;
+        prepareDominatorComputation();
+
+        mDominatorComputationStage = DominatorComputationStage.COMPUTING_DOMINATORS;
+        mColumns.computeDominators(parallelism);
+
+        mDominatorComputationStage = DominatorComputationStage.COMPUTING_RETAINED_SIZES;
+        mColumns.computeRetainedSizes();
+    }
+
     @NonNull
     public ComputationProgress getComputationProgress() {
         if (mDominatorComputationStage == DominatorComputationStage.COMPUTING_DOMINATORS) {
+            if (mColumns != null) {
+                return mColumns.getComputationProgress();
+            }
             return mDominators.getComputationProgress();
         } else {
             return mDominatorComputationStage.getInitialProgress();
@@ -498,6 +762,10 @@ public class Snapshot extends Capture {
 
     @NonNull
     public List<Instance> getReachableInstances() {
+        if (mColumns != null) {
+            // All the instances in the topological ordering have an immediate dominator.
+            return mColumns.getTopologicalOrdering();
+        }
         List<Instance> result = new ArrayList<Instance>(mTopSort.size());
         for (Instance node : mTopSort) {
             if (node.getImmediateDominator() != null) {
@@ -508,6 +776,9 @@ public class Snapshot extends Capture {
     }
 
     public List<Instance> getTopologicalOrdering() {
+        if (mColumns != null) {
+            return mColumns.getTopologicalOrdering();
+        }
         return mTopSort;
     }
 
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.perflib.captures.DataBuffer;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * An index file written next to a heap dump, which holds the {@link InstanceColumns} of a columnar
+ * snapshot once its dominators are computed: the offsets, classes and heaps of the instances, the
+ * class table, the reference graph in compressed sparse row format, and the distances to the GC
+ * roots, dominators and retained sizes.
+ *
+ * <p>Later opens of the heap dump read the columns back from the index, copying them in bulk from
+ * a {@link MemoryMappedFileBuffer}, and only decode the records of the heap dump which are not
+ * instances, rather than decoding all of them and computing dominators again. The columns still
+ * take as much memory as when they are computed, unless they are read in place with {@link
+ * MappedColumns}, as {@link HeapDiff} does for the baseline.
+ *
+ * <p>The index records the length and modification time of the heap dump, and is ignored once
+ * either changes. It also records a CRC32 checksum of its content, and {@link
+ * InstanceColumns#readIndex} checks the lengths and values of the columns, so that a corrupt index
+ * is rebuilt. It is written to a temporary file which is then renamed, so that processes opening
+ * the heap dump concurrently never see a partial index.
+ */
+final class SnapshotIndex {
+
+    private static final String EXTENSION = ".index";
+
+    private static final int MAGIC = 0x50464958; // "PFIX"
+
+    private static final int VERSION = 2;
+
+    /** The magic, version, length and modification time of the heap dump, and the checksum. */
+    private static final int HEADER_SIZE = 32;
+
+    private static final int CHECKSUM_OFFSET = 24;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    static final int NULL_LENGTH = -1;
+
+    private SnapshotIndex() {}
+
+    /** Returns the index file of a heap dump, which is next to it. */
+    @NonNull
+    static File getIndexFile(@NonNull File hprof) {
+        return new File(hprof.getPath() + EXTENSION);
+    }
+
+    /**
+     * Returns a reader of the index of a heap dump, positioned after its header, or null if there
+     * is no index or if it is not up to date.
+     */
+    @Nullable
+    static Reader open(@NonNull File hprof) throws IOException {
+        File file = getIndexFile(hprof);
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+        long hprofLength = hprof.length();
+        Reader reader = new Reader(new MemoryMappedFileBuffer(file), hprofLength);
+        if (reader.readInt() != MAGIC
+                || reader.readInt() != VERSION
+                || reader.readLong() != hprofLength
+                || reader.readLong() != hprof.lastModified()
+                || reader.readLong() != reader.computeChecksum()) {
+            reader.dispose();
+            return null;
+        }
+        return reader;
+    }
+
+    /**
+     * Writes the index of a heap dump, from a columnar snapshot of it whose dominators are
+     * computed.
+     */
+    static void write(@NonNull Snapshot snapshot, @NonNull File hprof) throws IOException {
+        InstanceColumns columns = snapshot.getColumns();
+        if (columns == null) {
+            throw new IllegalArgumentException("Only columnar snapshots can be indexed");
+        }
+
+        File file = getIndexFile(hprof);
+        File temporaryFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            FileOutputStream os = new FileOutputStream(temporaryFile);
+            try {
+                Writer writer = new Writer(os.getChannel());
+                writer.writeInt(MAGIC);
+                writer.writeInt(VERSION);
+                writer.writeLong(hprof.length());
+                writer.writeLong(hprof.lastModified());
+                // The checksum is written once the content is.
+                writer.writeLong(0);
+                writer.flush();
+                writer.resetChecksum();
+                columns.writeIndex(writer);
+                writer.flush();
+                writer.writeChecksum(CHECKSUM_OFFSET);
+            } finally {
+                os.close();
+            }
+            if (!temporaryFile.renameTo(file)) {
+                // Windows does not replace existing files on rename.
+                if (!file.delete() || !temporaryFile.renameTo(file)) {
+                    throw new IOException("Cannot write " + file);
+                }
+            }
+        } finally {
+            if (temporaryFile.exists()) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    /** Thrown when an index turns out to be corrupt, or not to match its heap dump. */
+    static final class StaleIndexException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        StaleIndexException(@NonNull String message) {
+            super(message);
+        }
+    }
+
+    /** Reads the primitives and arrays of an index, in big-endian order. */
+    static final class Reader {
+
+        @NonNull private final DataBuffer mBuffer;
+
+        @NonNull private final byte[] mChunk = new byte[CHUNK_SIZE];
+
+        private final long mHeapDumpLength;
+
+        private Reader(@NonNull DataBuffer buffer, long heapDumpLength) {
+            mBuffer = buffer;
+            mHeapDumpLength = heapDumpLength;
+        }
+
+        /** Returns the length of the heap dump, which bounds the offsets of the instances. */
+        long getHeapDumpLength() {
+            return mHeapDumpLength;
+        }
+
+        /**
+         * Computes the checksum of the rest of the index, after the header, without moving the
+         * position of the reader.
+         */
+        private long computeChecksum() {
+            long position = mBuffer.position();
+            mBuffer.setPosition(HEADER_SIZE);
+            CRC32 checksum = new CRC32();
+            while (mBuffer.hasRemaining()) {
+                byte[] chunk = readChunk((int) Math.min(CHUNK_SIZE, mBuffer.remaining()));
+                checksum.update(chunk, 0, chunk.length);
+            }
+            mBuffer.setPosition(position);
+            return checksum.getValue();
+        }
+
+        int readInt() {
+            return mBuffer.readInt();
+        }
+
+        long readLong() {
+            return mBuffer.readLong();
+        }
+
+        /** Reads the count of the next entries, each of which takes at least 4 bytes. */
+        int readCount() {
+            int count = readInt();
+            if (count < 0 || (long) count * 4 > mBuffer.remaining()) {
+                throw new StaleIndexException("Corrupt index");
+            }
+            return count;
+        }
+
+        @NonNull
+        String readString() {
+            byte[] bytes = new byte[readLength(1)];
+            mBuffer.read(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Nullable
+        byte[] readBytes() {
+            int length = readLength(1);
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            byte[] values = new byte[length];
+            mBuffer.read(values);
+            return values;
+        }
+
+        @Nullable
+        int[] readInts() {
+            int length = readLength(4);
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            int[] values = new int[length];
+            for (int start = 0; start < length; start += CHUNK_SIZE / 4) {
+                int count = Math.min(CHUNK_SIZE / 4, length - start);
+                ByteBuffer.wrap(readChunk(count * 4)).asIntBuffer().get(values, start, count);
+            }
+            return values;
+        }
+
+        @Nullable
+        long[] readLongs() {
+            int length = readLength(8);
+            if (length == NULL_LENGTH) {
+                return null;
+            }
+            long[] values = new long[length];
+            for (int start = 0; start < length; start += CHUNK_SIZE / 8) {
+                int count = Math.min(CHUNK_SIZE / 8, length - start);
+                ByteBuffer.wrap(readChunk(count * 8)).asLongBuffer().get(values, start, count);
+            }
+            return values;
+        }
+
+        /**
+         * Reads the length of an array, checking that its values are within the index so that a
+         * corrupt index fails rather than allocating arrays for them. The length is {@code
+         * NULL_LENGTH} for a null array.
+         */
+        int readLength(int valueSize) {
+            int length = readInt();
+            if (length < NULL_LENGTH || (long) length * valueSize > mBuffer.remaining()) {
+                throw new StaleIndexException("Corrupt index");
+            }
+            return length;
+        }
+
+        long position() {
+            return mBuffer.position();
+        }
+
+        /** Skips the values of an array, whose length was read with {@link #readLength}. */
+        void skip(long length) {
+            mBuffer.setPosition(mBuffer.position() + length);
+        }
+
+        // Random reads of the mapped file, to read columns in place.
+
+        byte getByte(long position) {
+            mBuffer.setPosition(position);
+            return mBuffer.readByte();
+        }
+
+        int getInt(long position) {
+            mBuffer.setPosition(position);
+            return mBuffer.readInt();
+        }
+
+        long getLong(long position) {
+            mBuffer.setPosition(position);
+            return mBuffer.readLong();
+        }
+
+        /** Copies the next bytes of the mapped file, in bulk rather than value by value. */
+        @NonNull
+        private byte[] readChunk(int length) {
+            byte[] chunk = length == mChunk.length ? mChunk : new byte[length];
+            mBuffer.read(chunk);
+            return chunk;
+        }
+
+        void dispose() {
+            mBuffer.dispose();
+        }
+    }
+
+    /** Writes the primitives and arrays of an index, in big-endian order. */
+    static final class Writer {
+
+        @NonNull private final FileChannel mChannel;
+
+        @NonNull private final ByteBuffer mBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        @NonNull private final CRC32 mChecksum = new CRC32();
+
+        private Writer(@NonNull FileChannel channel) {
+            mChannel = channel;
+            mBuffer.order(DataBuffer.HPROF_BYTE_ORDER);
+        }
+
+        void writeInt(int value) throws IOException {
+            ensureRemaining(4);
+            mBuffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            ensureRemaining(8);
+            mBuffer.putLong(value);
+        }
+
+        void writeString(@NonNull String value) throws IOException {
+            writeBytes(value.getBytes(StandardCharsets.UTF_8), -1);
+        }
+
+        /** Writes the first {@code length} values of an array, or all of them if it is -1. */
+        void writeBytes(@Nullable byte[] values, int length) throws IOException {
+            if (values == null) {
+                writeInt(NULL_LENGTH);
+                return;
+            }
+            length = length < 0 ? values.length : length;
+            writeInt(length);
+            for (int start = 0; start < length; start += CHUNK_SIZE) {
+                int count = Math.min(CHUNK_SIZE, length - start);
+                ensureRemaining(count);
+                mBuffer.put(values, start, count);
+            }
+        }
+
+        void writeInts(@Nullable int[] values, int length) throws IOException {
+            if (values == null) {
+                writeInt(NULL_LENGTH);
+                return;
+            }
+            length = length < 0 ? values.length : length;
+            writeInt(length);
+            for (int start = 0; start < length; start += CHUNK_SIZE / 4) {
+                int count = Math.min(CHUNK_SIZE / 4, length - start);
+                ensureRemaining(count * 4);
+                mBuffer.asIntBuffer().put(values, start, count);
+                mBuffer.position(mBuffer.position() + count * 4);
+            }
+        }
+
+        void writeLongs(@Nullable long[] values, int length) throws IOException {
+            if (values == null) {
+                writeInt(NULL_LENGTH);
+                return;
+            }
+            length = length < 0 ? values.length : length;
+            writeInt(length);
+            for (int start = 0; start < length; start += CHUNK_SIZE / 8) {
+                int count = Math.min(CHUNK_SIZE / 8, length - start);
+                ensureRemaining(count * 8);
+                mBuffer.asLongBuffer().put(values, start, count);
+                mBuffer.position(mBuffer.position() + count * 8);
+            }
+        }
+
+        private void ensureRemaining(int length) throws IOException {
+            if (mBuffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        /** Restarts the checksum, which covers the values flushed from then on. */
+        void resetChecksum() {
+            mChecksum.reset();
+        }
+
+        /** Writes the checksum of the values flushed so far at a position of the file. */
+        void writeChecksum(long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(8).order(DataBuffer.HPROF_BYTE_ORDER);
+            buffer.putLong(0, mChecksum.getValue());
+            while (buffer.hasRemaining()) {
+                position += mChannel.write(buffer, position);
+            }
+        }
+
+        void flush() throws IOException {
+            mBuffer.flip();
+            mChecksum.update(mBuffer.array(), 0, mBuffer.limit());
+            while (mBuffer.hasRemaining()) {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+    }
+}
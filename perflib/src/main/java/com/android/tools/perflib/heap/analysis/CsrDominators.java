@@ -0,0 +1,542 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.analysis;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the dominator tree of a graph whose edges are stored as int arrays in compressed sparse
+ * row format: the successors of node {@code n} are {@code successors[successorStarts[n]]} to
+ * {@code successors[successorStarts[n + 1] - 1]}, and likewise for its predecessors.
+ *
+ * <p>Dominators are computed with the Lengauer-Tarjan algorithm, like {@link LinkEvalDominators},
+ * but without an object per node: every array is indexed by depth-first number, so that the
+ * link-eval forest compares semi-dominators without any indirection. The work which does not
+ * depend on the order in which the nodes are processed runs on up to {@code parallelism} threads:
+ *
+ * <ul>
+ *   <li>Renumbering the predecessors of the nodes after the depth-first search. The search itself
+ *       is sequential.
+ *   <li>Bounding the semi-dominator of each node by its predecessors numbered before it, which are
+ *       not linked yet when the node is processed. The sequential link-eval loop only evaluates
+ *       the remaining predecessors, which in heap graphs are a small fraction.
+ *   <li>Accumulating retained sizes up the dominator tree, one level at a time.
+ * </ul>
+ */
+public final class CsrDominators {
+
+    /** The dominator of the root, and the depth-first number of unreachable nodes. */
+    public static final int NO_NODE = -1;
+
+    /** The smallest range of nodes worth handing to another thread. */
+    private static final int MIN_CHUNK_SIZE = 1 << 10;
+
+    private enum Stage {
+        NUMBERING("Numbering nodes in depth-first order %d/%d", 0.0, 0.2),
+        SEMI_DOMINATORS("Calculating semi-dominators %d/%d", 0.2, 0.6),
+        DOMINATORS("Calculating immediate dominators %d/%d", 0.8, 0.2),
+        RETAINED_SIZES("Calculating retained sizes %d/%d", 0.0, 1.0);
+
+        @NonNull private final String mMessage;
+
+        private final double mOffset;
+
+        private final double mWeight;
+
+        Stage(@NonNull String message, double offset, double weight) {
+            mMessage = message;
+            mOffset = offset;
+            mWeight = weight;
+        }
+    }
+
+    @NonNull private final int[] mSuccessorStarts;
+
+    @NonNull private final int[] mSuccessors;
+
+    @NonNull private final int[] mPredecessorStarts;
+
+    @NonNull private final int[] mPredecessors;
+
+    private final int mRoot;
+
+    private final int mParallelism;
+
+    @NonNull
+    private final ComputationProgress mCurrentProgress =
+            new ComputationProgress("Starting dominator computation", 0.0);
+
+    @NonNull private volatile Stage mStage = Stage.NUMBERING;
+
+    private volatile int mStageProgress;
+
+    private volatile int mStageTotal;
+
+    /** The depth-first number of each node, or {@link #NO_NODE} if it is unreachable. */
+    @Nullable private int[] mNumbers;
+
+    /** The reachable nodes, by depth-first number. */
+    @Nullable private int[] mVertices;
+
+    /** The reachable nodes, in post order. */
+    @Nullable private int[] mPostorder;
+
+    /** The depth-first number of the parent of each reachable node in the spanning tree. */
+    @Nullable private int[] mParents;
+
+    /** The depth-first number of the immediate dominator of each reachable node, by number. */
+    @Nullable private int[] mDominators;
+
+    /**
+     * @param successorStarts the start of the successors of each node, followed by their end
+     * @param successors the successors of the nodes
+     * @param predecessorStarts the start of the predecessors of each node, followed by their end
+     * @param predecessors the predecessors of the nodes, which may include unreachable nodes
+     * @param root the node all the other nodes are reached from
+     * @param parallelism the maximum number of threads to use
+     */
+    public CsrDominators(
+            @NonNull int[] successorStarts,
+            @NonNull int[] successors,
+            @NonNull int[] predecessorStarts,
+            @NonNull int[] predecessors,
+            int root,
+            int parallelism) {
+        assert successorStarts.length == predecessorStarts.length;
+        mSuccessorStarts = successorStarts;
+        mSuccessors = successors;
+        mPredecessorStarts = predecessorStarts;
+        mPredecessors = predecessors;
+        mRoot = root;
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    public int getNodeCount() {
+        return mSuccessorStarts.length - 1;
+    }
+
+    @NonNull
+    public ComputationProgress getComputationProgress() {
+        Stage stage = mStage;
+        int total = mStageTotal;
+        int progress = Math.min(mStageProgress, total);
+        double fraction = total == 0 ? 1.0 : (double) progress / total;
+        mCurrentProgress.setMessage(String.format(stage.mMessage, progress, total));
+        mCurrentProgress.setProgress(stage.mOffset + stage.mWeight * fraction);
+        return mCurrentProgress;
+    }
+
+    /** Kicks off the computation of dominators. */
+    public void computeDominators() {
+        if (mDominators != null) {
+            return;
+        }
+
+        numberNodes();
+        assert mNumbers != null && mVertices != null;
+        final int[] numbers = mNumbers;
+        final int[] vertices = mVertices;
+        final int[] starts = mPredecessorStarts;
+        final int[] predecessors = mPredecessors;
+        int count = vertices.length;
+        setStage(Stage.SEMI_DOMINATORS, count);
+
+        // Predecessors numbered before a node are not linked yet when the node is processed,
+        // so they evaluate to themselves: bound the semi-dominators with them up front, and
+        // only keep the predecessors numbered after the node, renumbered.
+        final int[] semi = new int[count];
+        final int[] laterStarts = new int[count + 1];
+        forEachRange(count, new RangeProcedure() {
+            @Override
+            public void execute(int start, int end) {
+                for (int w = Math.max(start, 1); w < end; w++) {
+                    int node = vertices[w];
+                    int bound = w;
+                    int laterCount = 0;
+                    for (int i = starts[node]; i < starts[node + 1]; i++) {
+                        int v = numbers[predecessors[i]];
+                        if (v == NO_NODE) {
+                            continue; // Unreachable.
+                        }
+                        if (v < bound) {
+                            bound = v;
+                        } else if (v > w) {
+                            laterCount++;
+                        }
+                    }
+                    semi[w] = bound;
+                    laterStarts[w + 1] = laterCount;
+                }
+            }
+        });
+        for (int w = 1; w <= count; w++) {
+            laterStarts[w] += laterStarts[w - 1];
+        }
+        final int[] later = new int[laterStarts[count]];
+        forEachRange(count, new RangeProcedure() {
+            @Override
+            public void execute(int start, int end) {
+                for (int w = Math.max(start, 1); w < end; w++) {
+                    int node = vertices[w];
+                    int next = laterStarts[w];
+                    for (int i = starts[node]; i < starts[node + 1]; i++) {
+                        int v = numbers[predecessors[i]];
+                        if (v > w) {
+                            later[next++] = v;
+                        }
+                    }
+                }
+            }
+        });
+
+        mDominators = computeDominators(semi, later, laterStarts);
+    }
+
+    /**
+     * Depth-first search in loop form, which numbers the reachable nodes and records their parents
+     * in the depth-first spanning tree, by number.
+     */
+    private void numberNodes() {
+        int nodeCount = getNodeCount();
+        setStage(Stage.NUMBERING, nodeCount);
+        int[] numbers = new int[nodeCount];
+        int[] vertices = new int[nodeCount];
+        int[] parents = new int[nodeCount];
+        int[] postorder = new int[nodeCount];
+        Arrays.fill(numbers, NO_NODE);
+        int[] stack = new int[nodeCount];
+        int[] cursors = new int[nodeCount];
+        int top = 0;
+        int count = 0;
+        int postCount = 0;
+        stack[0] = mRoot;
+        cursors[0] = mSuccessorStarts[mRoot];
+        parents[0] = NO_NODE;
+        numbers[mRoot] = count;
+        vertices[count++] = mRoot;
+        while (top >= 0) {
+            int node = stack[top];
+            if (cursors[top] < mSuccessorStarts[node + 1]) {
+                int child = mSuccessors[cursors[top]++];
+                if (numbers[child] == NO_NODE) {
+                    parents[count] = numbers[node];
+                    numbers[child] = count;
+                    vertices[count++] = child;
+                    top++;
+                    stack[top] = child;
+                    cursors[top] = mSuccessorStarts[child];
+                    if ((count & 0xFFF) == 0) {
+                        mStageProgress = count;
+                    }
+                }
+            } else {
+                postorder[postCount++] = node;
+                top--;
+            }
+        }
+
+        mNumbers = numbers;
+        mVertices = Arrays.copyOf(vertices, count);
+        mParents = Arrays.copyOf(parents, count);
+        mPostorder = Arrays.copyOf(postorder, postCount);
+    }
+
+    /**
+     * Computes the immediate dominators from the semi-dominator bounds and the predecessors
+     * numbered after each node, by depth-first number.
+     */
+    @NonNull
+    private int[] computeDominators(
+            @NonNull int[] semi, @NonNull int[] later, @NonNull int[] laterStarts) {
+        assert mParents != null;
+        int[] parents = mParents;
+        int count = semi.length;
+        int[] ancestors = new int[count];
+        int[] labels = new int[count];
+        int[] bucketHeads = new int[count];
+        int[] bucketNext = new int[count];
+        int[] dominators = new int[count];
+        int[] path = new int[count];
+        Arrays.fill(ancestors, NO_NODE);
+        Arrays.fill(bucketHeads, NO_NODE);
+        for (int w = 0; w < count; w++) {
+            labels[w] = w;
+        }
+
+        for (int w = count - 1; w > 0; w--) {
+            for (int i = laterStarts[w]; i < laterStarts[w + 1]; i++) {
+                int u = eval(later[i], ancestors, labels, semi, path);
+                if (semi[u] < semi[w]) {
+                    semi[w] = semi[u];
+                }
+            }
+            bucketNext[w] = bucketHeads[semi[w]];
+            bucketHeads[semi[w]] = w;
+
+            int parent = parents[w];
+            ancestors[w] = parent;
+            for (int v = bucketHeads[parent]; v != NO_NODE; v = bucketNext[v]) {
+                int u = eval(v, ancestors, labels, semi, path);
+                dominators[v] = semi[u] < semi[v] ? u : parent;
+            }
+            bucketHeads[parent] = NO_NODE;
+            if (((count - w) & 0xFFF) == 0) {
+                mStageProgress = count - w;
+            }
+        }
+
+        setStage(Stage.DOMINATORS, count);
+        dominators[0] = NO_NODE;
+        for (int w = 1; w < count; w++) {
+            if (dominators[w] != semi[w]) {
+                dominators[w] = dominators[dominators[w]];
+            }
+        }
+        mStageProgress = count;
+        mParents = null;
+        return dominators;
+    }
+
+    private static int eval(
+            int node, @NonNull int[] ancestors, @NonNull int[] labels, @NonNull int[] semi,
+            @NonNull int[] path) {
+        if (ancestors[node] == NO_NODE) {
+            return node;
+        }
+        // Compress the path to the root of the forest, in loop form.
+        int length = 0;
+        for (int v = node; ancestors[ancestors[v]] != NO_NODE; v = ancestors[v]) {
+            path[length++] = v;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            int v = path[i];
+            int ancestor = ancestors[v];
+            if (semi[labels[ancestor]] < semi[labels[v]]) {
+                labels[v] = labels[ancestor];
+            }
+            ancestors[v] = ancestors[ancestor];
+        }
+        return labels[node];
+    }
+
+    /**
+     * Adds the sizes of every reachable node, other than the root, to those of the nodes which
+     * dominate it, so that each ends up with its retained size. The root is usually a sentinel
+     * standing for the GC roots, so nothing is added to it. Only call this AFTER dominator
+     * computation.
+     *
+     * @param sizes arrays of sizes indexed by node, e.g. one per heap, any of which may be null
+     */
+    public void computeRetainedSizes(@NonNull final long[][] sizes) {
+        assert mDominators != null && mVertices != null;
+        final int[] vertices = mVertices;
+        int count = vertices.length;
+        setStage(Stage.RETAINED_SIZES, count);
+
+        // Build the children of the nodes in the dominator tree, and sort the nodes by level.
+        final int[] childStarts = new int[count + 1];
+        for (int w = 1; w < count; w++) {
+            childStarts[mDominators[w] + 1]++;
+        }
+        for (int w = 1; w <= count; w++) {
+            childStarts[w] += childStarts[w - 1];
+        }
+        final int[] children = new int[Math.max(count - 1, 0)];
+        int[] next = Arrays.copyOf(childStarts, count);
+        for (int w = 1; w < count; w++) {
+            children[next[mDominators[w]]++] = w;
+        }
+        int[] levelStarts = new int[count + 1];
+        int levelCount = 0;
+        int[] levels = next; // No longer needed, reuse it for the nodes in level order.
+        int tail = 0;
+        if (count > 0) {
+            levels[tail++] = 0;
+        }
+        for (int head = 0; head < tail; levelCount++) {
+            levelStarts[levelCount] = head;
+            int end = tail;
+            for (; head < end; head++) {
+                int w = levels[head];
+                for (int i = childStarts[w]; i < childStarts[w + 1]; i++) {
+                    levels[tail++] = children[i];
+                }
+            }
+        }
+        levelStarts[levelCount] = tail;
+
+        // Each level pulls the sizes of the level below it, so nodes of a level are independent.
+        final int[] nodes = levels;
+        int done = 0;
+        for (int level = levelCount - 2; level >= 1; level--) {
+            final int start = levelStarts[level];
+            int end = levelStarts[level + 1];
+            forEachRange(end - start, new RangeProcedure() {
+                @Override
+                public void execute(int from, int to) {
+                    for (int i = start + from; i < start + to; i++) {
+                        int w = nodes[i];
+                        int node = vertices[w];
+                        for (long[] heapSizes : sizes) {
+                            if (heapSizes == null) {
+                                continue;
+                            }
+                            long size = heapSizes[node];
+                            for (int j = childStarts[w]; j < childStarts[w + 1]; j++) {
+                                size += heapSizes[vertices[children[j]]];
+                            }
+                            heapSizes[node] = size;
+                        }
+                    }
+                }
+            });
+            done += end - start;
+            mStageProgress = done;
+        }
+        mStageProgress = count;
+    }
+
+    /** Returns the number of nodes reachable from the root, including the root. */
+    public int getReachableCount() {
+        assert mVertices != null;
+        return mVertices.length;
+    }
+
+    /**
+     * Returns the depth-first number of each node, the root being 0, or {@link #NO_NODE} for nodes
+     * not reachable from the root.
+     */
+    @NonNull
+    public int[] getDepthFirstNumbers() {
+        assert mNumbers != null;
+        return mNumbers;
+    }
+
+    /** Returns the reachable nodes in post order, which ends with the root. */
+    @NonNull
+    public int[] getPostorder() {
+        assert mPostorder != null;
+        return mPostorder;
+    }
+
+    /**
+     * Returns the immediate dominator of a node, or {@link #NO_NODE} for the root and for nodes
+     * which are not reachable from it.
+     */
+    public int getImmediateDominator(int node) {
+        assert mNumbers != null && mVertices != null && mDominators != null;
+        int w = mNumbers[node];
+        if (w == NO_NODE || w == 0) {
+            return NO_NODE;
+        }
+        return mVertices[mDominators[w]];
+    }
+
+    /** Returns the immediate dominators of all the nodes, as {@link #getImmediateDominator}. */
+    @NonNull
+    public int[] getImmediateDominators() {
+        assert mNumbers != null && mVertices != null && mDominators != null;
+        final int[] numbers = mNumbers;
+        final int[] vertices = mVertices;
+        final int[] dominators = mDominators;
+        final int[] result = new int[numbers.length];
+        forEachRange(result.length, new RangeProcedure() {
+            @Override
+            public void execute(int start, int end) {
+                for (int node = start; node < end; node++) {
+                    int w = numbers[node];
+                    result[node] = w == NO_NODE || w == 0 ? NO_NODE : vertices[dominators[w]];
+                }
+            }
+        });
+        return result;
+    }
+
+    private void setStage(@NonNull Stage stage, int total) {
+        mStageProgress = 0;
+        mStageTotal = total;
+        mStage = stage;
+    }
+
+    /** A procedure over a range of indices, which may run concurrently with other ranges. */
+    private interface RangeProcedure {
+        void execute(int start, int end);
+    }
+
+    /**
+     * Runs a procedure over the indices from 0 to {@code count}, split in several ranges per thread
+     * so that threads stay busy when ranges take different times, and waits for it to complete.
+     *
+     * <p>The ranges are run by the calling thread and by up to {@code mParallelism - 1} tasks on
+     * the common fork join pool, which take the next range until there are none left.
+     */
+    private void forEachRange(final int count, @NonNull final RangeProcedure procedure) {
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, count / (mParallelism * 4) + 1);
+        if (mParallelism < 2 || count <= chunkSize) {
+            procedure.execute(0, count);
+            return;
+        }
+
+        final int chunkCount = (count + chunkSize - 1) / chunkSize;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                for (int chunk = nextChunk.getAndIncrement();
+                        chunk < chunkCount;
+                        chunk = nextChunk.getAndIncrement()) {
+                    int start = chunk * chunkSize;
+                    procedure.execute(start, Math.min(start + chunkSize, count));
+                }
+            }
+        };
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 1; i < Math.min(mParallelism, chunkCount); i++) {
+            futures.add(ForkJoinPool.commonPool().submit(worker));
+        }
+        try {
+            worker.run();
+        } catch (RuntimeException e) {
+            // Stop the other tasks at their next range.
+            nextChunk.set(chunkCount);
+            throw e;
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
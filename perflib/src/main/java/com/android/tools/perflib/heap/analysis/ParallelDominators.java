@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.perflib.heap.analysis;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.RootObj;
+import com.android.tools.perflib.heap.Snapshot;
+import java.util.List;
+
+/**
+ * Computes dominators with {@link CsrDominators}, on up to {@code parallelism} threads, after
+ * copying the hard references between the instances in topological order to int arrays. Node 0
+ * is the sentinel root, and node {@code i} the instance at position {@code i - 1} of the
+ * topological ordering.
+ */
+public final class ParallelDominators extends DominatorsBase {
+    @NonNull
+    private final Instance[] mNodes;
+
+    @NonNull
+    private final CsrDominators mDominators;
+
+    public ParallelDominators(@NonNull Snapshot snapshot) {
+        this(snapshot, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelDominators(@NonNull Snapshot snapshot, int parallelism) {
+        super(snapshot);
+
+        int nodeCount = mTopSort.size() + 1;
+        mNodes = new Instance[nodeCount];
+        mNodes[0] = Snapshot.SENTINEL_ROOT;
+        for (int i = 1; i < nodeCount; i++) {
+            mNodes[i] = mTopSort.get(i - 1);
+        }
+
+        boolean[] isRoot = new boolean[nodeCount];
+        int rootCount = 0;
+        for (RootObj root : snapshot.getGCRoots()) {
+            int node = getNode(root.getReferredInstance());
+            if (node != CsrDominators.NO_NODE && !isRoot[node]) {
+                isRoot[node] = true;
+                rootCount++;
+            }
+        }
+
+        // The references are counted first, so that the arrays are allocated at their exact size.
+        int[] successorStarts = new int[nodeCount + 1];
+        int[] predecessorStarts = new int[nodeCount + 1];
+        successorStarts[1] = rootCount;
+        for (int node = 1; node < nodeCount; node++) {
+            Instance instance = mNodes[node];
+            successorStarts[node + 1] =
+                    successorStarts[node] + countNodes(instance.getHardForwardReferences());
+            predecessorStarts[node + 1] =
+                    predecessorStarts[node]
+                            + countNodes(instance.getHardReverseReferences())
+                            + (isRoot[node] ? 1 : 0);
+        }
+
+        int[] successors = new int[successorStarts[nodeCount]];
+        int[] predecessors = new int[predecessorStarts[nodeCount]];
+        for (int node = 1; node < nodeCount; node++) {
+            Instance instance = mNodes[node];
+            if (isRoot[node]) {
+                predecessors[predecessorStarts[node]] = 0;
+            }
+            addNodes(instance.getHardForwardReferences(), successors, successorStarts[node]);
+            addNodes(
+                    instance.getHardReverseReferences(),
+                    predecessors,
+                    predecessorStarts[node] + (isRoot[node] ? 1 : 0));
+        }
+        // The sentinel root refers to the roots, in topological order.
+        int nextRoot = 0;
+        for (int node = 1; node < nodeCount; node++) {
+            if (isRoot[node]) {
+                successors[nextRoot++] = node;
+            }
+        }
+
+        mDominators =
+                new CsrDominators(
+                        successorStarts, successors, predecessorStarts, predecessors, 0,
+                        parallelism);
+    }
+
+    /**
+     * Returns the node of a reachable instance. {@link TopologicalSort} numbered the instances in
+     * topological order from 1, which is checked against the topological ordering.
+     */
+    private int getNode(@Nullable Instance instance) {
+        if (instance == null) {
+            return CsrDominators.NO_NODE;
+        }
+        int node = instance.getTopologicalOrder();
+        return node > 0 && node < mNodes.length && mNodes[node] == instance
+                ? node
+                : CsrDominators.NO_NODE;
+    }
+
+    private int countNodes(@NonNull List<Instance> instances) {
+        int count = 0;
+        for (Instance instance : instances) {
+            if (getNode(instance) != CsrDominators.NO_NODE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void addNodes(@NonNull List<Instance> instances, @NonNull int[] nodes, int start) {
+        for (Instance instance : instances) {
+            int node = getNode(instance);
+            if (node != CsrDominators.NO_NODE) {
+                nodes[start++] = node;
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public ComputationProgress getComputationProgress() {
+        return mDominators.getComputationProgress();
+    }
+
+    @Override
+    public void computeDominators() {
+        mDominators.computeDominators();
+
+        // Like LinkEvalDominators, number the instances in depth-first order.
+        int[] numbers = mDominators.getDepthFirstNumbers();
+        int[] dominators = mDominators.getImmediateDominators();
+        for (int node = 0; node < mNodes.length; node++) {
+            Instance instance = mNodes[node];
+            instance.setTopologicalOrder(Math.max(numbers[node], 0));
+            if (dominators[node] != CsrDominators.NO_NODE) {
+                instance.setImmediateDominator(mNodes[dominators[node]]);
+            }
+        }
+    }
+
+    @Override
+    public void computeRetainedSizes() {
+        int heapCount = mSnapshot.getHeaps().size();
+        long[][] sizes = new long[heapCount][];
+        for (int node = 1; node < mNodes.length; node++) {
+            Instance instance = mNodes[node];
+            int heapIndex = mSnapshot.getHeapIndex(instance.getHeap());
+            if (sizes[heapIndex] == null) {
+                sizes[heapIndex] = new long[mNodes.length];
+            }
+            sizes[heapIndex][node] = instance.getSize() + instance.getNativeSize();
+        }
+
+        mDominators.computeRetainedSizes(sizes);
+
+        int[] numbers = mDominators.getDepthFirstNumbers();
+        for (int node = 1; node < mNodes.length; node++) {
+            if (numbers[node] == CsrDominators.NO_NODE) {
+                continue;
+            }
+            Instance instance = mNodes[node];
+            for (int heapIndex = 0; heapIndex < heapCount; heapIndex++) {
+                if (sizes[heapIndex] != null) {
+                    long retainedSize = sizes[heapIndex][node];
+                    instance.addRetainedSize(
+                            heapIndex, retainedSize - instance.getRetainedSize(heapIndex));
+                }
+            }
+        }
+    }
+}
@@ -117,4 +117,12 @@ public class InMemoryBuffer implements DataBuffer {
     public long remaining() {
         return mBuffer.remaining();
     }
+
+    @NonNull
+    @Override
+    public DataBuffer duplicate() {
+        InMemoryBuffer buffer = new InMemoryBuffer(mBuffer.duplicate().order(mBuffer.order()));
+        buffer.setPosition(position());
+        return buffer;
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.testutils.TestResources;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import com.android.tools.perflib.heap.ext.SnapshotPostProcessor;
+import com.android.tools.perflib.heap.io.InMemoryBuffer;
+import com.android.tools.proguard.ProguardMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+public class ColumnarSnapshotTest extends TestCase {
+
+    private Snapshot mSnapshot;
+
+    private Snapshot mColumnarSnapshot;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        File file = TestResources.getFile(getClass(), "/dialer.android-hprof");
+        mSnapshot = Snapshot.createSnapshot(new MemoryMappedFileBuffer(file));
+        mColumnarSnapshot = Snapshot.createColumnarSnapshot(new MemoryMappedFileBuffer(file));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        mSnapshot.dispose();
+        mSnapshot = null;
+        mColumnarSnapshot.dispose();
+        mColumnarSnapshot = null;
+    }
+
+    public void testInstances() {
+        assertNotNull(mColumnarSnapshot.getColumns());
+        assertNull(mSnapshot.getColumns());
+
+        int total = 0;
+        for (Heap heap : mSnapshot.getHeaps()) {
+            Heap columnarHeap = mColumnarSnapshot.getHeap(heap.getId());
+            assertEquals(heap.getInstancesCount(), columnarHeap.getInstancesCount());
+            total += heap.getInstancesCount();
+
+            for (ClassObj classObj : heap.getClasses()) {
+                ClassObj columnarClass = mColumnarSnapshot.findClass(classObj.getId());
+                assertEquals(classObj.getInstanceCount(), columnarClass.getInstanceCount());
+                assertEquals(classObj.getShallowSize(heap.getId()),
+                        columnarClass.getShallowSize(heap.getId()));
+            }
+        }
+        assertEquals(total, mColumnarSnapshot.getColumns().size());
+
+        ClassObj stringClass = mColumnarSnapshot.findClass("java.lang.String");
+        Instance string = stringClass.getInstancesList().get(0);
+        Instance regularString = mSnapshot.findInstance(string.getId());
+        assertEquals(regularString.getSize(), string.getSize());
+        assertEquals(((ClassInstance) regularString).getAsString(),
+                ((ClassInstance) string).getAsString());
+        assertEquals(string, mColumnarSnapshot.findInstance(string.getId()));
+        assertSame(stringClass, string.getClassObj());
+    }
+
+    public void testReferences() {
+        mSnapshot.resolveReferences();
+        mColumnarSnapshot.resolveReferences();
+
+        ClassObj classObj = mSnapshot.findClass("android.graphics.Bitmap");
+        for (Instance instance : classObj.getInstancesList()) {
+            Instance view = mColumnarSnapshot.findInstance(instance.getId());
+            assertEquals(ids(instance.getHardForwardReferences()),
+                    ids(view.getHardForwardReferences()));
+            assertEquals(ids(instance.getHardReverseReferences()),
+                    ids(view.getHardReverseReferences()));
+        }
+    }
+
+    public void testDominators() {
+        mSnapshot.computeDominators();
+        mColumnarSnapshot.computeDominators();
+
+        List<Instance> reachable = mSnapshot.getReachableInstances();
+        assertEquals(reachable.size(), mColumnarSnapshot.getReachableInstances().size());
+        for (Instance instance : reachable) {
+            Instance view = mColumnarSnapshot.findInstance(instance.getId());
+            Instance dominator = instance.getImmediateDominator();
+            Instance viewDominator = view.getImmediateDominator();
+            if (dominator == Snapshot.SENTINEL_ROOT) {
+                assertSame(Snapshot.SENTINEL_ROOT, viewDominator);
+            } else {
+                assertEquals(dominator.getId(), viewDominator.getId());
+            }
+            assertEquals(instance.getDistanceToGcRoot(), view.getDistanceToGcRoot());
+            assertEquals(instance.getTotalRetainedSize(), view.getTotalRetainedSize());
+            for (int i = 0; i < mSnapshot.getHeaps().size(); i++) {
+                assertEquals(instance.getRetainedSize(i), view.getRetainedSize(i));
+            }
+        }
+    }
+
+    public void testParallelParsing() throws IOException {
+        byte[] hprof = new SyntheticHprof(20000, 128).toByteArray();
+        Snapshot serial = Snapshot.createSnapshot(new InMemoryBuffer(hprof), new ProguardMap(),
+                Collections.<SnapshotPostProcessor>emptyList(), true, 1);
+        Snapshot parallel = Snapshot.createSnapshot(new InMemoryBuffer(hprof), new ProguardMap(),
+                Collections.<SnapshotPostProcessor>emptyList(), true, 4);
+
+        assertEquals(serial.getColumns().size(), parallel.getColumns().size());
+        for (Heap heap : serial.getHeaps()) {
+            assertEquals(heap.getInstancesCount(),
+                    parallel.getHeap(heap.getId()).getInstancesCount());
+        }
+        for (int node = 0; node < 20000; node += 1000) {
+            Instance instance = parallel.findInstance(SyntheticHprof.getNodeId(node));
+            assertEquals(SyntheticHprof.NODE_CLASS_NAME, instance.getClassObj().getClassName());
+            assertEquals(serial.findInstance(instance.getId()).getHeap().getId(),
+                    instance.getHeap().getId());
+        }
+    }
+
+    private static Set<Long> ids(List<Instance> instances) {
+        Set<Long> ids = new HashSet<Long>();
+        for (Instance instance : instances) {
+            ids.add(instance.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.annotations.NonNull;
+import com.android.testutils.TestResources;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import com.android.tools.perflib.heap.ext.SnapshotPostProcessor;
+import com.android.tools.perflib.heap.hprof.Hprof;
+import com.android.tools.perflib.heap.hprof.HprofClassDump;
+import com.android.tools.perflib.heap.hprof.HprofConstant;
+import com.android.tools.perflib.heap.hprof.HprofDumpRecord;
+import com.android.tools.perflib.heap.hprof.HprofHeapDumpSegment;
+import com.android.tools.perflib.heap.hprof.HprofInstanceDump;
+import com.android.tools.perflib.heap.hprof.HprofInstanceField;
+import com.android.tools.perflib.heap.hprof.HprofLoadClass;
+import com.android.tools.perflib.heap.hprof.HprofPrimitiveArrayDump;
+import com.android.tools.perflib.heap.hprof.HprofRecord;
+import com.android.tools.perflib.heap.hprof.HprofRootJniGlobal;
+import com.android.tools.perflib.heap.hprof.HprofStaticField;
+import com.android.tools.perflib.heap.hprof.HprofStringBuilder;
+import com.android.tools.perflib.heap.hprof.HprofType;
+import com.android.tools.perflib.heap.io.InMemoryBuffer;
+import com.android.tools.proguard.ProguardMap;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class HeapDiffTest extends TestCase {
+
+    private static final long BYTE_ARRAY_CLASS_ID = 0x10;
+
+    private static final long CHAR_ARRAY_CLASS_ID = 0x11;
+
+    private static final long STRING_CLASS_ID = 0x12;
+
+    public void testSyntheticHprof() throws IOException {
+        Snapshot baseline = createSnapshot(new SyntheticHprof(1000, 128).toByteArray());
+        Snapshot current = createSnapshot(new SyntheticHprof(1500, 128).toByteArray());
+
+        Map<String, HeapDiff.ClassDiff> diffs = diff(baseline, current);
+        HeapDiff.ClassDiff nodes = diffs.get(SyntheticHprof.NODE_CLASS_NAME);
+        assertEquals(1000, nodes.getBaselineCount());
+        assertEquals(1500, nodes.getCurrentCount());
+        assertEquals(500, nodes.getCountDelta());
+        assertEquals(1000, nodes.getMatchedByIdCount());
+        assertEquals(500, nodes.getAddedCount());
+        assertEquals(0, nodes.getRemovedCount());
+        assertEquals(500 * 12, nodes.getShallowSizeDelta());
+        assertTrue(nodes.getRetainedSizeDelta() > 0);
+
+        // The payloads have the same ids and contents in both heap dumps.
+        HeapDiff.ClassDiff payloads = diffs.get("byte[]");
+        assertEquals(1000, payloads.getMatchedByIdCount());
+        assertEquals(0, payloads.getMatchedBySignatureCount());
+        assertEquals(500 * 64, payloads.getShallowSizeDelta());
+
+        assertEquals(5, diffs.get(SyntheticHprof.NODE_CLASS_NAME + "[]").getCountDelta());
+
+        // Reversing the snapshots reverses the differences.
+        HeapDiff.ClassDiff reversed = diff(current, baseline).get(SyntheticHprof.NODE_CLASS_NAME);
+        assertEquals(-500, reversed.getCountDelta());
+        assertEquals(500, reversed.getRemovedCount());
+        assertEquals(-nodes.getRetainedSizeDelta(), reversed.getRetainedSizeDelta());
+
+        baseline.dispose();
+        current.dispose();
+    }
+
+    public void testSignatures() throws IOException {
+        Map<Long, byte[]> baselineArrays = new LinkedHashMap<Long, byte[]>();
+        baselineArrays.put(0x100L, new byte[] {1, 2, 3});
+        baselineArrays.put(0x110L, new byte[] {4, 5, 6});
+        baselineArrays.put(0x120L, new byte[] {7, 8, 9});
+        baselineArrays.put(0x130L, new byte[] {7, 8, 9});
+
+        // The first array is unchanged, the second moved, the third has its id reused by another
+        // array, and the fourth was collected.
+        Map<Long, byte[]> currentArrays = new LinkedHashMap<Long, byte[]>();
+        currentArrays.put(0x100L, new byte[] {1, 2, 3});
+        currentArrays.put(0x200L, new byte[] {4, 5, 6});
+        currentArrays.put(0x120L, new byte[] {10, 11});
+
+        Snapshot baseline = createSnapshot(writeByteArrays(baselineArrays));
+        Snapshot current = createSnapshot(writeByteArrays(currentArrays));
+        HeapDiff.ClassDiff diff = diff(baseline, current).get("byte[]");
+        assertEquals(-1, diff.getCountDelta());
+        assertEquals(1, diff.getMatchedByIdCount());
+        assertEquals(1, diff.getMatchedBySignatureCount());
+        assertEquals(1, diff.getAddedCount());
+        assertEquals(2, diff.getRemovedCount());
+        assertEquals(-4, diff.getShallowSizeDelta());
+        assertEquals(-4, diff.getRetainedSizeDelta());
+
+        baseline.dispose();
+        current.dispose();
+    }
+
+    public void testStrings() throws IOException {
+        // The first string is unchanged, the second moved, the third has its id reused by another
+        // string, and the fourth moved to a value array without the characters past its count.
+        Snapshot baseline = createSnapshot(writeStrings(new long[] {0x100, 0x110, 0x120, 0x130},
+                new String[] {"abc", "def", "ghi", "hello!!"}, new int[] {3, 3, 3, 5}));
+        Snapshot current = createSnapshot(writeStrings(new long[] {0x100, 0x210, 0x120, 0x230},
+                new String[] {"abc", "def", "xyz", "hello"}, new int[] {3, 3, 3, 5}));
+        Map<String, HeapDiff.ClassDiff> diffs = diff(baseline, current);
+
+        HeapDiff.ClassDiff strings = diffs.get("java.lang.String");
+        assertEquals(1, strings.getMatchedByIdCount());
+        assertEquals(2, strings.getMatchedBySignatureCount());
+        assertEquals(1, strings.getAddedCount());
+        assertEquals(1, strings.getRemovedCount());
+
+        HeapDiff.ClassDiff values = diffs.get("char[]");
+        assertEquals(1, values.getMatchedByIdCount());
+        assertEquals(1, values.getMatchedBySignatureCount());
+        assertEquals(2, values.getAddedCount());
+        assertEquals(2, values.getRemovedCount());
+
+        baseline.dispose();
+        current.dispose();
+    }
+
+    public void testFiles() throws IOException {
+        File directory = Files.createTempDirectory("perflib").toFile();
+        File baselineFile = new File(directory, "baseline.hprof");
+        File currentFile = new File(directory, "current.hprof");
+        Files.write(baselineFile.toPath(), writeStrings(new long[] {0x100, 0x110},
+                new String[] {"abc", "def"}, new int[] {3, 3}));
+        Files.write(currentFile.toPath(), writeStrings(new long[] {0x100, 0x210, 0x220},
+                new String[] {"abc", "def", "ghi"}, new int[] {3, 3, 3}));
+        try {
+            // The baseline is read in place from its index, which is written by the first diff.
+            for (int i = 0; i < 2; i++) {
+                final Map<String, HeapDiff.ClassDiff> diffs =
+                        new LinkedHashMap<String, HeapDiff.ClassDiff>();
+                HeapDiff.diff(baselineFile, currentFile, new ProguardMap(),
+                        new HeapDiff.Listener() {
+                            @Override
+                            public void onClassDiff(@NonNull HeapDiff.ClassDiff diff) {
+                                diffs.put(diff.getClassName(), diff);
+                            }
+                        });
+                assertTrue(SnapshotIndex.getIndexFile(baselineFile).isFile());
+
+                HeapDiff.ClassDiff strings = diffs.get("java.lang.String");
+                assertEquals(1, strings.getMatchedByIdCount());
+                assertEquals(1, strings.getMatchedBySignatureCount());
+                assertEquals(1, strings.getAddedCount());
+                assertEquals(0, strings.getRemovedCount());
+                assertEquals(8, strings.getShallowSizeDelta());
+                assertEquals(1, diffs.get("char[]").getCountDelta());
+                assertEquals(6, diffs.get("char[]").getShallowSizeDelta());
+            }
+
+            MappedColumns columns = Snapshot.openMappedColumns(baselineFile, new ProguardMap());
+            assertNotNull(columns);
+            assertEquals(4, columns.size());
+            assertEquals(0x110, columns.getId(columns.findInstanceIndex(0x110)));
+            columns.dispose();
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    child.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    public void testDialer() throws IOException {
+        File directory = Files.createTempDirectory("perflib").toFile();
+        File file = new File(directory, "dialer.android-hprof");
+        Files.copy(TestResources.getFile(getClass(), "/dialer.android-hprof").toPath(),
+                file.toPath());
+        try {
+            final List<HeapDiff.ClassDiff> diffs = new ArrayList<HeapDiff.ClassDiff>();
+            HeapDiff.diff(file, file, new ProguardMap(), new HeapDiff.Listener() {
+                @Override
+                public void onClassDiff(@NonNull HeapDiff.ClassDiff diff) {
+                    diffs.add(diff);
+                }
+            });
+            assertTrue(SnapshotIndex.getIndexFile(file).isFile());
+
+            Snapshot snapshot = Snapshot.createSnapshot(new MemoryMappedFileBuffer(file));
+            int instanceCount = 0;
+            for (Heap heap : snapshot.getHeaps()) {
+                instanceCount += heap.getInstancesCount();
+            }
+            snapshot.dispose();
+
+            int baselineCount = 0;
+            String previous = "";
+            for (HeapDiff.ClassDiff diff : diffs) {
+                assertTrue(previous.compareTo(diff.getClassName()) < 0);
+                assertEquals(0, diff.getCountDelta());
+                assertEquals(0, diff.getShallowSizeDelta());
+                assertEquals(0, diff.getRetainedSizeDelta());
+                assertEquals(diff.getBaselineCount(), diff.getMatchedByIdCount());
+                baselineCount += diff.getBaselineCount();
+                previous = diff.getClassName();
+            }
+            assertEquals(instanceCount, baselineCount);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    child.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    public void testRegularSnapshot() throws IOException {
+        Snapshot snapshot = Snapshot.createSnapshot(
+                new InMemoryBuffer(new SyntheticHprof(100, 128).toByteArray()));
+        try {
+            new HeapDiff(snapshot, snapshot);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        snapshot.dispose();
+    }
+
+    private static Snapshot createSnapshot(byte[] hprof) {
+        Snapshot snapshot = Snapshot.createSnapshot(new InMemoryBuffer(hprof), new ProguardMap(),
+                Collections.<SnapshotPostProcessor>emptyList(), true, 1);
+        snapshot.computeDominators();
+        return snapshot;
+    }
+
+    private static Map<String, HeapDiff.ClassDiff> diff(Snapshot baseline, Snapshot current) {
+        final Map<String, HeapDiff.ClassDiff> diffs =
+                new LinkedHashMap<String, HeapDiff.ClassDiff>();
+        new HeapDiff(baseline, current).diff(new HeapDiff.Listener() {
+            @Override
+            public void onClassDiff(@NonNull HeapDiff.ClassDiff diff) {
+                diffs.put(diff.getClassName(), diff);
+            }
+        });
+        return diffs;
+    }
+
+    /**
+     * Writes a heap dump of strings held by JNI globals. The value of each string is a char array,
+     * whose id follows that of the string, and which holds the characters of the string up to its
+     * count.
+     */
+    private static byte[] writeStrings(long[] ids, String[] values, int[] counts)
+            throws IOException {
+        HprofStringBuilder strings = new HprofStringBuilder(0);
+        List<HprofDumpRecord> dump = new ArrayList<HprofDumpRecord>();
+        dump.add(new HprofClassDump(CHAR_ARRAY_CLASS_ID, 0, 0, 0, 0, 0, 0, 0, 0,
+                new HprofConstant[0], new HprofStaticField[0], new HprofInstanceField[0]));
+        dump.add(new HprofClassDump(STRING_CLASS_ID, 0, 0, 0, 0, 0, 0, 0, 8,
+                new HprofConstant[0], new HprofStaticField[0], new HprofInstanceField[] {
+                        new HprofInstanceField(strings.get("value"), HprofType.TYPE_OBJECT),
+                        new HprofInstanceField(strings.get("count"), HprofType.TYPE_INT)}));
+        for (int i = 0; i < ids.length; i++) {
+            long[] chars = new long[values[i].length()];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = values[i].charAt(j);
+            }
+            dump.add(new HprofPrimitiveArrayDump(ids[i] + 1, 0, HprofType.TYPE_CHAR, chars));
+            byte[] fields = ByteBuffer.allocate(8).putInt((int) ids[i] + 1).putInt(counts[i])
+                    .array();
+            dump.add(new HprofInstanceDump(ids[i], 0, STRING_CLASS_ID, fields));
+            dump.add(new HprofRootJniGlobal(ids[i], 0));
+        }
+
+        List<HprofRecord> records = new ArrayList<HprofRecord>();
+        records.add(new HprofLoadClass(0, 1, CHAR_ARRAY_CLASS_ID, 0, strings.get("char[]")));
+        records.add(new HprofLoadClass(0, 2, STRING_CLASS_ID, 0,
+                strings.get("java.lang.String")));
+        return writeHprof(strings, records, dump);
+    }
+
+    /** Writes a heap dump of byte arrays held by JNI globals. */
+    private static byte[] writeByteArrays(Map<Long, byte[]> arrays) throws IOException {
+        HprofStringBuilder strings = new HprofStringBuilder(0);
+        List<HprofDumpRecord> dump = new ArrayList<HprofDumpRecord>();
+        dump.add(new HprofClassDump(BYTE_ARRAY_CLASS_ID, 0, 0, 0, 0, 0, 0, 0, 0,
+                new HprofConstant[0], new HprofStaticField[0], new HprofInstanceField[0]));
+        for (Map.Entry<Long, byte[]> entry : arrays.entrySet()) {
+            long[] values = new long[entry.getValue().length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = entry.getValue()[i];
+            }
+            dump.add(new HprofPrimitiveArrayDump(entry.getKey(), 0, HprofType.TYPE_BYTE, values));
+            dump.add(new HprofRootJniGlobal(entry.getKey(), 0));
+        }
+
+        List<HprofRecord> records = new ArrayList<HprofRecord>();
+        records.add(new HprofLoadClass(0, 1, BYTE_ARRAY_CLASS_ID, 0, strings.get("byte[]")));
+        return writeHprof(strings, records, dump);
+    }
+
+    private static byte[] writeHprof(HprofStringBuilder strings, List<HprofRecord> records,
+            List<HprofDumpRecord> dump) throws IOException {
+        records.add(new HprofHeapDumpSegment(0, dump.toArray(new HprofDumpRecord[0])));
+        List<HprofRecord> allRecords = new ArrayList<HprofRecord>(strings.getStringRecords());
+        allRecords.addAll(records);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new Hprof("JAVA PROFILE 1.0.3", 4, new Date(), allRecords).write(os);
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.annotations.NonNull;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import com.android.tools.perflib.heap.ext.SnapshotPostProcessor;
+import com.android.tools.proguard.ProguardMap;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+
+/**
+ * Measures the time to parse large synthetic heap dumps, written by {@link SyntheticHprof}, into
+ * regular and columnar snapshots, with the heap dump segments decoded on one thread and on several
+ * threads, by default one per processor.
+ *
+ * <p>This is not a unit test. Run it manually with the perflib test classpath, e.g.:
+ *
+ * <pre>
+ * java com.android.tools.perflib.heap.HprofParserBenchmark \
+ *     [nodes] [nodesPerSegment] [runs] [threads]
+ * </pre>
+ */
+public final class HprofParserBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int nodesPerSegment = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int threads =
+                args.length > 3
+                        ? Integer.parseInt(args[3])
+                        : Runtime.getRuntime().availableProcessors();
+
+        File file = File.createTempFile("synthetic", ".hprof");
+        try {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                new SyntheticHprof(nodeCount, nodesPerSegment).write(os);
+            } finally {
+                os.close();
+            }
+            System.out.println(
+                    String.format(
+                            "%1$d nodes, %2$d MB, %3$d threads",
+                            nodeCount, file.length() >> 20, threads));
+
+            for (int run = 0; run < runs; run++) {
+                System.out.println(
+                        String.format(
+                                "run %1$d: serial %2$d ms, parallel %3$d ms,"
+                                        + " columnar serial %4$d ms, columnar parallel %5$d ms",
+                                run,
+                                parse(file, 1, false),
+                                parse(file, threads, false),
+                                parse(file, 1, true),
+                                parse(file, threads, true)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Parses the heap dump and resolves the classes of its instances.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    private static long parse(@NonNull File file, int parallelism, boolean columnar)
+            throws IOException {
+        System.gc();
+        MemoryMappedFileBuffer buffer = new MemoryMappedFileBuffer(file);
+        long start = System.nanoTime();
+        Snapshot snapshot =
+                Snapshot.createSnapshot(
+                        buffer,
+                        new ProguardMap(),
+                        Collections.<SnapshotPostProcessor>emptyList(),
+                        columnar,
+                        parallelism);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (snapshot.findClass(SyntheticHprof.NODE_CLASS_NAME).getInstanceCount() == 0) {
+            System.out.println("Unexpected instance count");
+        }
+        snapshot.dispose();
+        return elapsed;
+    }
+}
@@ -17,7 +17,9 @@
 package com.android.tools.perflib.heap;
 
 import com.android.testutils.TestResources;
+import com.android.tools.perflib.captures.DataBuffer;
 import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import com.android.tools.perflib.heap.ext.SnapshotPostProcessor;
 import com.android.tools.perflib.heap.hprof.Hprof;
 import com.android.tools.perflib.heap.hprof.HprofClassDump;
 import com.android.tools.perflib.heap.hprof.HprofConstant;
@@ -37,13 +39,16 @@ import com.android.tools.perflib.heap.io.InMemoryBuffer;
 import com.android.tools.proguard.ProguardMap;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
+import gnu.trove.TObjectProcedure;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import junit.framework.TestCase;
@@ -311,4 +316,89 @@ public class HprofParserTest extends TestCase {
         assertEquals("Methods.java", frames[0].getFilename());
         assertEquals(43, frames[0].getLineNumber());
     }
+
+    public void testParallelParsing() throws IOException {
+        byte[] hprof = new SyntheticHprof(20000, 128).toByteArray();
+        Snapshot serial = parse(new InMemoryBuffer(hprof), 1);
+        Snapshot parallel = parse(new InMemoryBuffer(hprof), 4);
+
+        assertSameContents(serial, parallel);
+        assertEquals(20000, parallel.findClass(SyntheticHprof.NODE_CLASS_NAME).getInstanceCount());
+        ClassInstance node = (ClassInstance) parallel.findInstance(SyntheticHprof.getNodeId(15000));
+        assertEquals("app", node.getHeap().getName());
+        assertEquals(15000, node.getValues().get(2).getValue());
+    }
+
+    public void testParallelParsingOfAndroidHeapDump() throws IOException {
+        File file = TestResources.getFile(getClass(), "/dialer.android-hprof");
+        Snapshot serial = parse(new MemoryMappedFileBuffer(file), 1);
+        Snapshot parallel = parse(new MemoryMappedFileBuffer(file), 4);
+
+        assertSameContents(serial, parallel);
+        serial.dispose();
+        parallel.dispose();
+    }
+
+    public void testTruncatedHeapDump() throws IOException {
+        byte[] hprof = new SyntheticHprof(20000, 128).toByteArray();
+        byte[] truncated = Arrays.copyOf(hprof, hprof.length * 3 / 4);
+        Snapshot serial = parse(new InMemoryBuffer(truncated), 1);
+        Snapshot parallel = parse(new InMemoryBuffer(truncated), 4);
+
+        // The instances before the truncation are kept.
+        int instanceCount = getInstanceCount(serial);
+        assertTrue(instanceCount > 0);
+        assertTrue(instanceCount < getInstanceCount(parse(new InMemoryBuffer(hprof), 1)));
+        assertTrue(getInstanceCount(parallel) > 0);
+    }
+
+    private static int getInstanceCount(Snapshot snapshot) {
+        int count = 0;
+        for (Heap heap : snapshot.getHeaps()) {
+            count += heap.getInstancesCount();
+        }
+        return count;
+    }
+
+    private static Snapshot parse(DataBuffer buffer, int parallelism) {
+        return Snapshot.createSnapshot(buffer, new ProguardMap(),
+                Collections.<SnapshotPostProcessor>emptyList(), false, parallelism);
+    }
+
+    private static void assertSameContents(Snapshot expected, Snapshot actual) {
+        assertEquals(expected.getHeaps().size(), actual.getHeaps().size());
+        for (Heap heap : expected.getHeaps()) {
+            final Heap actualHeap = actual.getHeap(heap.getId());
+            assertNotNull(actualHeap);
+            assertEquals(heap.getName(), actualHeap.getName());
+            assertEquals(heap.getClasses().size(), actualHeap.getClasses().size());
+            assertEquals(heap.getInstancesCount(), actualHeap.getInstancesCount());
+            heap.forEachInstance(new TObjectProcedure<Instance>() {
+                @Override
+                public boolean execute(Instance instance) {
+                    Instance actualInstance = actualHeap.getInstance(instance.getId());
+                    assertNotNull(actualInstance);
+                    assertEquals(instance.getClassObj().getId(),
+                            actualInstance.getClassObj().getId());
+                    assertEquals(instance.getSize(), actualInstance.getSize());
+                    return true;
+                }
+            });
+        }
+        assertEquals(rootsOf(expected), rootsOf(actual));
+    }
+
+    private static List<String> rootsOf(Snapshot snapshot) {
+        List<String> roots = new ArrayList<String>();
+        for (RootObj root : snapshot.getGCRoots()) {
+            StackTrace stack = root.getStack();
+            if (stack != null && stack.mParent != null) {
+                stack = stack.mParent;
+            }
+            roots.add(root + " " + root.getHeap().getName() + " "
+                    + (stack != null ? stack.getSerialNumber() : -1));
+        }
+        Collections.sort(roots);
+        return roots;
+    }
 }
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.testutils.TestResources;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import com.android.tools.perflib.heap.ext.SnapshotPostProcessor;
+import com.android.tools.proguard.ProguardMap;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import junit.framework.TestCase;
+
+public class SnapshotIndexTest extends TestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mDirectory = Files.createTempDirectory("perflib").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    public void testSyntheticHprof() throws IOException {
+        File file = writeSyntheticHprof(20000);
+
+        Snapshot written = open(file, true, 4);
+        assertFalse(written.getColumns().isIndexed());
+        assertTrue(SnapshotIndex.getIndexFile(file).isFile());
+
+        Snapshot indexed = open(file, false, 4);
+        assertTrue(indexed.getColumns().isIndexed());
+        assertSameSnapshot(written, indexed);
+        for (int node = 0; node < 20000; node += 1000) {
+            Instance instance = indexed.findInstance(SyntheticHprof.getNodeId(node));
+            assertEquals(SyntheticHprof.NODE_CLASS_NAME, instance.getClassObj().getClassName());
+        }
+
+        written.dispose();
+        indexed.dispose();
+    }
+
+    public void testSerialParsing() throws IOException {
+        File file = writeSyntheticHprof(5000);
+
+        // The heaps of a serial parse may be created in another order than those of the index.
+        Snapshot written = open(file, true, 4);
+        Snapshot indexed = open(file, false, 1);
+        assertTrue(indexed.getColumns().isIndexed());
+        assertSameSnapshot(written, indexed);
+
+        written.dispose();
+        indexed.dispose();
+    }
+
+    public void testDialer() throws IOException {
+        File file = new File(mDirectory, "dialer.android-hprof");
+        Files.copy(TestResources.getFile(getClass(), "/dialer.android-hprof").toPath(),
+                file.toPath());
+
+        Snapshot regular = Snapshot.createSnapshot(new MemoryMappedFileBuffer(file));
+        regular.computeDominators();
+        open(file, true, 4).dispose();
+        Snapshot indexed = open(file, false, 4);
+        assertTrue(indexed.getColumns().isIndexed());
+
+        for (Heap heap : regular.getHeaps()) {
+            Heap indexedHeap = indexed.getHeap(heap.getId());
+            assertEquals(heap.getInstancesCount(), indexedHeap.getInstancesCount());
+            for (ClassObj classObj : heap.getClasses()) {
+                ClassObj indexedClass = indexed.findClass(classObj.getId());
+                assertEquals(classObj.getInstanceCount(), indexedClass.getInstanceCount());
+                assertEquals(classObj.getShallowSize(heap.getId()),
+                        indexedClass.getShallowSize(heap.getId()));
+            }
+        }
+
+        ClassObj stringClass = indexed.findClass("java.lang.String");
+        Instance string = stringClass.getInstancesList().get(0);
+        assertEquals(((ClassInstance) regular.findInstance(string.getId())).getAsString(),
+                ((ClassInstance) string).getAsString());
+
+        List<Instance> reachable = regular.getReachableInstances();
+        assertEquals(reachable.size(), indexed.getReachableInstances().size());
+        for (Instance instance : reachable) {
+            Instance view = indexed.findInstance(instance.getId());
+            assertSameDominator(instance, view);
+            assertEquals(instance.getDistanceToGcRoot(), view.getDistanceToGcRoot());
+            for (int i = 0; i < regular.getHeaps().size(); i++) {
+                assertEquals(instance.getRetainedSize(i), view.getRetainedSize(i));
+            }
+        }
+
+        regular.dispose();
+        indexed.dispose();
+    }
+
+    public void testStaleIndex() throws IOException {
+        File file = writeSyntheticHprof(1000);
+        open(file, true, 1).dispose();
+        File index = SnapshotIndex.getIndexFile(file);
+        assertTrue(index.isFile());
+
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        Snapshot snapshot = open(file, false, 1);
+        assertFalse(snapshot.getColumns().isIndexed());
+        snapshot.dispose();
+
+        // The index is written again for the new modification time.
+        open(file, true, 1).dispose();
+        snapshot = open(file, false, 1);
+        assertTrue(snapshot.getColumns().isIndexed());
+        snapshot.dispose();
+    }
+
+    public void testCorruptIndex() throws IOException {
+        File file = writeSyntheticHprof(1000);
+        open(file, true, 1).dispose();
+        File index = SnapshotIndex.getIndexFile(file);
+
+        // Keep the header, so that the index is only found corrupt while it is read.
+        byte[] header = new byte[32];
+        System.arraycopy(Files.readAllBytes(index.toPath()), 0, header, 0, header.length);
+        DataOutputStream os = new DataOutputStream(new FileOutputStream(index));
+        try {
+            os.write(header);
+            os.writeInt(Integer.MAX_VALUE);
+        } finally {
+            os.close();
+        }
+
+        Snapshot snapshot = open(file, true, 1);
+        assertFalse(snapshot.getColumns().isIndexed());
+        snapshot.dispose();
+        snapshot = open(file, false, 1);
+        assertTrue(snapshot.getColumns().isIndexed());
+        snapshot.dispose();
+    }
+
+    public void testChecksumMismatch() throws IOException {
+        File file = writeSyntheticHprof(1000);
+        open(file, true, 1).dispose();
+        File index = SnapshotIndex.getIndexFile(file);
+
+        byte[] bytes = Files.readAllBytes(index.toPath());
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(index.toPath(), bytes);
+
+        Snapshot snapshot = open(file, false, 1);
+        assertFalse(snapshot.getColumns().isIndexed());
+        snapshot.dispose();
+    }
+
+    public void testOutOfRangeColumn() throws IOException {
+        File file = writeSyntheticHprof(1000);
+        open(file, true, 1).dispose();
+        File index = SnapshotIndex.getIndexFile(file);
+
+        // Skip the header, heaps, classes and the columns before the heap indices.
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(index.toPath()));
+        buffer.position(32);
+        int heapCount = buffer.getInt();
+        for (int i = 0; i < heapCount; i++) {
+            buffer.getInt();
+            skip(buffer, 1);
+        }
+        skip(buffer, 8);
+        int size = buffer.getInt();
+        skip(buffer, 8);
+        skip(buffer, 8);
+        skip(buffer, 4);
+        skip(buffer, 1);
+
+        // Point an instance at a heap the index does not have, with a valid checksum.
+        assertEquals(size, buffer.getInt(buffer.position()));
+        buffer.put(buffer.position() + 4, (byte) heapCount);
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 32, buffer.capacity() - 32);
+        buffer.putLong(24, checksum.getValue());
+        Files.write(index.toPath(), buffer.array());
+
+        Snapshot snapshot = open(file, true, 1);
+        assertFalse(snapshot.getColumns().isIndexed());
+        assertEquals(1000, snapshot.findClass(SyntheticHprof.NODE_CLASS_NAME).getInstanceCount());
+        snapshot.dispose();
+        snapshot = open(file, false, 1);
+        assertTrue(snapshot.getColumns().isIndexed());
+        snapshot.dispose();
+    }
+
+    /** Skips an array of the index, whose values have the given size. */
+    private static void skip(ByteBuffer buffer, int valueSize) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + length * valueSize);
+    }
+
+    private File writeSyntheticHprof(int nodeCount) throws IOException {
+        File file = new File(mDirectory, "synthetic.hprof");
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            new SyntheticHprof(nodeCount, 128).write(os);
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+
+    private static Snapshot open(File file, boolean writeIndex, int parallelism)
+            throws IOException {
+        return Snapshot.openColumnarSnapshot(file, new ProguardMap(),
+                Collections.<SnapshotPostProcessor>emptyList(), writeIndex, parallelism);
+    }
+
+    private static void assertSameSnapshot(Snapshot expected, Snapshot actual) {
+        assertEquals(expected.getColumns().size(), actual.getColumns().size());
+        for (Heap heap : expected.getHeaps()) {
+            assertEquals(heap.getInstancesCount(),
+                    actual.getHeap(heap.getId()).getInstancesCount());
+        }
+
+        List<Instance> reachable = expected.getReachableInstances();
+        assertEquals(reachable.size(), actual.getReachableInstances().size());
+        for (Instance instance : reachable) {
+            Instance view = actual.findInstance(instance.getId());
+            assertEquals(instance.getHeap().getId(), view.getHeap().getId());
+            assertEquals(instance.getSize(), view.getSize());
+            assertSameDominator(instance, view);
+            assertEquals(instance.getDistanceToGcRoot(), view.getDistanceToGcRoot());
+            assertEquals(instance.getTotalRetainedSize(), view.getTotalRetainedSize());
+            assertEquals(instance.getHardReverseReferences().size(),
+                    view.getHardReverseReferences().size());
+        }
+    }
+
+    private static void assertSameDominator(Instance expected, Instance actual) {
+        Instance dominator = expected.getImmediateDominator();
+        Instance actualDominator = actual.getImmediateDominator();
+        if (dominator == Snapshot.SENTINEL_ROOT) {
+            assertSame(Snapshot.SENTINEL_ROOT, actualDominator);
+        } else {
+            assertEquals(dominator.getId(), actualDominator.getId());
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap;
+
+import com.android.annotations.NonNull;
+import com.android.tools.perflib.heap.hprof.Hprof;
+import com.android.tools.perflib.heap.hprof.HprofClassDump;
+import com.android.tools.perflib.heap.hprof.HprofConstant;
+import com.android.tools.perflib.heap.hprof.HprofDumpRecord;
+import com.android.tools.perflib.heap.hprof.HprofHeapDumpInfo;
+import com.android.tools.perflib.heap.hprof.HprofHeapDumpSegment;
+import com.android.tools.perflib.heap.hprof.HprofInstanceDump;
+import com.android.tools.perflib.heap.hprof.HprofInstanceField;
+import com.android.tools.perflib.heap.hprof.HprofLoadClass;
+import com.android.tools.perflib.heap.hprof.HprofObjectArrayDump;
+import com.android.tools.perflib.heap.hprof.HprofOutputStream;
+import com.android.tools.perflib.heap.hprof.HprofPrimitiveArrayDump;
+import com.android.tools.perflib.heap.hprof.HprofRecord;
+import com.android.tools.perflib.heap.hprof.HprofRootJavaFrame;
+import com.android.tools.perflib.heap.hprof.HprofRootJniGlobal;
+import com.android.tools.perflib.heap.hprof.HprofRootStickyClass;
+import com.android.tools.perflib.heap.hprof.HprofRootThreadObject;
+import com.android.tools.perflib.heap.hprof.HprofStackFrame;
+import com.android.tools.perflib.heap.hprof.HprofStackTrace;
+import com.android.tools.perflib.heap.hprof.HprofStaticField;
+import com.android.tools.perflib.heap.hprof.HprofStringBuilder;
+import com.android.tools.perflib.heap.hprof.HprofType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes synthetic heap dumps of linked nodes, each with a byte array payload, in small heap dump
+ * segments like the ones Android writes.
+ *
+ * <p>The first half of the nodes is in the zygote heap and the rest in the app heap. Threads are
+ * defined in the first segment, and nodes in later segments are held by the stack frames of the
+ * threads, by JNI globals and by arrays of nodes. Like Android, roots are reported in the default
+ * heap. Segments are generated while the file is
+ * written, so that large heap dumps can be written in little memory.
+ */
+final class SyntheticHprof {
+
+    static final String NODE_CLASS_NAME = "com.example.Node";
+
+    private static final int ID_SIZE = 4;
+
+    private static final int THREADS = 4;
+
+    private static final int PAYLOAD_SIZE = 64;
+
+    private static final long OBJECT_CLASS_ID = 0x10;
+
+    private static final long NODE_CLASS_ID = 0x11;
+
+    private static final long NODE_ARRAY_CLASS_ID = 0x12;
+
+    private static final long BYTE_ARRAY_CLASS_ID = 0x13;
+
+    private static final long THREAD_ID = 0x100;
+
+    private static final long NODE_ID = 0x10000;
+
+    private static final int ZYGOTE_HEAP_ID = 'Z';
+
+    private static final int APP_HEAP_ID = 'A';
+
+    private final int mNodeCount;
+
+    private final int mNodesPerSegment;
+
+    private final HprofStringBuilder mStrings = new HprofStringBuilder(0);
+
+    /**
+     * @param nodeCount the number of nodes
+     * @param nodesPerSegment the number of nodes in each heap dump segment
+     */
+    SyntheticHprof(int nodeCount, int nodesPerSegment) {
+        mNodeCount = nodeCount;
+        mNodesPerSegment = nodesPerSegment;
+    }
+
+    @NonNull
+    byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        write(os);
+        return os.toByteArray();
+    }
+
+    void write(@NonNull OutputStream os) throws IOException {
+        List<HprofRecord> records = new ArrayList<HprofRecord>();
+        records.add(new HprofLoadClass(0, 1, OBJECT_CLASS_ID, 0, mStrings.get("java.lang.Object")));
+        records.add(new HprofLoadClass(0, 2, NODE_CLASS_ID, 0, mStrings.get(NODE_CLASS_NAME)));
+        records.add(
+                new HprofLoadClass(
+                        0, 3, NODE_ARRAY_CLASS_ID, 0, mStrings.get(NODE_CLASS_NAME + "[]")));
+        records.add(new HprofLoadClass(0, 4, BYTE_ARRAY_CLASS_ID, 0, mStrings.get("byte[]")));
+        for (int thread = 0; thread < THREADS; thread++) {
+            records.add(
+                    new HprofStackFrame(
+                            0,
+                            thread + 1,
+                            mStrings.get("run" + thread),
+                            mStrings.get("()V"),
+                            mStrings.get("Node.java"),
+                            2,
+                            thread + 10));
+            records.add(new HprofStackTrace(0, thread + 100, thread, new long[] {thread + 1}));
+        }
+        records.add(new HprofHeapDumpSegment(0, getClassRecords()));
+        records.add(new NodeSegments());
+
+        List<HprofRecord> allRecords = new ArrayList<HprofRecord>();
+        allRecords.addAll(mStrings.getStringRecords());
+        allRecords.addAll(records);
+        new Hprof("JAVA PROFILE 1.0.3", ID_SIZE, new Date(), allRecords).write(os);
+    }
+
+    @NonNull
+    private HprofDumpRecord[] getClassRecords() {
+        mStrings.get("app");
+        List<HprofDumpRecord> records = new ArrayList<HprofDumpRecord>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            records.add(new HprofInstanceDump(THREAD_ID + thread, 0, OBJECT_CLASS_ID, new byte[0]));
+            records.add(new HprofRootThreadObject(THREAD_ID + thread, thread, thread + 100));
+        }
+        for (long classId = OBJECT_CLASS_ID; classId <= BYTE_ARRAY_CLASS_ID; classId++) {
+            records.add(new HprofRootStickyClass(classId));
+        }
+        records.add(new HprofHeapDumpInfo(ZYGOTE_HEAP_ID, mStrings.get("zygote")));
+        records.add(classDump(OBJECT_CLASS_ID, 0, 0, new HprofInstanceField[0]));
+        records.add(
+                classDump(
+                        NODE_CLASS_ID,
+                        OBJECT_CLASS_ID,
+                        2 * ID_SIZE + 4,
+                        new HprofInstanceField[] {
+                            new HprofInstanceField(mStrings.get("next"), HprofType.TYPE_OBJECT),
+                            new HprofInstanceField(mStrings.get("payload"), HprofType.TYPE_OBJECT),
+                            new HprofInstanceField(mStrings.get("value"), HprofType.TYPE_INT)
+                        }));
+        records.add(classDump(NODE_ARRAY_CLASS_ID, OBJECT_CLASS_ID, 0, new HprofInstanceField[0]));
+        records.add(classDump(BYTE_ARRAY_CLASS_ID, OBJECT_CLASS_ID, 0, new HprofInstanceField[0]));
+        return records.toArray(new HprofDumpRecord[0]);
+    }
+
+    @NonNull
+    private static HprofClassDump classDump(
+            long id, long superClassId, int instanceSize, @NonNull HprofInstanceField[] fields) {
+        return new HprofClassDump(
+                id, 0, superClassId, 0, 0, 0, 0, 0, instanceSize, new HprofConstant[0],
+                new HprofStaticField[0], fields);
+    }
+
+    /** Returns the records of the nodes of a segment, and adds their roots to {@code roots}. */
+    @NonNull
+    private HprofDumpRecord[] getSegmentRecords(int segment, @NonNull List<HprofDumpRecord> roots) {
+        List<HprofDumpRecord> records = new ArrayList<HprofDumpRecord>();
+        int start = segment * mNodesPerSegment;
+        int end = Math.min(start + mNodesPerSegment, mNodeCount);
+        boolean zygote = start < mNodeCount / 2;
+        records.add(
+                new HprofHeapDumpInfo(
+                        zygote ? ZYGOTE_HEAP_ID : APP_HEAP_ID,
+                        mStrings.get(zygote ? "zygote" : "app")));
+
+        long[] payload = new long[PAYLOAD_SIZE];
+        for (int i = start; i < end; i++) {
+            int next = i == 0 ? -1 : (i % 7 == 0 ? i / 2 : i - 1);
+            ByteBuffer values = ByteBuffer.allocate(2 * ID_SIZE + 4);
+            values.putInt(next < 0 ? 0 : (int) getNodeId(next));
+            values.putInt((int) getNodeId(i) + 8);
+            values.putInt(i);
+            records.add(new HprofInstanceDump(getNodeId(i), 0, NODE_CLASS_ID, values.array()));
+
+            payload[i % PAYLOAD_SIZE] = i;
+            records.add(
+                    new HprofPrimitiveArrayDump(
+                            getNodeId(i) + 8, 0, HprofType.TYPE_BYTE, payload.clone()));
+
+            if (i % 100 == 99) {
+                long[] elements = new long[10];
+                for (int j = 0; j < elements.length; j++) {
+                    elements[j] = getNodeId(i - j);
+                }
+                records.add(
+                        new HprofObjectArrayDump(
+                                getNodeId(i) + 12, 0, NODE_ARRAY_CLASS_ID, elements));
+            }
+            if (i % 500 == 0) {
+                roots.add(new HprofRootJavaFrame(getNodeId(i), i % THREADS, 0));
+            } else if (i % 997 == 0) {
+                roots.add(new HprofRootJniGlobal(getNodeId(i), 0));
+            }
+        }
+        return records.toArray(new HprofDumpRecord[0]);
+    }
+
+    static long getNodeId(int node) {
+        return NODE_ID + 16L * node;
+    }
+
+    /** The heap dump segments of the nodes, generated as they are written. */
+    private final class NodeSegments implements HprofRecord {
+
+        @Override
+        public void write(@NonNull HprofOutputStream hprof) throws IOException {
+            int segmentCount = (mNodeCount + mNodesPerSegment - 1) / mNodesPerSegment;
+            for (int segment = 0; segment < segmentCount; segment++) {
+                // Like Android, report roots in the default heap, in segments of their own.
+                List<HprofDumpRecord> roots = new ArrayList<HprofDumpRecord>();
+                new HprofHeapDumpSegment(0, getSegmentRecords(segment, roots)).write(hprof);
+                if (!roots.isEmpty()) {
+                    new HprofHeapDumpSegment(0, roots.toArray(new HprofDumpRecord[0]))
+                            .write(hprof);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.perflib.heap.analysis;
+
+import com.android.testutils.TestResources;
+import com.android.tools.perflib.captures.MemoryMappedFileBuffer;
+import com.android.tools.perflib.heap.ClassObj;
+import com.android.tools.perflib.heap.Heap;
+import com.android.tools.perflib.heap.Instance;
+import com.android.tools.perflib.heap.Snapshot;
+import com.android.tools.perflib.heap.SnapshotBuilder;
+import gnu.trove.TObjectProcedure;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class ParallelDominatorsTest extends TestCase {
+
+    private Snapshot mSnapshot;
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        if (mSnapshot != null) {
+            mSnapshot.dispose();
+            mSnapshot = null;
+        }
+    }
+
+    public void testDoublyLinkedList() {
+        // Node 1 points to a doubly-linked list 2-3-4-5-6-7-8-9.
+        mSnapshot = new SnapshotBuilder(9)
+                .addReferences(1, 2)
+                .addReferences(2, 3, 9)
+                .addReferences(3, 2, 4)
+                .addReferences(4, 3, 5)
+                .addReferences(5, 4, 6)
+                .addReferences(6, 5, 7)
+                .addReferences(7, 6, 8)
+                .addReferences(8, 7, 9)
+                .addReferences(9, 2, 8)
+                .addRoot(1)
+                .build();
+
+        mSnapshot.computeDominators(4);
+
+        assertEquals(45, mSnapshot.findInstance(1).getRetainedSize(1));
+        assertEquals(44, mSnapshot.findInstance(2).getRetainedSize(1));
+        for (int i = 3; i <= 9; i++) {
+            assertEquals(i, mSnapshot.findInstance(i).getRetainedSize(1));
+        }
+        assertEquals(Snapshot.SENTINEL_ROOT, mSnapshot.findInstance(1).getImmediateDominator());
+        assertEquals(mSnapshot.findInstance(2), mSnapshot.findInstance(6).getImmediateDominator());
+    }
+
+    public void testMultiplePaths() {
+        mSnapshot = new SnapshotBuilder(8)
+                .addReferences(1, 7, 8)
+                .addReferences(7, 2, 3)
+                .addReferences(8, 2)
+                .addReferences(2, 4)
+                .addReferences(3, 5)
+                .addReferences(5, 4)
+                .addReferences(4, 6)
+                .addRoot(1)
+                .build();
+
+        mSnapshot.computeDominators(4);
+
+        assertEquals(mSnapshot.findInstance(1), mSnapshot.findInstance(4).getImmediateDominator());
+        assertEquals(mSnapshot.findInstance(4), mSnapshot.findInstance(6).getImmediateDominator());
+        assertEquals(36, mSnapshot.findInstance(1).getRetainedSize(1));
+        assertEquals(2, mSnapshot.findInstance(2).getRetainedSize(1));
+        assertEquals(8, mSnapshot.findInstance(3).getRetainedSize(1));
+        assertEquals(8, mSnapshot.getReachableInstances().size());
+    }
+
+    public void testSampleHprof() throws Exception {
+        File file = TestResources.getFile(getClass(), "/dialer.android-hprof");
+        Snapshot expected = Snapshot.createSnapshot(new MemoryMappedFileBuffer(file));
+        expected.prepareDominatorComputation();
+        expected.doComputeDominators(new LinkEvalDominators(expected));
+
+        mSnapshot = Snapshot.createSnapshot(new MemoryMappedFileBuffer(file));
+        mSnapshot.prepareDominatorComputation();
+        ParallelDominators dominators = new ParallelDominators(mSnapshot, 4);
+        mSnapshot.doComputeDominators(dominators);
+        assertEquals(1.0, dominators.getComputationProgress().getProgress(), 0.0);
+
+        assertEquals(
+                expected.getReachableInstances().size(),
+                mSnapshot.getReachableInstances().size());
+        for (final Heap expectedHeap : expected.getHeaps()) {
+            final Heap heap = mSnapshot.getHeap(expectedHeap.getId());
+            for (ClassObj classObj : expectedHeap.getClasses()) {
+                assertSameResults(classObj, heap.getClass(classObj.getId()));
+            }
+            expectedHeap.forEachInstance(new TObjectProcedure<Instance>() {
+                @Override
+                public boolean execute(Instance instance) {
+                    assertSameResults(instance, heap.getInstance(instance.getId()));
+                    return true;
+                }
+            });
+        }
+        expected.dispose();
+    }
+
+    public void testRandomGraphs() {
+        for (int seed = 0; seed < 4; seed++) {
+            Graph graph = new Graph(new Random(seed), 3000);
+            int[] expectedDominators = graph.getImmediateDominators();
+            long[] expectedRetainedSizes = graph.getRetainedSizes();
+
+            for (int parallelism : new int[] {1, 4}) {
+                CsrDominators dominators = graph.newDominators(parallelism);
+                dominators.computeDominators();
+                int[] immediateDominators = dominators.getImmediateDominators();
+                for (int node = 0; node < graph.mNodeCount; node++) {
+                    assertEquals(expectedDominators[node], immediateDominators[node]);
+                    assertEquals(expectedDominators[node], dominators.getImmediateDominator(node));
+                }
+
+                long[] sizes = graph.getSizes();
+                dominators.computeRetainedSizes(new long[][] {null, sizes});
+                assertTrue(Arrays.equals(expectedRetainedSizes, sizes));
+                assertEquals(1.0, dominators.getComputationProgress().getProgress(), 0.0);
+            }
+        }
+    }
+
+    public void testDepthFirstOrder() {
+        Graph graph = new Graph(new Random(42), 3000);
+        CsrDominators dominators = graph.newDominators(4);
+        dominators.computeDominators();
+
+        int[] numbers = dominators.getDepthFirstNumbers();
+        int[] postorder = dominators.getPostorder();
+        assertEquals(0, numbers[0]);
+        assertEquals(0, postorder[postorder.length - 1]);
+        assertEquals(dominators.getReachableCount(), postorder.length);
+        for (int node : postorder) {
+            assertTrue(numbers[node] >= 0);
+            int dominator = dominators.getImmediateDominator(node);
+            if (dominator != CsrDominators.NO_NODE) {
+                // Dominators are ancestors in the depth-first spanning tree.
+                assertTrue(numbers[dominator] < numbers[node]);
+            }
+        }
+    }
+
+    private void assertSameResults(Instance expected, Instance actual) {
+        assertNotNull(actual);
+        Instance expectedDominator = expected.getImmediateDominator();
+        Instance dominator = actual.getImmediateDominator();
+        if (expectedDominator == null || expectedDominator == Snapshot.SENTINEL_ROOT) {
+            assertSame(expectedDominator, dominator);
+        } else {
+            assertEquals(expectedDominator.getId(), dominator.getId());
+            assertTrue(actual.getTopologicalOrder() > dominator.getTopologicalOrder());
+        }
+        assertEquals(expected.getTotalRetainedSize(), actual.getTotalRetainedSize());
+        for (int i = 0; i < mSnapshot.getHeaps().size(); i++) {
+            assertEquals(expected.getRetainedSize(i), actual.getRetainedSize(i));
+        }
+    }
+
+    /**
+     * A random graph with cycles and unreachable nodes, whose dominators are computed from their
+     * definition: a node dominates the nodes that are no longer reachable without it.
+     */
+    private static final class Graph {
+
+        private final int mNodeCount;
+
+        private final int[][] mSuccessors;
+
+        private final boolean[][] mDominated;
+
+        Graph(Random random, int nodeCount) {
+            mNodeCount = nodeCount;
+            List<List<Integer>> successors = new ArrayList<List<Integer>>();
+            for (int node = 0; node < nodeCount; node++) {
+                successors.add(new ArrayList<Integer>());
+            }
+            int reachableCount = nodeCount - nodeCount / 20;
+            for (int node = 1; node < reachableCount; node++) {
+                successors.get(random.nextInt(node)).add(node);
+            }
+            for (int i = 0; i < 2 * nodeCount; i++) {
+                successors.get(random.nextInt(nodeCount)).add(1 + random.nextInt(nodeCount - 1));
+            }
+            mSuccessors = new int[nodeCount][];
+            for (int node = 0; node < nodeCount; node++) {
+                mSuccessors[node] = new int[successors.get(node).size()];
+                for (int i = 0; i < mSuccessors[node].length; i++) {
+                    mSuccessors[node][i] = successors.get(node).get(i);
+                }
+            }
+
+            mDominated = new boolean[nodeCount][];
+            for (int node = 0; node < nodeCount; node++) {
+                boolean[] reachable = getReachable(node);
+                mDominated[node] = new boolean[nodeCount];
+                for (int other = 0; other < nodeCount; other++) {
+                    mDominated[node][other] = !reachable[other];
+                }
+            }
+            boolean[] reachable = getReachable(-1);
+            for (int node = 0; node < nodeCount; node++) {
+                for (int other = 0; other < nodeCount; other++) {
+                    mDominated[node][other] &= reachable[other];
+                }
+            }
+        }
+
+        /** Returns the nodes reachable from node 0 without going through {@code removed}. */
+        private boolean[] getReachable(int removed) {
+            boolean[] reachable = new boolean[mNodeCount];
+            if (removed == 0) {
+                return reachable;
+            }
+            int[] queue = new int[mNodeCount];
+            int tail = 0;
+            queue[tail++] = 0;
+            reachable[0] = true;
+            for (int head = 0; head < tail; head++) {
+                for (int successor : mSuccessors[queue[head]]) {
+                    if (successor != removed && !reachable[successor]) {
+                        reachable[successor] = true;
+                        queue[tail++] = successor;
+                    }
+                }
+            }
+            return reachable;
+        }
+
+        CsrDominators newDominators(int parallelism) {
+            int[] successorStarts = new int[mNodeCount + 1];
+            int[] predecessorStarts = new int[mNodeCount + 1];
+            for (int node = 0; node < mNodeCount; node++) {
+                successorStarts[node + 1] = successorStarts[node] + mSuccessors[node].length;
+                for (int successor : mSuccessors[node]) {
+                    predecessorStarts[successor + 1]++;
+                }
+            }
+            for (int node = 0; node < mNodeCount; node++) {
+                predecessorStarts[node + 1] += predecessorStarts[node];
+            }
+            int[] successors = new int[successorStarts[mNodeCount]];
+            int[] predecessors = new int[successors.length];
+            int[] next = Arrays.copyOf(predecessorStarts, mNodeCount);
+            for (int node = 0; node < mNodeCount; node++) {
+                System.arraycopy(
+                        mSuccessors[node], 0, successors, successorStarts[node],
+                        mSuccessors[node].length);
+                for (int successor : mSuccessors[node]) {
+                    predecessors[next[successor]++] = node;
+                }
+            }
+            return new CsrDominators(
+                    successorStarts, successors, predecessorStarts, predecessors, 0, parallelism);
+        }
+
+        /** The immediate dominator of a node is its strict dominator with the most dominators. */
+        int[] getImmediateDominators() {
+            int[] depths = new int[mNodeCount];
+            for (int node = 0; node < mNodeCount; node++) {
+                for (int other = 0; other < mNodeCount; other++) {
+                    if (mDominated[node][other]) {
+                        depths[other]++;
+                    }
+                }
+            }
+            int[] dominators = new int[mNodeCount];
+            Arrays.fill(dominators, CsrDominators.NO_NODE);
+            for (int node = 0; node < mNodeCount; node++) {
+                for (int other = 0; other < mNodeCount; other++) {
+                    if (node != other && mDominated[node][other]
+                            && (dominators[other] == CsrDominators.NO_NODE
+                                    || depths[node] > depths[dominators[other]])) {
+                        dominators[other] = node;
+                    }
+                }
+            }
+            return dominators;
+        }
+
+        long[] getSizes() {
+            long[] sizes = new long[mNodeCount];
+            for (int node = 0; node < mNodeCount; node++) {
+                sizes[node] = node + 1;
+            }
+            return sizes;
+        }
+
+        /** The retained sizes, except for the root, which is left as is. */
+        long[] getRetainedSizes() {
+            long[] sizes = getSizes();
+            long[] retainedSizes = getSizes();
+            for (int node = 1; node < mNodeCount; node++) {
+                if (mDominated[node][node]) {
+                    retainedSizes[node] = 0;
+                    for (int other = 0; other < mNodeCount; other++) {
+                        if (mDominated[node][other]) {
+                            retainedSizes[node] += sizes[other];
+                        }
+                    }
+                }
+            }
+            return retainedSizes;
+        }
+    }
+}
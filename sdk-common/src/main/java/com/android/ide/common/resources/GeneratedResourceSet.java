@@ -20,6 +20,7 @@ import com.android.annotations.NonNull;
 import com.android.ide.common.rendering.api.ResourceNamespace;
 import com.android.utils.ILogger;
 import java.io.File;
+import java.util.concurrent.ForkJoinPool;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
@@ -67,6 +68,11 @@ public class GeneratedResourceSet extends ResourceSet {
         // Do nothing, the original set will hand us the generated files.
     }
 
+    @Override
+    public void loadFromFiles(@NonNull ILogger logger, @NonNull ForkJoinPool forkJoinPool) {
+        // Do nothing, the original set will hand us the generated files.
+    }
+
     @Override
     public File findMatchingSourceFile(File file) {
         // Do nothing, the original set will hand us the generated files.
@@ -32,6 +32,7 @@ import com.android.resources.ResourceType;
 import com.android.utils.ILogger;
 import com.android.utils.SdkUtils;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -44,6 +45,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -277,16 +281,69 @@ public class ResourceSet extends DataSet<ResourceMergerItem, ResourceFile> {
                         .contains(ResourceFolderType.getFolderType(resourceFolder.getName()));
     }
 
+    /**
+     * Loads the set from the files its source folders contain, like {@link
+     * #loadFromFiles(ILogger)}, but parses the resource files using the given pool.
+     *
+     * <p>Only parsing is done in parallel. The parsed files are added to the set on the calling
+     * thread, in the same order as when loading sequentially, so the order of the items (and
+     * therefore the result of merging and the merging blame) does not depend on the pool.
+     *
+     * @param logger logs errors
+     * @param forkJoinPool the pool parsing the files
+     * @throws MergingException if something goes wrong
+     */
+    public void loadFromFiles(@NonNull ILogger logger, @NonNull ForkJoinPool forkJoinPool)
+            throws MergingException {
+        List<Message> errors = new ArrayList<>();
+        for (File file : getSourceFiles()) {
+            if (file.isDirectory()) {
+                try {
+                    readSourceFolder(file, logger, forkJoinPool);
+                } catch (MergingException e) {
+                    errors.addAll(e.getMessages());
+                }
+
+            } else if (file.isFile()) {
+                loadFile(file, file, logger);
+            }
+        }
+        MergingException.throwIfNonEmpty(errors);
+        checkItems();
+    }
+
     @Override
     protected void readSourceFolder(File sourceFolder, ILogger logger)
             throws MergingException {
+        readSourceFolder(sourceFolder, logger, null);
+    }
+
+    /**
+     * Reads the resource files of a source folder.
+     *
+     * @param sourceFolder the source folder
+     * @param logger logs errors
+     * @param forkJoinPool the pool parsing the files, or null to parse them on the calling thread
+     * @throws MergingException if something goes wrong
+     */
+    private void readSourceFolder(
+            @NonNull File sourceFolder,
+            @NonNull ILogger logger,
+            @Nullable ForkJoinPool forkJoinPool)
+            throws MergingException {
         List<Message> errors = Lists.newArrayList();
+        List<List<ForkJoinTask<ResourceFile>>> parsingFolders = new ArrayList<>();
         File[] folders = sourceFolder.listFiles();
         if (folders != null) {
             for (File folder : folders) {
                 if (folder.isDirectory() && isWhiteListed(folder) && !isIgnored(folder)) {
                     FolderData folderData = getFolderData(folder);
                     if (folderData != null) {
+                        if (forkJoinPool != null) {
+                            parsingFolders.add(
+                                    submitFolder(forkJoinPool, folder, folderData, logger));
+                            continue;
+                        }
                         try {
                             parseFolder(sourceFolder, folder, folderData, logger);
                         } catch (MergingException e) {
@@ -296,6 +353,17 @@ public class ResourceSet extends DataSet<ResourceMergerItem, ResourceFile> {
                 }
             }
         }
+
+        // add the files parsed in parallel in the order they would have been parsed sequentially
+        for (List<ForkJoinTask<ResourceFile>> parsingFolder : parsingFolders) {
+            try {
+                for (ForkJoinTask<ResourceFile> parsingFile : parsingFolder) {
+                    processNewResourceFile(sourceFolder, waitFor(parsingFile));
+                }
+            } catch (MergingException e) {
+                errors.addAll(e.getMessages());
+            }
+        }
         MergingException.throwIfNonEmpty(errors);
     }
 
@@ -488,6 +556,56 @@ public class ResourceSet extends DataSet<ResourceMergerItem, ResourceFile> {
         }
     }
 
+    /**
+     * Submits the parsing of the files of a resource folder to a pool. The files are not added to
+     * the set.
+     *
+     * @param forkJoinPool the pool parsing the files
+     * @param folder the folder to read.
+     * @param folderData the folder Data
+     * @param logger a logger object
+     * @return the tasks parsing the files, in the order {@link #parseFolder} would parse them
+     */
+    @NonNull
+    private List<ForkJoinTask<ResourceFile>> submitFolder(
+            @NonNull ForkJoinPool forkJoinPool,
+            @NonNull File folder,
+            @NonNull FolderData folderData,
+            @NonNull ILogger logger) {
+        List<ForkJoinTask<ResourceFile>> tasks = new ArrayList<>();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.isFile() || isIgnored(file)) {
+                    continue;
+                }
+
+                tasks.add(forkJoinPool.submit(() -> createResourceFile(file, folderData, logger)));
+            }
+        }
+        return tasks;
+    }
+
+    @Nullable
+    private static ResourceFile waitFor(@NonNull ForkJoinTask<ResourceFile> task)
+            throws MergingException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw MergingException.wrapException(e).build();
+        } catch (ExecutionException e) {
+            // ForkJoinTask may wrap the exception thrown by the task in a copy of it
+            for (Throwable cause : Throwables.getCausalChain(e)) {
+                if (cause instanceof MergingException) {
+                    throw (MergingException) cause;
+                }
+            }
+            Throwables.throwIfUnchecked(e.getCause());
+            throw MergingException.wrapException(e.getCause()).build();
+        }
+    }
+
     private void processNewResourceFile(File sourceFolder, ResourceFile resourceFile)
             throws MergingException {
         if (resourceFile != null) {
@@ -34,6 +34,8 @@ import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 import org.junit.Test;
 
 public class ResourceSetTest extends BaseTestCase {
@@ -129,6 +131,63 @@ public class ResourceSetTest extends BaseTestCase {
         assertThat(set.getDataMap().get("layout/main")).isNotEmpty();
     }
 
+    @Test
+    public void testLoadFromFilesInParallel() throws Exception {
+        File root = TestResources.getDirectory(getClass(), "/testData/resources/baseSet");
+        ResourceSet sequentialSet = getBaseResourceSet();
+
+        ResourceSet parallelSet = createResourceSet();
+        parallelSet.addSource(root);
+        RecordingLogger logger = new RecordingLogger();
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        try {
+            parallelSet.loadFromFiles(logger, forkJoinPool);
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        checkLogger(logger);
+        // items must be in the same order as when loading sequentially
+        assertThat(describeItems(parallelSet))
+                .containsExactlyElementsIn(describeItems(sequentialSet))
+                .inOrder();
+    }
+
+    @Test
+    public void testBrokenSetInParallel() throws Exception {
+        File root = TestResources.getDirectory(getClass(), "/testData/resources/brokenSet");
+
+        ResourceSet set = createResourceSet();
+        set.addSource(root);
+
+        boolean gotException = false;
+        RecordingLogger logger = new RecordingLogger();
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        try {
+            set.loadFromFiles(logger, forkJoinPool);
+        } catch (MergingException e) {
+            gotException = true;
+            assertEquals(
+                    new File(root, "values" + separator + "dimens.xml").getAbsolutePath()
+                            + ":1:1: Error: Content is not allowed in prolog.",
+                    e.getMessage());
+        } finally {
+            forkJoinPool.shutdown();
+        }
+
+        assertTrue("ResourceSet processing should have failed, but didn't", gotException);
+        assertFalse(logger.getErrorMsgs().isEmpty());
+    }
+
+    @NonNull
+    private static List<String> describeItems(@NonNull ResourceSet set) {
+        return set.getDataMap()
+                .entries()
+                .stream()
+                .map(e -> e.getKey() + "=" + e.getValue().getSourceFile().getFile())
+                .collect(Collectors.toList());
+    }
+
     @NonNull
     private static ResourceSet createResourceSet() {
         return new ResourceSet("main", ResourceNamespace.RES_AUTO, null, true);